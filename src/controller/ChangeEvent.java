@@ -0,0 +1,73 @@
+package controller;
+
+/**
+ * One change to a patient, appointment, prescription or referral, with
+ * the record as it was before and after.
+ *
+ * Records are replaced rather than edited in place, so the before image
+ * is the stored record that the write replaced. A caller that edited the
+ * stored record directly and passed the same object back will see that
+ * object as both images.
+ *
+ * @author Shubhamkumar Prahladbhai Patel
+ * @version 1.0
+ */
+public final class ChangeEvent<T> {
+    public enum Type { ADDED, UPDATED, DELETED }
+
+    private final Type type;
+    private final Class<T> entityType;
+    private final String id;
+    private final T before;
+    private final T after;
+    private final long version;
+
+    /**
+     * @param before Record before the change, or null if it was added
+     * @param after Record after the change, or null if it was deleted
+     * @param version Store version that includes the change
+     */
+    ChangeEvent(Class<T> entityType, String id, T before, T after, long version) {
+        this.type = before == null ? Type.ADDED : after == null ? Type.DELETED : Type.UPDATED;
+        this.entityType = entityType;
+        this.id = id;
+        this.before = before;
+        this.after = after;
+        this.version = version;
+    }
+
+    public Type getType() { return type; }
+    public Class<T> getEntityType() { return entityType; }
+    public String getId() { return id; }
+
+    /** The record before the change; null for an add. */
+    public T getBefore() { return before; }
+
+    /** The record after the change; null for a delete. */
+    public T getAfter() { return after; }
+
+    /**
+     * Version of the store that first includes this change, comparable
+     * with {@link DataSnapshot#getId()}: a snapshot sees the change if its
+     * ID is at least this.
+     */
+    public long getVersion() { return version; }
+
+    /**
+     * This change followed by a later one to the same record, as a single
+     * change from this one's before image to the later one's after image.
+     *
+     * @return The combined change, or null if they cancel out (added, then deleted)
+     */
+    ChangeEvent<T> then(ChangeEvent<T> later) {
+        if (before == null && later.after == null) {
+            return null;
+        }
+        return new ChangeEvent<>(entityType, id, before, later.after, later.version);
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + entityType.getSimpleName() + " " + id + " @" + version;
+    }
+}
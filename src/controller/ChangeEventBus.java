@@ -0,0 +1,230 @@
+package controller;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Delivers {@link ChangeEvent}s to subscribers after each add, update and
+ * delete.
+ *
+ * Each write publishes its events as one batch. A synchronous subscriber
+ * gets the batch on the writing thread before the write returns, while
+ * the collection is still locked, so it sees every change in order and
+ * must be quick and must not write back. An asynchronous subscriber gets
+ * its batches on a background thread; batches that pile up while it is
+ * busy are coalesced, one event per record from its first before image
+ * to its last after image, and a record added and deleted in between is
+ * left out entirely.
+ *
+ * With nobody subscribed, publishing reads one volatile field and returns:
+ * writers take no lock and build no events.
+ *
+ * @author Shubhamkumar Prahladbhai Patel
+ * @version 1.0
+ */
+public class ChangeEventBus {
+    public enum Delivery { SYNC, ASYNC }
+
+    /**
+     * Receives batches of changes. Events within a batch are in write order.
+     */
+    public interface Listener {
+        void onChanges(List<ChangeEvent<?>> events);
+    }
+
+    private final List<Subscription> subscribers = new CopyOnWriteArrayList<>();
+    private ExecutorService executor;
+
+    /**
+     * Registers a listener.
+     *
+     * @param delivery SYNC to be called on the writing thread, ASYNC on the
+     *        background delivery thread
+     * @return Handle for cancelling the subscription
+     */
+    public Subscription subscribe(Listener listener, Delivery delivery) {
+        if (listener == null || delivery == null) {
+            throw new IllegalArgumentException("Listener and delivery are required");
+        }
+        Subscription subscription = new Subscription(listener, delivery);
+        if (delivery == Delivery.ASYNC) {
+            subscription.executor = executor();
+        }
+        subscribers.add(subscription);
+        return subscription;
+    }
+
+    /**
+     * True if anyone is subscribed. Writers check this before building
+     * events, so an unwatched store pays nothing for the bus.
+     */
+    public boolean hasSubscribers() {
+        return !subscribers.isEmpty();
+    }
+
+    /**
+     * Publishes one write, worked out from the record before and after.
+     * An update that changes the record's ID is published as a delete of
+     * the old ID and an add of the new one.
+     *
+     * @param before Record before the write, or null for an add
+     * @param after Record after the write, or null for a delete
+     * @param key Record ID function
+     * @param version Store version that includes the write
+     */
+    <T> void publish(Class<T> entityType, String id, T before, T after,
+                     Function<T, String> key, long version) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        String newId = after == null ? id : key.apply(after);
+        if (before != null && after != null && !newId.equals(id)) {
+            publish(Arrays.asList(
+                new ChangeEvent<>(entityType, id, before, null, version),
+                new ChangeEvent<>(entityType, newId, null, after, version)));
+        } else {
+            publish(Collections.singletonList(new ChangeEvent<>(entityType, newId, before, after, version)));
+        }
+    }
+
+    /**
+     * Publishes the events of one write as a batch.
+     */
+    void publish(List<ChangeEvent<?>> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        for (Subscription subscription : subscribers) {
+            subscription.offer(batch);
+        }
+    }
+
+    /**
+     * Stops the delivery thread. Asynchronous events not yet delivered are
+     * dropped.
+     */
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private synchronized ExecutorService executor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "change-events");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Combines a run of events into one per record, in the order each
+     * record first appears.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static List<ChangeEvent<?>> coalesce(List<ChangeEvent<?>> events) {
+        Map<String, ChangeEvent> byRecord = new LinkedHashMap<>();
+        for (ChangeEvent event : events) {
+            String key = event.getEntityType().getName() + "\n" + event.getId();
+            ChangeEvent earlier = byRecord.get(key);
+            if (earlier == null) {
+                byRecord.put(key, event);
+                continue;
+            }
+            ChangeEvent combined = earlier.then(event);
+            if (combined == null) {
+                byRecord.remove(key);
+            } else {
+                byRecord.put(key, combined);
+            }
+        }
+        return new ArrayList<>((Collection) byRecord.values());
+    }
+
+    /**
+     * A registered listener. Cancelling stops delivery, including any
+     * asynchronous events still queued.
+     */
+    public final class Subscription implements AutoCloseable {
+        private final Listener listener;
+        private final Delivery delivery;
+        private final Queue<ChangeEvent<?>> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile boolean cancelled;
+        private Executor executor;
+
+        private Subscription(Listener listener, Delivery delivery) {
+            this.listener = listener;
+            this.delivery = delivery;
+        }
+
+        public Delivery getDelivery() { return delivery; }
+
+        public boolean isCancelled() { return cancelled; }
+
+        public void cancel() {
+            cancelled = true;
+            subscribers.remove(this);
+            queue.clear();
+        }
+
+        @Override
+        public void close() {
+            cancel();
+        }
+
+        private void offer(List<ChangeEvent<?>> batch) {
+            if (delivery == Delivery.SYNC) {
+                deliver(batch);
+                return;
+            }
+            queue.addAll(batch);
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    // Bus shut down
+                    queue.clear();
+                }
+            }
+        }
+
+        /**
+         * Delivers everything queued, as one coalesced batch per pass, until
+         * the queue stays empty.
+         */
+        private void drain() {
+            do {
+                List<ChangeEvent<?>> pending = new ArrayList<>();
+                ChangeEvent<?> event;
+                while ((event = queue.poll()) != null) {
+                    pending.add(event);
+                }
+                List<ChangeEvent<?>> batch = coalesce(pending);
+                if (!batch.isEmpty()) {
+                    deliver(batch);
+                }
+                scheduled.set(false);
+                // An offer between the last poll and clearing the flag saw
+                // the flag set and did not schedule: pick it up here
+            } while (!queue.isEmpty() && scheduled.compareAndSet(false, true));
+        }
+
+        private void deliver(List<ChangeEvent<?>> batch) {
+            if (cancelled) {
+                return;
+            }
+            try {
+                listener.onChanges(Collections.unmodifiableList(batch));
+            } catch (RuntimeException e) {
+                System.err.println("Change listener failed: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package controller;
+
+import java.util.*;
+
+/**
+ * Tracks unsaved changes to one entity collection.
+ * Records added since the last save can be written as a pure append; any
+ * update or delete of a record already on disk forces a full rewrite.
+ *
+ * @author Shubhamkumar Prahladbhai Patel
+ * @version 1.0
+ */
+public class ChangeTracker<T> {
+    private Map<String, T> appended;
+    private boolean rewriteNeeded;
+
+    public ChangeTracker() {
+        this.appended = new LinkedHashMap<>();
+        this.rewriteNeeded = false;
+    }
+
+    /**
+     * Records a newly added item.
+     *
+     * @param id Primary key of the item
+     * @param item The added item
+     */
+    public synchronized void recordAdd(String id, T item) {
+        appended.put(id, item);
+    }
+
+    /**
+     * Records a change to an existing item.
+     * Changes to an item that has not been saved yet are folded into its append.
+     *
+     * @param id Primary key of the item
+     * @param item The item's current state
+     */
+    public synchronized void recordUpdate(String id, T item) {
+        if (appended.containsKey(id)) {
+            appended.put(id, item);
+        } else {
+            rewriteNeeded = true;
+        }
+    }
+
+    /**
+     * Records a deleted item.
+     *
+     * @param id Primary key of the item
+     */
+    public synchronized void recordDelete(String id) {
+        if (appended.remove(id) == null) {
+            rewriteNeeded = true;
+        }
+    }
+
+    /**
+     * Forces the next save to rewrite the whole file.
+     */
+    public synchronized void markRewrite() {
+        rewriteNeeded = true;
+    }
+
+    /**
+     * Discards all pending changes, e.g. after a reload.
+     */
+    public synchronized void clear() {
+        appended.clear();
+        rewriteNeeded = false;
+    }
+
+    public synchronized boolean isDirty() {
+        return rewriteNeeded || !appended.isEmpty();
+    }
+
+    public synchronized boolean isRewriteNeeded() {
+        return rewriteNeeded;
+    }
+
+    /**
+     * Returns the items waiting to be appended and resets the tracker.
+     * Callers check {@link #isRewriteNeeded()} first.
+     *
+     * @return Items added since the last save, in insertion order
+     */
+    public synchronized List<T> drain() {
+        List<T> pending = new ArrayList<>(appended.values());
+        clear();
+        return pending;
+    }
+}
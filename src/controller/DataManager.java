@@ -2,7 +2,18 @@ package controller;
 
 import model.*;
 import util.CSVHandler;
+import util.IdAllocator;
+import util.MutationJournal;
+import util.NameIndex;
+import util.PostcodeTrie;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 /**
  * DataManager - Central data management (Model in MVC).
@@ -12,149 +23,919 @@ import java.util.*;
  * @version 1.0
  */
 public class DataManager {
-    private List<Patient> patients;
-    private List<Appointment> appointments;
-    private List<Prescription> prescriptions;
+    // Entity names used in the mutation journal
+    static final String PATIENT = "PATIENT";
+    static final String APPOINTMENT = "APPOINTMENT";
+    static final String PRESCRIPTION = "PRESCRIPTION";
+    static final String REFERRAL = "REFERRAL";
+    
+    // How often the background compactor folds the journal into the CSV files
+    private static final long COMPACT_INTERVAL_SECONDS =
+        Long.getLong("hms.compact.intervalSec", 60);
+    
+    // Secondary index names for the reference repositories and entity stores.
+    // Entity store indexes are named after the field they cover, so queries
+    // on that field can use them. An index keyed by anything other than the
+    // plain field value must not share the field's name.
+    private static final String BY_WORKPLACE = "workplace";
+    private static final String BY_SPECIALITY = "speciality";
+    private static final String BY_FACILITY = "facilityId";
+    private static final String BY_PATIENT = "patientId";
+    private static final String BY_CLINICIAN = "clinicianId";
+    private static final String BY_DATE = "appointmentDate";
+    // Keyed by the NHS number without spaces, so not the nhsNumber field
+    private static final String BY_NHS_NUMBER = "normalisedNhsNumber";
+    private static final String BY_TEXT = "text";
+    private static final String BY_NAME = "name";
+    private static final String BY_POSTCODE = "postcode";
+    
+    // Order of day lists
+    private static final Comparator<Appointment> BY_DATE_AND_TIME =
+        Comparator.comparing((Appointment a) -> a.getAppointmentDate().trim())
+                  .thenComparing(a -> a.getAppointmentTime().trim());
+    
+    // Prefixes of generated IDs
+    private static final String PATIENT_PREFIX = "P";
+    private static final String APPOINTMENT_PREFIX = "A";
+    private static final String PRESCRIPTION_PREFIX = "RX";
+    
+    // Closed records older than this many days move to the archive at start-up (0 = never)
+    private static final int ARCHIVE_AFTER_DAYS = Integer.getInteger("hms.archive.afterDays", 0);
+    
+    // Each collection is indexed by primary key for O(1) lookups. Reads are
+    // lock-free; writes to one collection lock only that store's monitor, so
+    // the journal and change tracker see its changes in the same order.
+    private final EntityStore<Patient> patients;
+    private final EntityStore<Appointment> appointments;
+    private final EntityStore<Prescription> prescriptions;
     private CSVHandler csvHandler;
     private ReferralManager referralManager;
     
+    // Read-only reference data with hash indexes
+    private ReferenceRepository<Clinician> clinicians;
+    private ReferenceRepository<Facility> facilities;
+    private ReferenceRepository<Staff> staff;
+    
+    // Unsaved changes per collection, so a save only touches files that changed
+    private ChangeTracker<Patient> patientChanges;
+    private ChangeTracker<Appointment> appointmentChanges;
+    private ChangeTracker<Prescription> prescriptionChanges;
+    
+    private MutationJournal journal;
+    private IdAllocator ids;
+    private ScheduledExecutorService compactor;
+    private final Object checkpointLock = new Object();
+    private final DataSnapshot.SnapshotRegistry snapshots = new DataSnapshot.SnapshotRegistry();
+    private final ChangeEventBus events = new ChangeEventBus();
+    
     public DataManager(String dataDirectory) {
         this.csvHandler = new CSVHandler(dataDirectory);
-        this.patients = new ArrayList<>();
-        this.appointments = new ArrayList<>();
-        this.prescriptions = new ArrayList<>();
+        this.patients = new EntityStore<>(Patient::getUserId);
+        this.patients.addUniqueIndex(BY_NHS_NUMBER, p -> normaliseNhsNumber(p.getNhsNumber()));
+        this.patients.addSearchIndex(BY_NAME, new NameIndex(), Arrays.asList(Patient::getFirstName,
+                                                                             Patient::getLastName,
+                                                                             Patient::getDateOfBirth));
+        this.patients.addSearchIndex(BY_POSTCODE, new PostcodeTrie(),
+                                     Collections.singletonList(Patient::getPostcode));
+        this.appointments = new EntityStore<>(Appointment::getAppointmentId);
+        this.appointments.addIndex(BY_PATIENT, Appointment::getPatientId);
+        this.appointments.addIndex(BY_CLINICIAN, Appointment::getClinicianId);
+        this.appointments.addIndex(BY_FACILITY, Appointment::getFacilityId);
+        this.appointments.addSortedIndex(BY_DATE, Appointment::getAppointmentDate);
+        this.appointments.addTextIndex(BY_TEXT, Arrays.asList(Appointment::getReasonForVisit,
+                                                              Appointment::getNotes));
+        this.prescriptions = new EntityStore<>(Prescription::getPrescriptionId);
+        this.prescriptions.addIndex(BY_PATIENT, Prescription::getPatientId);
+        this.patientChanges = new ChangeTracker<>();
+        this.appointmentChanges = new ChangeTracker<>();
+        this.prescriptionChanges = new ChangeTracker<>();
         this.referralManager = ReferralManager.getInstance();
+        try {
+            this.journal = new MutationJournal(Paths.get(dataDirectory, "journal.log"));
+        } catch (IOException e) {
+            System.err.println("Error opening journal, changes will only be saved on request: " +
+                             e.getMessage());
+        }
+        referralManager.setJournal(journal);
+        this.ids = new IdAllocator(Paths.get(dataDirectory, "ids.lease"));
+        referralManager.setIdAllocator(ids);
+        referralManager.setEventBus(events);
         loadAllData();
+        if (ARCHIVE_AFTER_DAYS > 0) {
+            archiveHistory(ARCHIVE_AFTER_DAYS);
+        }
+        startCompactor();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "data-shutdown"));
     }
     
     /**
      * Loads all data from CSV files.
+     * The entity files are independent, so they are read concurrently and
+     * start-up time is bounded by the largest file rather than the sum.
      */
     public void loadAllData() {
         System.out.println("Loading data...");
-        patients = csvHandler.loadPatients();
-        appointments = csvHandler.loadAppointments();
-        prescriptions = csvHandler.loadPrescriptions();
-        
-        List<Referral> loadedReferrals = csvHandler.loadReferrals();
-        for (Referral r : loadedReferrals) {
-            referralManager.addReferral(r);
+        long start = System.nanoTime();
+        ExecutorService loaders = Executors.newFixedThreadPool(4, r -> {
+            Thread t = new Thread(r, "data-loader");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            CompletableFuture<List<Patient>> loadingPatients =
+                timedLoad("patients.csv", csvHandler::loadPatients, loaders);
+            CompletableFuture<List<Appointment>> loadingAppointments =
+                timedLoad("appointments.csv", csvHandler::loadAppointments, loaders);
+            CompletableFuture<List<Prescription>> loadingPrescriptions =
+                timedLoad("prescriptions.csv", csvHandler::loadPrescriptions, loaders);
+            CompletableFuture<List<Referral>> loadingReferrals =
+                timedLoad("referrals.csv", csvHandler::loadReferrals, loaders);
+            CompletableFuture<List<Clinician>> loadingClinicians =
+                timedLoad("clinicians.csv", csvHandler::loadClinicians, loaders);
+            CompletableFuture<List<Facility>> loadingFacilities =
+                timedLoad("facilities.csv", csvHandler::loadFacilities, loaders);
+            CompletableFuture<List<Staff>> loadingStaff =
+                timedLoad("staff.csv", csvHandler::loadStaff, loaders);
+            
+            patients.loadAll(loadingPatients.join());
+            appointments.loadAll(loadingAppointments.join());
+            prescriptions.loadAll(loadingPrescriptions.join());
+            // Wire up referrals only once every file has landed
+            referralManager.loadReferrals(loadingReferrals.join());
+            patientChanges.clear();
+            appointmentChanges.clear();
+            prescriptionChanges.clear();
+            buildReferenceData(loadingClinicians.join(), loadingFacilities.join(), loadingStaff.join());
+        } finally {
+            loaders.shutdown();
         }
+        replayJournal();
+        seedIds();
         
         System.out.println("Loaded: " + patients.size() + " patients, " +
                          appointments.size() + " appointments, " +
                          prescriptions.size() + " prescriptions, " +
-                         referralManager.getReferralCount() + " referrals");
+                         referralManager.getReferralCount() + " referrals, " +
+                         clinicians.size() + " clinicians, " + facilities.size() + " facilities, " +
+                         staff.size() + " staff in " +
+                         (System.nanoTime() - start) / 1_000_000 + " ms");
+        long shared = csvHandler.getDictionaryBytesSaved();
+        if (shared > 0) {
+            System.out.println("Column dictionaries saved ~" + shared / 1024 + " KB of duplicate strings");
+        }
+    }
+    
+    /**
+     * Indexes the reference files. Clinicians are indexed by workplace and
+     * speciality, facilities by each speciality they offer and by postcode,
+     * and staff by facility.
+     */
+    private void buildReferenceData(List<Clinician> loadedClinicians, List<Facility> loadedFacilities,
+                                    List<Staff> loadedStaff) {
+        facilities = new ReferenceRepository<>(loadedFacilities, Facility::getFacilityId);
+        facilities.addMultiIndex(BY_SPECIALITY, Facility::getSpecialitiesOffered);
+        facilities.addSearchIndex(BY_POSTCODE, new PostcodeTrie(),
+                                  Collections.singletonList(Facility::getPostcode));
+        
+        clinicians = new ReferenceRepository<>(loadedClinicians, Clinician::getClinicianId);
+        clinicians.addIndex(BY_WORKPLACE, Clinician::getWorkplaceId);
+        clinicians.addIndex(BY_SPECIALITY, Clinician::getSpecialty);
+        for (Clinician c : clinicians.getAll()) {
+            Facility workplace = facilities.findById(c.getWorkplaceId());
+            if (c instanceof GP && workplace != null) {
+                ((GP) c).setClinicAddress(workplace.getAddress());
+            }
+        }
+        
+        staff = new ReferenceRepository<>(loadedStaff, Staff::getStaffId);
+        staff.addIndex(BY_FACILITY, Staff::getFacilityId);
+    }
+    
+    /**
+     * Seeds the ID sequences from the loaded records, the only time IDs
+     * are scanned. The seeds are recorded in the lease file, so IDs of
+     * records archived later stay reserved after a restart.
+     */
+    private void seedIds() {
+        List<String> referralIds = new ArrayList<>();
+        for (Referral r : referralManager.getAllReferrals()) referralIds.add(r.getReferralId());
+        ids.seed(PATIENT_PREFIX, patients.ids());
+        ids.seed(APPOINTMENT_PREFIX, appointments.ids());
+        ids.seed(PRESCRIPTION_PREFIX, prescriptions.ids());
+        ids.seed(ReferralManager.ID_PREFIX, referralIds);
+    }
+    
+    /**
+     * Runs one file load on the given executor and reports how long it took.
+     */
+    private <T> CompletableFuture<List<T>> timedLoad(String fileName, Supplier<List<T>> load,
+                                                     Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            long start = System.nanoTime();
+            List<T> rows = load.get();
+            System.out.println("  " + fileName + ": " + rows.size() + " rows in " +
+                             (System.nanoTime() - start) / 1_000_000 + " ms");
+            return rows;
+        }, executor);
+    }
+    
+    /**
+     * Re-applies journaled mutations that were not yet folded into the CSV
+     * files. Every entry is applied as an upsert or delete by ID, so replaying
+     * an entry that already reached the CSV is harmless.
+     */
+    private void replayJournal() {
+        if (journal == null) {
+            return;
+        }
+        try {
+            int count = journal.replay((op, entity, id, row) -> {
+                switch (entity) {
+                    case PATIENT:
+                        replay(patients, patientChanges, op, id, csvHandler.parsePatient(row));
+                        break;
+                    case APPOINTMENT:
+                        replay(appointments, appointmentChanges, op, id,
+                               csvHandler.parseAppointment(row));
+                        break;
+                    case PRESCRIPTION:
+                        replay(prescriptions, prescriptionChanges, op, id,
+                               csvHandler.parsePrescription(row));
+                        break;
+                    case REFERRAL:
+                        referralManager.replay(op, id, csvHandler.parseReferral(row));
+                        break;
+                    default:
+                        System.err.println("Journal: unknown entity " + entity);
+                }
+            });
+            if (count > 0) {
+                System.out.println("Replayed " + count + " journal entries");
+            }
+        } catch (IOException e) {
+            System.err.println("Error replaying journal: " + e.getMessage());
+        }
+    }
+    
+    private <T> void replay(EntityStore<T> store, ChangeTracker<T> tracker,
+                            String op, String id, T record) {
+        synchronized (store) {
+            if (MutationJournal.DELETE.equals(op)) {
+                if (store.remove(id) != null) {
+                    tracker.recordDelete(id);
+                }
+            } else if (record != null) {
+                if (store.update(id, record)) {
+                    tracker.recordUpdate(id, record);
+                } else if (store.add(record)) {
+                    tracker.recordAdd(id, record);
+                }
+            }
+        }
+    }
+    
+    private void journal(String op, String entity, String id, String csvRow) {
+        if (journal != null) {
+            journal.append(op, entity, id, csvRow);
+        }
+    }
+    
+    /**
+     * Publishes a write to change subscribers. Called under the store's
+     * monitor, so events come out in the order the writes were made.
+     */
+    private <T> void publish(Class<T> type, EntityStore<T> store, String id, T before, T after,
+                             Function<T, String> key) {
+        if (events.hasSubscribers()) {
+            events.publish(type, id, before, after, key, store.version());
+        }
+    }
+    
+    /**
+     * Subscribes to every add, update and delete of patients, appointments,
+     * prescriptions and referrals. Loading and journal replay at start-up
+     * publish nothing.
+     * 
+     * @param listener Receives batches of changes
+     * @param delivery SYNC to run on the writing thread before the write
+     *        returns; ASYNC to run on a background thread, with changes
+     *        that queue up coalesced per record
+     * @return Handle to cancel the subscription with
+     */
+    public ChangeEventBus.Subscription subscribe(ChangeEventBus.Listener listener,
+                                                 ChangeEventBus.Delivery delivery) {
+        return events.subscribe(listener, delivery);
+    }
+    
+    /**
+     * Blocks until every change made so far is durable in the journal.
+     * 
+     * @return false if the journal could not write them
+     */
+    public boolean syncJournal() {
+        return journal == null || journal.sync();
+    }
+    
+    private void startCompactor() {
+        compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "journal-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        compactor.scheduleWithFixedDelay(() -> {
+            if (journal != null && journal.size() > 0) {
+                saveAllData();
+            }
+        }, COMPACT_INTERVAL_SECONDS, COMPACT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+    
+    /**
+     * Stops the compactor and change delivery, and flushes the journal.
+     */
+    public void close() {
+        if (compactor != null) {
+            compactor.shutdownNow();
+        }
+        events.shutdown();
+        if (journal != null) {
+            journal.close();
+        }
     }
     
     /**
-     * Saves all data to CSV files.
+     * Saves all pending changes to CSV files (a checkpoint).
+     * Only files with changes are written: new records are appended, and a
+     * file is rewritten in full only after an update or delete. The journal
+     * is rotated at the same moment the pending changes are captured, and
+     * the rotated part is discarded only once every file was written.
      */
     public boolean saveAllData() {
-        boolean success = true;
-        success &= csvHandler.savePatients(patients);
-        success &= csvHandler.saveAppointments(appointments);
-        success &= csvHandler.savePrescriptions(prescriptions);
-        success &= csvHandler.saveReferrals(referralManager.getAllReferrals());
-        return success;
+        synchronized (checkpointLock) {
+            PendingSave<Patient> patientSave;
+            PendingSave<Appointment> appointmentSave;
+            PendingSave<Prescription> prescriptionSave;
+            PendingSave<Referral> referralSave;
+            CompletableFuture<Void> rotation = null;
+            
+            // Hold off writers to every collection (always in this order)
+            // so the rotation and the captured changes are one consistent cut.
+            // Only the cut is made here; the journal writer moves the files
+            synchronized (patients) {
+                synchronized (appointments) {
+                    synchronized (prescriptions) {
+                        synchronized (referralManager) {
+                            if (journal != null) {
+                                rotation = journal.rotate();
+                            }
+                            patientSave = new PendingSave<>(patientChanges, patients::snapshot);
+                            appointmentSave = new PendingSave<>(appointmentChanges, appointments::snapshot);
+                            prescriptionSave = new PendingSave<>(prescriptionChanges, prescriptions::snapshot);
+                            referralSave = new PendingSave<>(referralManager.getChangeTracker(),
+                                                             referralManager::getAllReferrals);
+                        }
+                    }
+                }
+            }
+            
+            boolean success = true;
+            success &= patientSave.write(csvHandler::savePatients, csvHandler::appendPatients);
+            success &= appointmentSave.write(csvHandler::saveAppointments, csvHandler::appendAppointments);
+            success &= prescriptionSave.write(csvHandler::savePrescriptions, csvHandler::appendPrescriptions);
+            success &= referralSave.write(csvHandler::saveReferrals, csvHandler::appendReferrals);
+            
+            boolean rotated = false;
+            if (rotation != null) {
+                try {
+                    rotation.join();
+                    rotated = true;
+                } catch (CompletionException e) {
+                    System.err.println("Error rotating journal: " + e.getCause().getMessage());
+                }
+            }
+            if (success && rotated) {
+                try {
+                    journal.discardRotated();
+                } catch (IOException e) {
+                    System.err.println("Error discarding journal: " + e.getMessage());
+                }
+            }
+            return success;
+        }
+    }
+    
+    /**
+     * One collection's pending changes, captured while the data is locked.
+     * A failed write marks the collection for a full rewrite next time.
+     */
+    private static class PendingSave<T> {
+        private final ChangeTracker<T> tracker;
+        private final boolean rewrite;
+        private final List<T> rows;
+        
+        PendingSave(ChangeTracker<T> tracker, Supplier<List<T>> all) {
+            this.tracker = tracker;
+            synchronized (tracker) {
+                this.rewrite = tracker.isRewriteNeeded();
+                List<T> appended = tracker.drain();
+                this.rows = rewrite ? all.get() : appended;
+            }
+        }
+        
+        boolean write(Predicate<List<T>> save, Predicate<List<T>> append) {
+            boolean ok = true;
+            if (rewrite) {
+                ok = save.test(rows);
+            } else if (!rows.isEmpty()) {
+                ok = append.test(rows);
+            }
+            if (!ok) {
+                tracker.markRewrite();
+            }
+            return ok;
+        }
+    }
+    
+    /**
+     * Moves closed records older than the given age out of the live data
+     * and into the compressed archive: completed or cancelled appointments,
+     * collected prescriptions, and completed, closed or rejected referrals.
+     * Records only leave the hot set once their archive segment is on disk,
+     * and the removals are journaled like deletes.
+     * 
+     * @param maxAgeDays Records dated more than this many days ago are archived
+     * @return Number of records archived
+     */
+    public int archiveHistory(int maxAgeDays) {
+        LocalDate cutoff = LocalDate.now().minusDays(maxAgeDays);
+        int archived = 0;
+        synchronized (checkpointLock) {
+            synchronized (appointments) {
+                archived += archive(appointments, appointmentChanges, APPOINTMENT, Appointment.class,
+                    Appointment::getAppointmentId,
+                    a -> isArchivable(a.getStatus(), a.getAppointmentDate(), cutoff, "Completed", "Cancelled"),
+                    csvHandler::archiveAppointments);
+            }
+            synchronized (prescriptions) {
+                archived += archive(prescriptions, prescriptionChanges, PRESCRIPTION, Prescription.class,
+                    Prescription::getPrescriptionId,
+                    p -> isArchivable(p.getStatus(), p.getPrescriptionDate(), cutoff, "Collected"),
+                    csvHandler::archivePrescriptions);
+            }
+            synchronized (referralManager) {
+                List<Referral> oldReferrals = new ArrayList<>();
+                for (Referral r : referralManager.getAllReferrals()) {
+                    if (isArchivable(r.getStatus(), r.getReferralDate(), cutoff,
+                                     "Completed", "Closed", "Rejected")) {
+                        oldReferrals.add(r);
+                    }
+                }
+                if (!oldReferrals.isEmpty() && csvHandler.archiveReferrals(oldReferrals)) {
+                    Set<String> ids = new HashSet<>();
+                    for (Referral r : oldReferrals) ids.add(r.getReferralId());
+                    archived += referralManager.removeArchived(ids);
+                }
+            }
+        }
+        if (archived > 0) {
+            if (!syncJournal()) {
+                System.err.println("Archive removals are not journaled; the next checkpoint will record them");
+            }
+            System.out.println("Archived " + archived + " records older than " + cutoff);
+        }
+        return archived;
+    }
+    
+    private <T> int archive(EntityStore<T> store, ChangeTracker<T> tracker, String entity,
+                            Class<T> type, Function<T, String> key,
+                            Predicate<T> archivable, Predicate<List<T>> writeArchive) {
+        List<T> old = new ArrayList<>();
+        for (T item : store.snapshot()) {
+            if (archivable.test(item)) old.add(item);
+        }
+        if (old.isEmpty() || !writeArchive.test(old)) {
+            return 0;
+        }
+        Set<T> written = Collections.newSetFromMap(new IdentityHashMap<>());
+        written.addAll(old);
+        for (String id : store.removeIf(written::contains)) {
+            tracker.recordDelete(id);
+            journal(MutationJournal.DELETE, entity, id, "");
+        }
+        if (events.hasSubscribers()) {
+            List<ChangeEvent<?>> batch = new ArrayList<>(old.size());
+            for (T item : old) {
+                batch.add(new ChangeEvent<>(type, key.apply(item), item, null, store.version()));
+            }
+            events.publish(batch);
+        }
+        return old.size();
+    }
+    
+    private static boolean isArchivable(String status, String date, LocalDate cutoff,
+                                        String... closedStatuses) {
+        LocalDate day = CSVHandler.parseDate(date);
+        return day != null && day.isBefore(cutoff) && Arrays.asList(closedStatuses).contains(status);
+    }
+    
+    /**
+     * Opens a consistent view of all patients, appointments, prescriptions
+     * and referrals for a long read such as a report. Costs O(1); edits
+     * carry on at full speed while it is open and never show up in it.
+     * Close it when done.
+     * 
+     * @return The pinned snapshot
+     */
+    public DataSnapshot openSnapshot() {
+        DataSnapshot snapshot;
+        // Writers publish under their collection's monitor, so holding all
+        // of them for a moment gives one cut across every collection
+        synchronized (patients) {
+            synchronized (appointments) {
+                synchronized (prescriptions) {
+                    synchronized (referralManager) {
+                        long id = Math.max(Math.max(patients.version(), appointments.version()),
+                                           Math.max(prescriptions.version(), referralManager.getVersion()));
+                        snapshot = new DataSnapshot(id, snapshots, patients.snapshot(),
+                            appointments.snapshot(), prescriptions.snapshot(),
+                            referralManager.getAllReferrals());
+                    }
+                }
+            }
+        }
+        snapshots.register(snapshot);
+        return snapshot;
+    }
+    
+    /** Number of snapshots opened and not yet closed. */
+    public int getOpenSnapshotCount() { return snapshots.count(); }
+    
+    /** ID of the oldest snapshot still open, or -1 if none is. */
+    public long getOldestSnapshotId() { return snapshots.oldestId(); }
+    
+    // Keyset-paginated listings in ID order; see Page
+    public Page<Patient> listPatients(String cursor, int pageSize) {
+        return page("patients", patients, Patient::getUserId, cursor, pageSize);
+    }
+    
+    public Page<Appointment> listAppointments(String cursor, int pageSize) {
+        return page("appointments", appointments, Appointment::getAppointmentId, cursor, pageSize);
+    }
+    
+    public Page<Prescription> listPrescriptions(String cursor, int pageSize) {
+        return page("prescriptions", prescriptions, Prescription::getPrescriptionId, cursor, pageSize);
+    }
+    
+    public Page<Referral> listReferrals(String cursor, int pageSize) {
+        return page("referrals", referralManager.getStore(), Referral::getReferralId, cursor, pageSize);
+    }
+    
+    /**
+     * Reads one page plus one record, to learn whether another page follows.
+     * 
+     * @throws IllegalArgumentException If the cursor is not from this listing
+     */
+    private <T> Page<T> page(String listing, EntityStore<T> store, Function<T, String> id,
+                             String cursor, int pageSize) {
+        int size = Page.clamp(pageSize);
+        List<T> fetched = store.page(Page.decode(listing, cursor), size + 1);
+        return Page.of(listing, fetched, size, id);
+    }
+    
+    // Ad-hoc queries over the live data; see Query for the planner
+    public Query<Patient> queryPatients() {
+        return new Query<>("patients", patients, QueryFields.PATIENT);
+    }
+    
+    public Query<Appointment> queryAppointments() {
+        return new Query<>("appointments", appointments, QueryFields.APPOINTMENT);
+    }
+    
+    public Query<Prescription> queryPrescriptions() {
+        return new Query<>("prescriptions", prescriptions, QueryFields.PRESCRIPTION);
+    }
+    
+    public Query<Referral> queryReferrals() {
+        return new Query<>("referrals", referralManager.getStore(), QueryFields.REFERRAL);
+    }
+    
+    // History queries: the hot set plus the archive. Only these methods read
+    // archived records; getAll* and the finders below see the hot set alone.
+    
+    /**
+     * Finds appointments, including archived ones, dated within a range.
+     * 
+     * @param from First appointment date, or null for no lower bound
+     * @param to Last appointment date, or null for no upper bound
+     * @param filter Keeps matching appointments; null keeps everything
+     */
+    public List<Appointment> findAppointmentsWithHistory(LocalDate from, LocalDate to,
+                                                         Predicate<? super Appointment> filter) {
+        return withHistory(getAllAppointments(), csvHandler.scanAppointmentArchive(from, to, filter),
+            Appointment::getAppointmentId, Appointment::getAppointmentDate, from, to, filter);
+    }
+    
+    public List<Prescription> findPrescriptionsWithHistory(LocalDate from, LocalDate to,
+                                                           Predicate<? super Prescription> filter) {
+        return withHistory(getAllPrescriptions(), csvHandler.scanPrescriptionArchive(from, to, filter),
+            Prescription::getPrescriptionId, Prescription::getPrescriptionDate, from, to, filter);
+    }
+    
+    public List<Referral> findReferralsWithHistory(LocalDate from, LocalDate to,
+                                                   Predicate<? super Referral> filter) {
+        return withHistory(getAllReferrals(), csvHandler.scanReferralArchive(from, to, filter),
+            Referral::getReferralId, Referral::getReferralDate, from, to, filter);
+    }
+    
+    /**
+     * Merges matching hot records with archived ones. If a record is in both
+     * (an archive run interrupted before its removal was journaled), the hot
+     * copy wins.
+     */
+    private <T> List<T> withHistory(List<T> hot, List<T> archived, Function<T, String> key,
+                                    Function<T, String> date, LocalDate from, LocalDate to,
+                                    Predicate<? super T> filter) {
+        List<T> result = new ArrayList<>();
+        Set<String> hotIds = new HashSet<>();
+        for (T item : hot) {
+            hotIds.add(key.apply(item));
+            LocalDate day = CSVHandler.parseDate(date.apply(item));
+            boolean inRange = day == null ? from == null && to == null
+                : (from == null || !day.isBefore(from)) && (to == null || !day.isAfter(to));
+            if (inRange && (filter == null || filter.test(item))) {
+                result.add(item);
+            }
+        }
+        for (T item : archived) {
+            if (!hotIds.contains(key.apply(item))) {
+                result.add(item);
+            }
+        }
+        return result;
     }
     
     // Patient operations
-    public List<Patient> getAllPatients() { return new ArrayList<>(patients); }
+    public List<Patient> getAllPatients() { return patients.snapshot(); }
+    
+    public Patient findPatientById(String id) { return patients.get(id); }
+    
+    /**
+     * Finds a patient by NHS number. Spaces are ignored, so "485 777 3456"
+     * and "4857773456" find the same patient.
+     * 
+     * @return The patient, or null if not found
+     */
+    public Patient findPatientByNhsNumber(String nhsNumber) {
+        return patients.findUnique(BY_NHS_NUMBER, normaliseNhsNumber(nhsNumber));
+    }
+    
+    /**
+     * Finds patients by name, tolerating misspellings: "jonson" finds
+     * Johnson. A date of birth in the query (yyyy-mm-dd or dd/mm/yyyy)
+     * ranks patients born that day first.
+     * 
+     * @param query Names in any order, optionally with a date of birth
+     * @param limit Maximum number of patients to return
+     * @return Closest matches first
+     */
+    public List<Patient> searchPatientsByName(String query, int limit) {
+        return patients.search(BY_NAME, query, limit);
+    }
+    
+    /**
+     * Finds patients whose postcode starts with a prefix, in postcode
+     * order. Case and spacing are ignored, except that a trailing space
+     * ends the district: "B1 " is district B1, "B1" also covers B10-B19.
+     * 
+     * @param prefix Postcode prefix, e.g. "B91 2" for a sector
+     */
+    public List<Patient> findPatientsByPostcode(String prefix) {
+        return patients.search(BY_POSTCODE, prefix, Integer.MAX_VALUE);
+    }
+    
+    /**
+     * Finds patients in a postcode district (outward code), e.g. "B1".
+     * 
+     * @return Patients in that district; empty if the district is blank
+     */
+    public List<Patient> findPatientsInDistrict(String district) {
+        if (district == null || district.trim().isEmpty()) {
+            return new ArrayList<>();
+        }
+        return findPatientsByPostcode(district.trim() + " ");
+    }
     
-    public Patient findPatientById(String id) {
-        for (Patient p : patients) {
-            if (p.getUserId().equals(id)) return p;
+    /**
+     * Checks whether an NHS number already belongs to a patient other than
+     * the given one, so forms can warn before saving. A patient keeping the
+     * number it already has is never warned, even if it was loaded as a
+     * duplicate of another patient's.
+     * 
+     * @param patientId Patient being edited, or null for a new patient
+     */
+    public boolean isNhsNumberTaken(String nhsNumber, String patientId) {
+        Patient current = patientId == null ? null : patients.get(patientId);
+        if (current != null && Objects.equals(normaliseNhsNumber(current.getNhsNumber()),
+                                              normaliseNhsNumber(nhsNumber))) {
+            return false;
         }
-        return null;
+        Patient owner = findPatientByNhsNumber(nhsNumber);
+        return owner != null && !owner.getUserId().equals(patientId);
+    }
+    
+    private static String normaliseNhsNumber(String nhsNumber) {
+        return nhsNumber == null ? null : nhsNumber.replaceAll("\\s+", "");
     }
     
     public boolean addPatient(Patient patient) {
-        if (patient != null) {
-            patients.add(patient);
-            return true;
+        synchronized (patients) {
+            if (patient != null && patients.add(patient)) {
+                patientChanges.recordAdd(patient.getUserId(), patient);
+                journal(MutationJournal.ADD, PATIENT, patient.getUserId(), patient.toCSV());
+                publish(Patient.class, patients, patient.getUserId(), null, patient, Patient::getUserId);
+                return true;
+            }
+            return false;
         }
-        return false;
     }
     
     public boolean updatePatient(String id, Patient updated) {
-        for (int i = 0; i < patients.size(); i++) {
-            if (patients.get(i).getUserId().equals(id)) {
-                patients.set(i, updated);
+        synchronized (patients) {
+            Patient before = events.hasSubscribers() ? patients.get(id) : null;
+            if (patients.update(id, updated)) {
+                patientChanges.recordUpdate(id, updated);
+                journal(MutationJournal.UPDATE, PATIENT, id, updated.toCSV());
+                publish(Patient.class, patients, id, before, updated, Patient::getUserId);
                 return true;
             }
+            return false;
         }
-        return false;
     }
     
     public boolean deletePatient(String id) {
-        return patients.removeIf(p -> p.getUserId().equals(id));
+        synchronized (patients) {
+            Patient removed = patients.remove(id);
+            if (removed != null) {
+                patientChanges.recordDelete(id);
+                journal(MutationJournal.DELETE, PATIENT, id, "");
+                publish(Patient.class, patients, id, removed, null, Patient::getUserId);
+                return true;
+            }
+            return false;
+        }
     }
     
     // Appointment operations
-    public List<Appointment> getAllAppointments() { return new ArrayList<>(appointments); }
+    public List<Appointment> getAllAppointments() { return appointments.snapshot(); }
     
-    public Appointment findAppointmentById(String id) {
-        for (Appointment a : appointments) {
-            if (a.getAppointmentId().equals(id)) return a;
-        }
-        return null;
-    }
+    public Appointment findAppointmentById(String id) { return appointments.get(id); }
     
     public boolean addAppointment(Appointment appointment) {
-        if (appointment != null) {
-            appointments.add(appointment);
-            return true;
+        synchronized (appointments) {
+            if (appointment != null && appointments.add(appointment)) {
+                appointmentChanges.recordAdd(appointment.getAppointmentId(), appointment);
+                journal(MutationJournal.ADD, APPOINTMENT, appointment.getAppointmentId(), appointment.toCSV());
+                publish(Appointment.class, appointments, appointment.getAppointmentId(), null, appointment, Appointment::getAppointmentId);
+                return true;
+            }
+            return false;
         }
-        return false;
     }
     
     public boolean updateAppointment(String id, Appointment updated) {
-        for (int i = 0; i < appointments.size(); i++) {
-            if (appointments.get(i).getAppointmentId().equals(id)) {
-                appointments.set(i, updated);
+        synchronized (appointments) {
+            Appointment before = events.hasSubscribers() ? appointments.get(id) : null;
+            if (appointments.update(id, updated)) {
+                appointmentChanges.recordUpdate(id, updated);
+                journal(MutationJournal.UPDATE, APPOINTMENT, id, updated.toCSV());
+                publish(Appointment.class, appointments, id, before, updated, Appointment::getAppointmentId);
                 return true;
             }
+            return false;
         }
-        return false;
     }
     
     public boolean deleteAppointment(String id) {
-        return appointments.removeIf(a -> a.getAppointmentId().equals(id));
+        synchronized (appointments) {
+            Appointment removed = appointments.remove(id);
+            if (removed != null) {
+                appointmentChanges.recordDelete(id);
+                journal(MutationJournal.DELETE, APPOINTMENT, id, "");
+                publish(Appointment.class, appointments, id, removed, null, Appointment::getAppointmentId);
+                return true;
+            }
+            return false;
+        }
     }
     
-    // Prescription operations
-    public List<Prescription> getAllPrescriptions() { return new ArrayList<>(prescriptions); }
+    // Appointment queries, answered from secondary indexes in time proportional to the result
+    public List<Appointment> findAppointmentsByPatient(String patientId) {
+        return appointments.findBy(BY_PATIENT, patientId);
+    }
     
-    public Prescription findPrescriptionById(String id) {
-        for (Prescription p : prescriptions) {
-            if (p.getPrescriptionId().equals(id)) return p;
-        }
-        return null;
+    public List<Appointment> findAppointmentsByClinician(String clinicianId) {
+        return appointments.findBy(BY_CLINICIAN, clinicianId);
+    }
+    
+    public List<Appointment> findAppointmentsByFacility(String facilityId) {
+        return appointments.findBy(BY_FACILITY, facilityId);
     }
     
+    /**
+     * Searches the reason for visit and notes of every appointment.
+     * 
+     * @param query Words, and phrases in double quotes that must all match
+     * @param limit Maximum number of appointments to return
+     * @return Matching appointments, most relevant first
+     */
+    public List<Appointment> searchAppointments(String query, int limit) {
+        return appointments.search(BY_TEXT, query, limit);
+    }
+    
+    /**
+     * Finds appointments dated within a range, ordered by date and time.
+     * 
+     * @param from First day, inclusive; null for no lower bound
+     * @param to Last day, inclusive; null for no upper bound
+     */
+    public List<Appointment> findAppointmentsBetween(LocalDate from, LocalDate to) {
+        List<Appointment> result = appointments.findRange(BY_DATE,
+            from != null ? from.toString() : null, to != null ? to.toString() : null);
+        result.sort(BY_DATE_AND_TIME);
+        return result;
+    }
+    
+    /**
+     * The day list: every appointment on a date, ordered by time.
+     */
+    public List<Appointment> findAppointmentsOn(LocalDate date) {
+        return findAppointmentsBetween(date, date);
+    }
+    
+    /**
+     * A clinician's appointments on one day, ordered by time.
+     */
+    public List<Appointment> findClinicianAppointmentsOn(String clinicianId, LocalDate date) {
+        return onDate(appointments.findBy(BY_CLINICIAN, clinicianId), date);
+    }
+    
+    /**
+     * A facility's appointments on one day, ordered by time.
+     */
+    public List<Appointment> findFacilityAppointmentsOn(String facilityId, LocalDate date) {
+        return onDate(appointments.findBy(BY_FACILITY, facilityId), date);
+    }
+    
+    private static List<Appointment> onDate(List<Appointment> candidates, LocalDate date) {
+        String day = date.toString();
+        candidates.removeIf(a -> !day.equals(a.getAppointmentDate().trim()));
+        candidates.sort(BY_DATE_AND_TIME);
+        return candidates;
+    }
+    
+    // Prescription operations
+    public List<Prescription> getAllPrescriptions() { return prescriptions.snapshot(); }
+    
+    public Prescription findPrescriptionById(String id) { return prescriptions.get(id); }
+    
     public boolean addPrescription(Prescription prescription) {
-        if (prescription != null) {
-            prescriptions.add(prescription);
-            // Save prescription to output file
-            savePrescriptionToFile(prescription);
-            return true;
+        synchronized (prescriptions) {
+            if (prescription == null || !prescriptions.add(prescription)) {
+                return false;
+            }
+            prescriptionChanges.recordAdd(prescription.getPrescriptionId(), prescription);
+            journal(MutationJournal.ADD, PRESCRIPTION, prescription.getPrescriptionId(), prescription.toCSV());
+            publish(Prescription.class, prescriptions, prescription.getPrescriptionId(), null, prescription, Prescription::getPrescriptionId);
         }
-        return false;
+        // Save prescription to output file, outside the lock so other
+        // writers are not held up by the file I/O
+        savePrescriptionToFile(prescription);
+        return true;
     }
     
     public boolean updatePrescription(String id, Prescription updated) {
-        for (int i = 0; i < prescriptions.size(); i++) {
-            if (prescriptions.get(i).getPrescriptionId().equals(id)) {
-                prescriptions.set(i, updated);
+        synchronized (prescriptions) {
+            Prescription before = events.hasSubscribers() ? prescriptions.get(id) : null;
+            if (prescriptions.update(id, updated)) {
+                prescriptionChanges.recordUpdate(id, updated);
+                journal(MutationJournal.UPDATE, PRESCRIPTION, id, updated.toCSV());
+                publish(Prescription.class, prescriptions, id, before, updated, Prescription::getPrescriptionId);
                 return true;
             }
+            return false;
         }
-        return false;
     }
     
     public boolean deletePrescription(String id) {
-        return prescriptions.removeIf(p -> p.getPrescriptionId().equals(id));
+        synchronized (prescriptions) {
+            Prescription removed = prescriptions.remove(id);
+            if (removed != null) {
+                prescriptionChanges.recordDelete(id);
+                journal(MutationJournal.DELETE, PRESCRIPTION, id, "");
+                publish(Prescription.class, prescriptions, id, removed, null, Prescription::getPrescriptionId);
+                return true;
+            }
+            return false;
+        }
     }
     
     /**
@@ -221,45 +1002,78 @@ public class DataManager {
         return referralManager.sendReferral(referral);
     }
     
-    public String generateNewPatientId() {
-        int maxNum = 0;
-        for (Patient p : patients) {
-            String id = p.getUserId();
-            if (id.startsWith("P")) {
-                try {
-                    int num = Integer.parseInt(id.substring(1));
-                    if (num > maxNum) maxNum = num;
-                } catch (NumberFormatException e) {}
-            }
-        }
-        return String.format("P%03d", maxNum + 1);
+    public Referral findReferralById(String id) {
+        return referralManager.findReferralById(id);
     }
     
-    public String generateNewAppointmentId() {
-        int maxNum = 0;
-        for (Appointment a : appointments) {
-            String id = a.getAppointmentId();
-            if (id.startsWith("A")) {
-                try {
-                    int num = Integer.parseInt(id.substring(1));
-                    if (num > maxNum) maxNum = num;
-                } catch (NumberFormatException e) {}
-            }
-        }
-        return String.format("A%03d", maxNum + 1);
+    public List<Referral> searchReferrals(String query, int limit) {
+        return referralManager.searchReferrals(query, limit);
     }
     
-    public String generateNewPrescriptionId() {
-        int maxNum = 0;
-        for (Prescription p : prescriptions) {
-            String id = p.getPrescriptionId();
-            if (id.startsWith("RX")) {
-                try {
-                    int num = Integer.parseInt(id.substring(2));
-                    if (num > maxNum) maxNum = num;
-                } catch (NumberFormatException e) {}
-            }
+    // Reference data operations (read-only, O(1) lookups)
+    public List<Clinician> getAllClinicians() { return clinicians.getAll(); }
+    
+    public Clinician findClinicianById(String id) { return clinicians.findById(id); }
+    
+    public List<Clinician> findCliniciansByWorkplace(String facilityId) {
+        return clinicians.findBy(BY_WORKPLACE, facilityId);
+    }
+    
+    public List<Clinician> findCliniciansBySpeciality(String speciality) {
+        return clinicians.findBy(BY_SPECIALITY, speciality);
+    }
+    
+    public List<Facility> getAllFacilities() { return facilities.getAll(); }
+    
+    public Facility findFacilityById(String id) { return facilities.findById(id); }
+    
+    public List<Facility> findFacilitiesBySpeciality(String speciality) {
+        return facilities.findBy(BY_SPECIALITY, speciality);
+    }
+    
+    // Postcode prefixes as for findPatientsByPostcode
+    public List<Facility> findFacilitiesByPostcode(String prefix) {
+        return facilities.search(BY_POSTCODE, prefix, Integer.MAX_VALUE);
+    }
+    
+    public List<Facility> findFacilitiesInDistrict(String district) {
+        if (district == null || district.trim().isEmpty()) {
+            return new ArrayList<>();
         }
-        return String.format("RX%03d", maxNum + 1);
+        return findFacilitiesByPostcode(district.trim() + " ");
+    }
+    
+    public List<Staff> getAllStaff() { return staff.getAll(); }
+    
+    public Staff findStaffById(String id) { return staff.findById(id); }
+    
+    public List<Staff> findStaffByFacility(String facilityId) {
+        return staff.findBy(BY_FACILITY, facilityId);
+    }
+    
+    /**
+     * Display name for a clinician ID, e.g. "Dr. David Thompson".
+     * 
+     * @return The name, or the ID itself if the clinician is unknown
+     */
+    public String getClinicianName(String id) {
+        Clinician c = clinicians.findById(id);
+        return c != null ? c.getFullName() : id;
+    }
+    
+    /**
+     * Display name for a facility ID.
+     * 
+     * @return The facility name, or the ID itself if the facility is unknown
+     */
+    public String getFacilityName(String id) {
+        Facility f = facilities.findById(id);
+        return f != null ? f.getFacilityName() : id;
     }
+    
+    public String generateNewPatientId() { return ids.next(PATIENT_PREFIX); }
+    
+    public String generateNewAppointmentId() { return ids.next(APPOINTMENT_PREFIX); }
+    
+    public String generateNewPrescriptionId() { return ids.next(PRESCRIPTION_PREFIX); }
 }
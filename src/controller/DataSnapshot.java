@@ -0,0 +1,106 @@
+package controller;
+
+import model.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A consistent, read-only view of all patients, appointments, prescriptions
+ * and referrals as of one moment, for reports and other long reads.
+ *
+ * Opening a snapshot costs O(1) and pins one version of every store: it
+ * sees each write numbered up to its {@link #getId() ID} and none after,
+ * however long it is held, while writers carry on unhindered. Close it
+ * when done (try-with-resources) so the pinned versions can be reclaimed.
+ *
+ * @author Shubhamkumar Prahladbhai Patel
+ * @version 1.0
+ */
+public class DataSnapshot implements AutoCloseable {
+    private final long id;
+    private final long openedAt;
+    private final SnapshotRegistry registry;
+    private volatile List<Patient> patients;
+    private volatile List<Appointment> appointments;
+    private volatile List<Prescription> prescriptions;
+    private volatile List<Referral> referrals;
+
+    DataSnapshot(long id, SnapshotRegistry registry, List<Patient> patients,
+                 List<Appointment> appointments, List<Prescription> prescriptions,
+                 List<Referral> referrals) {
+        this.id = id;
+        this.openedAt = System.currentTimeMillis();
+        this.registry = registry;
+        this.patients = patients;
+        this.appointments = appointments;
+        this.prescriptions = prescriptions;
+        this.referrals = referrals;
+    }
+
+    /**
+     * Version number of the newest write this snapshot sees.
+     */
+    public long getId() { return id; }
+
+    /** When the snapshot was opened, in epoch milliseconds. */
+    public long getOpenedAt() { return openedAt; }
+
+    public List<Patient> getPatients() { return pinned(patients); }
+    public List<Appointment> getAppointments() { return pinned(appointments); }
+    public List<Prescription> getPrescriptions() { return pinned(prescriptions); }
+    public List<Referral> getReferrals() { return pinned(referrals); }
+
+    private <T> List<T> pinned(List<T> view) {
+        if (view == null) {
+            throw new IllegalStateException("Snapshot " + id + " is closed");
+        }
+        return view;
+    }
+
+    public boolean isClosed() {
+        return patients == null;
+    }
+
+    /**
+     * Unpins the snapshot. Lists already obtained from it stay readable,
+     * but the snapshot itself no longer keeps the old versions alive.
+     */
+    @Override
+    public synchronized void close() {
+        if (patients != null) {
+            patients = null;
+            appointments = null;
+            prescriptions = null;
+            referrals = null;
+            registry.release(this);
+        }
+    }
+
+    /**
+     * Open snapshots, so the oldest pinned version can be monitored.
+     */
+    static class SnapshotRegistry {
+        private final Set<DataSnapshot> open = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+        void register(DataSnapshot snapshot) {
+            open.add(snapshot);
+        }
+
+        void release(DataSnapshot snapshot) {
+            open.remove(snapshot);
+        }
+
+        int count() {
+            return open.size();
+        }
+
+        /** Oldest version still pinned, or -1 if no snapshot is open. */
+        long oldestId() {
+            long oldest = -1;
+            for (DataSnapshot s : open) {
+                if (oldest < 0 || s.id < oldest) oldest = s.id;
+            }
+            return oldest;
+        }
+    }
+}
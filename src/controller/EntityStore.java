@@ -0,0 +1,960 @@
+package controller;
+
+import util.PersistentVector;
+import util.SearchIndex;
+import util.TextIndex;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Insertion-ordered collection of records with a hash index on the primary
+ * key, so finding, updating and deleting a record by ID is O(1).
+ *
+ * Records live in a slot list in insertion order. A delete leaves an empty
+ * slot behind instead of shifting the list, and the slots are compacted once
+ * more than half of them are empty. The slot list is a persistent vector,
+ * so {@link #snapshot()} hands readers a consistent, immutable view in O(1)
+ * that later writes never disturb.
+ *
+ * Every write publishes a new version of the slot list, numbered from a
+ * clock shared by all stores, so version numbers order writes across the
+ * whole data set. Old versions cost nothing to keep: a reader holding one
+ * shares all unchanged nodes with the current version, and whatever it
+ * alone refers to is garbage collected once it lets go. For a version to
+ * stay consistent, records must be replaced rather than edited in place:
+ * edit a copy and pass it to {@link #update(String, Object)}.
+ *
+ * Secondary indexes map a key to the IDs of the records carrying it, so a
+ * lookup costs time in the number of matches rather than the store size.
+ * Each index also remembers the key it filed every record under, so an
+ * update or delete can unfile a record without re-reading its old key.
+ * A unique index also rejects adds and updates that would give two records
+ * the same key.
+ *
+ * {@link #page(String, int)} lists records in ID order from a given ID on,
+ * for keyset pagination. The ID order is kept in a sorted set built on the
+ * first page request, like the search indexes below.
+ *
+ * Search indexes answer free-form queries over some text fields, such as
+ * words and phrases ({@link TextIndex}). One is built on the first search
+ * rather than at load, since long text fields may still be on disk, and
+ * from then on every write reindexes just the record it changes. The build
+ * reads a snapshot without holding the lock, so writes and lookups carry
+ * on meanwhile; writes made during the build are queued and applied when
+ * it finishes.
+ *
+ * Safe for concurrent use. A StampedLock guards the structures: writes take
+ * it exclusively, index lookups share it (so a write waits for lookups in
+ * progress; the index maps are plain hash and tree maps, unsafe to read while
+ * a write changes them), and the hot paths take no lock at all. {@link #get(String)} reads optimistically and only falls back to the
+ * shared lock if a write overlapped it; {@link #snapshot()} and
+ * {@link #size()} read a single volatile version of the slot list. Callers
+ * that must keep their own bookkeeping (journal, change tracking) in step
+ * with the store serialise those writes themselves.
+ *
+ * @author Shubhamkumar Prahladbhai Patel
+ * @version 1.0
+ */
+public class EntityStore<T> {
+    /** Order of record IDs in pages: shorter first, then alphabetical, so P2 precedes P10. */
+    public static final Comparator<String> ID_ORDER =
+        Comparator.comparingInt(String::length).thenComparing(Comparator.naturalOrder());
+
+    private static final int MIN_COMPACT_SLOTS = 64;
+    private static final AtomicLong CLOCK = new AtomicLong();
+
+    private final Function<T, String> key;
+    private final StampedLock lock = new StampedLock();
+    // Working copy, only touched under the write lock
+    private PersistentVector<T> slots;
+    // Latest version for readers; replaced after every write
+    private volatile Version<T> published;
+    // Concurrent so an optimistic read overlapping a write cannot fail
+    private final Map<String, Integer> index;
+    private final Map<String, SecondaryIndex<T>> secondary;
+    private final Map<String, SearchField<T>> searches;
+    // IDs in ID_ORDER, for paging; null until the first page is asked for
+    private NavigableSet<String> ordered;
+
+    /**
+     * @param key Primary key of a record
+     */
+    public EntityStore(Function<T, String> key) {
+        this.key = key;
+        this.slots = PersistentVector.empty();
+        this.published = new Version<>(slots, CLOCK.get());
+        this.index = new ConcurrentHashMap<>();
+        this.secondary = new HashMap<>();
+        this.searches = new HashMap<>();
+    }
+
+    /**
+     * Adds a hash index on a single-valued key. Blank keys are not indexed.
+     *
+     * @param name Index name used by {@link #findBy(String, String)}
+     * @param key Key of a record
+     */
+    public void addIndex(String name, Function<T, String> key) {
+        putIndex(name, new SecondaryIndex<>(key, new HashMap<>(), false));
+    }
+
+    /**
+     * Adds a hash index whose keys must be unique. Blank keys are not
+     * indexed and never conflict. Records already present that clash with
+     * an earlier one are kept but left out of the index.
+     *
+     * @param name Index name used by {@link #findUnique(String, String)}
+     * @param key Key of a record
+     */
+    public void addUniqueIndex(String name, Function<T, String> key) {
+        putIndex(name, new SecondaryIndex<>(key, new HashMap<>(), true));
+    }
+
+    /**
+     * Adds an index kept in key order, for range lookups with
+     * {@link #findRange(String, String, String)}. Keys compare as Strings,
+     * so ISO dates sort correctly.
+     *
+     * @param name Index name
+     * @param key Key of a record
+     */
+    public void addSortedIndex(String name, Function<T, String> key) {
+        putIndex(name, new SecondaryIndex<>(key, new TreeMap<>(), false));
+    }
+
+    /**
+     * Adds a full-text index over one or more text fields.
+     *
+     * @param name Index name used by {@link #search(String, String, int)}
+     * @param fields Text fields of a record
+     */
+    public void addTextIndex(String name, List<Function<T, String>> fields) {
+        addSearchIndex(name, new TextIndex(), fields);
+    }
+
+    /**
+     * Adds a search index over one or more text fields.
+     *
+     * @param name Index name used by {@link #search(String, String, int)}
+     * @param index Empty index to fill
+     * @param fields Text fields of a record, passed to the index in this order
+     */
+    public void addSearchIndex(String name, SearchIndex index, List<Function<T, String>> fields) {
+        long stamp = lock.writeLock();
+        try {
+            searches.put(name, new SearchField<>(index, fields));
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void putIndex(String name, SecondaryIndex<T> added) {
+        long stamp = lock.writeLock();
+        try {
+            for (T record : slots) {
+                if (record != null) added.add(key.apply(record), record);
+            }
+            secondary.put(name, added);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Replaces the contents with freshly loaded records.
+     * Later records with an ID already seen are dropped. Records breaking a
+     * unique index are kept, since dropping them would delete them from the
+     * file on the next save, but are left out of that index.
+     */
+    public void loadAll(List<T> records) {
+        long stamp = lock.writeLock();
+        try {
+            List<T> loaded = new ArrayList<>(records.size());
+            index.clear();
+            for (SecondaryIndex<T> s : secondary.values()) s.clear();
+            for (SearchField<T> t : searches.values()) t.reset();
+            ordered = null;
+            for (T record : records) {
+                String id = key.apply(record);
+                if (index.putIfAbsent(id, loaded.size()) != null) {
+                    System.err.println("Ignoring duplicate record " + id);
+                    continue;
+                }
+                loaded.add(record);
+                for (SecondaryIndex<T> s : secondary.values()) s.add(id, record);
+            }
+            slots = PersistentVector.of(loaded);
+            publish();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Adds a record at the end.
+     *
+     * @return false if a record with the same ID, or the same key in a
+     *         unique index, already exists
+     */
+    public boolean add(T record) {
+        long stamp = lock.writeLock();
+        try {
+            String id = key.apply(record);
+            if (index.containsKey(id) || clashes(id, null, record)) {
+                return false;
+            }
+            index.put(id, slots.size());
+            slots = slots.append(record);
+            for (SecondaryIndex<T> s : secondary.values()) s.add(id, record);
+            for (SearchField<T> t : searches.values()) t.add(id, record);
+            if (ordered != null) ordered.add(id);
+            publish();
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Checks whether a record would take a unique key held by a record
+     * other than the one with the given ID. An update that keeps its key
+     * never clashes, so a record loaded with a duplicate key, and left out
+     * of the index, can still be edited.
+     *
+     * @param previous The record being replaced, or null for an add
+     */
+    private boolean clashes(String id, T previous, T record) {
+        for (SecondaryIndex<T> s : secondary.values()) {
+            if (!s.unique) continue;
+            String k = s.keyFor(record);
+            if (k == null || previous != null && k.equals(s.keyFor(previous))) continue;
+            String owner = s.owner(k);
+            if (owner != null && !owner.equals(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds a record by ID.
+     *
+     * @return The record, or null if not found
+     */
+    public T get(String id) {
+        if (id == null) {
+            return null;
+        }
+        long stamp = lock.tryOptimisticRead();
+        T record = lookup(id);
+        if (lock.validate(stamp)) {
+            return record;
+        }
+        stamp = lock.readLock();
+        try {
+            return lookup(id);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Reads a record without locking. Only trustworthy under the lock or
+     * when validated afterwards, but never fails: a write racing with it
+     * can at worst make it return the wrong record.
+     */
+    private T lookup(String id) {
+        Integer slot = index.get(id);
+        PersistentVector<T> current = published.slots;
+        return slot == null || slot >= current.size() ? null : current.get(slot);
+    }
+
+    public boolean contains(String id) {
+        return id != null && index.containsKey(id);
+    }
+
+    /**
+     * Replaces a record in place, keeping its position. If the new record
+     * has a different ID the index follows it.
+     *
+     * @param id Current ID of the record
+     * @param record New state of the record
+     * @return false if no record has that ID, or the new ID or a unique
+     *         key is taken by another record
+     */
+    public boolean update(String id, T record) {
+        long stamp = lock.writeLock();
+        try {
+            Integer slot = index.get(id);
+            if (slot == null || clashes(id, slots.get(slot), record)) {
+                return false;
+            }
+            String newId = key.apply(record);
+            if (!newId.equals(id)) {
+                if (index.containsKey(newId)) {
+                    return false;
+                }
+                index.remove(id);
+                index.put(newId, slot);
+                if (ordered != null) {
+                    ordered.remove(id);
+                    ordered.add(newId);
+                }
+            }
+            slots = slots.set(slot, record);
+            for (SecondaryIndex<T> s : secondary.values()) {
+                s.remove(id);
+                s.add(newId, record);
+            }
+            for (SearchField<T> t : searches.values()) {
+                t.remove(id);
+                t.add(newId, record);
+            }
+            publish();
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes a record by ID.
+     *
+     * @return The removed record, or null if not found
+     */
+    public T remove(String id) {
+        if (id == null) {
+            return null;
+        }
+        long stamp = lock.writeLock();
+        try {
+            Integer slot = index.remove(id);
+            if (slot == null) {
+                return null;
+            }
+            T removed = slots.get(slot);
+            slots = slots.set(slot, null);
+            for (SecondaryIndex<T> s : secondary.values()) s.remove(id);
+            for (SearchField<T> t : searches.values()) t.remove(id);
+            if (ordered != null) ordered.remove(id);
+            compactIfSparse();
+            publish();
+            return removed;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes every record matching a filter.
+     *
+     * @return IDs of the removed records
+     */
+    public List<String> removeIf(Predicate<? super T> filter) {
+        long stamp = lock.writeLock();
+        try {
+            List<String> removed = new ArrayList<>();
+            int i = 0;
+            for (T record : slots) {
+                if (record != null && filter.test(record)) {
+                    String id = key.apply(record);
+                    index.remove(id);
+                    slots = slots.set(i, null);
+                    for (SecondaryIndex<T> s : secondary.values()) s.remove(id);
+                    for (SearchField<T> t : searches.values()) t.remove(id);
+                    if (ordered != null) ordered.remove(id);
+                    removed.add(id);
+                }
+                i++;
+            }
+            compactIfSparse();
+            if (!removed.isEmpty()) publish();
+            return removed;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Finds records through a secondary index.
+     *
+     * @param name Index name
+     * @param key Key to look up
+     * @return Matching records in the order they were indexed (empty if none)
+     */
+    public List<T> findBy(String name, String key) {
+        long stamp = lock.readLock();
+        try {
+            SecondaryIndex<T> s = indexNamed(name);
+            Set<String> ids = key == null ? null : s.entries.get(key.trim());
+            return ids == null ? new ArrayList<>() : resolve(ids, new ArrayList<>(ids.size()));
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Finds records whose key in a sorted index lies in a range.
+     *
+     * @param name Name of an index added with {@link #addSortedIndex(String, Function)}
+     * @param from Lowest key, inclusive; null for no lower bound
+     * @param to Highest key, inclusive; null for no upper bound
+     * @return Matching records in key order
+     */
+    public List<T> findRange(String name, String from, String to) {
+        long stamp = lock.readLock();
+        try {
+            List<T> result = new ArrayList<>();
+            for (Set<String> ids : range(name, from, to).values()) {
+                resolve(ids, result);
+            }
+            return result;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Finds the record holding a key in a unique index.
+     *
+     * @return The record, or null if none has that key
+     */
+    public T findUnique(String name, String key) {
+        long stamp = lock.readLock();
+        try {
+            SecondaryIndex<T> s = indexNamed(name);
+            String id = key == null ? null : s.owner(key.trim());
+            return id == null ? null : lookup(id);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Whether a secondary index of this name exists that files every record
+     * with a non-blank key. Unique indexes do not count: they leave clashing
+     * records out.
+     *
+     * @param sorted Only count indexes that support range lookups
+     */
+    public boolean hasIndex(String name, boolean sorted) {
+        long stamp = lock.readLock();
+        try {
+            SecondaryIndex<T> s = secondary.get(name);
+            return s != null && !s.unique && (!sorted || s.entries instanceof NavigableMap);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Number of records filed under a key, without fetching them.
+     */
+    public int countBy(String name, String key) {
+        long stamp = lock.readLock();
+        try {
+            Set<String> ids = key == null ? null : indexNamed(name).entries.get(key.trim());
+            return ids == null ? 0 : ids.size();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Number of records in a key range of a sorted index, without fetching
+     * them. Costs time in the number of distinct keys in the range.
+     */
+    public int countRange(String name, String from, String to) {
+        long stamp = lock.readLock();
+        try {
+            int count = 0;
+            for (Set<String> ids : range(name, from, to).values()) {
+                count += ids.size();
+            }
+            return count;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Finds the records best matching a query, most relevant first.
+     *
+     * @param name Name of a text or search index
+     * @param query Query in the syntax of that index
+     * @param limit Maximum number of records
+     * @return Matching records, best first
+     */
+    public List<T> search(String name, String query, int limit) {
+        SearchField<T> t;
+        long stamp = lock.readLock();
+        try {
+            t = searchNamed(name);
+            if (t.built) {
+                return resolve(t.index.search(query, limit), new ArrayList<>());
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        // One thread builds; other searches of this index wait for it
+        synchronized (t) {
+            build(t);
+        }
+        stamp = lock.readLock();
+        try {
+            return resolve(t.index.search(query, limit), new ArrayList<>());
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Builds a search index from a snapshot without holding the lock, then
+     * applies the writes queued meanwhile. Starts over if the store was
+     * reloaded during the build.
+     */
+    private void build(SearchField<T> t) {
+        while (true) {
+            PersistentVector<T> base;
+            int generation;
+            long stamp = lock.writeLock();
+            try {
+                if (t.built) {
+                    return;
+                }
+                base = slots;
+                generation = t.generation;
+                t.pending = new HashMap<>();
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+            try {
+                // Nothing else touches the index until it is built
+                t.index.clear();
+                for (T record : base) {
+                    if (record != null) t.index.put(key.apply(record), t.textOf(record));
+                }
+            } catch (RuntimeException e) {
+                stamp = lock.writeLock();
+                try {
+                    t.pending = null;
+                    t.index.clear();
+                } finally {
+                    lock.unlockWrite(stamp);
+                }
+                throw e;
+            }
+            stamp = lock.writeLock();
+            try {
+                Map<String, T> pending = t.pending;
+                t.pending = null;
+                if (t.generation == generation) {
+                    for (Map.Entry<String, T> e : pending.entrySet()) {
+                        if (e.getValue() == null) {
+                            t.index.remove(e.getKey());
+                        } else {
+                            t.index.put(e.getKey(), t.textOf(e.getValue()));
+                        }
+                    }
+                    t.built = true;
+                    return;
+                }
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    /**
+     * Records in {@link #ID_ORDER}, starting after a given ID. Costs
+     * O(log n + limit) whatever the position, since earlier records are
+     * skipped through the sorted set rather than read.
+     *
+     * @param after ID to continue after, or null to start at the first record;
+     *              it need not belong to a record still in the store
+     * @param limit Maximum number of records
+     */
+    public List<T> page(String after, int limit) {
+        long stamp = lock.readLock();
+        try {
+            if (ordered != null) {
+                return pageOf(after, limit);
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        stamp = lock.writeLock();
+        try {
+            if (ordered == null) {
+                ordered = new TreeSet<>(ID_ORDER);
+                ordered.addAll(index.keySet());
+            }
+            return pageOf(after, limit);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private List<T> pageOf(String after, int limit) {
+        NavigableSet<String> rest = after == null ? ordered : ordered.tailSet(after, false);
+        List<T> page = new ArrayList<>(Math.min(limit, 256));
+        for (String id : rest) {
+            if (page.size() >= limit) break;
+            page.add(lookup(id));
+        }
+        return page;
+    }
+
+    private SearchField<T> searchNamed(String name) {
+        SearchField<T> t = searches.get(name);
+        if (t == null) {
+            throw new IllegalArgumentException("No search index named " + name);
+        }
+        return t;
+    }
+
+    private NavigableMap<String, Set<String>> range(String name, String from, String to) {
+        SecondaryIndex<T> s = indexNamed(name);
+        if (!(s.entries instanceof NavigableMap)) {
+            throw new IllegalArgumentException("Index " + name + " is not sorted");
+        }
+        NavigableMap<String, Set<String>> sorted = (NavigableMap<String, Set<String>>) s.entries;
+        if (from != null && to != null && from.compareTo(to) > 0) {
+            return Collections.emptyNavigableMap();
+        }
+        if (from != null) sorted = sorted.tailMap(from, true);
+        if (to != null) sorted = sorted.headMap(to, true);
+        return sorted;
+    }
+
+    private SecondaryIndex<T> indexNamed(String name) {
+        SecondaryIndex<T> s = secondary.get(name);
+        if (s == null) {
+            throw new IllegalArgumentException("No index named " + name);
+        }
+        return s;
+    }
+
+    private List<T> resolve(Collection<String> ids, List<T> into) {
+        for (String id : ids) {
+            into.add(lookup(id));
+        }
+        return into;
+    }
+
+    private void compactIfSparse() {
+        int live = slots.size() - slots.nullCount();
+        if (slots.size() < MIN_COMPACT_SLOTS || live * 2 > slots.size()) {
+            return;
+        }
+        List<T> compacted = new ArrayList<>(Math.max(live * 2, MIN_COMPACT_SLOTS));
+        for (T record : slots) {
+            if (record != null) {
+                index.put(key.apply(record), compacted.size());
+                compacted.add(record);
+            }
+        }
+        slots = PersistentVector.of(compacted);
+    }
+
+    private void publish() {
+        published = new Version<>(slots, CLOCK.incrementAndGet());
+    }
+
+    /**
+     * Immutable view of the records in insertion order, as they are now.
+     * Costs O(1) whatever the size of the store, and is safe to call
+     * without the lock that guards writes.
+     */
+    public List<T> snapshot() {
+        return new Snapshot<>(published.slots);
+    }
+
+    /**
+     * Number of the latest published version.
+     */
+    public long version() {
+        return published.number;
+    }
+
+    public int size() {
+        PersistentVector<T> current = published.slots;
+        return current.size() - current.nullCount();
+    }
+
+    /**
+     * IDs of the records, in no particular order. The view is live and
+     * weakly consistent while writes are going on.
+     */
+    public Set<String> ids() {
+        return Collections.unmodifiableSet(index.keySet());
+    }
+
+    /**
+     * One published version of the slot list.
+     */
+    private static class Version<T> {
+        final PersistentVector<T> slots;
+        final long number;
+
+        Version(PersistentVector<T> slots, long number) {
+            this.slots = slots;
+            this.number = number;
+        }
+    }
+
+    /**
+     * Read-only list over one version of the slot list, skipping empty slots.
+     * Iteration is linear, and streams split the slot range directly, so
+     * parallel streams never need positional access. Positional access is
+     * direct while the version has no empty slots; otherwise the first get
+     * builds a map from position to slot, published through a volatile
+     * field so other threads see it complete.
+     */
+    private static class Snapshot<T> extends AbstractList<T> implements RandomAccess {
+        private final PersistentVector<T> slots;
+        private final int size;
+        private volatile int[] positions;
+
+        Snapshot(PersistentVector<T> slots) {
+            this.slots = slots;
+            this.size = slots.size() - slots.nullCount();
+        }
+
+        @Override
+        public T get(int i) {
+            if (i < 0 || i >= size) {
+                throw new IndexOutOfBoundsException("Index " + i + ", size " + size);
+            }
+            if (size == slots.size()) {
+                return slots.get(i);
+            }
+            int[] p = positions;
+            if (p == null) {
+                p = new int[size];
+                int n = 0, slot = 0;
+                for (T record : slots) {
+                    if (record != null) p[n++] = slot;
+                    slot++;
+                }
+                positions = p;
+            }
+            return slots.get(p[i]);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Spliterator<T> spliterator() {
+            return new SlotSpliterator<>(slots, 0, slots.size(), size == slots.size());
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            Iterator<T> all = slots.iterator();
+            return new Iterator<T>() {
+                private T next = advance();
+
+                private T advance() {
+                    while (all.hasNext()) {
+                        T record = all.next();
+                        if (record != null) return record;
+                    }
+                    return null;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public T next() {
+                    if (next == null) {
+                        throw new NoSuchElementException();
+                    }
+                    T current = next;
+                    next = advance();
+                    return current;
+                }
+            };
+        }
+    }
+
+    /**
+     * Search index over some fields of every record. Writes before the
+     * first search are ignored, since the build reads every record anyway;
+     * writes during the build are queued, latest state per ID, for the
+     * build to apply. Fields are guarded by the store's lock, except that
+     * the index belongs to the building thread while pending is set.
+     */
+    private static class SearchField<T> {
+        final SearchIndex index;
+        final List<Function<T, String>> fields;
+        boolean built;
+        // Writes made during a build: ID to record, or null for a removal
+        Map<String, T> pending;
+        // Bumped by a reload, so a build that overlapped one starts over
+        int generation;
+
+        SearchField(SearchIndex index, List<Function<T, String>> fields) {
+            this.index = index;
+            this.fields = new ArrayList<>(fields);
+        }
+
+        void add(String id, T record) {
+            if (pending != null) {
+                pending.put(id, record);
+            } else if (built) {
+                index.put(id, textOf(record));
+            }
+        }
+
+        void remove(String id) {
+            if (pending != null) {
+                pending.put(id, null);
+            } else if (built) {
+                index.remove(id);
+            }
+        }
+
+        void reset() {
+            if (pending != null) {
+                // The builder owns the index; it will see the new generation
+                pending.clear();
+            } else {
+                index.clear();
+            }
+            generation++;
+            built = false;
+        }
+
+        List<String> textOf(T record) {
+            List<String> values = new ArrayList<>(fields.size());
+            for (Function<T, String> field : fields) values.add(field.apply(record));
+            return values;
+        }
+    }
+
+    /**
+     * Splits a range of slots in half for parallel streams, skipping empty
+     * slots as it goes.
+     */
+    private static final class SlotSpliterator<T> implements Spliterator<T> {
+        private final PersistentVector<T> slots;
+        private final boolean dense;
+        private int from;
+        private final int to;
+
+        /**
+         * @param dense Whether the slots hold no empty ones, so sizes are exact
+         */
+        SlotSpliterator(PersistentVector<T> slots, int from, int to, boolean dense) {
+            this.slots = slots;
+            this.from = from;
+            this.to = to;
+            this.dense = dense;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            while (from < to) {
+                T record = slots.get(from++);
+                if (record != null) {
+                    action.accept(record);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            int mid = (from + to) >>> 1;
+            if (mid <= from) {
+                return null;
+            }
+            Spliterator<T> prefix = new SlotSpliterator<>(slots, from, mid, dense);
+            from = mid;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return to - from;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | NONNULL | IMMUTABLE | (dense ? SIZED | SUBSIZED : 0);
+        }
+    }
+
+    /**
+     * Key to record-ID multimap, plus the key each ID was filed under.
+     */
+    private static class SecondaryIndex<T> {
+        final Function<T, String> key;
+        final Map<String, Set<String>> entries;
+        final Map<String, String> keyOf = new HashMap<>();
+        final boolean unique;
+
+        SecondaryIndex(Function<T, String> key, Map<String, Set<String>> entries, boolean unique) {
+            this.key = key;
+            this.entries = entries;
+            this.unique = unique;
+        }
+
+        /** A record's key as filed: trimmed, or null when blank. */
+        String keyFor(T record) {
+            String k = key.apply(record);
+            return k == null || k.trim().isEmpty() ? null : k.trim();
+        }
+
+        String owner(String k) {
+            Set<String> ids = entries.get(k);
+            return ids == null ? null : ids.iterator().next();
+        }
+
+        /**
+         * Files a record under its key. A clash in a unique index is only
+         * possible while loading, and leaves the record unindexed.
+         */
+        void add(String id, T record) {
+            String k = keyFor(record);
+            if (k == null) {
+                return;
+            }
+            if (unique && entries.containsKey(k)) {
+                System.err.println("Record " + id + " has the same key " + k + " as record "
+                                   + owner(k) + "; not indexed");
+                return;
+            }
+            keyOf.put(id, k);
+            entries.computeIfAbsent(k, x -> new LinkedHashSet<>(4)).add(id);
+        }
+
+        void remove(String id) {
+            String k = keyOf.remove(id);
+            if (k == null) {
+                return;
+            }
+            Set<String> ids = entries.get(k);
+            ids.remove(id);
+            if (ids.isEmpty()) entries.remove(k);
+        }
+
+        void clear() {
+            entries.clear();
+            keyOf.clear();
+        }
+    }
+}
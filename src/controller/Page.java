@@ -0,0 +1,87 @@
+package controller;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * One page of a listing, plus a cursor for the next page.
+ *
+ * Listings are ordered by record ID, shorter IDs first and then
+ * alphabetically, so P2 comes before P10. The cursor records the last ID
+ * on the page, and the next page starts after that ID. Fetching page N
+ * therefore never reads pages 1 to N-1, and records added or removed
+ * elsewhere in the listing do not shift the pages still to come.
+ * Cursors are opaque tokens: pass them back unchanged.
+ *
+ * @author Shubhamkumar Prahladbhai Patel
+ * @version 1.0
+ */
+public class Page<T> {
+    /** Largest page a listing returns, however many records are asked for. */
+    public static final int MAX_SIZE = 1000;
+
+    private final List<T> items;
+    private final String nextCursor;
+
+    Page(List<T> items, String nextCursor) {
+        this.items = Collections.unmodifiableList(items);
+        this.nextCursor = nextCursor;
+    }
+
+    public List<T> getItems() { return items; }
+
+    /**
+     * Cursor for the following page, or null if this is the last one.
+     */
+    public String getNextCursor() { return nextCursor; }
+
+    public boolean hasMore() { return nextCursor != null; }
+
+    /**
+     * Builds a page from up to size + 1 records in ID order, the extra one
+     * only showing that more follow.
+     */
+    static <T> Page<T> of(String listing, List<T> fetched, int size, Function<T, String> id) {
+        if (fetched.size() <= size) {
+            return new Page<>(fetched, null);
+        }
+        List<T> items = new ArrayList<>(fetched.subList(0, size));
+        return new Page<>(items, encode(listing, id.apply(items.get(size - 1))));
+    }
+
+    /** Page size asked for, clamped to 1..MAX_SIZE. */
+    static int clamp(int size) {
+        return Math.max(1, Math.min(MAX_SIZE, size));
+    }
+
+    static String encode(String listing, String lastId) {
+        String raw = listing + "\n" + lastId;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The last ID of the previous page, from its cursor.
+     *
+     * @param cursor Cursor from a page of the same listing, or null for the first page
+     * @return The ID to continue after, or null to start at the beginning
+     * @throws IllegalArgumentException If the cursor is malformed or belongs
+     *         to another listing
+     */
+    static String decode(String listing, String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        String raw;
+        try {
+            raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor " + cursor);
+        }
+        int split = raw.indexOf('\n');
+        if (split < 0 || !raw.substring(0, split).equals(listing)) {
+            throw new IllegalArgumentException("Cursor " + cursor + " is not for " + listing);
+        }
+        return raw.substring(split + 1);
+    }
+}
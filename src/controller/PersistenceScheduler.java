@@ -0,0 +1,155 @@
+package controller;
+
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * Saves data in the background, coalescing bursts of edits.
+ * Each save request pushes the write back until edits have been quiet for
+ * a while, but a write never waits longer than the maximum latency after
+ * the first unsaved edit. All writes run on one background thread, so the
+ * Swing event thread never waits for disk I/O.
+ *
+ * @author Shubhamkumar Prahladbhai Patel
+ * @version 1.0
+ */
+public class PersistenceScheduler {
+    public enum Status { SAVED, PENDING, SAVING, FAILED }
+
+    private final DataManager dataManager;
+    private final long quietMillis;
+    private final long maxLatencyMillis;
+    private final ScheduledExecutorService executor;
+    private final List<Consumer<Status>> listeners;
+
+    private ScheduledFuture<?> pending;
+    private long firstRequestAt;
+
+    /**
+     * Creates a scheduler using the hms.autosave.quietMs (default 2000) and
+     * hms.autosave.maxLatencyMs (default 10000) system properties.
+     *
+     * @param dataManager Data to save
+     */
+    public PersistenceScheduler(DataManager dataManager) {
+        this(dataManager, Long.getLong("hms.autosave.quietMs", 2000),
+             Long.getLong("hms.autosave.maxLatencyMs", 10000));
+    }
+
+    /**
+     * @param dataManager Data to save
+     * @param quietMillis Quiet period after the last edit before saving
+     * @param maxLatencyMillis Longest time an edit may stay unsaved
+     */
+    public PersistenceScheduler(DataManager dataManager, long quietMillis, long maxLatencyMillis) {
+        this.dataManager = dataManager;
+        this.quietMillis = quietMillis;
+        this.maxLatencyMillis = Math.max(quietMillis, maxLatencyMillis);
+        this.listeners = new CopyOnWriteArrayList<>();
+        this.firstRequestAt = -1;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "autosave");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Registers a listener for save status changes.
+     * Listeners are called on the background thread.
+     *
+     * @param listener Receives each new status
+     */
+    public void addStatusListener(Consumer<Status> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Schedules a save after the quiet period, replacing any save that is
+     * still waiting. Returns immediately.
+     */
+    public synchronized void requestSave() {
+        long now = System.currentTimeMillis();
+        if (firstRequestAt < 0) {
+            firstRequestAt = now;
+        }
+        long deadline = firstRequestAt + maxLatencyMillis;
+        long delay = Math.max(0, Math.min(quietMillis, deadline - now));
+        if (pending != null) {
+            pending.cancel(false);
+        }
+        pending = executor.schedule(this::save, delay, TimeUnit.MILLISECONDS);
+        notifyListeners(Status.PENDING);
+    }
+
+    /**
+     * Saves in the background straight away.
+     *
+     * @return Completes with the save result
+     */
+    public CompletableFuture<Boolean> saveNow() {
+        synchronized (this) {
+            cancelPending();
+        }
+        return CompletableFuture.supplyAsync(this::save, executor);
+    }
+
+    /**
+     * Writes any pending changes and waits for the write to finish.
+     * Used when the application closes.
+     *
+     * @return true if everything was saved
+     */
+    public boolean flush() {
+        try {
+            return saveNow().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            System.err.println("Error saving data: " + e.getCause().getMessage());
+            return false;
+        }
+    }
+
+    private boolean save() {
+        synchronized (this) {
+            pending = null;
+            firstRequestAt = -1;
+        }
+        notifyListeners(Status.SAVING);
+        boolean ok = dataManager.saveAllData();
+        synchronized (this) {
+            // Edits made during the save are still waiting for the next one.
+            // requestSave() notifies under the same lock, so statuses stay in order
+            notifyListeners(!ok ? Status.FAILED : pending != null ? Status.PENDING : Status.SAVED);
+        }
+        if (!ok) {
+            System.err.println("Warning: Auto-save failed");
+        }
+        return ok;
+    }
+
+    private void cancelPending() {
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+        firstRequestAt = -1;
+    }
+
+    private void notifyListeners(Status status) {
+        for (Consumer<Status> listener : listeners) {
+            listener.accept(status);
+        }
+    }
+
+    /**
+     * Stops the background thread. Pending saves are dropped; call
+     * {@link #flush()} first to keep them.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
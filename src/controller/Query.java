@@ -0,0 +1,318 @@
+package controller;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Composable query over one entity type, built from {@link DataManager}:
+ * <pre>
+ *   dataManager.queryReferrals()
+ *       .where("status", "Pending")
+ *       .where("urgencyLevel", "Urgent")
+ *       .where("referredToFacilityId", "H001")
+ *       .orderBy("referralDate")
+ *       .limit(20)
+ *       .list();
+ * </pre>
+ *
+ * The planner looks at every condition on an indexed field, asks the index
+ * how many records each would return, and fetches candidates through the
+ * most selective one. The remaining conditions are then checked on those
+ * candidates. Without a usable index the store is scanned, in parallel
+ * once it is large. {@link #explain()} describes the chosen plan.
+ *
+ * Fields are compared as trimmed Strings, so ISO dates range correctly.
+ * A query object is not thread-safe. A scan reads a snapshot of the store
+ * and takes no lock. Index lookups and counts share the store's read lock,
+ * so a writer waits for them, though only for the lookup, never for the
+ * rest of the query.
+ *
+ * @author Shubhamkumar Prahladbhai Patel
+ * @version 1.0
+ */
+public class Query<T> {
+    // Below this many records a parallel scan costs more than it saves
+    private static final int PARALLEL_SCAN_THRESHOLD =
+        Integer.getInteger("hms.query.parallelThreshold", 10_000);
+
+    private final String entity;
+    private final EntityStore<T> store;
+    private final Map<String, Function<T, String>> fields;
+    private final List<Condition<T>> conditions;
+    private Comparator<? super T> order;
+    private String orderDescription;
+    private int offset;
+    private int limit;
+
+    Query(String entity, EntityStore<T> store, Map<String, Function<T, String>> fields) {
+        this.entity = entity;
+        this.store = store;
+        this.fields = fields;
+        this.conditions = new ArrayList<>();
+        this.limit = Integer.MAX_VALUE;
+    }
+
+    /**
+     * Keeps records whose field equals a value.
+     */
+    public Query<T> where(String field, String value) {
+        conditions.add(new Condition<>(field, field(field), value == null ? "" : value.trim(),
+                                       null, null, null));
+        return this;
+    }
+
+    /**
+     * Keeps records whose field lies in a range, bounds inclusive.
+     *
+     * @param from Lowest value, or null for no lower bound
+     * @param to Highest value, or null for no upper bound
+     */
+    public Query<T> whereBetween(String field, String from, String to) {
+        conditions.add(new Condition<>(field, field(field), null, trim(from), trim(to), null));
+        return this;
+    }
+
+    /**
+     * Keeps records matching any predicate. Never uses an index.
+     */
+    public Query<T> filter(Predicate<? super T> predicate) {
+        conditions.add(new Condition<>(null, null, null, null, null, predicate));
+        return this;
+    }
+
+    public Query<T> orderBy(String field) {
+        return orderBy(field, false);
+    }
+
+    public Query<T> orderByDescending(String field) {
+        return orderBy(field, true);
+    }
+
+    private Query<T> orderBy(String field, boolean descending) {
+        Function<T, String> getter = field(field);
+        Comparator<T> byField = Comparator.comparing(t -> trim(getter.apply(t)));
+        this.order = descending ? byField.reversed() : byField;
+        this.orderDescription = field + (descending ? " desc" : " asc");
+        return this;
+    }
+
+    public Query<T> orderBy(Comparator<? super T> comparator) {
+        this.order = comparator;
+        this.orderDescription = "custom comparator";
+        return this;
+    }
+
+    /** Skips the first n matches. */
+    public Query<T> offset(int n) {
+        this.offset = Math.max(0, n);
+        return this;
+    }
+
+    /** Returns at most n matches. */
+    public Query<T> limit(int n) {
+        this.limit = Math.max(0, n);
+        return this;
+    }
+
+    /**
+     * Runs the query.
+     *
+     * @return Matching records after sorting, offset and limit
+     */
+    public List<T> list() {
+        Plan plan = plan();
+        List<T> matches;
+        if (plan.driver != null) {
+            List<T> candidates = plan.driver.fetch(store);
+            matches = new ArrayList<>(candidates.size());
+            for (T t : candidates) {
+                if (matches(t)) matches.add(t);
+            }
+        } else if (plan.parallel) {
+            matches = store.snapshot().parallelStream().filter(this::matches).collect(Collectors.toList());
+        } else {
+            // No sort needed: stop as soon as the requested page is full
+            long wanted = order == null ? (long) offset + limit : Long.MAX_VALUE;
+            matches = new ArrayList<>();
+            for (T t : store.snapshot()) {
+                if (matches.size() >= wanted) break;
+                if (matches(t)) matches.add(t);
+            }
+        }
+        if (order != null) {
+            matches.sort(order);
+        }
+        return page(matches);
+    }
+
+    /**
+     * Number of matching records, ignoring offset and limit.
+     */
+    public int count() {
+        int savedOffset = offset, savedLimit = limit;
+        Comparator<? super T> savedOrder = order;
+        offset = 0;
+        limit = Integer.MAX_VALUE;
+        order = null;
+        try {
+            return list().size();
+        } finally {
+            offset = savedOffset;
+            limit = savedLimit;
+            order = savedOrder;
+        }
+    }
+
+    /**
+     * Describes how the query would run: the access path with its
+     * estimated number of candidates, the filters applied after it, and
+     * sorting and paging.
+     */
+    public String explain() {
+        Plan plan = plan();
+        StringBuilder sb = new StringBuilder("Query on ").append(entity).append('\n');
+        if (plan.driver != null) {
+            sb.append("  access: index ").append(plan.driver.describe())
+              .append(" (").append(plan.estimate).append(" candidates of ")
+              .append(store.size()).append(")\n");
+        } else {
+            sb.append("  access: ").append(plan.parallel ? "parallel scan" : "scan")
+              .append(" of ").append(plan.estimate).append(" records\n");
+        }
+        List<String> filters = new ArrayList<>();
+        for (Condition<T> c : conditions) {
+            if (c != plan.driver) filters.add(c.describe());
+        }
+        sb.append("  filter: ").append(filters.isEmpty() ? "none" : String.join(" AND ", filters)).append('\n');
+        sb.append("  sort: ").append(order == null ? "none" : orderDescription).append('\n');
+        sb.append("  offset: ").append(offset).append(", limit: ")
+          .append(limit == Integer.MAX_VALUE ? "none" : String.valueOf(limit));
+        return sb.toString();
+    }
+
+    /**
+     * Picks the indexed condition with the fewest candidates.
+     */
+    private Plan plan() {
+        Plan plan = new Plan();
+        plan.estimate = store.size();
+        for (Condition<T> c : conditions) {
+            if (!c.indexable(store)) {
+                continue;
+            }
+            int estimate = c.estimate(store);
+            if (plan.driver == null || estimate < plan.estimate) {
+                plan.driver = c;
+                plan.estimate = estimate;
+            }
+        }
+        plan.parallel = plan.driver == null && plan.estimate >= PARALLEL_SCAN_THRESHOLD;
+        return plan;
+    }
+
+    private boolean matches(T t) {
+        for (Condition<T> c : conditions) {
+            if (!c.test(t)) return false;
+        }
+        return true;
+    }
+
+    private List<T> page(List<T> matches) {
+        if (offset == 0 && limit >= matches.size()) {
+            return matches;
+        }
+        int from = Math.min(offset, matches.size());
+        int to = (int) Math.min((long) from + limit, matches.size());
+        return new ArrayList<>(matches.subList(from, to));
+    }
+
+    private Function<T, String> field(String name) {
+        Function<T, String> getter = fields.get(name);
+        if (getter == null) {
+            throw new IllegalArgumentException("Unknown field " + name + " for " + entity +
+                                               "; fields are " + fields.keySet());
+        }
+        return getter;
+    }
+
+    private static String trim(String value) {
+        return value == null ? null : value.trim();
+    }
+
+    private class Plan {
+        Condition<T> driver;
+        int estimate;
+        boolean parallel;
+    }
+
+    /**
+     * One condition: an equality, a range, or an opaque predicate.
+     */
+    private static class Condition<T> {
+        final String field;
+        final Function<T, String> getter;
+        final String equals;
+        final String from;
+        final String to;
+        final Predicate<? super T> predicate;
+
+        Condition(String field, Function<T, String> getter, String equals, String from, String to,
+                  Predicate<? super T> predicate) {
+            this.field = field;
+            this.getter = getter;
+            this.equals = equals;
+            this.from = from;
+            this.to = to;
+            this.predicate = predicate;
+        }
+
+        boolean isRange() {
+            return field != null && equals == null;
+        }
+
+        boolean test(T t) {
+            if (predicate != null) {
+                return predicate.test(t);
+            }
+            String value = getter.apply(t);
+            value = value == null ? "" : value.trim();
+            if (!isRange()) {
+                return value.equals(equals);
+            }
+            return !value.isEmpty() && (from == null || value.compareTo(from) >= 0)
+                && (to == null || value.compareTo(to) <= 0);
+        }
+
+        /**
+         * Blank values are never indexed, so looking them up would miss
+         * records. Only non-unique indexes named after the field qualify,
+         * so the plan never changes the result.
+         */
+        boolean indexable(EntityStore<T> store) {
+            if (field == null || (!isRange() && equals.isEmpty())) {
+                return false;
+            }
+            return store.hasIndex(field, isRange());
+        }
+
+        int estimate(EntityStore<T> store) {
+            return isRange() ? store.countRange(field, from, to) : store.countBy(field, equals);
+        }
+
+        List<T> fetch(EntityStore<T> store) {
+            return isRange() ? store.findRange(field, from, to) : store.findBy(field, equals);
+        }
+
+        String describe() {
+            if (predicate != null) {
+                return "predicate";
+            }
+            if (!isRange()) {
+                return field + " = " + equals;
+            }
+            return field + " between " + (from == null ? "*" : from) + " and " + (to == null ? "*" : to);
+        }
+    }
+}
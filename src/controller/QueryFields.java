@@ -0,0 +1,82 @@
+package controller;
+
+import model.*;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Queryable fields of each entity type, by name. Names follow the model
+ * getters (status, urgencyLevel, referredToFacilityId). A store index
+ * with the same name as a field is used by the query planner, so it must
+ * be keyed by that field's getter (trimmed) and must not be unique.
+ *
+ * @author Shubhamkumar Prahladbhai Patel
+ * @version 1.0
+ */
+final class QueryFields {
+    static final Map<String, Function<Patient, String>> PATIENT;
+    static final Map<String, Function<Appointment, String>> APPOINTMENT;
+    static final Map<String, Function<Prescription, String>> PRESCRIPTION;
+    static final Map<String, Function<Referral, String>> REFERRAL;
+
+    static {
+        Map<String, Function<Patient, String>> p = new LinkedHashMap<>();
+        p.put("patientId", Patient::getUserId);
+        p.put("firstName", Patient::getFirstName);
+        p.put("lastName", Patient::getLastName);
+        p.put("dateOfBirth", Patient::getDateOfBirth);
+        p.put("nhsNumber", Patient::getNhsNumber);
+        p.put("gender", Patient::getGender);
+        p.put("postcode", Patient::getPostcode);
+        p.put("registrationDate", Patient::getRegistrationDate);
+        p.put("gpSurgeryId", Patient::getGpSurgeryId);
+        PATIENT = Collections.unmodifiableMap(p);
+
+        Map<String, Function<Appointment, String>> a = new LinkedHashMap<>();
+        a.put("appointmentId", Appointment::getAppointmentId);
+        a.put("patientId", Appointment::getPatientId);
+        a.put("clinicianId", Appointment::getClinicianId);
+        a.put("facilityId", Appointment::getFacilityId);
+        a.put("appointmentDate", Appointment::getAppointmentDate);
+        a.put("appointmentTime", Appointment::getAppointmentTime);
+        a.put("durationMinutes", x -> String.valueOf(x.getDurationMinutes()));
+        a.put("appointmentType", Appointment::getAppointmentType);
+        a.put("status", Appointment::getStatus);
+        a.put("reasonForVisit", Appointment::getReasonForVisit);
+        a.put("createdDate", Appointment::getCreatedDate);
+        APPOINTMENT = Collections.unmodifiableMap(a);
+
+        Map<String, Function<Prescription, String>> rx = new LinkedHashMap<>();
+        rx.put("prescriptionId", Prescription::getPrescriptionId);
+        rx.put("patientId", Prescription::getPatientId);
+        rx.put("clinicianId", Prescription::getClinicianId);
+        rx.put("appointmentId", Prescription::getAppointmentId);
+        rx.put("prescriptionDate", Prescription::getPrescriptionDate);
+        rx.put("medicationName", Prescription::getMedicationName);
+        rx.put("dosage", Prescription::getDosage);
+        rx.put("frequency", Prescription::getFrequency);
+        rx.put("pharmacyName", Prescription::getPharmacyName);
+        rx.put("status", Prescription::getStatus);
+        rx.put("issueDate", Prescription::getIssueDate);
+        rx.put("collectionDate", Prescription::getCollectionDate);
+        PRESCRIPTION = Collections.unmodifiableMap(rx);
+
+        Map<String, Function<Referral, String>> r = new LinkedHashMap<>();
+        r.put("referralId", Referral::getReferralId);
+        r.put("patientId", Referral::getPatientId);
+        r.put("referringClinicianId", Referral::getReferringClinicianId);
+        r.put("referredToClinicianId", Referral::getReferredToClinicianId);
+        r.put("referringFacilityId", Referral::getReferringFacilityId);
+        r.put("referredToFacilityId", Referral::getReferredToFacilityId);
+        r.put("referralDate", Referral::getReferralDate);
+        r.put("urgencyLevel", Referral::getUrgencyLevel);
+        r.put("referralReason", Referral::getReferralReason);
+        r.put("status", Referral::getStatus);
+        r.put("appointmentId", Referral::getAppointmentId);
+        r.put("createdDate", Referral::getCreatedDate);
+        REFERRAL = Collections.unmodifiableMap(r);
+    }
+
+    private QueryFields() {
+    }
+}
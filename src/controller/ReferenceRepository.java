@@ -0,0 +1,151 @@
+package controller;
+
+import util.SearchIndex;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Read-only, in-memory repository for reference data (clinicians,
+ * facilities, staff). Records are kept in file order with a hash index on
+ * the primary key and any number of named secondary indexes, so every
+ * lookup is a single hash probe.
+ *
+ * @author Shubhamkumar Prahladbhai Patel
+ * @version 1.0
+ */
+public class ReferenceRepository<T> {
+    private final List<T> records;
+    private final Function<T, String> id;
+    private final Map<String, T> byId;
+    private final Map<String, Map<String, List<T>>> indexes;
+    private final Map<String, SearchIndex> searches;
+
+    /**
+     * Builds the repository and its primary key index.
+     * Later duplicates of an ID are ignored.
+     *
+     * @param records Loaded records, in file order
+     * @param id Primary key of a record
+     */
+    public ReferenceRepository(List<T> records, Function<T, String> id) {
+        this.records = new ArrayList<>(records.size());
+        this.id = id;
+        this.byId = new HashMap<>(records.size() * 2);
+        this.indexes = new HashMap<>();
+        this.searches = new HashMap<>();
+        for (T record : records) {
+            if (byId.putIfAbsent(id.apply(record), record) == null) {
+                this.records.add(record);
+            } else {
+                System.err.println("Ignoring duplicate reference record " + id.apply(record));
+            }
+        }
+    }
+
+    /**
+     * Adds a secondary index on a single-valued key. Blank keys are not indexed.
+     *
+     * @param name Index name used by {@link #findBy(String, String)}
+     * @param key Key of a record
+     */
+    public void addIndex(String name, Function<T, String> key) {
+        addMultiIndex(name, record -> Collections.singletonList(key.apply(record)));
+    }
+
+    /**
+     * Adds a secondary index where a record can have several keys,
+     * e.g. a facility offering several specialities.
+     *
+     * @param name Index name used by {@link #findBy(String, String)}
+     * @param keys Keys of a record
+     */
+    public void addMultiIndex(String name, Function<T, ? extends Collection<String>> keys) {
+        Map<String, List<T>> index = new HashMap<>();
+        for (T record : records) {
+            for (String key : keys.apply(record)) {
+                if (key != null && !key.trim().isEmpty()) {
+                    index.computeIfAbsent(key.trim(), k -> new ArrayList<>(2)).add(record);
+                }
+            }
+        }
+        indexes.put(name, index);
+    }
+
+    /**
+     * Adds a search index over one or more text fields, such as a postcode
+     * trie.
+     *
+     * @param name Index name used by {@link #search(String, String, int)}
+     * @param index Empty index to fill
+     * @param fields Text fields of a record, passed to the index in this order
+     */
+    public void addSearchIndex(String name, SearchIndex index, List<Function<T, String>> fields) {
+        for (T record : records) {
+            List<String> values = new ArrayList<>(fields.size());
+            for (Function<T, String> field : fields) values.add(field.apply(record));
+            index.put(id.apply(record), values);
+        }
+        searches.put(name, index);
+    }
+
+    /**
+     * Finds a record by primary key.
+     *
+     * @return The record, or null if not found
+     */
+    public T findById(String id) {
+        return id == null ? null : byId.get(id);
+    }
+
+    /**
+     * Finds records through a secondary index.
+     *
+     * @param index Index name
+     * @param key Key to look up
+     * @return Matching records in file order (empty if none)
+     */
+    public List<T> findBy(String index, String key) {
+        Map<String, List<T>> entries = indexes.get(index);
+        if (entries == null) {
+            throw new IllegalArgumentException("No index named " + index);
+        }
+        List<T> matches = key == null ? null : entries.get(key.trim());
+        return matches == null ? Collections.emptyList() : Collections.unmodifiableList(matches);
+    }
+
+    /**
+     * Finds records through a search index.
+     *
+     * @param name Index name
+     * @param query Query in the syntax of that index
+     * @param limit Maximum number of records
+     * @return Matching records in the order the index ranks them
+     */
+    public List<T> search(String name, String query, int limit) {
+        SearchIndex index = searches.get(name);
+        if (index == null) {
+            throw new IllegalArgumentException("No search index named " + name);
+        }
+        List<T> matches = new ArrayList<>();
+        for (String match : index.search(query, limit)) {
+            matches.add(byId.get(match));
+        }
+        return matches;
+    }
+
+    /**
+     * Distinct keys of a secondary index.
+     */
+    public Set<String> keys(String index) {
+        Map<String, List<T>> entries = indexes.get(index);
+        return entries == null ? Collections.emptySet() : Collections.unmodifiableSet(entries.keySet());
+    }
+
+    public List<T> getAll() {
+        return Collections.unmodifiableList(records);
+    }
+
+    public int size() {
+        return records.size();
+    }
+}
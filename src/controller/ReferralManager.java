@@ -1,13 +1,18 @@
 package controller;
 
 import model.Referral;
+import util.IdAllocator;
+import util.MutationJournal;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
 import java.io.*;
 
 /**
  * Singleton ReferralManager - ensures single instance for referral management.
  * Manages all referrals with centralized control and audit trail.
+ * Writes synchronize on the manager; reads take no lock.
  * 
  * DESIGN PATTERN: Singleton (Eager Initialization)
  * 
@@ -18,16 +23,31 @@ public class ReferralManager {
     // Eager initialization - single instance created at class loading
     private static final ReferralManager INSTANCE = new ReferralManager();
     
-    private List<Referral> referrals;
-    private int referralCounter;
+    // Prefix of referral IDs, e.g. R001
+    static final String ID_PREFIX = "R";
+    // Full-text index over the clinical text of a referral
+    private static final String BY_TEXT = "text";
+    
+    private final EntityStore<Referral> referrals;
+    private volatile IdAllocator ids;
+    private ChangeTracker<Referral> changes;
+    private volatile MutationJournal journal;
+    private volatile ChangeEventBus events;
     
     /**
      * Private constructor prevents external instantiation.
      * This ensures only one instance exists (Singleton pattern).
      */
     private ReferralManager() {
-        this.referrals = new ArrayList<>();
-        this.referralCounter = 1000;
+        this.referrals = new EntityStore<>(Referral::getReferralId);
+        // Indexes are named after the field they cover, for queries
+        this.referrals.addIndex("patientId", Referral::getPatientId);
+        this.referrals.addIndex("referredToFacilityId", Referral::getReferredToFacilityId);
+        this.referrals.addTextIndex(BY_TEXT, Arrays.asList(Referral::getReferralReason,
+                                                           Referral::getClinicalSummary,
+                                                           Referral::getRequestedInvestigations,
+                                                           Referral::getNotes));
+        this.changes = new ChangeTracker<>();
         System.out.println("[SINGLETON] ReferralManager instance created");
     }
     
@@ -46,22 +66,103 @@ public class ReferralManager {
      * @param referral Referral to add
      * @return true if added successfully
      */
-    public boolean addReferral(Referral referral) {
-        if (referral != null) {
-            referrals.add(referral);
+    public synchronized boolean addReferral(Referral referral) {
+        if (referral != null && referrals.add(referral)) {
+            changes.recordAdd(referral.getReferralId(), referral);
+            journal(MutationJournal.ADD, referral.getReferralId(), referral.toCSV());
+            publish(referral.getReferralId(), null, referral);
             logAction("Added referral: " + referral.getReferralId());
             return true;
         }
         return false;
     }
     
+    /**
+     * Replaces the current referrals with a freshly loaded set.
+     * Used at start-up, so individual records are not logged.
+     * 
+     * @param loaded Referrals read from storage
+     */
+    public synchronized void loadReferrals(List<Referral> loaded) {
+        referrals.loadAll(loaded);
+        changes.clear();
+        logAction("Loaded " + referrals.size() + " referrals");
+    }
+    
+    /**
+     * Sets the journal that referral mutations are logged to.
+     * 
+     * @param journal Shared mutation journal, or null to disable journaling
+     */
+    public void setJournal(MutationJournal journal) {
+        this.journal = journal;
+    }
+    
+    /**
+     * Sets the allocator referral IDs are minted from.
+     * 
+     * @param ids Shared ID allocator, seeded with the loaded referral IDs
+     */
+    public void setIdAllocator(IdAllocator ids) {
+        this.ids = ids;
+    }
+    
+    /**
+     * Sets the bus that referral changes are published to.
+     * 
+     * @param events Shared change-event bus, or null to publish nothing
+     */
+    public void setEventBus(ChangeEventBus events) {
+        this.events = events;
+    }
+    
+    /** True if anyone is subscribed to changes, so before images are worth reading. */
+    private boolean watched() {
+        ChangeEventBus bus = events;
+        return bus != null && bus.hasSubscribers();
+    }
+    
+    private void publish(String referralId, Referral before, Referral after) {
+        ChangeEventBus bus = events;
+        if (bus != null) {
+            bus.publish(Referral.class, referralId, before, after, Referral::getReferralId, referrals.version());
+        }
+    }
+    
+    private void journal(String op, String referralId, String csvRow) {
+        if (journal != null) {
+            journal.append(op, DataManager.REFERRAL, referralId, csvRow);
+        }
+    }
+    
+    /**
+     * Re-applies a journaled referral mutation without journaling it again.
+     * 
+     * @param op Journal operation
+     * @param referralId ID of the affected referral
+     * @param referral Referral state after the mutation, null for a delete
+     */
+    synchronized void replay(String op, String referralId, Referral referral) {
+        if (MutationJournal.DELETE.equals(op)) {
+            if (referrals.remove(referralId) != null) {
+                changes.recordDelete(referralId);
+            }
+        } else if (referral != null) {
+            if (referrals.update(referralId, referral)) {
+                changes.recordUpdate(referralId, referral);
+            } else if (referrals.add(referral)) {
+                changes.recordAdd(referralId, referral);
+            }
+        }
+    }
+    
     /**
      * Retrieves all referrals in the system.
      * 
      * @return List of all referrals
      */
     public List<Referral> getAllReferrals() {
-        return new ArrayList<>(referrals);
+        return referrals.snapshot();
     }
     
     /**
@@ -71,12 +172,19 @@ public class ReferralManager {
      * @return Referral if found, null otherwise
      */
     public Referral findReferralById(String referralId) {
-        for (Referral ref : referrals) {
-            if (ref.getReferralId().equals(referralId)) {
-                return ref;
-            }
-        }
-        return null;
+        return referrals.get(referralId);
+    }
+    
+    /**
+     * Searches the reason, clinical summary, requested investigations and
+     * notes of every referral. The index is built on the first search.
+     * 
+     * @param query Words, and phrases in double quotes that must all match
+     * @param limit Maximum number of referrals to return
+     * @return Matching referrals, most relevant first
+     */
+    public List<Referral> searchReferrals(String query, int limit) {
+        return referrals.search(BY_TEXT, query, limit);
     }
     
     /**
@@ -86,13 +194,14 @@ public class ReferralManager {
      * @param updatedReferral Updated referral data
      * @return true if updated successfully
      */
-    public boolean updateReferral(String referralId, Referral updatedReferral) {
-        for (int i = 0; i < referrals.size(); i++) {
-            if (referrals.get(i).getReferralId().equals(referralId)) {
-                referrals.set(i, updatedReferral);
-                logAction("Updated referral: " + referralId);
-                return true;
-            }
+    public synchronized boolean updateReferral(String referralId, Referral updatedReferral) {
+        Referral before = watched() ? referrals.get(referralId) : null;
+        if (referrals.update(referralId, updatedReferral)) {
+            changes.recordUpdate(referralId, updatedReferral);
+            journal(MutationJournal.UPDATE, referralId, updatedReferral.toCSV());
+            publish(referralId, before, updatedReferral);
+            logAction("Updated referral: " + referralId);
+            return true;
         }
         return false;
     }
@@ -103,24 +212,56 @@ public class ReferralManager {
      * @param referralId ID of referral to delete
      * @return true if deleted successfully
      */
-    public boolean deleteReferral(String referralId) {
-        for (int i = 0; i < referrals.size(); i++) {
-            if (referrals.get(i).getReferralId().equals(referralId)) {
-                referrals.remove(i);
-                logAction("Deleted referral: " + referralId);
-                return true;
-            }
+    public synchronized boolean deleteReferral(String referralId) {
+        Referral removed = referrals.remove(referralId);
+        if (removed != null) {
+            changes.recordDelete(referralId);
+            journal(MutationJournal.DELETE, referralId, "");
+            publish(referralId, removed, null);
+            logAction("Deleted referral: " + referralId);
+            return true;
         }
         return false;
     }
     
+    /**
+     * Removes referrals that have been moved to the archive.
+     * 
+     * @param referralIds IDs of the archived referrals
+     * @return Number of referrals removed
+     */
+    synchronized int removeArchived(Set<String> referralIds) {
+        int removed = 0;
+        ChangeEventBus bus = watched() ? events : null;
+        List<ChangeEvent<?>> batch = new ArrayList<>();
+        for (String id : referralIds) {
+            Referral old = referrals.remove(id);
+            if (old != null) {
+                changes.recordDelete(id);
+                journal(MutationJournal.DELETE, id, "");
+                if (bus != null) {
+                    batch.add(new ChangeEvent<>(Referral.class, id, old, null, referrals.version()));
+                }
+                removed++;
+            }
+        }
+        if (!batch.isEmpty()) {
+            bus.publish(batch);
+        }
+        logAction("Archived " + removed + " referrals");
+        return removed;
+    }
+    
     /**
      * Generates a unique referral ID.
      * 
      * @return New unique referral ID
      */
     public String generateReferralId() {
-        return "R" + (++referralCounter);
+        if (ids == null) {
+            throw new IllegalStateException("Referral IDs are not available before data is loaded");
+        }
+        return ids.next(ID_PREFIX);
     }
     
     /**
@@ -130,13 +271,24 @@ public class ReferralManager {
      * @return true if sent successfully
      */
     public boolean sendReferral(Referral referral) {
-        if (referral != null) {
-            referral.sendReferral();
-            saveReferralToFile(referral);
-            logAction("Sent referral: " + referral.getReferralId());
-            return true;
+        if (referral == null) {
+            return false;
         }
-        return false;
+        Referral sent = referral.copy();
+        sent.sendReferral();
+        synchronized (this) {
+            Referral before = watched() ? referrals.get(sent.getReferralId()) : null;
+            if (!referrals.update(sent.getReferralId(), sent)) {
+                return false;
+            }
+            changes.recordUpdate(sent.getReferralId(), sent);
+            journal(MutationJournal.UPDATE, sent.getReferralId(), sent.toCSV());
+            publish(sent.getReferralId(), before, sent);
+        }
+        // The notification file is written outside the lock, like a prescription's
+        saveReferralToFile(sent);
+        logAction("Sent referral: " + sent.getReferralId());
+        return true;
     }
     
     /**
@@ -199,6 +351,30 @@ public class ReferralManager {
         System.out.println("[" + timestamp + "] " + action);
     }
     
+    /**
+     * Gets the tracker of referral changes not yet written to disk.
+     * 
+     * @return Change tracker for referrals
+     */
+    public ChangeTracker<Referral> getChangeTracker() {
+        return changes;
+    }
+    
+    /**
+     * Version number of the latest write to the referrals. Callers that
+     * pair it with {@link #getAllReferrals()} hold the manager's monitor.
+     */
+    long getVersion() {
+        return referrals.version();
+    }
+    
+    /**
+     * The underlying store, for queries.
+     */
+    EntityStore<Referral> getStore() {
+        return referrals;
+    }
+    
     /**
      * Gets total number of referrals.
      * 
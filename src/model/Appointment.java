@@ -1,12 +1,15 @@
 package model;
 
+import util.CSVFields;
+import java.util.function.Supplier;
+
 /**
  * Appointment class representing scheduled appointments in the healthcare system.
  * 
  * @author Shubhamkumar Prahladbhai Patel
  * @version 1.0
  */
-public class Appointment {
+public class Appointment implements Cloneable {
     private String appointmentId;
     private String patientId;
     private String clinicianId;
@@ -18,6 +21,7 @@ public class Appointment {
     private String status; // Scheduled, Confirmed, Cancelled, Completed
     private String reasonForVisit;
     private String notes;
+    private Supplier<String> notesLoader; // set when notes are read from disk on demand
     private String createdDate;
     private String lastModified;
     
@@ -74,7 +78,7 @@ public class Appointment {
     public String getAppointmentType() { return appointmentType; }
     public String getStatus() { return status; }
     public String getReasonForVisit() { return reasonForVisit; }
-    public String getNotes() { return notes; }
+    public String getNotes() { return notesLoader != null ? notesLoader.get() : notes; }
     public String getCreatedDate() { return createdDate; }
     public String getLastModified() { return lastModified; }
     
@@ -89,7 +93,8 @@ public class Appointment {
     public void setAppointmentType(String type) { this.appointmentType = type; }
     public void setStatus(String status) { this.status = status; }
     public void setReasonForVisit(String reason) { this.reasonForVisit = reason; }
-    public void setNotes(String notes) { this.notes = notes; }
+    public void setNotes(String notes) { this.notes = notes; this.notesLoader = null; }
+    public void setNotesLoader(Supplier<String> loader) { this.notesLoader = loader; }
     public void setCreatedDate(String date) { this.createdDate = date; }
     public void setLastModified(String date) { this.lastModified = date; }
     
@@ -158,15 +163,40 @@ public class Appointment {
                ", Status: " + status;
     }
     
+    /**
+     * Field values in CSV column order, as toCSV() writes them.
+     * 
+     * @return One value per column
+     */
+    public Object[] toFields() {
+        return new Object[] {appointmentId, patientId, clinicianId, 
+               facilityId, appointmentDate, appointmentTime, 
+               durationMinutes, appointmentType, status, 
+               reasonForVisit, getNotes(), createdDate, lastModified};
+    }
+    
     /**
      * Converts appointment data to CSV format.
      * 
      * @return CSV string representation
      */
     public String toCSV() {
-        return appointmentId + "," + patientId + "," + clinicianId + "," + 
-               facilityId + "," + appointmentDate + "," + appointmentTime + "," + 
-               durationMinutes + "," + appointmentType + "," + status + "," + 
-               reasonForVisit + ",\"" + notes + "\"," + createdDate + "," + lastModified;
+        return CSVFields.join(toFields());
+    }
+    
+    /**
+     * Shallow copy for the edit dialog. Every field is a String or a
+     * number, so editing the copy never touches the stored appointment;
+     * notes still on disk are fetched by the copy on demand.
+     * 
+     * @return Copy of this appointment
+     */
+    public Appointment copy() {
+        try {
+            Appointment copy = (Appointment) clone();
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
     }
 }
@@ -1,5 +1,7 @@
 package model;
 
+import util.CSVFields;
+
 /**
  * Abstract Clinician class representing medical professionals.
  * This serves as a parent class for GP, Specialist, and Nurse.
@@ -129,9 +131,9 @@ public abstract class Clinician extends User {
      * @return CSV string representation
      */
     public String toCSV() {
-        return clinicianId + "," + title + " " + firstName + "," + lastName + "," + 
-               title + "," + specialty + "," + gmcNumber + "," + contactInfo + "," + 
-               email + "," + workplaceId + "," + workplaceType + "," + 
-               employmentStatus + "," + startDate;
+        return CSVFields.join(clinicianId, title + " " + firstName, lastName, 
+               title, specialty, gmcNumber, contactInfo, 
+               email, workplaceId, workplaceType, 
+               employmentStatus, startDate);
     }
 }
@@ -0,0 +1,145 @@
+package model;
+
+import util.CSVFields;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Facility class representing a GP surgery or hospital.
+ * 
+ * @author Shubhamkumar Prahladbhai Patel
+ * @version 1.0
+ */
+public class Facility {
+    private String facilityId;
+    private String facilityName;
+    private String facilityType;
+    private String address;
+    private String postcode;
+    private String phoneNumber;
+    private String email;
+    private String openingHours;
+    private String managerName;
+    private int capacity;
+    private List<String> specialitiesOffered;
+    
+    /**
+     * Default constructor for Facility class.
+     */
+    public Facility() {
+        this.facilityId = "";
+        this.facilityName = "";
+        this.facilityType = "";
+        this.address = "";
+        this.postcode = "";
+        this.phoneNumber = "";
+        this.email = "";
+        this.openingHours = "";
+        this.managerName = "";
+        this.capacity = 0;
+        this.specialitiesOffered = new ArrayList<>();
+    }
+    
+    /**
+     * Parameterized constructor for Facility class.
+     * 
+     * @param facilityId Unique facility identifier
+     * @param facilityName Name of the facility
+     * @param facilityType GP Surgery, Hospital
+     * @param address Street address
+     * @param postcode Postal code
+     * @param phoneNumber Contact phone number
+     * @param email Contact email address
+     * @param openingHours Opening hours description
+     * @param managerName Name of the facility manager
+     * @param capacity Number of registered patients or beds
+     * @param specialitiesOffered Pipe-separated list of specialities
+     */
+    public Facility(String facilityId, String facilityName, String facilityType, String address,
+                    String postcode, String phoneNumber, String email, String openingHours,
+                    String managerName, int capacity, String specialitiesOffered) {
+        this.facilityId = facilityId;
+        this.facilityName = facilityName;
+        this.facilityType = facilityType;
+        this.address = address;
+        this.postcode = postcode;
+        this.phoneNumber = phoneNumber;
+        this.email = email;
+        this.openingHours = openingHours;
+        this.managerName = managerName;
+        this.capacity = capacity;
+        this.specialitiesOffered = new ArrayList<>();
+        setSpecialitiesOffered(specialitiesOffered);
+    }
+    
+    // Getter methods
+    public String getFacilityId() { return facilityId; }
+    public String getFacilityName() { return facilityName; }
+    public String getFacilityType() { return facilityType; }
+    public String getAddress() { return address; }
+    public String getPostcode() { return postcode; }
+    public String getPhoneNumber() { return phoneNumber; }
+    public String getEmail() { return email; }
+    public String getOpeningHours() { return openingHours; }
+    public String getManagerName() { return managerName; }
+    public int getCapacity() { return capacity; }
+    public List<String> getSpecialitiesOffered() { return specialitiesOffered; }
+    
+    // Setter methods
+    public void setFacilityId(String id) { this.facilityId = id; }
+    public void setFacilityName(String name) { this.facilityName = name; }
+    public void setFacilityType(String type) { this.facilityType = type; }
+    public void setAddress(String address) { this.address = address; }
+    public void setPostcode(String postcode) { this.postcode = postcode; }
+    public void setPhoneNumber(String phone) { this.phoneNumber = phone; }
+    public void setEmail(String email) { this.email = email; }
+    public void setOpeningHours(String hours) { this.openingHours = hours; }
+    public void setManagerName(String name) { this.managerName = name; }
+    public void setCapacity(int capacity) { this.capacity = capacity; }
+    
+    /**
+     * Sets the specialities from their CSV form, e.g. "Cardiology|Oncology".
+     * 
+     * @param specialities Pipe-separated list of specialities
+     */
+    public void setSpecialitiesOffered(String specialities) {
+        specialitiesOffered.clear();
+        if (specialities != null && !specialities.trim().isEmpty()) {
+            for (String s : specialities.split("\\|")) {
+                if (!s.trim().isEmpty()) specialitiesOffered.add(s.trim());
+            }
+        }
+    }
+    
+    /**
+     * Checks whether the facility offers a speciality.
+     * 
+     * @param speciality Speciality name
+     * @return true if offered
+     */
+    public boolean offers(String speciality) {
+        return specialitiesOffered.contains(speciality);
+    }
+    
+    /**
+     * Returns a string representation of the Facility.
+     * 
+     * @return String containing facility details
+     */
+    @Override
+    public String toString() {
+        return "Facility ID: " + facilityId + ", Name: " + facilityName +
+               ", Type: " + facilityType + ", Postcode: " + postcode;
+    }
+    
+    /**
+     * Converts facility data to CSV format.
+     * 
+     * @return CSV string representation
+     */
+    public String toCSV() {
+        return CSVFields.join(facilityId, facilityName, facilityType, address,
+               postcode, phoneNumber, email, openingHours,
+               managerName, capacity, String.join("|", specialitiesOffered));
+    }
+}
@@ -1,5 +1,6 @@
 package model;
 
+import util.CSVFields;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -10,7 +11,7 @@ import java.util.List;
  * @author Shubhamkumar Prahladbhai Patel
  * @version 1.0
  */
-public class Patient extends User {
+public class Patient extends User implements Cloneable {
     private String nhsNumber;
     private String dateOfBirth;
     private String address;
@@ -194,15 +195,42 @@ public class Patient extends User {
                ", Gender: " + gender + ", Email: " + email;
     }
     
+    /**
+     * Field values in CSV column order, as toCSV() writes them.
+     * 
+     * @return One value per column
+     */
+    public Object[] toFields() {
+        return new Object[] {userId, firstName, lastName, dateOfBirth,
+               nhsNumber, gender, contactInfo, email,
+               address, postcode, emergencyContactName,
+               emergencyContactPhone, registrationDate, gpSurgeryId};
+    }
+    
     /**
      * Converts patient data to CSV format.
      * 
      * @return CSV string representation
      */
     public String toCSV() {
-        return userId + "," + firstName + "," + lastName + "," + dateOfBirth + "," +
-               nhsNumber + "," + gender + "," + contactInfo + "," + email + "," +
-               "\"" + address + "\"," + postcode + "," + emergencyContactName + "," +
-               emergencyContactPhone + "," + registrationDate + "," + gpSurgeryId;
+        return CSVFields.join(toFields());
+    }
+    
+    /**
+     * Copy of this patient with its own appointment and clinical record
+     * lists, so adding to either on the copy leaves the stored patient as
+     * it was.
+     * 
+     * @return Copy of this patient
+     */
+    public Patient copy() {
+        try {
+            Patient copy = (Patient) clone();
+            copy.appointments = new ArrayList<>(appointments);
+            copy.clinicalRecords = new ArrayList<>(clinicalRecords);
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
     }
 }
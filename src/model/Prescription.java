@@ -1,10 +1,13 @@
 package model;
 
+import util.CSVFields;
+import java.util.function.Supplier;
+
 /**
  * Prescription class representing medical prescriptions.
  * @author Shubhamkumar Prahladbhai Patel
  */
-public class Prescription {
+public class Prescription implements Cloneable {
     private String prescriptionId;
     private String patientId;
     private String clinicianId;
@@ -16,6 +19,7 @@ public class Prescription {
     private int durationDays;
     private int quantity;
     private String instructions;
+    private Supplier<String> instructionsLoader; // set when instructions are read from disk on demand
     private String pharmacyName;
     private String status;
     private String issueDate;
@@ -73,7 +77,7 @@ public class Prescription {
     public String getFrequency() { return frequency; }
     public int getDurationDays() { return durationDays; }
     public int getQuantity() { return quantity; }
-    public String getInstructions() { return instructions; }
+    public String getInstructions() { return instructionsLoader != null ? instructionsLoader.get() : instructions; }
     public String getPharmacyName() { return pharmacyName; }
     public String getStatus() { return status; }
     public String getIssueDate() { return issueDate; }
@@ -90,7 +94,8 @@ public class Prescription {
     public void setFrequency(String frequency) { this.frequency = frequency; }
     public void setDurationDays(int days) { this.durationDays = days; }
     public void setQuantity(int quantity) { this.quantity = quantity; }
-    public void setInstructions(String instructions) { this.instructions = instructions; }
+    public void setInstructions(String instructions) { this.instructions = instructions; this.instructionsLoader = null; }
+    public void setInstructionsLoader(Supplier<String> loader) { this.instructionsLoader = loader; }
     public void setPharmacyName(String name) { this.pharmacyName = name; }
     public void setStatus(String status) { this.status = status; }
     public void setIssueDate(String date) { this.issueDate = date; }
@@ -111,11 +116,36 @@ public class Prescription {
                ", Status: " + status;
     }
     
+    /**
+     * Field values in CSV column order, as toCSV() writes them.
+     *
+     * @return One value per column
+     */
+    public Object[] toFields() {
+        return new Object[] {prescriptionId, patientId, clinicianId,
+               appointmentId, prescriptionDate, medicationName,
+               dosage, frequency, durationDays, quantity,
+               getInstructions(), pharmacyName, status,
+               issueDate, collectionDate};
+    }
+    
     public String toCSV() {
-        return prescriptionId + "," + patientId + "," + clinicianId + "," +
-               appointmentId + "," + prescriptionDate + "," + medicationName + "," +
-               dosage + "," + frequency + "," + durationDays + "," + quantity + "," +
-               instructions + "," + pharmacyName + "," + status + "," +
-               issueDate + "," + collectionDate;
+        return CSVFields.join(toFields());
+    }
+    
+    /**
+     * Field-for-field copy, safe to edit because every field is a String
+     * or a number. Instructions left on disk stay shared with the original
+     * until either one sets them.
+     * 
+     * @return Copy of this prescription
+     */
+    public Prescription copy() {
+        try {
+            Prescription copy = (Prescription) clone();
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
     }
 }
@@ -1,10 +1,13 @@
 package model;
 
+import util.CSVFields;
+import java.util.function.Supplier;
+
 /**
  * Referral class representing patient referrals between clinicians.
  * @author Shubhamkumar Prahladbhai Patel
  */
-public class Referral {
+public class Referral implements Cloneable {
     private String referralId;
     private String patientId;
     private String referringClinicianId;
@@ -21,6 +24,9 @@ public class Referral {
     private String notes;
     private String createdDate;
     private String lastUpdated;
+    // Set when the long text fields are read from disk on demand
+    private Supplier<String> clinicalSummaryLoader;
+    private Supplier<String> notesLoader;
 
     public Referral() {
         this.referralId = "";
@@ -51,11 +57,13 @@ public class Referral {
     public String getReferralDate() { return referralDate; }
     public String getUrgencyLevel() { return urgencyLevel; }
     public String getReferralReason() { return referralReason; }
-    public String getClinicalSummary() { return clinicalSummary; }
+    public String getClinicalSummary() {
+        return clinicalSummaryLoader != null ? clinicalSummaryLoader.get() : clinicalSummary;
+    }
     public String getRequestedInvestigations() { return requestedInvestigations; }
     public String getStatus() { return status; }
     public String getAppointmentId() { return appointmentId; }
-    public String getNotes() { return notes; }
+    public String getNotes() { return notesLoader != null ? notesLoader.get() : notes; }
     public String getCreatedDate() { return createdDate; }
     public String getLastUpdated() { return lastUpdated; }
 
@@ -69,11 +77,16 @@ public class Referral {
     public void setReferralDate(String date) { this.referralDate = date; }
     public void setUrgencyLevel(String level) { this.urgencyLevel = level; }
     public void setReferralReason(String reason) { this.referralReason = reason; }
-    public void setClinicalSummary(String summary) { this.clinicalSummary = summary; }
+    public void setClinicalSummary(String summary) {
+        this.clinicalSummary = summary;
+        this.clinicalSummaryLoader = null;
+    }
+    public void setClinicalSummaryLoader(Supplier<String> loader) { this.clinicalSummaryLoader = loader; }
     public void setRequestedInvestigations(String investigations) { this.requestedInvestigations = investigations; }
     public void setStatus(String status) { this.status = status; }
     public void setAppointmentId(String id) { this.appointmentId = id; }
-    public void setNotes(String notes) { this.notes = notes; }
+    public void setNotes(String notes) { this.notes = notes; this.notesLoader = null; }
+    public void setNotesLoader(Supplier<String> loader) { this.notesLoader = loader; }
     public void setCreatedDate(String date) { this.createdDate = date; }
     public void setLastUpdated(String date) { this.lastUpdated = date; }
 
@@ -98,12 +111,37 @@ public class Referral {
                 ", Urgency: " + urgencyLevel + ", Status: " + status;
     }
 
+    /**
+     * Field values in CSV column order, as toCSV() writes them.
+     *
+     * @return One value per column
+     */
+    public Object[] toFields() {
+        return new Object[] {referralId, patientId, referringClinicianId,
+                referredToClinicianId, referringFacilityId,
+                referredToFacilityId, referralDate, urgencyLevel,
+                referralReason, getClinicalSummary(),
+                requestedInvestigations, status, appointmentId,
+                getNotes(), createdDate, lastUpdated};
+    }
+
     public String toCSV() {
-        return referralId + "," + patientId + "," + referringClinicianId + "," +
-                referredToClinicianId + "," + referringFacilityId + "," +
-                referredToFacilityId + "," + referralDate + "," + urgencyLevel + "," +
-                referralReason + ",\"" + clinicalSummary + "\"," +
-                requestedInvestigations + "," + status + "," + appointmentId + "," +
-                "\"" + notes + "\"," + createdDate + "," + lastUpdated;
+        return CSVFields.join(toFields());
+    }
+
+    /**
+     * Field-for-field copy; sending or accepting a referral works on one,
+     * so the stored referral only changes when the copy is saved. A clinical
+     * summary or notes still on disk are read from it by both, until set.
+     *
+     * @return Copy of this referral
+     */
+    public Referral copy() {
+        try {
+            Referral copy = (Referral) clone();
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,111 @@
+package model;
+
+import util.CSVFields;
+
+/**
+ * Staff class representing non-clinical staff at a facility
+ * (practice managers, receptionists, administrators).
+ * Extends the User abstract class.
+ * 
+ * @author Shubhamkumar Prahladbhai Patel
+ * @version 1.0
+ */
+public class Staff extends User {
+    private String department;
+    private String facilityId;
+    private String employmentStatus;
+    private String startDate;
+    private String lineManager;
+    private String accessLevel;
+    
+    /**
+     * Default constructor for Staff class.
+     */
+    public Staff() {
+        super();
+        this.department = "";
+        this.facilityId = "";
+        this.employmentStatus = "";
+        this.startDate = "";
+        this.lineManager = "";
+        this.accessLevel = "";
+    }
+    
+    /**
+     * Parameterized constructor for Staff class.
+     * 
+     * @param staffId Unique staff identifier
+     * @param firstName Staff member's first name
+     * @param lastName Staff member's last name
+     * @param role Job role, e.g. Receptionist
+     * @param department Department within the facility
+     * @param facilityId ID of the facility they work at
+     * @param contactInfo Phone number
+     * @param email Email address
+     * @param employmentStatus Full-time, Part-time
+     * @param startDate Employment start date
+     * @param lineManager Name of line manager
+     * @param accessLevel System access level
+     */
+    public Staff(String staffId, String firstName, String lastName, String role,
+                 String department, String facilityId, String contactInfo, String email,
+                 String employmentStatus, String startDate, String lineManager,
+                 String accessLevel) {
+        super(staffId, "", "", firstName, lastName, contactInfo, role, email);
+        this.department = department;
+        this.facilityId = facilityId;
+        this.employmentStatus = employmentStatus;
+        this.startDate = startDate;
+        this.lineManager = lineManager;
+        this.accessLevel = accessLevel;
+    }
+    
+    // Getter methods
+    public String getStaffId() { return userId; }
+    public String getDepartment() { return department; }
+    public String getFacilityId() { return facilityId; }
+    public String getEmploymentStatus() { return employmentStatus; }
+    public String getStartDate() { return startDate; }
+    public String getLineManager() { return lineManager; }
+    public String getAccessLevel() { return accessLevel; }
+    
+    // Setter methods
+    public void setDepartment(String department) { this.department = department; }
+    public void setFacilityId(String id) { this.facilityId = id; }
+    public void setEmploymentStatus(String status) { this.employmentStatus = status; }
+    public void setStartDate(String date) { this.startDate = date; }
+    public void setLineManager(String manager) { this.lineManager = manager; }
+    public void setAccessLevel(String level) { this.accessLevel = level; }
+    
+    /**
+     * Authenticates the staff member (placeholder implementation).
+     * 
+     * @return true if authenticated
+     */
+    @Override
+    public boolean authenticate() {
+        return !userId.isEmpty() && !accessLevel.isEmpty();
+    }
+    
+    /**
+     * Returns a string representation of the Staff member.
+     * 
+     * @return String containing staff details
+     */
+    @Override
+    public String toString() {
+        return "Staff ID: " + userId + ", Name: " + getFullName() +
+               ", Role: " + role + ", Facility: " + facilityId;
+    }
+    
+    /**
+     * Converts staff data to CSV format.
+     * 
+     * @return CSV string representation
+     */
+    public String toCSV() {
+        return CSVFields.join(userId, firstName, lastName, role,
+               department, facilityId, contactInfo, email,
+               employmentStatus, startDate, lineManager, accessLevel);
+    }
+}
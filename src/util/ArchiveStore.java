@@ -0,0 +1,258 @@
+package util;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Cold storage for historical records of one entity type.
+ *
+ * Records are written once into immutable segment files
+ * (archive/NAME-000001.seg, ...). A segment is a series of deflate-compressed
+ * blocks of CSV rows followed by a block index. Each index entry holds the
+ * block's offset, sizes, CRC32 and the date range of its rows, so a scan for
+ * a date range only decompresses blocks that can contain matches.
+ *
+ * @author Shubhamkumar Prahladbhai Patel
+ */
+public class ArchiveStore {
+    private static final int MAGIC = 0x484D5341; // "HMSA"
+    private static final int VERSION = 1;
+    private static final int ROWS_PER_BLOCK = 1024;
+
+    private final Path directory;
+    private final String name;
+
+    /**
+     * @param directory Directory holding the segment files
+     * @param name Entity file name, e.g. "appointments"
+     */
+    public ArchiveStore(Path directory, String name) {
+        this.directory = directory;
+        this.name = name;
+    }
+
+    /**
+     * Writes records into a new segment. The segment is fsynced and moved
+     * into place atomically before this method returns.
+     *
+     * @param rows CSV rows to archive
+     * @param dates Date of each row, used for block pruning
+     */
+    public void write(List<String> rows, List<LocalDate> dates) throws IOException {
+        if (rows.isEmpty()) {
+            return;
+        }
+        // Sort by date so each block covers a narrow date range
+        Integer[] order = new Integer[rows.size()];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, Comparator.comparing(dates::get));
+
+        Files.createDirectories(directory);
+        Path target = directory.resolve(String.format("%s-%06d.seg", name, nextSegmentNumber()));
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteArrayOutputStream index = new ByteArrayOutputStream();
+            DataOutputStream indexOut = new DataOutputStream(index);
+            writeFully(out, ByteBuffer.allocate(8).putInt(MAGIC).putInt(VERSION).flip());
+
+            int blocks = 0;
+            Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+            for (int start = 0; start < order.length; start += ROWS_PER_BLOCK) {
+                int end = Math.min(order.length, start + ROWS_PER_BLOCK);
+                StringBuilder sb = new StringBuilder();
+                for (int i = start; i < end; i++) {
+                    sb.append(rows.get(order[i])).append('\n');
+                }
+                byte[] raw = sb.toString().getBytes(StandardCharsets.UTF_8);
+                CRC32 crc = new CRC32();
+                crc.update(raw);
+
+                deflater.reset();
+                deflater.setInput(raw);
+                deflater.finish();
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 4 + 64);
+                byte[] chunk = new byte[8192];
+                while (!deflater.finished()) {
+                    compressed.write(chunk, 0, deflater.deflate(chunk));
+                }
+
+                indexOut.writeLong(out.position());
+                indexOut.writeInt(compressed.size());
+                indexOut.writeInt(raw.length);
+                indexOut.writeInt(end - start);
+                indexOut.writeLong(dates.get(order[start]).toEpochDay());
+                indexOut.writeLong(dates.get(order[end - 1]).toEpochDay());
+                indexOut.writeLong(crc.getValue());
+                writeFully(out, ByteBuffer.wrap(compressed.toByteArray()));
+                blocks++;
+            }
+            deflater.end();
+
+            long indexOffset = out.position();
+            writeFully(out, ByteBuffer.allocate(4).putInt(blocks).flip());
+            writeFully(out, ByteBuffer.wrap(index.toByteArray()));
+            writeFully(out, ByteBuffer.allocate(12).putLong(indexOffset).putInt(MAGIC).flip());
+            out.force(true);
+        }
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Scans archived records, skipping blocks outside the date range.
+     *
+     * @param from First date to include, or null for no lower bound
+     * @param to Last date to include, or null for no upper bound
+     * @param mapper Converts a CSV row to an object
+     * @param filter Keeps matching objects; null keeps everything
+     * @return Matching records, oldest segment first
+     */
+    public <T> List<T> scan(LocalDate from, LocalDate to, Function<? super CSVRow, T> mapper,
+                            Predicate<? super T> filter) throws IOException {
+        long min = from == null ? Long.MIN_VALUE : from.toEpochDay();
+        long max = to == null ? Long.MAX_VALUE : to.toEpochDay();
+        List<T> result = new ArrayList<>();
+        for (Path segment : segments()) {
+            try (FileChannel in = FileChannel.open(segment, StandardOpenOption.READ)) {
+                for (Block block : readIndex(in, segment)) {
+                    if (block.maxDay < min || block.minDay > max) {
+                        continue;
+                    }
+                    try (CSVTokenizer row = new CSVTokenizer(new InputStreamReader(
+                            new ByteArrayInputStream(block.read(in, segment)), StandardCharsets.UTF_8))) {
+                        while (row.nextRecord()) {
+                            T value = mapper.apply(row);
+                            if (value != null && (filter == null || filter.test(value))) {
+                                result.add(value);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private List<Path> segments() throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return Collections.emptyList();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> result = new ArrayList<>();
+            files.filter(p -> {
+                String f = p.getFileName().toString();
+                return f.startsWith(name + "-") && f.endsWith(".seg");
+            }).sorted().forEach(result::add);
+            return result;
+        }
+    }
+
+    private int nextSegmentNumber() throws IOException {
+        int next = 1;
+        for (Path segment : segments()) {
+            String f = segment.getFileName().toString();
+            try {
+                int n = Integer.parseInt(f.substring(name.length() + 1, f.length() - 4));
+                next = Math.max(next, n + 1);
+            } catch (NumberFormatException e) {
+                // not one of ours
+            }
+        }
+        return next;
+    }
+
+    private static List<Block> readIndex(FileChannel in, Path segment) throws IOException {
+        long size = in.size();
+        ByteBuffer tail = ByteBuffer.allocate(12);
+        readFully(in, tail, size - 12);
+        long indexOffset = tail.getLong(0);
+        if (tail.getInt(8) != MAGIC || indexOffset < 8 || indexOffset > size - 16) {
+            throw new IOException("Corrupt archive segment " + segment);
+        }
+        ByteBuffer index = ByteBuffer.allocate((int) (size - 12 - indexOffset));
+        readFully(in, index, indexOffset);
+        int count = index.getInt();
+        List<Block> blocks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Block b = new Block();
+            b.offset = index.getLong();
+            b.compressedLength = index.getInt();
+            b.rawLength = index.getInt();
+            b.rows = index.getInt();
+            b.minDay = index.getLong();
+            b.maxDay = index.getLong();
+            b.crc = index.getLong();
+            blocks.add(b);
+        }
+        return blocks;
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    private static void readFully(FileChannel in, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = in.read(buffer, position + buffer.position());
+            if (n < 0) throw new EOFException();
+        }
+        buffer.flip();
+    }
+
+    /**
+     * One entry of a segment's block index.
+     */
+    private static class Block {
+        long offset;
+        int compressedLength;
+        int rawLength;
+        int rows;
+        long minDay;
+        long maxDay;
+        long crc;
+
+        byte[] read(FileChannel in, Path segment) throws IOException {
+            ByteBuffer compressed = ByteBuffer.allocate(compressedLength);
+            readFully(in, compressed, offset);
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(compressed.array());
+                byte[] raw = new byte[rawLength];
+                int n = 0;
+                while (n < rawLength && !inflater.finished()) {
+                    int read = inflater.inflate(raw, n, rawLength - n);
+                    // Nothing out and nothing more to give it: truncated block or bad index entry
+                    if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new IOException("Corrupt block in " + segment);
+                    }
+                    n += read;
+                }
+                CRC32 check = new CRC32();
+                check.update(raw, 0, n);
+                if (n != rawLength || check.getValue() != crc) {
+                    throw new IOException("Checksum mismatch in " + segment);
+                }
+                return raw;
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt block in " + segment, e);
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+}
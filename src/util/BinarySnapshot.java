@@ -0,0 +1,388 @@
+package util;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Versioned, checksummed, column-oriented binary copy of a CSV file.
+ *
+ * Layout (big-endian):
+ * <pre>
+ *   int magic, int version, long sourceSize, long sourceModified,
+ *   int columnCount, columnCount x string header, int rowCount,
+ *   per column: byte encoding, then
+ *     TEXT: int dictSize, dictSize x string, rowCount x int code
+ *     INT:  rowCount x int
+ *     DATE: rowCount x int epoch day (EMPTY_DATE for "")
+ *   long CRC32 of everything above
+ * </pre>
+ * Strings are an int byte length followed by UTF-8. A hinted INT or DATE
+ * column falls back to TEXT unless every value round-trips exactly, so
+ * reading a snapshot always yields the same strings as parsing the CSV.
+ * The snapshot is stale once the CSV's size or modification time changes.
+ *
+ * @author Shubhamkumar Prahladbhai Patel
+ */
+public class BinarySnapshot {
+    public enum ColumnType { TEXT, INT, DATE }
+
+    private static final int MAGIC = 0x484D5353; // "HMSS"
+    private static final int VERSION = 1;
+    private static final int EMPTY_DATE = Integer.MIN_VALUE;
+
+    private BinarySnapshot() {}
+
+    /**
+     * Checks whether a snapshot exists and matches the current CSV file.
+     */
+    public static boolean isFresh(Path snapshot, Path csv) {
+        if (!Files.exists(snapshot) || !Files.exists(csv)) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(snapshot), 64))) {
+            return in.readInt() == MAGIC
+                && in.readInt() == VERSION
+                && in.readLong() == Files.size(csv)
+                && in.readLong() == Files.getLastModifiedTime(csv).toMillis();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Converts a CSV file (with header row) into a snapshot.
+     *
+     * @param csv Source CSV file
+     * @param snapshot Snapshot file to write
+     * @param hints Preferred encoding per column index; unlisted columns are TEXT
+     */
+    public static void fromCSV(Path csv, Path snapshot, Map<Integer, ColumnType> hints)
+            throws IOException {
+        Builder builder;
+        try (CSVTokenizer row = new CSVTokenizer(Files.newBufferedReader(csv, StandardCharsets.UTF_8))) {
+            if (!row.nextRecord()) {
+                throw new IOException("Missing header in " + csv);
+            }
+            String[] header = new String[row.fieldCount()];
+            for (int i = 0; i < header.length; i++) {
+                header[i] = row.getString(i);
+            }
+            builder = new Builder(header, hints);
+            Object[] fields = new Object[header.length];
+            while (row.nextRecord()) {
+                if (row.fieldCount() < header.length) {
+                    continue; // loaders skip short rows too
+                }
+                for (int i = 0; i < header.length; i++) {
+                    fields[i] = row.getString(i);
+                }
+                builder.add(fields);
+            }
+        }
+        builder.write(snapshot, csv);
+    }
+
+    /**
+     * Collects a snapshot row by row from the values a CSV file is being
+     * written from, so the file need not be parsed again afterwards. Each
+     * value is taken as {@link CSVFields} writes it, which is the string a
+     * parse of the file gives back.
+     */
+    public static class Builder {
+        private final String[] header;
+        private final List<ColumnBuilder> columns = new ArrayList<>();
+        private int rows;
+
+        /**
+         * @param header Column names
+         * @param hints Preferred encoding per column index; unlisted columns are TEXT
+         */
+        public Builder(String[] header, Map<Integer, ColumnType> hints) {
+            this.header = header.clone();
+            for (int i = 0; i < header.length; i++) {
+                columns.add(new ColumnBuilder(hints.getOrDefault(i, ColumnType.TEXT)));
+            }
+        }
+
+        /**
+         * Adds one row; a row shorter than the header is skipped, as the
+         * loaders skip it.
+         */
+        public void add(Object[] fields) {
+            if (fields.length < header.length) {
+                return;
+            }
+            for (int i = 0; i < header.length; i++) {
+                columns.get(i).add(String.valueOf(fields[i]));
+            }
+            rows++;
+        }
+
+        /**
+         * Writes the snapshot, stamped with the CSV file as it is now. Call
+         * this once the CSV holds exactly the rows added.
+         *
+         * @param snapshot Snapshot file to write
+         * @param csv The CSV file the rows were written to
+         */
+        public void write(Path snapshot, Path csv) throws IOException {
+            long sourceSize = Files.size(csv);
+            long sourceModified = Files.getLastModifiedTime(csv).toMillis();
+            Path tmp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+            CRC32 crc = new CRC32();
+            try (OutputStream file = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+                DataOutputStream out = new DataOutputStream(new CheckedOutputStream(file, crc));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(sourceSize);
+                out.writeLong(sourceModified);
+                out.writeInt(header.length);
+                for (String name : header) {
+                    writeString(out, name);
+                }
+                out.writeInt(rows);
+                for (ColumnBuilder column : columns) {
+                    column.write(out);
+                }
+                out.flush();
+                new DataOutputStream(file).writeLong(crc.getValue());
+            }
+            Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * Reads every row of a snapshot.
+     *
+     * @param mapper Converts a row to an object; null results are skipped
+     * @return Mapped rows in their original order
+     */
+    public static <T> List<T> read(Path snapshot, Function<? super CSVRow, T> mapper)
+            throws IOException {
+        Table table = Table.read(snapshot);
+        List<T> result = new ArrayList<>(table.rowCount);
+        Table.RowView row = table.new RowView();
+        for (int r = 0; r < table.rowCount; r++) {
+            row.index = r;
+            T value = mapper.apply(row);
+            if (value != null) result.add(value);
+        }
+        return result;
+    }
+
+    /**
+     * Writes a snapshot back out as a CSV file with its original header.
+     */
+    public static void toCSV(Path snapshot, Path csv) throws IOException {
+        Table table = Table.read(snapshot);
+        Table.RowView row = table.new RowView();
+        Path tmp = csv.resolveSibling(csv.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            out.write(CSVFields.join((Object[]) table.header));
+            out.newLine();
+            String[] fields = new String[table.header.length];
+            for (int r = 0; r < table.rowCount; r++) {
+                row.index = r;
+                for (int c = 0; c < fields.length; c++) {
+                    fields[c] = row.getString(c);
+                }
+                out.write(CSVFields.join((Object[]) fields));
+                out.newLine();
+            }
+        }
+        Files.move(tmp, csv, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        String s = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return s;
+    }
+
+    /**
+     * Accumulates one column while converting. Values are always dictionary
+     * encoded as well, so a hinted column can fall back to TEXT without a
+     * second pass over the rows.
+     */
+    private static class ColumnBuilder {
+        private final ColumnType hint;
+        private boolean typed;
+        private int[] values = new int[1024];
+        private int[] codes = new int[1024];
+        private int size;
+        private final Map<String, Integer> dictionary = new LinkedHashMap<>();
+
+        ColumnBuilder(ColumnType hint) {
+            this.hint = hint;
+            this.typed = hint != ColumnType.TEXT;
+        }
+
+        void add(String value) {
+            if (size == codes.length) {
+                codes = Arrays.copyOf(codes, size * 2);
+                if (typed) values = Arrays.copyOf(values, size * 2);
+            }
+            Integer code = dictionary.get(value);
+            if (code == null) {
+                code = dictionary.size();
+                dictionary.put(value, code);
+            }
+            codes[size] = code;
+            if (typed) {
+                typed = encodeTyped(value);
+            }
+            size++;
+        }
+
+        private boolean encodeTyped(String value) {
+            try {
+                if (hint == ColumnType.INT) {
+                    int v = Integer.parseInt(value);
+                    values[size] = v;
+                    return Integer.toString(v).equals(value);
+                }
+                if (value.isEmpty()) {
+                    values[size] = EMPTY_DATE;
+                    return true;
+                }
+                LocalDate date = LocalDate.parse(value);
+                values[size] = (int) date.toEpochDay();
+                return date.toString().equals(value);
+            } catch (NumberFormatException | DateTimeParseException e) {
+                return false;
+            }
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            ColumnType type = typed ? hint : ColumnType.TEXT;
+            out.writeByte(type.ordinal());
+            if (type == ColumnType.TEXT) {
+                out.writeInt(dictionary.size());
+                for (String value : dictionary.keySet()) {
+                    writeString(out, value);
+                }
+                for (int i = 0; i < size; i++) out.writeInt(codes[i]);
+            } else {
+                for (int i = 0; i < size; i++) out.writeInt(values[i]);
+            }
+        }
+    }
+
+    /**
+     * A decoded snapshot held column by column.
+     */
+    private static class Table {
+        String[] header;
+        int rowCount;
+        ColumnType[] types;
+        String[][] dictionaries;
+        int[][] data;
+        List<Map<Integer, String>> dateCache;
+
+        static Table read(Path snapshot) throws IOException {
+            byte[] bytes = Files.readAllBytes(snapshot);
+            if (bytes.length < 8) {
+                throw new IOException("Truncated snapshot " + snapshot);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length - 8);
+            ByteBuffer in = ByteBuffer.wrap(bytes);
+            if (in.getLong(bytes.length - 8) != crc.getValue()) {
+                throw new IOException("Checksum mismatch in " + snapshot);
+            }
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+                throw new IOException("Unsupported snapshot format in " + snapshot);
+            }
+            in.getLong(); // source size, checked by isFresh
+            in.getLong(); // source modified time
+
+            Table t = new Table();
+            int columns = in.getInt();
+            t.header = new String[columns];
+            for (int c = 0; c < columns; c++) {
+                t.header[c] = readString(in);
+            }
+            t.rowCount = in.getInt();
+            t.types = new ColumnType[columns];
+            t.dictionaries = new String[columns][];
+            t.data = new int[columns][];
+            t.dateCache = new ArrayList<>();
+            for (int c = 0; c < columns; c++) {
+                t.types[c] = ColumnType.values()[in.get()];
+                if (t.types[c] == ColumnType.TEXT) {
+                    String[] dict = new String[in.getInt()];
+                    for (int i = 0; i < dict.length; i++) {
+                        dict[i] = readString(in);
+                    }
+                    t.dictionaries[c] = dict;
+                }
+                int[] column = new int[t.rowCount];
+                in.asIntBuffer().get(column);
+                in.position(in.position() + t.rowCount * 4);
+                t.data[c] = column;
+                t.dateCache.add(t.types[c] == ColumnType.DATE ? new HashMap<>() : null);
+            }
+            return t;
+        }
+
+        /**
+         * Moving cursor over the decoded columns.
+         */
+        class RowView implements CSVRow {
+            int index;
+
+            @Override
+            public int fieldCount() { return header.length; }
+
+            @Override
+            public String getString(int column) {
+                if (column >= header.length) {
+                    return "";
+                }
+                int value = data[column][index];
+                switch (types[column]) {
+                    case INT:
+                        return Integer.toString(value);
+                    case DATE:
+                        if (value == EMPTY_DATE) return "";
+                        // Dates repeat a lot; share one String per distinct day
+                        return dateCache.get(column).computeIfAbsent(value,
+                            d -> LocalDate.ofEpochDay(d).toString());
+                    default:
+                        return dictionaries[column][value];
+                }
+            }
+
+            @Override
+            public int getInt(int column, int defaultValue) {
+                if (column >= header.length) {
+                    return defaultValue;
+                }
+                if (types[column] == ColumnType.INT) {
+                    return data[column][index];
+                }
+                try {
+                    return Integer.parseInt(getString(column).trim());
+                } catch (NumberFormatException e) {
+                    return defaultValue;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package util;
+
+/**
+ * Writes CSV rows the way {@link CSVTokenizer} reads them (RFC-4180).
+ * A field is quoted only when it holds a comma, a quote or a line break,
+ * and quotes inside it are doubled, so free text always reads back as
+ * the one column it was written as.
+ *
+ * @author Shubhamkumar Prahladbhai Patel
+ */
+public final class CSVFields {
+
+    private CSVFields() {
+    }
+
+    /**
+     * Escapes one field for a CSV row.
+     *
+     * @param value Field value; null is written as "null", as before
+     * @return The value, quoted if it needs to be
+     */
+    public static String escape(Object value) {
+        String field = String.valueOf(value);
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                return '"' + field.replace("\"", "\"\"") + '"';
+            }
+        }
+        return field;
+    }
+
+    /**
+     * Joins fields into one CSV row, escaping each.
+     */
+    public static String join(Object... fields) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(escape(fields[i]));
+        }
+        return sb.toString();
+    }
+}
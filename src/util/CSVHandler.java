@@ -2,202 +2,636 @@ package util;
 
 import model.*;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * CSVHandler utility for reading/writing CSV files.
  * @author Shubhamkumar Prahladbhai Patel
  */
 public class CSVHandler {
+    private static final String PATIENT_HEADER =
+        "patient_id,first_name,last_name,date_of_birth,nhs_number,gender,phone_number,email,address,postcode,emergency_contact_name,emergency_contact_phone,registration_date,gp_surgery_id";
+    private static final String APPOINTMENT_HEADER =
+        "appointment_id,patient_id,clinician_id,facility_id,appointment_date,appointment_time,duration_minutes,appointment_type,status,reason_for_visit,notes,created_date,last_modified";
+    private static final String PRESCRIPTION_HEADER =
+        "prescription_id,patient_id,clinician_id,appointment_id,prescription_date,medication_name,dosage,frequency,duration_days,quantity,instructions,pharmacy_name,status,issue_date,collection_date";
+    private static final String REFERRAL_HEADER =
+        "referral_id,patient_id,referring_clinician_id,referred_to_clinician_id,referring_facility_id,referred_to_facility_id,referral_date,urgency_level,referral_reason,clinical_summary,requested_investigations,status,appointment_id,notes,created_date,last_updated";
+    
     private String dataDirectory;
+    private ParallelCSVLoader loader;
+    
+    // Lazy-text mode (-Dhms.lazyText=true): notes, instructions and clinical
+    // summaries stay on disk and are read back by file offset when asked for
+    private final boolean lazyText = Boolean.getBoolean("hms.lazyText");
+    
+    // Per-column dictionaries for low-cardinality columns (IDs of facilities
+    // and clinicians, statuses, types, dates...). Repeated values share one
+    // String instance instead of each row holding its own copy.
+    private final StringDictionary[] patientColumns = dictionaries(14, 5, 12, 13);
+    private final StringDictionary[] appointmentColumns = dictionaries(13, 2, 3, 4, 5, 7, 8, 11, 12);
+    private final StringDictionary[] prescriptionColumns = dictionaries(15, 2, 4, 5, 6, 7, 11, 12, 13, 14);
+    private final StringDictionary[] referralColumns = dictionaries(16, 2, 3, 4, 5, 6, 7, 11, 14, 15);
     
     public CSVHandler(String dataDirectory) {
         this.dataDirectory = dataDirectory;
+        this.loader = new ParallelCSVLoader(ForkJoinPool.commonPool());
     }
     
     public List<Patient> loadPatients() {
-        List<Patient> patients = new ArrayList<>();
-        String file = dataDirectory + "/patients.csv";
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            String line = br.readLine(); // Skip header
-            while ((line = br.readLine()) != null) {
-                String[] data = parseLine(line);
-                if (data.length >= 14) {
-                    Patient p = new Patient(data[0], data[1], data[2], data[3],
-                        data[4], data[5], data[6], data[7], data[8], data[9],
-                        data[10], data[11], data[12], data[13]);
-                    patients.add(p);
+        return load("patients", this::toPatient);
+    }
+    
+    public List<Appointment> loadAppointments() {
+        return loadWithText("appointments", this::toAppointment);
+    }
+    
+    public List<Prescription> loadPrescriptions() {
+        return loadWithText("prescriptions", this::toPrescription);
+    }
+    
+    public List<Referral> loadReferrals() {
+        return loadWithText("referrals", this::toReferral);
+    }
+    
+    // Reference data - read-only, never written back
+    
+    public List<Clinician> loadClinicians() {
+        return load("clinicians", this::toClinician);
+    }
+    
+    public List<Facility> loadFacilities() {
+        return load("facilities", this::toFacility);
+    }
+    
+    public List<Staff> loadStaff() {
+        return load("staff", this::toStaff);
+    }
+    
+    // Streaming cursors: one pass over the file on disk in constant memory.
+    // The filter sees the raw row (columns in header order) and rejected rows
+    // are never turned into objects. Close the stream to release the file.
+    
+    public Stream<Patient> streamPatients(Predicate<? super CSVRow> filter) throws IOException {
+        return stream("patients", this::toPatient, filter);
+    }
+    
+    public Stream<Appointment> streamAppointments(Predicate<? super CSVRow> filter) throws IOException {
+        return stream("appointments", this::toAppointment, filter);
+    }
+    
+    public Stream<Prescription> streamPrescriptions(Predicate<? super CSVRow> filter) throws IOException {
+        return stream("prescriptions", this::toPrescription, filter);
+    }
+    
+    public Stream<Referral> streamReferrals(Predicate<? super CSVRow> filter) throws IOException {
+        return stream("referrals", this::toReferral, filter);
+    }
+    
+    private <T> Stream<T> stream(String name, Function<CSVRow, T> mapper,
+                                 Predicate<? super CSVRow> filter) throws IOException {
+        CSVTokenizer row = new CSVTokenizer(
+            Files.newBufferedReader(Paths.get(dataDirectory, name + ".csv"), StandardCharsets.UTF_8));
+        row.nextRecord(); // Skip header
+        Spliterator<T> rows = new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE,
+                Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                try {
+                    while (row.nextRecord()) {
+                        if (filter != null && !filter.test(row)) {
+                            continue;
+                        }
+                        T value = mapper.apply(row);
+                        if (value != null) {
+                            action.accept(value);
+                            return true;
+                        }
+                    }
+                    return false;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
                 }
             }
+        };
+        return StreamSupport.stream(rows, false).onClose(() -> {
+            try {
+                row.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+    
+    // Archive tier: closed historical records live in compressed segments
+    // under archive/, filed by their record date so that a ranged scan only
+    // decompresses the blocks it needs.
+    
+    /**
+     * Moves appointments into a new archive segment, filed by appointment date.
+     * 
+     * @return true once the segment is safely on disk
+     */
+    public boolean archiveAppointments(List<Appointment> appointments) {
+        return archive("appointments", appointments, Appointment::toCSV, Appointment::getAppointmentDate);
+    }
+    
+    public boolean archivePrescriptions(List<Prescription> prescriptions) {
+        return archive("prescriptions", prescriptions, Prescription::toCSV, Prescription::getPrescriptionDate);
+    }
+    
+    public boolean archiveReferrals(List<Referral> referrals) {
+        return archive("referrals", referrals, Referral::toCSV, Referral::getReferralDate);
+    }
+    
+    /**
+     * Reads archived appointments dated within a range.
+     * 
+     * @param from First date, or null for no lower bound
+     * @param to Last date, or null for no upper bound
+     * @param filter Keeps matching records; null keeps everything
+     */
+    public List<Appointment> scanAppointmentArchive(LocalDate from, LocalDate to,
+                                                    Predicate<? super Appointment> filter) {
+        return scanArchive("appointments", from, to, this::toAppointment,
+            Appointment::getAppointmentDate, filter);
+    }
+    
+    public List<Prescription> scanPrescriptionArchive(LocalDate from, LocalDate to,
+                                                      Predicate<? super Prescription> filter) {
+        return scanArchive("prescriptions", from, to, this::toPrescription,
+            Prescription::getPrescriptionDate, filter);
+    }
+    
+    public List<Referral> scanReferralArchive(LocalDate from, LocalDate to,
+                                              Predicate<? super Referral> filter) {
+        return scanArchive("referrals", from, to, this::toReferral,
+            Referral::getReferralDate, filter);
+    }
+    
+    private <T> boolean archive(String name, List<T> rows, Function<T, String> toCSV,
+                                Function<T, String> date) {
+        List<String> csvRows = new ArrayList<>(rows.size());
+        List<LocalDate> dates = new ArrayList<>(rows.size());
+        for (T row : rows) {
+            LocalDate day = parseDate(date.apply(row));
+            csvRows.add(toCSV.apply(row));
+            dates.add(day != null ? day : LocalDate.MIN);
+        }
+        try {
+            new ArchiveStore(Paths.get(dataDirectory, "archive"), name).write(csvRows, dates);
+            return true;
         } catch (IOException e) {
-            System.err.println("Error loading patients: " + e.getMessage());
+            System.err.println("Error archiving " + name + ": " + e.getMessage());
+            return false;
         }
-        return patients;
     }
     
-    public List<Appointment> loadAppointments() {
-        List<Appointment> appointments = new ArrayList<>();
-        String file = dataDirectory + "/appointments.csv";
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            String line = br.readLine(); // Skip header
-            while ((line = br.readLine()) != null) {
-                String[] data = parseLine(line);
-                if (data.length >= 13) {
-                    int duration = 0;
-                    try {
-                        duration = Integer.parseInt(data[6]);
-                    } catch (NumberFormatException e) {}
-                    Appointment a = new Appointment(data[0], data[1], data[2],
-                        data[3], data[4], data[5], duration, data[7], data[8],
-                        data[9], data[10], data[11], data[12]);
-                    appointments.add(a);
-                }
-            }
+    private <T> List<T> scanArchive(String name, LocalDate from, LocalDate to,
+                                    Function<CSVRow, T> mapper, Function<T, String> date,
+                                    Predicate<? super T> filter) {
+        // Blocks outside the range are skipped; rows in the edge blocks still need a check
+        Predicate<T> matches = row -> {
+            LocalDate day = parseDate(date.apply(row));
+            if (day == null) day = LocalDate.MIN;
+            return (from == null || !day.isBefore(from)) && (to == null || !day.isAfter(to))
+                && (filter == null || filter.test(row));
+        };
+        try {
+            return new ArchiveStore(Paths.get(dataDirectory, "archive"), name)
+                .scan(from, to, mapper, matches);
         } catch (IOException e) {
-            System.err.println("Error loading appointments: " + e.getMessage());
+            System.err.println("Error reading " + name + " archive: " + e.getMessage());
+            return new ArrayList<>();
         }
-        return appointments;
     }
     
-    public List<Prescription> loadPrescriptions() {
-        List<Prescription> prescriptions = new ArrayList<>();
-        String file = dataDirectory + "/prescriptions.csv";
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            String line = br.readLine(); // Skip header
-            while ((line = br.readLine()) != null) {
-                String[] data = parseLine(line);
-                if (data.length >= 15) {
-                    int duration = 0, quantity = 0;
-                    try {
-                        duration = Integer.parseInt(data[8]);
-                        quantity = Integer.parseInt(data[9]);
-                    } catch (NumberFormatException e) {}
-                    Prescription p = new Prescription(data[0], data[1], data[2],
-                        data[3], data[4], data[5], data[6], data[7], duration,
-                        quantity, data[10], data[11], data[12], data[13], data[14]);
-                    prescriptions.add(p);
-                }
+    /**
+     * Parses a yyyy-MM-dd column value.
+     * 
+     * @return The date, or null if the value is blank or malformed
+     */
+    public static LocalDate parseDate(String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        try {
+            return LocalDate.parse(value.trim());
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * Loads a data file, preferring its binary snapshot when one exists and
+     * is still in step with the CSV.
+     */
+    private <T> List<T> load(String name, Function<CSVRow, T> mapper) {
+        Path csv = Paths.get(dataDirectory, name + ".csv");
+        Path snapshot = Paths.get(dataDirectory, name + ".snap");
+        if (BinarySnapshot.isFresh(snapshot, csv)) {
+            try {
+                return BinarySnapshot.read(snapshot, mapper);
+            } catch (IOException e) {
+                System.err.println("Ignoring snapshot for " + name + ": " + e.getMessage());
             }
+        }
+        try {
+            return loader.load(csv, mapper);
         } catch (IOException e) {
-            System.err.println("Error loading prescriptions: " + e.getMessage());
+            System.err.println("Error loading " + name + ": " + e.getMessage());
+            return new ArrayList<>();
         }
-        return prescriptions;
     }
     
-    public List<Referral> loadReferrals() {
-        List<Referral> referrals = new ArrayList<>();
-        String file = dataDirectory + "/referrals.csv";
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            String line = br.readLine(); // Skip header
-            while ((line = br.readLine()) != null) {
-                String[] data = parseLine(line);
-                if (data.length >= 16) {
-                    Referral r = new Referral();
-                    r.setReferralId(data[0]);
-                    r.setPatientId(data[1]);
-                    r.setReferringClinicianId(data[2]);
-                    r.setReferredToClinicianId(data[3]);
-                    r.setReferringFacilityId(data[4]);
-                    r.setReferredToFacilityId(data[5]);
-                    r.setReferralDate(data[6]);
-                    r.setUrgencyLevel(data[7]);
-                    r.setReferralReason(data[8]);
-                    r.setClinicalSummary(data[9]);
-                    r.setRequestedInvestigations(data[10]);
-                    r.setStatus(data[11]);
-                    r.setAppointmentId(data[12]);
-                    r.setNotes(data[13]);
-                    r.setCreatedDate(data[14]);
-                    r.setLastUpdated(data[15]);
-                    referrals.add(r);
-                }
-            }
+    /**
+     * Loads a file whose long text columns can be left on disk. In lazy-text
+     * mode the CSV is always parsed (a snapshot has no file offsets) and the
+     * mapper is given a source to fetch those columns from later.
+     */
+    private <T> List<T> loadWithText(String name, BiFunction<CSVRow, LazyTextSource, T> mapper) {
+        if (!lazyText) {
+            return load(name, row -> mapper.apply(row, null));
+        }
+        Path csv = Paths.get(dataDirectory, name + ".csv");
+        try {
+            LazyTextSource source = new LazyTextSource(csv);
+            // Held only by the records' loaders, and closed once none are left
+            return loader.load(csv, row -> mapper.apply(row, source), true);
         } catch (IOException e) {
-            System.err.println("Error loading referrals: " + e.getMessage());
+            System.err.println("Error loading " + name + ": " + e.getMessage());
+            return new ArrayList<>();
         }
-        return referrals;
     }
     
-    public boolean savePatients(List<Patient> patients) {
-        String file = dataDirectory + "/patients.csv";
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(file))) {
-            bw.write("patient_id,first_name,last_name,date_of_birth,nhs_number,gender,phone_number,email,address,postcode,emergency_contact_name,emergency_contact_phone,registration_date,gp_surgery_id");
-            bw.newLine();
-            for (Patient p : patients) {
-                bw.write(p.toCSV());
-                bw.newLine();
-            }
-            return true;
+    /**
+     * Reads a long text column now, or returns null when it is to be
+     * fetched on demand from the text source instead.
+     */
+    private static String text(CSVRow row, int column, LazyTextSource source) {
+        return source != null && row.recordOffset() >= 0 ? null : row.getString(column);
+    }
+    
+    /**
+     * Parses a single CSV row as produced by Patient.toCSV().
+     * 
+     * @return The patient, or null if the row is incomplete
+     */
+    public Patient parsePatient(String csvRow) { return parseRow(csvRow, this::toPatient); }
+    
+    public Appointment parseAppointment(String csvRow) { return parseRow(csvRow, this::toAppointment); }
+    
+    public Prescription parsePrescription(String csvRow) { return parseRow(csvRow, this::toPrescription); }
+    
+    public Referral parseReferral(String csvRow) { return parseRow(csvRow, this::toReferral); }
+    
+    private <T> T parseRow(String csvRow, Function<? super CSVTokenizer, T> mapper) {
+        try (CSVTokenizer row = new CSVTokenizer(new StringReader(csvRow), Math.max(csvRow.length(), 16))) {
+            return row.nextRecord() ? mapper.apply(row) : null;
         } catch (IOException e) {
-            System.err.println("Error saving patients: " + e.getMessage());
-            return false;
+            return null;
         }
     }
     
-    public boolean saveAppointments(List<Appointment> appointments) {
-        String file = dataDirectory + "/appointments.csv";
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(file))) {
-            bw.write("appointment_id,patient_id,clinician_id,facility_id,appointment_date,appointment_time,duration_minutes,appointment_type,status,reason_for_visit,notes,created_date,last_modified");
-            bw.newLine();
-            for (Appointment a : appointments) {
-                bw.write(a.toCSV());
-                bw.newLine();
+    // Row mappers - return null for short or blank rows
+    
+    private Patient toPatient(CSVRow row) {
+        if (row.fieldCount() < 14) return null;
+        StringDictionary[] d = patientColumns;
+        return new Patient(row.getString(0, d[0]), row.getString(1, d[1]), row.getString(2, d[2]),
+            row.getString(3, d[3]), row.getString(4, d[4]), row.getString(5, d[5]), row.getString(6, d[6]),
+            row.getString(7, d[7]), row.getString(8, d[8]), row.getString(9, d[9]), row.getString(10, d[10]),
+            row.getString(11, d[11]), row.getString(12, d[12]), row.getString(13, d[13]));
+    }
+    
+    private Appointment toAppointment(CSVRow row) {
+        return toAppointment(row, null);
+    }
+    
+    private Appointment toAppointment(CSVRow row, LazyTextSource source) {
+        if (row.fieldCount() < 13) return null;
+        StringDictionary[] d = appointmentColumns;
+        String notes = text(row, 10, source);
+        Appointment a = new Appointment(row.getString(0, d[0]), row.getString(1, d[1]), row.getString(2, d[2]),
+            row.getString(3, d[3]), row.getString(4, d[4]), row.getString(5, d[5]), row.getInt(6, 0),
+            row.getString(7, d[7]), row.getString(8, d[8]), row.getString(9, d[9]), notes,
+            row.getString(11, d[11]), row.getString(12, d[12]));
+        if (notes == null) a.setNotesLoader(source.field(row.recordOffset(), 10));
+        return a;
+    }
+    
+    private Prescription toPrescription(CSVRow row) {
+        return toPrescription(row, null);
+    }
+    
+    private Prescription toPrescription(CSVRow row, LazyTextSource source) {
+        if (row.fieldCount() < 15) return null;
+        StringDictionary[] d = prescriptionColumns;
+        String instructions = text(row, 10, source);
+        Prescription p = new Prescription(row.getString(0, d[0]), row.getString(1, d[1]), row.getString(2, d[2]),
+            row.getString(3, d[3]), row.getString(4, d[4]), row.getString(5, d[5]), row.getString(6, d[6]),
+            row.getString(7, d[7]), row.getInt(8, 0), row.getInt(9, 0), instructions,
+            row.getString(11, d[11]), row.getString(12, d[12]), row.getString(13, d[13]), row.getString(14, d[14]));
+        if (instructions == null) p.setInstructionsLoader(source.field(row.recordOffset(), 10));
+        return p;
+    }
+    
+    private Referral toReferral(CSVRow row) {
+        return toReferral(row, null);
+    }
+    
+    private Referral toReferral(CSVRow row, LazyTextSource source) {
+        if (row.fieldCount() < 16) return null;
+        StringDictionary[] d = referralColumns;
+        Referral r = new Referral();
+        r.setReferralId(row.getString(0, d[0]));
+        r.setPatientId(row.getString(1, d[1]));
+        r.setReferringClinicianId(row.getString(2, d[2]));
+        r.setReferredToClinicianId(row.getString(3, d[3]));
+        r.setReferringFacilityId(row.getString(4, d[4]));
+        r.setReferredToFacilityId(row.getString(5, d[5]));
+        r.setReferralDate(row.getString(6, d[6]));
+        r.setUrgencyLevel(row.getString(7, d[7]));
+        r.setReferralReason(row.getString(8, d[8]));
+        String summary = text(row, 9, source);
+        if (summary != null) {
+            r.setClinicalSummary(summary);
+        } else {
+            r.setClinicalSummaryLoader(source.field(row.recordOffset(), 9));
+        }
+        r.setRequestedInvestigations(row.getString(10, d[10]));
+        r.setStatus(row.getString(11, d[11]));
+        r.setAppointmentId(row.getString(12, d[12]));
+        String notes = text(row, 13, source);
+        if (notes != null) {
+            r.setNotes(notes);
+        } else {
+            r.setNotesLoader(source.field(row.recordOffset(), 13));
+        }
+        r.setCreatedDate(row.getString(14, d[14]));
+        r.setLastUpdated(row.getString(15, d[15]));
+        return r;
+    }
+    
+    private static StringDictionary[] dictionaries(int columns, int... dictionaryColumns) {
+        StringDictionary[] result = new StringDictionary[columns];
+        for (int column : dictionaryColumns) {
+            result[column] = new StringDictionary();
+        }
+        return result;
+    }
+    
+    /**
+     * Estimated heap saved so far by sharing repeated column values.
+     * 
+     * @return Bytes saved across every column dictionary
+     */
+    public long getDictionaryBytesSaved() {
+        long saved = 0;
+        for (StringDictionary[] columns : Arrays.asList(patientColumns, appointmentColumns,
+                                                         prescriptionColumns, referralColumns)) {
+            for (StringDictionary d : columns) {
+                if (d != null) saved += d.bytesSaved();
             }
-            return true;
-        } catch (IOException e) {
-            System.err.println("Error saving appointments: " + e.getMessage());
-            return false;
         }
+        return saved;
+    }
+    
+    // Honorifics that clinicians.csv folds into first_name, e.g. "Dr. David"
+    private static final Set<String> NAME_TITLES = new HashSet<>(Arrays.asList(
+        "Dr.", "Dr", "Prof.", "Mr.", "Mrs.", "Ms.", "Miss", "Sister", "Nurse"));
+    
+    /**
+     * Builds a GP, Specialist or Nurse from the role in the title column.
+     */
+    private Clinician toClinician(CSVRow row) {
+        if (row.fieldCount() < 12) return null;
+        String firstName = row.getString(1);
+        String title = "";
+        int space = firstName.indexOf(' ');
+        if (space > 0 && NAME_TITLES.contains(firstName.substring(0, space))) {
+            title = firstName.substring(0, space);
+            firstName = firstName.substring(space + 1);
+        }
+        String role = row.getString(3);
+        if (role.contains("Nurse")) {
+            return new Nurse(row.getString(0), firstName, row.getString(2), title,
+                row.getString(4), row.getString(5), row.getString(6), row.getString(7),
+                row.getString(8), row.getString(9), row.getString(10), row.getString(11), "", "");
+        } else if (role.equals("GP")) {
+            return new GP(row.getString(0), firstName, row.getString(2), title,
+                row.getString(4), row.getString(5), row.getString(6), row.getString(7),
+                row.getString(8), row.getString(9), row.getString(10), row.getString(11), "");
+        }
+        return new Specialist(row.getString(0), firstName, row.getString(2), title,
+            row.getString(4), row.getString(5), row.getString(6), row.getString(7),
+            row.getString(8), row.getString(9), row.getString(10), row.getString(11),
+            row.getString(4));
+    }
+    
+    private Facility toFacility(CSVRow row) {
+        if (row.fieldCount() < 11) return null;
+        return new Facility(row.getString(0), row.getString(1), row.getString(2),
+            row.getString(3), row.getString(4), row.getString(5), row.getString(6),
+            row.getString(7), row.getString(8), row.getInt(9, 0), row.getString(10));
+    }
+    
+    private Staff toStaff(CSVRow row) {
+        if (row.fieldCount() < 12) return null;
+        return new Staff(row.getString(0), row.getString(1), row.getString(2),
+            row.getString(3), row.getString(4), row.getString(5), row.getString(6),
+            row.getString(7), row.getString(8), row.getString(9), row.getString(10),
+            row.getString(11));
+    }
+    
+    public boolean savePatients(List<Patient> patients) {
+        return writeRows("patients", PATIENT_HEADER, patients, Patient::toFields, false);
+    }
+    
+    /**
+     * Appends new patients to the end of the file without rewriting it.
+     */
+    public boolean appendPatients(List<Patient> patients) {
+        return writeRows("patients", PATIENT_HEADER, patients, Patient::toFields, true);
+    }
+    
+    public boolean saveAppointments(List<Appointment> appointments) {
+        return writeRows("appointments", APPOINTMENT_HEADER, appointments, Appointment::toFields, false);
+    }
+    
+    /**
+     * Appends new appointments to the end of the file without rewriting it.
+     */
+    public boolean appendAppointments(List<Appointment> appointments) {
+        return writeRows("appointments", APPOINTMENT_HEADER, appointments, Appointment::toFields, true);
     }
     
     public boolean savePrescriptions(List<Prescription> prescriptions) {
-        String file = dataDirectory + "/prescriptions.csv";
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(file))) {
-            bw.write("prescription_id,patient_id,clinician_id,appointment_id,prescription_date,medication_name,dosage,frequency,duration_days,quantity,instructions,pharmacy_name,status,issue_date,collection_date");
-            bw.newLine();
-            for (Prescription p : prescriptions) {
-                bw.write(p.toCSV());
-                bw.newLine();
+        return writeRows("prescriptions", PRESCRIPTION_HEADER, prescriptions, Prescription::toFields, false);
+    }
+    
+    /**
+     * Appends new prescriptions to the end of the file without rewriting it.
+     */
+    public boolean appendPrescriptions(List<Prescription> prescriptions) {
+        return writeRows("prescriptions", PRESCRIPTION_HEADER, prescriptions, Prescription::toFields, true);
+    }
+    
+    public boolean saveReferrals(List<Referral> referrals) {
+        return writeRows("referrals", REFERRAL_HEADER, referrals, Referral::toFields, false);
+    }
+    
+    /**
+     * Appends new referrals to the end of the file without rewriting it.
+     */
+    public boolean appendReferrals(List<Referral> referrals) {
+        return writeRows("referrals", REFERRAL_HEADER, referrals, Referral::toFields, true);
+    }
+    
+    /**
+     * Writes rows to a data file, either replacing it or appending to it.
+     * A full rewrite goes to a temporary file that is then moved over the
+     * original, so a crash never leaves a half-written CSV. An appended file
+     * gets a header if it is new, and a line break if the last row was
+     * written without one. A rewrite regenerates the file's binary snapshot
+     * from the same field values as it writes, rather than reading the new
+     * file back; an append only drops it, so appending stays proportional
+     * to the rows appended.
+     */
+    private <T> boolean writeRows(String name, String header, List<T> rows,
+                                  Function<T, Object[]> toFields, boolean append) {
+        File file = new File(dataDirectory, name + ".csv");
+        File target = append ? file : new File(dataDirectory, name + ".csv.tmp");
+        boolean writeHeader = !append || file.length() == 0;
+        boolean needsNewline = append && !writeHeader && !endsWithNewline(file);
+        BinarySnapshot.Builder snapshot = append ? null
+            : new BinarySnapshot.Builder(header.split(","), columnHints(name));
+        try {
+            try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(target, append), StandardCharsets.UTF_8))) {
+                if (writeHeader) {
+                    bw.write(header);
+                    bw.newLine();
+                } else if (needsNewline) {
+                    bw.newLine();
+                }
+                for (T row : rows) {
+                    Object[] fields = toFields.apply(row);
+                    bw.write(CSVFields.join(fields));
+                    bw.newLine();
+                    if (snapshot != null) snapshot.add(fields);
+                }
+            }
+            if (append) {
+                // Regenerating the snapshot would re-read the whole file; the
+                // next full rewrite brings it back
+                Files.deleteIfExists(Paths.get(dataDirectory, name + ".snap"));
+            } else {
+                Files.move(target.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                writeSnapshot(name, snapshot);
             }
             return true;
-        } catch (IOException e) {
-            System.err.println("Error saving prescriptions: " + e.getMessage());
+        } catch (IOException | UncheckedIOException e) {
+            // A lazily loaded text field that cannot be read fails the write
+            // rather than saving a blank in its place
+            System.err.println("Error saving " + name + ": " + e.getMessage());
             return false;
         }
     }
     
-    public boolean saveReferrals(List<Referral> referrals) {
-        String file = dataDirectory + "/referrals.csv";
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(file))) {
-            bw.write("referral_id,patient_id,referring_clinician_id,referred_to_clinician_id,referring_facility_id,referred_to_facility_id,referral_date,urgency_level,referral_reason,clinical_summary,requested_investigations,status,appointment_id,notes,created_date,last_updated");
-            bw.newLine();
-            for (Referral r : referrals) {
-                bw.write(r.toCSV());
-                bw.newLine();
-            }
-            return true;
+    private boolean endsWithNewline(File file) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(raf.length() - 1);
+            int last = raf.read();
+            return last == '\n' || last == '\r';
         } catch (IOException e) {
-            System.err.println("Error saving referrals: " + e.getMessage());
             return false;
         }
     }
     
-    private String[] parseLine(String line) {
-        List<String> result = new ArrayList<>();
-        boolean inQuotes = false;
-        StringBuilder current = new StringBuilder();
-        
-        for (char c : line.toCharArray()) {
-            if (c == '"') {
-                inQuotes = !inQuotes;
-            } else if (c == ',' && !inQuotes) {
-                result.add(current.toString());
-                current = new StringBuilder();
-            } else {
-                current.append(c);
-            }
+    /**
+     * Regenerates the binary snapshot of a data file from its CSV.
+     * On failure the old snapshot is simply stale and will be ignored.
+     * 
+     * @param name File name without extension, e.g. "patients"
+     */
+    public void writeSnapshot(String name) {
+        try {
+            BinarySnapshot.fromCSV(Paths.get(dataDirectory, name + ".csv"),
+                Paths.get(dataDirectory, name + ".snap"), columnHints(name));
+        } catch (IOException e) {
+            System.err.println("Error writing snapshot for " + name + ": " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Writes the snapshot collected while rewriting a data file. On failure
+     * the old snapshot is simply stale and will be ignored.
+     */
+    private void writeSnapshot(String name, BinarySnapshot.Builder snapshot) {
+        try {
+            snapshot.write(Paths.get(dataDirectory, name + ".snap"), Paths.get(dataDirectory, name + ".csv"));
+        } catch (IOException e) {
+            System.err.println("Error writing snapshot for " + name + ": " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Rebuilds a CSV file from its binary snapshot.
+     * 
+     * @param name File name without extension, e.g. "patients"
+     */
+    public void restoreFromSnapshot(String name) throws IOException {
+        BinarySnapshot.toCSV(Paths.get(dataDirectory, name + ".snap"),
+            Paths.get(dataDirectory, name + ".csv"));
+    }
+    
+    /**
+     * Columns worth storing as ints or epoch days in a snapshot.
+     */
+    private static Map<Integer, BinarySnapshot.ColumnType> columnHints(String name) {
+        Map<Integer, BinarySnapshot.ColumnType> hints = new HashMap<>();
+        BinarySnapshot.ColumnType date = BinarySnapshot.ColumnType.DATE;
+        BinarySnapshot.ColumnType number = BinarySnapshot.ColumnType.INT;
+        switch (name) {
+            case "patients":
+                hints.put(3, date);
+                hints.put(12, date);
+                break;
+            case "appointments":
+                hints.put(4, date);
+                hints.put(6, number);
+                hints.put(11, date);
+                hints.put(12, date);
+                break;
+            case "prescriptions":
+                hints.put(4, date);
+                hints.put(8, number);
+                hints.put(9, number);
+                hints.put(13, date);
+                hints.put(14, date);
+                break;
+            case "referrals":
+                hints.put(6, date);
+                hints.put(14, date);
+                hints.put(15, date);
+                break;
         }
-        result.add(current.toString());
-        return result.toArray(new String[0]);
+        return hints;
     }
 }
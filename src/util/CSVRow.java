@@ -0,0 +1,51 @@
+package util;
+
+/**
+ * Read access to the fields of one record, whichever format it came from.
+ *
+ * @author Shubhamkumar Prahladbhai Patel
+ */
+public interface CSVRow {
+    /** Number of fields in the record. */
+    int fieldCount();
+
+    /**
+     * @param index Zero-based column index
+     * @return Field value, or "" if the record has fewer fields
+     */
+    String getString(int index);
+
+    /**
+     * @param index Zero-based column index
+     * @param defaultValue Value returned when the field is missing or not a number
+     */
+    int getInt(int index, int defaultValue);
+
+    /**
+     * Reads a field as the dictionary's shared instance of its value.
+     *
+     * @param index Zero-based column index
+     * @param dictionary Dictionary for this column, or null for a plain copy
+     */
+    default String getString(int index, StringDictionary dictionary) {
+        String value = getString(index);
+        return dictionary == null ? value : dictionary.intern(value);
+    }
+
+    /**
+     * Byte offset of the record in its source file, or -1 if unknown.
+     */
+    default long recordOffset() {
+        return -1;
+    }
+
+    /**
+     * Compares a field with a value without materialising the field.
+     *
+     * @param index Zero-based column index
+     * @param value Expected value
+     */
+    default boolean fieldEquals(int index, String value) {
+        return getString(index).equals(value);
+    }
+}
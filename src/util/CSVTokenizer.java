@@ -0,0 +1,298 @@
+package util;
+
+import java.io.*;
+
+/**
+ * Streaming RFC-4180 record tokenizer.
+ * Reads records into a single reusable char buffer and exposes each field as an
+ * offset/length slice of that buffer. A String is only created when a column is
+ * actually read through {@link #getString(int)}.
+ *
+ * Quoted fields may contain commas, escaped quotes ("") and line breaks. Escaped
+ * quotes are collapsed in place while scanning, so slices never need a copy.
+ *
+ * @author Shubhamkumar Prahladbhai Patel
+ */
+public class CSVTokenizer implements CSVRow, Closeable {
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final Reader reader;
+    private char[] buf;
+    private int pos;        // next char to scan
+    private int limit;      // end of valid data in buf
+    private boolean eof;
+
+    private int recordStart;
+    private int[] starts = new int[32];
+    private int[] lengths = new int[32];
+    private int fieldCount;
+
+    private long byteOffset = -1;   // UTF-8 bytes consumed, or -1 when not tracked
+    private long recordOffset = -1;
+
+    public CSVTokenizer(Reader reader) {
+        this(reader, DEFAULT_BUFFER_SIZE);
+    }
+
+    public CSVTokenizer(Reader reader, int bufferSize) {
+        this.reader = reader;
+        this.buf = new char[Math.max(bufferSize, 16)];
+    }
+
+    /**
+     * Starts counting the UTF-8 byte offset of each record, so a record can
+     * be read again later straight from the file.
+     *
+     * @param startOffset File offset of the first character this tokenizer reads
+     */
+    public void trackByteOffsets(long startOffset) {
+        this.byteOffset = startOffset;
+    }
+
+    /**
+     * Advances to the next record.
+     *
+     * @return false when the input is exhausted
+     */
+    public boolean nextRecord() throws IOException {
+        fieldCount = 0;
+        recordStart = pos;
+        recordOffset = byteOffset;
+        if (pos >= limit && !fill()) {
+            return false;
+        }
+
+        int write = pos;          // compaction point for unescaped quoted content
+        int fieldStart = write;
+        boolean inQuotes = false;
+        boolean quotedField = false;
+
+        while (true) {
+            if (pos >= limit) {
+                // fill() may move the record even when nothing more is read
+                int shift = recordStart;
+                boolean more = fill();
+                shift -= recordStart;
+                write -= shift;
+                fieldStart -= shift;
+                if (!more) {
+                    // Last record without a trailing newline
+                    addField(fieldStart, write - fieldStart);
+                    return true;
+                }
+            }
+            char c = buf[pos++];
+            if (byteOffset >= 0) {
+                byteOffset += c < 0x80 ? 1 : c < 0x800 || Character.isSurrogate(c) ? 2 : 3;
+            }
+            if (inQuotes) {
+                if (c == '"') {
+                    if (pos >= limit) {
+                        int shift = recordStart;
+                        boolean more = fill();
+                        shift -= recordStart;
+                        write -= shift;
+                        fieldStart -= shift;
+                        if (!more) {
+                            inQuotes = false;
+                            continue;
+                        }
+                    }
+                    if (buf[pos] == '"') {
+                        buf[write++] = '"';
+                        pos++;
+                        if (byteOffset >= 0) byteOffset++;
+                    } else {
+                        inQuotes = false;
+                    }
+                } else {
+                    buf[write++] = c;
+                }
+            } else if (c == ',') {
+                addField(fieldStart, write - fieldStart);
+                write = pos;
+                fieldStart = write;
+                quotedField = false;
+            } else if (c == '\n' || c == '\r') {
+                addField(fieldStart, write - fieldStart);
+                if (c == '\r') {
+                    if (pos >= limit) {
+                        fill();
+                    }
+                    if (pos < limit && buf[pos] == '\n') {
+                        pos++;
+                        if (byteOffset >= 0) byteOffset++;
+                    }
+                }
+                return true;
+            } else if (c == '"' && write == fieldStart && !quotedField) {
+                inQuotes = true;
+                quotedField = true;
+            } else {
+                buf[write++] = c;
+            }
+        }
+    }
+
+    /**
+     * Makes room for more input, keeping the current record at the front of
+     * the buffer, and reads the next block.
+     *
+     * @return false if no more characters are available
+     */
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+        if (recordStart > 0) {
+            int keep = limit - recordStart;
+            System.arraycopy(buf, recordStart, buf, 0, keep);
+            for (int i = 0; i < fieldCount; i++) {
+                starts[i] -= recordStart;
+            }
+            pos -= recordStart;
+            limit = keep;
+            recordStart = 0;
+        } else if (limit == buf.length) {
+            char[] bigger = new char[buf.length * 2];
+            System.arraycopy(buf, 0, bigger, 0, limit);
+            buf = bigger;
+        }
+        int n = reader.read(buf, limit, buf.length - limit);
+        if (n <= 0) {
+            eof = true;
+            return false;
+        }
+        limit += n;
+        return true;
+    }
+
+    private void addField(int start, int length) {
+        if (fieldCount == starts.length) {
+            int[] s = new int[starts.length * 2];
+            int[] l = new int[lengths.length * 2];
+            System.arraycopy(starts, 0, s, 0, fieldCount);
+            System.arraycopy(lengths, 0, l, 0, fieldCount);
+            starts = s;
+            lengths = l;
+        }
+        starts[fieldCount] = start;
+        lengths[fieldCount] = length;
+        fieldCount++;
+    }
+
+    /** Number of fields in the current record. */
+    @Override
+    public int fieldCount() { return fieldCount; }
+
+    /**
+     * File offset of the current record, or -1 unless
+     * {@link #trackByteOffsets(long)} was called.
+     */
+    @Override
+    public long recordOffset() { return recordOffset; }
+
+    /** Offset of a field in {@link #buffer()}. */
+    public int fieldStart(int index) { return starts[index]; }
+
+    /** Length of a field in {@link #buffer()}. */
+    public int fieldLength(int index) { return lengths[index]; }
+
+    /**
+     * Shared buffer backing the current record's slices.
+     * Contents are only valid until the next call to {@link #nextRecord()}.
+     */
+    public char[] buffer() { return buf; }
+
+    /**
+     * Materialises a field as a String.
+     *
+     * @param index Zero-based column index
+     * @return Field value, or "" if the record has fewer fields
+     */
+    @Override
+    public String getString(int index) {
+        if (index >= fieldCount || lengths[index] == 0) {
+            return "";
+        }
+        return new String(buf, starts[index], lengths[index]);
+    }
+
+    /**
+     * Looks the field up in a dictionary straight from the buffer, so a
+     * repeated value allocates nothing.
+     */
+    @Override
+    public String getString(int index, StringDictionary dictionary) {
+        if (dictionary == null) {
+            return getString(index);
+        }
+        if (index >= fieldCount) {
+            return "";
+        }
+        return dictionary.intern(buf, starts[index], lengths[index]);
+    }
+
+    @Override
+    public boolean fieldEquals(int index, String value) {
+        int length = index < fieldCount ? lengths[index] : 0;
+        if (length != value.length()) {
+            return false;
+        }
+        int start = length == 0 ? 0 : starts[index];
+        for (int i = 0; i < length; i++) {
+            if (buf[start + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses a field as an int without creating a String.
+     *
+     * @param index Zero-based column index
+     * @param defaultValue Value returned when the field is missing or not a number
+     */
+    @Override
+    public int getInt(int index, int defaultValue) {
+        if (index >= fieldCount) {
+            return defaultValue;
+        }
+        int start = starts[index];
+        int end = start + lengths[index];
+        while (start < end && buf[start] == ' ') start++;
+        while (end > start && buf[end - 1] == ' ') end--;
+        if (start == end) {
+            return defaultValue;
+        }
+        boolean negative = buf[start] == '-';
+        if (negative || buf[start] == '+') {
+            start++;
+            if (start == end) {
+                return defaultValue;
+            }
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            char c = buf[i];
+            if (c < '0' || c > '9') {
+                return defaultValue;
+            }
+            value = value * 10 + (c - '0');
+            if (value > Integer.MAX_VALUE + 1L) {
+                return defaultValue;
+            }
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE || value < Integer.MIN_VALUE) {
+            return defaultValue;
+        }
+        return (int) value;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
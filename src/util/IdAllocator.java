@@ -0,0 +1,233 @@
+package util;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hands out record IDs such as P012 or RX1043 without scanning existing
+ * records.
+ *
+ * Each prefix draws numbers from a leased block held in memory, so minting
+ * an ID is a single atomic increment. When a block runs out the next one is
+ * leased from a small file in the data directory under an exclusive file
+ * lock: the file holds the highest number leased so far for every prefix.
+ * Several processes sharing a data directory therefore never hand out the
+ * same number, and only touch the file once per block. Numbers left over in
+ * a block when a process exits are skipped, so IDs can have gaps.
+ *
+ * Numbers are printed at least three digits wide and simply grow past 999.
+ *
+ * @author Shubhamkumar Prahladbhai Patel
+ */
+public class IdAllocator {
+    private static final int DEFAULT_BLOCK_SIZE = 32;
+
+    // FileChannel locks are per process; this keeps two allocators in one JVM apart
+    private static final Object LEASE_LOCK = new Object();
+
+    private final Path leaseFile;
+    private final int blockSize;
+    private final Map<String, AtomicReference<Block>> blocks;
+    private final Map<String, Long> seeds;
+
+    /**
+     * @param leaseFile File recording the leased high-water mark per prefix
+     */
+    public IdAllocator(Path leaseFile) {
+        this(leaseFile, Integer.getInteger("hms.id.blockSize", DEFAULT_BLOCK_SIZE));
+    }
+
+    /**
+     * @param leaseFile File recording the leased high-water mark per prefix
+     * @param blockSize Numbers leased at a time
+     */
+    public IdAllocator(Path leaseFile, int blockSize) {
+        this.leaseFile = leaseFile;
+        this.blockSize = Math.max(1, blockSize);
+        this.blocks = new ConcurrentHashMap<>();
+        this.seeds = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Makes sure numbers already in use are never handed out, e.g. the
+     * highest ID found when the data was loaded. The number is also written
+     * to the lease file, so it stays reserved after the records holding it
+     * leave the loaded data (archived records, for instance).
+     *
+     * @param prefix ID prefix, e.g. "RX"
+     * @param highest Highest number in use
+     */
+    public void seed(String prefix, long highest) {
+        seeds.merge(prefix, highest, Math::max);
+        synchronized (LEASE_LOCK) {
+            try {
+                raiseLease(prefix, highest, 0);
+            } catch (IOException e) {
+                System.err.println("Error recording IDs in " + leaseFile + ": " + e.getMessage());
+            }
+        }
+        AtomicReference<Block> current = blocks.get(prefix);
+        if (current != null) {
+            synchronized (current) {
+                // Drop a block that overlaps numbers now known to be taken
+                if (current.get().next.get() <= highest) {
+                    current.set(Block.EMPTY);
+                }
+            }
+        }
+    }
+
+    /**
+     * Seeds a prefix from existing IDs. IDs with another prefix or a
+     * non-numeric suffix are ignored.
+     */
+    public void seed(String prefix, Iterable<String> ids) {
+        long highest = 0;
+        for (String id : ids) {
+            highest = Math.max(highest, numberOf(prefix, id));
+        }
+        seed(prefix, highest);
+    }
+
+    /**
+     * Mints the next ID for a prefix.
+     */
+    public String next(String prefix) {
+        AtomicReference<Block> current = blocks.computeIfAbsent(prefix,
+            p -> new AtomicReference<>(Block.EMPTY));
+        while (true) {
+            Block block = current.get();
+            long n = block.next.getAndIncrement();
+            if (n <= block.last) {
+                return String.format("%s%03d", prefix, n);
+            }
+            synchronized (current) {
+                if (current.get() == block) {
+                    current.set(lease(prefix));
+                }
+            }
+        }
+    }
+
+    /**
+     * Reserves the next block of numbers for a prefix in the lease file.
+     * If the file cannot be used the block is taken from the seeded value
+     * alone, which is still safe for a single process.
+     */
+    private Block lease(String prefix) {
+        long seeded = seeds.getOrDefault(prefix, 0L);
+        synchronized (LEASE_LOCK) {
+            try {
+                long last = raiseLease(prefix, seeded, blockSize);
+                return new Block(last - blockSize + 1, last);
+            } catch (IOException e) {
+                System.err.println("Error leasing IDs from " + leaseFile + ": " + e.getMessage());
+                long start = seeded + 1;
+                seeds.put(prefix, start + blockSize - 1);
+                return new Block(start, start + blockSize - 1);
+            }
+        }
+    }
+
+    /**
+     * Raises a prefix's high-water mark in the lease file to at least a
+     * floor, plus a number of fresh numbers. Callers hold LEASE_LOCK.
+     *
+     * @return The new high-water mark
+     */
+    private long raiseLease(String prefix, long floor, int count) throws IOException {
+        try (FileChannel channel = FileChannel.open(leaseFile, StandardOpenOption.CREATE,
+                 StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.lock();
+            try {
+                Map<String, Long> leased = read(channel);
+                long current = leased.getOrDefault(prefix, 0L);
+                long mark = Math.max(current, floor) + count;
+                if (mark != current) {
+                    leased.put(prefix, mark);
+                    write(channel, leased);
+                }
+                return mark;
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    private static Map<String, Long> read(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+        while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) > 0) { }
+        buffer.flip();
+        Map<String, Long> leased = new TreeMap<>();
+        for (String line : StandardCharsets.UTF_8.decode(buffer).toString().split("\n")) {
+            int eq = line.indexOf('=');
+            if (eq > 0) {
+                try {
+                    leased.put(line.substring(0, eq).trim(), Long.parseLong(line.substring(eq + 1).trim()));
+                } catch (NumberFormatException e) {
+                    System.err.println("Ignoring bad ID lease line: " + line);
+                }
+            }
+        }
+        return leased;
+    }
+
+    private static void write(FileChannel channel, Map<String, Long> leased) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> e : leased.entrySet()) {
+            sb.append(e.getKey()).append('=').append(e.getValue()).append('\n');
+        }
+        ByteBuffer bytes = StandardCharsets.UTF_8.encode(sb.toString());
+        channel.truncate(0);
+        long pos = 0;
+        while (bytes.hasRemaining()) {
+            pos += channel.write(bytes, pos);
+        }
+        channel.force(false);
+    }
+
+    /**
+     * Number part of an ID with the given prefix.
+     *
+     * @return The number, or 0 if the ID does not have that prefix followed by digits
+     */
+    public static long numberOf(String prefix, String id) {
+        if (id == null || !id.startsWith(prefix) || id.length() == prefix.length()) {
+            return 0;
+        }
+        for (int i = prefix.length(); i < id.length(); i++) {
+            if (!Character.isDigit(id.charAt(i))) {
+                return 0;
+            }
+        }
+        try {
+            return Long.parseLong(id.substring(prefix.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * A leased range of numbers, first to last inclusive.
+     */
+    private static class Block {
+        static final Block EMPTY = new Block(1, 0);
+
+        final AtomicLong next;
+        final long last;
+
+        Block(long first, long last) {
+            this.next = new AtomicLong(first);
+            this.last = last;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package util;
+
+import java.io.*;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Reads single fields back from a loaded CSV file on demand.
+ *
+ * The file stays open for as long as records refer to it: their loaders
+ * hold the source, and the channel is only closed once the source is
+ * unreachable, so a reload never pulls text out from under records still
+ * held elsewhere (snapshots, change events, copies in dialogs). Saves
+ * replace a data file by renaming a new one over it, so this channel keeps
+ * reading the version the records were loaded from even after a rewrite.
+ * Positional reads do not share a file pointer, so any thread may fetch.
+ *
+ * A full rewrite asks for every field in file order, so the source keeps a
+ * cursor on the last record it read and reads on from there to the next
+ * one asked for, instead of starting a new read for each field. A field
+ * behind the cursor or far ahead of it moves the cursor there, and a
+ * thread that finds the cursor in use reads its field on its own.
+ *
+ * A field that cannot be read is an error, never "": a record that came
+ * back with blank text would write that blank over the real text on its
+ * next save.
+ *
+ * @author Shubhamkumar Prahladbhai Patel
+ */
+public class LazyTextSource implements Closeable {
+    private static final Cleaner CLEANER = Cleaner.create();
+    // Furthest the cursor reads on to reach a record before it is moved
+    private static final long MAX_SKIP = 64 * 1024;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final Cleaner.Cleanable closer;
+    private final ReentrantLock cursorLock = new ReentrantLock();
+    private CSVTokenizer cursor; // on the record last read; guarded by cursorLock
+
+    public LazyTextSource(Path file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.closer = CLEANER.register(this, new Closer(file, channel));
+    }
+
+    /**
+     * Creates a loader for one field of one record.
+     *
+     * @param offset Byte offset of the record in the file
+     * @param column Zero-based column index
+     */
+    public Supplier<String> field(long offset, int column) {
+        return () -> read(offset, column);
+    }
+
+    /**
+     * Reads one field of the record starting at an offset.
+     *
+     * @return Field value
+     * @throws UncheckedIOException If the field cannot be read
+     */
+    public String read(long offset, int column) {
+        try {
+            if (cursorLock.tryLock()) {
+                try {
+                    return seek(offset).getString(column);
+                } catch (IOException e) {
+                    cursor = null;
+                    throw e;
+                } finally {
+                    cursorLock.unlock();
+                }
+            }
+            try (CSVTokenizer row = open(offset, 1024)) {
+                if (!row.nextRecord()) {
+                    throw new EOFException("No record at offset " + offset);
+                }
+                return row.getString(column);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error reading text from " + file, e);
+        }
+    }
+
+    /**
+     * Brings the cursor to the record at an offset, reading on from where
+     * it is when that is close ahead.
+     */
+    private CSVTokenizer seek(long offset) throws IOException {
+        if (cursor != null && cursor.recordOffset() <= offset && offset - cursor.recordOffset() <= MAX_SKIP) {
+            boolean more = true;
+            while (more && cursor.recordOffset() < offset) {
+                more = cursor.nextRecord();
+            }
+            if (more && cursor.recordOffset() == offset) {
+                return cursor;
+            }
+        }
+        // The tokenizer holds nothing but the shared channel, so an old
+        // cursor needs no closing
+        cursor = open(offset, 16 * 1024);
+        if (!cursor.nextRecord()) {
+            cursor = null;
+            throw new EOFException("No record at offset " + offset);
+        }
+        return cursor;
+    }
+
+    private CSVTokenizer open(long offset, int bufferSize) {
+        CSVTokenizer row = new CSVTokenizer(new InputStreamReader(
+            new ChannelInputStream(offset), StandardCharsets.UTF_8), bufferSize);
+        row.trackByteOffsets(offset);
+        return row;
+    }
+
+    /**
+     * Closes the file now. Records loaded from it can no longer fetch their
+     * text, so only call this once none of them are in use.
+     */
+    @Override
+    public void close() {
+        closer.clean();
+    }
+
+    /**
+     * Closes the channel once the source is closed or unreachable. It must
+     * not refer to the source itself, or the source would never become
+     * unreachable.
+     */
+    private static class Closer implements Runnable {
+        private final Path file;
+        private final FileChannel channel;
+
+        Closer(Path file, FileChannel channel) {
+            this.file = file;
+            this.channel = channel;
+        }
+
+        @Override
+        public void run() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Error closing " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Stream over the channel from a fixed offset using positional reads.
+     */
+    private class ChannelInputStream extends InputStream {
+        private long position;
+
+        ChannelInputStream(long position) {
+            this.position = position;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = channel.read(ByteBuffer.wrap(b, off, len), position);
+            if (n > 0) position += n;
+            return n;
+        }
+    }
+}
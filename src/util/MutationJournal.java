@@ -0,0 +1,318 @@
+package util;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead journal of data mutations.
+ *
+ * Each entry is one CSV record: op, entity, id, the entity's CSV row as a
+ * single quoted field, and a CRC32 of the rest. Entries are queued and a
+ * background writer appends whatever has accumulated and fsyncs once per
+ * batch (group commit). A torn final entry from a crash fails its checksum
+ * and ends replay.
+ *
+ * Checkpointing uses {@link #rotate()}: the live journal is moved aside, the
+ * caller writes fresh CSV snapshots, then calls {@link #discardRotated()}.
+ * If the process dies in between, both files are replayed on the next start.
+ * The rotation itself is queued like an entry, so the writer thread does
+ * the file work and a caller can mark the cut while holding its own locks.
+ *
+ * @author Shubhamkumar Prahladbhai Patel
+ */
+public class MutationJournal implements Closeable {
+    public static final String ADD = "ADD";
+    public static final String UPDATE = "UPDATE";
+    public static final String DELETE = "DELETE";
+    private static final String ROTATE = "ROTATE";
+
+    private static final Entry SHUTDOWN = new Entry("", "", "", "");
+
+    private final Path file;
+    private final Path rotatedFile;
+    private final BlockingQueue<Entry> queue;
+    private final Thread writer;
+    // Guards closed together with enqueueing, so nothing is queued behind SHUTDOWN
+    private final Object queueLock = new Object();
+    private FileChannel channel;
+    private boolean closed;
+
+    public MutationJournal(Path file) throws IOException {
+        this.file = file;
+        this.rotatedFile = file.resolveSibling(file.getFileName() + ".1");
+        this.queue = new LinkedBlockingQueue<>();
+        this.channel = open(file);
+        this.writer = new Thread(this::writeLoop, "journal-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    private static FileChannel open(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Queues a mutation. The returned future completes once the entry is on
+     * disk, or exceptionally if it could not be written or the journal is
+     * closed.
+     *
+     * @param op ADD, UPDATE or DELETE
+     * @param entity Entity type name
+     * @param id Primary key of the record
+     * @param csvRow The record's CSV row, or "" for a delete
+     */
+    public CompletableFuture<Void> append(String op, String entity, String id, String csvRow) {
+        Entry entry = new Entry(op, entity, id, csvRow);
+        synchronized (queueLock) {
+            if (!closed) {
+                queue.add(entry);
+                return entry.done;
+            }
+        }
+        entry.done.completeExceptionally(new IOException("Journal is closed"));
+        return entry.done;
+    }
+
+    /**
+     * Blocks until every entry queued so far is durable.
+     *
+     * @return false if the batch could not be written or the journal is
+     *         closed, so entries queued so far may be lost
+     */
+    public boolean sync() {
+        try {
+            append("SYNC", "", "", "").join();
+            return true;
+        } catch (CompletionException e) {
+            System.err.println("Journal sync failed: " + e.getCause().getMessage());
+            return false;
+        }
+    }
+
+    private void writeLoop() {
+        List<Entry> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch);
+            boolean shutdown = batch.remove(SHUTDOWN);
+            // Entries before a rotation go to the old file, the rest to the new one
+            int from = 0;
+            for (int i = 0; i < batch.size(); i++) {
+                Entry e = batch.get(i);
+                if (ROTATE.equals(e.op)) {
+                    commit(batch.subList(from, i));
+                    try {
+                        rotateFiles();
+                        e.done.complete(null);
+                    } catch (IOException ex) {
+                        System.err.println("Error rotating journal: " + ex.getMessage());
+                        e.done.completeExceptionally(ex);
+                    }
+                    from = i + 1;
+                }
+            }
+            commit(batch.subList(from, batch.size()));
+            batch.clear();
+            if (shutdown) {
+                return;
+            }
+        }
+    }
+
+    private void commit(List<Entry> entries) {
+        try {
+            writeBatch(entries);
+            for (Entry e : entries) e.done.complete(null);
+        } catch (IOException ex) {
+            System.err.println("Error writing journal: " + ex.getMessage());
+            for (Entry e : entries) e.done.completeExceptionally(ex);
+        }
+    }
+
+    private synchronized void writeBatch(List<Entry> batch) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (Entry e : batch) {
+            if (!"SYNC".equals(e.op)) {
+                e.encode(sb);
+            }
+        }
+        if (sb.length() == 0) {
+            return;
+        }
+        ByteBuffer bytes = StandardCharsets.UTF_8.encode(sb.toString());
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        channel.force(false);
+    }
+
+    /**
+     * Current size of the live journal in bytes.
+     */
+    public synchronized long size() {
+        try {
+            return channel.size();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Queues a rotation behind every entry appended so far. When the writer
+     * reaches it, the live journal is moved aside and an empty one started;
+     * if an earlier rotated journal was never discarded, the live entries
+     * are appended to it so no un-checkpointed entry is lost. Returns at
+     * once, so the caller can wait for the file work outside its locks.
+     *
+     * @return Completes once rotated, or exceptionally if the files could
+     *         not be moved or the journal is closed
+     */
+    public CompletableFuture<Void> rotate() {
+        return append(ROTATE, "", "", "");
+    }
+
+    private synchronized void rotateFiles() throws IOException {
+        channel.force(false);
+        channel.close();
+        if (Files.exists(rotatedFile)) {
+            try (FileChannel out = open(rotatedFile); FileChannel in = FileChannel.open(file)) {
+                long pos = 0, size = in.size();
+                while (pos < size) {
+                    pos += in.transferTo(pos, size - pos, out);
+                }
+                out.force(false);
+            }
+            Files.delete(file);
+        } else {
+            Files.move(file, rotatedFile, StandardCopyOption.ATOMIC_MOVE);
+        }
+        channel = open(file);
+    }
+
+    /**
+     * Deletes the rotated journal once its entries are safely in the CSV files.
+     */
+    public synchronized void discardRotated() throws IOException {
+        Files.deleteIfExists(rotatedFile);
+    }
+
+    /**
+     * Replays the rotated journal (if a checkpoint was interrupted) and then
+     * the live journal, in order.
+     *
+     * @param handler Receives each valid entry
+     * @return Number of entries replayed
+     */
+    public int replay(EntryHandler handler) throws IOException {
+        return replay(rotatedFile, handler) + replay(file, handler);
+    }
+
+    private static int replay(Path path, EntryHandler handler) throws IOException {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        int count = 0;
+        try (CSVTokenizer row = new CSVTokenizer(Files.newBufferedReader(path, StandardCharsets.UTF_8))) {
+            while (row.nextRecord()) {
+                if (row.fieldCount() < 5) {
+                    continue;
+                }
+                Entry entry = new Entry(row.getString(0), row.getString(1),
+                    row.getString(2), row.getString(3));
+                if (!entry.checksum().equals(row.getString(4))) {
+                    System.err.println("Journal " + path.getFileName() +
+                        ": stopping at corrupt entry after " + count + " entries");
+                    break;
+                }
+                handler.apply(entry.op, entry.entity, entry.id, entry.csvRow);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Flushes queued entries and stops the writer thread.
+     */
+    @Override
+    public void close() {
+        synchronized (queueLock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            queue.add(SHUTDOWN);
+        }
+        try {
+            writer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Anything the writer did not get to (it timed out or was
+        // interrupted) will never be written: fail it rather than leave
+        // its callers waiting
+        List<Entry> unwritten = new ArrayList<>();
+        queue.drainTo(unwritten);
+        for (Entry e : unwritten) {
+            e.done.completeExceptionally(new IOException("Journal closed before entry was written"));
+        }
+        synchronized (this) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Error closing journal: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Callback for replayed entries.
+     */
+    public interface EntryHandler {
+        void apply(String op, String entity, String id, String csvRow);
+    }
+
+    private static class Entry {
+        final String op;
+        final String entity;
+        final String id;
+        final String csvRow;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Entry(String op, String entity, String id, String csvRow) {
+            this.op = op;
+            this.entity = entity;
+            this.id = id;
+            this.csvRow = csvRow;
+        }
+
+        String body() {
+            return op + "," + entity + "," + quote(id) + "," + quote(csvRow);
+        }
+
+        String checksum() {
+            CRC32 crc = new CRC32();
+            crc.update(body().getBytes(StandardCharsets.UTF_8));
+            return Long.toHexString(crc.getValue());
+        }
+
+        void encode(StringBuilder sb) {
+            sb.append(body()).append(',').append(checksum()).append('\n');
+        }
+
+        private static String quote(String value) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+    }
+}
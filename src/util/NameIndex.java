@@ -0,0 +1,529 @@
+package util;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Forgiving search over people's names and dates of birth, for finding a
+ * patient from a name that may be misspelt ("Jonson" for "Johnson").
+ *
+ * Names are broken into words, and the index is built over the distinct
+ * words rather than over every person: a million patients share far fewer
+ * first and last names. Each word is filed under its letter trigrams and
+ * its Soundex code. The words sharing enough trigrams with a query word,
+ * or its Soundex code, are candidates; each is scored by Jaro-Winkler
+ * similarity, which favours a common start and forgives a dropped or
+ * swapped letter, plus a bonus when they sound alike. The people carrying the best
+ * matching words are then ranked by how well each query word matched one
+ * of their names, with an exact date of birth counting as much as a name.
+ *
+ * A short query word can share trigrams with thousands of names, so only
+ * the candidates sharing the most go on to Jaro-Winkler, and only the most
+ * similar words are looked up. That bounds the work per query word, apart
+ * from the number of people carrying the matched names.
+ *
+ * Any field or query word that is a date (yyyy-mm-dd or dd/mm/yyyy) is
+ * taken as the date of birth; everything else is a name.
+ *
+ * @author Shubhamkumar Prahladbhai Patel
+ */
+public final class NameIndex implements SearchIndex {
+    // Candidate words share at least this share of trigrams (Dice coefficient)
+    private static final double MIN_SHARED_TRIGRAMS = 0.3;
+    // Candidates less similar than this are not treated as the same name
+    private static final double MIN_SIMILARITY = 0.75;
+    private static final double SOUNDS_ALIKE_BONUS = 0.1;
+    // Per query word: candidates scored by Jaro-Winkler, and words looked up
+    private static final int MAX_CANDIDATES = Integer.getInteger("hms.names.maxCandidates", 64);
+    private static final int MAX_MATCHED_WORDS = Integer.getInteger("hms.names.maxMatches", 16);
+    private static final double DATE_OF_BIRTH_WEIGHT = 1.0;
+    private static final Pattern ISO_DATE = Pattern.compile("\\d{4}-\\d{2}-\\d{2}");
+    private static final Pattern UK_DATE = Pattern.compile("\\d{2}/\\d{2}/\\d{4}");
+
+    private final Map<String, Integer> numbers = new HashMap<>();
+    // Per document number; null once the number is free for reuse
+    private String[] ids = new String[16];
+    private Word[][] names = new Word[16][];
+    private Word[] births = new Word[16];
+    private final IntList free = new IntList();
+    private int next;
+
+    // Distinct name words, and dates of birth, with the documents using them
+    private final Map<String, Word> words = new HashMap<>();
+    private final Map<String, Word> dates = new HashMap<>();
+    private final Map<String, List<Word>> byTrigram = new HashMap<>();
+    private final Map<String, List<Word>> bySoundex = new HashMap<>();
+    // Name words by number, so a query can count shared trigrams in an array
+    private Word[] numbered = new Word[16];
+    private final IntList freeWords = new IntList();
+    private int nextWord;
+
+    @Override
+    public void put(String id, List<String> fields) {
+        remove(id);
+        List<Word> found = new ArrayList<>(2);
+        Word born = null;
+        for (String field : fields) {
+            if (field == null) continue;
+            String date = date(field.trim());
+            if (date != null) {
+                born = dates.computeIfAbsent(date, d -> new Word(d, false));
+                continue;
+            }
+            for (String w : split(field)) {
+                Word word = words.get(w);
+                if (word == null) {
+                    word = new Word(w, true);
+                    fileWord(word);
+                }
+                if (!found.contains(word)) found.add(word);
+            }
+        }
+        int doc = free.size > 0 ? free.values[--free.size] : next++;
+        grow(doc + 1);
+        ids[doc] = id;
+        names[doc] = found.toArray(new Word[0]);
+        births[doc] = born;
+        for (Word word : names[doc]) word.docs.add(doc);
+        if (born != null) born.docs.add(doc);
+        numbers.put(id, doc);
+    }
+
+    @Override
+    public boolean remove(String id) {
+        Integer doc = numbers.remove(id);
+        if (doc == null) {
+            return false;
+        }
+        for (Word word : names[doc]) {
+            word.docs.removeValue(doc);
+            if (word.docs.size == 0) unfileWord(word);
+        }
+        Word born = births[doc];
+        if (born != null) {
+            born.docs.removeValue(doc);
+            if (born.docs.size == 0) dates.remove(born.text);
+        }
+        ids[doc] = null;
+        names[doc] = null;
+        births[doc] = null;
+        free.add(doc);
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        numbers.clear();
+        ids = new String[16];
+        names = new Word[16][];
+        births = new Word[16];
+        free.size = 0;
+        next = 0;
+        words.clear();
+        dates.clear();
+        byTrigram.clear();
+        bySoundex.clear();
+        numbered = new Word[16];
+        freeWords.size = 0;
+        nextWord = 0;
+    }
+
+    /** Number of documents indexed. */
+    public int size() {
+        return numbers.size();
+    }
+
+    /**
+     * Finds the people best matching a name, most similar first.
+     *
+     * @param query Name words in any order, optionally with a date of birth,
+     *              e.g. "jonson emma 22/07/1990"
+     * @param limit Maximum number of results
+     * @return IDs of the matching documents
+     */
+    @Override
+    public List<String> search(String query, int limit) {
+        List<String> queryWords = new ArrayList<>();
+        String born = null;
+        for (String part : query == null ? new String[0] : query.trim().split("[\\s,]+")) {
+            String date = date(part);
+            if (date != null) {
+                born = date;
+            } else {
+                for (String w : split(part)) {
+                    if (!queryWords.contains(w)) queryWords.add(w);
+                }
+            }
+        }
+        if (limit <= 0 || queryWords.size() > Byte.MAX_VALUE) {
+            return new ArrayList<>();
+        }
+        List<List<Map.Entry<Word, Double>>> matches = new ArrayList<>();
+        int postings = 0;
+        for (String queryWord : queryWords) {
+            // Best match first, so each document keeps its best score per query word
+            List<Map.Entry<Word, Double>> similar = new ArrayList<>(similarWords(queryWord).entrySet());
+            similar.sort((a, b) -> Double.compare(b.getValue(), a.getValue()));
+            if (similar.size() > MAX_MATCHED_WORDS) similar = similar.subList(0, MAX_MATCHED_WORDS);
+            for (Map.Entry<Word, Double> match : similar) postings += match.getKey().docs.size;
+            matches.add(similar);
+        }
+        Word birth = born == null ? null : dates.get(born);
+        Scores scores = new Scores(postings + (birth == null ? 0 : birth.docs.size), next);
+        for (int i = 0; i < matches.size(); i++) {
+            for (Map.Entry<Word, Double> match : matches.get(i)) {
+                IntList docs = match.getKey().docs;
+                for (int k = 0; k < docs.size; k++) {
+                    int slot = scores.slot(docs.values[k]);
+                    if (scores.scoredFor[slot] > i) continue;
+                    scores.scoredFor[slot] = (byte) (i + 1);
+                    scores.scores[slot] += match.getValue();
+                }
+            }
+        }
+        if (birth != null) {
+            for (int k = 0; k < birth.docs.size; k++) {
+                scores.scores[scores.slot(birth.docs.values[k])] += DATE_OF_BIRTH_WEIGHT;
+            }
+        }
+        return best(scores, limit);
+    }
+
+    /**
+     * The highest scoring documents, best first; ties go to the document
+     * indexed first.
+     */
+    private List<String> best(Scores scores, int limit) {
+        float[] score = scores.scores;
+        PriorityQueue<Integer> best = new PriorityQueue<>((a, b) -> score[a] != score[b]
+            ? Float.compare(score[a], score[b]) : Integer.compare(scores.doc(b), scores.doc(a)));
+        int worst = -1;
+        for (int i = 0, n = scores.slots(); i < n; i++) {
+            int slot = scores.slotAt(i);
+            if (scores.doc(slot) < 0) continue;
+            if (best.size() == limit) {
+                if (score[slot] < score[worst]
+                    || score[slot] == score[worst] && scores.doc(slot) > scores.doc(worst)) continue;
+                best.poll();
+            }
+            best.add(slot);
+            worst = best.peek();
+        }
+        LinkedList<String> result = new LinkedList<>();
+        while (!best.isEmpty()) {
+            result.addFirst(ids[scores.doc(best.poll())]);
+        }
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * Indexed words resembling a query word, with their similarity.
+     */
+    private Map<Word, Double> similarWords(String query) {
+        String[] grams = trigrams(query);
+        int[] shared = new int[nextWord];
+        IntList touched = new IntList();
+        for (String gram : grams) {
+            for (Word word : byTrigram.getOrDefault(gram, Collections.emptyList())) {
+                if (shared[word.number]++ == 0) touched.add(word.number);
+            }
+        }
+        String sound = soundex(query);
+        List<Word> soundsAlike = bySoundex.getOrDefault(sound, Collections.emptyList());
+        for (Word word : soundsAlike) {
+            if (shared[word.number] == 0) touched.add(word.number);
+        }
+        // A short or common query word can share trigrams with thousands of
+        // words; only the closest go on to the costlier similarity score
+        Word[] candidates = new Word[touched.size];
+        double[] overlap = new double[touched.size];
+        int count = 0;
+        for (int i = 0; i < touched.size; i++) {
+            Word word = numbered[touched.values[i]];
+            double dice = 2.0 * shared[word.number] / (grams.length + word.grams.length);
+            boolean alike = word.soundex.equals(sound);
+            if (dice >= MIN_SHARED_TRIGRAMS || alike) {
+                candidates[count] = word;
+                overlap[count++] = dice + (alike ? SOUNDS_ALIKE_BONUS : 0);
+            }
+        }
+        double cutoff = Double.NEGATIVE_INFINITY;
+        int atCutoff = count;
+        if (count > MAX_CANDIDATES) {
+            double[] sorted = Arrays.copyOf(overlap, count);
+            Arrays.sort(sorted);
+            cutoff = sorted[count - MAX_CANDIDATES];
+            // Of the candidates tied at the cutoff, only as many as fit
+            atCutoff = MAX_CANDIDATES;
+            for (int i = count - 1; i >= 0 && sorted[i] > cutoff; i--) atCutoff--;
+        }
+        Map<Word, Double> similar = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            if (overlap[i] < cutoff || overlap[i] == cutoff && atCutoff-- <= 0) continue;
+            Word word = candidates[i];
+            double score = jaroWinkler(query, word.text);
+            if (score >= MIN_SIMILARITY) {
+                similar.put(word, score + (word.soundex.equals(sound) ? SOUNDS_ALIKE_BONUS : 0));
+            }
+        }
+        return similar;
+    }
+
+    private void fileWord(Word word) {
+        words.put(word.text, word);
+        word.number = freeWords.size > 0 ? freeWords.values[--freeWords.size] : nextWord++;
+        if (word.number == numbered.length) numbered = Arrays.copyOf(numbered, numbered.length * 2);
+        numbered[word.number] = word;
+        for (String gram : word.grams) {
+            byTrigram.computeIfAbsent(gram, g -> new ArrayList<>(2)).add(word);
+        }
+        bySoundex.computeIfAbsent(word.soundex, s -> new ArrayList<>(2)).add(word);
+    }
+
+    private void unfileWord(Word word) {
+        words.remove(word.text);
+        numbered[word.number] = null;
+        freeWords.add(word.number);
+        for (String gram : word.grams) {
+            unfile(byTrigram, gram, word);
+        }
+        unfile(bySoundex, word.soundex, word);
+    }
+
+    private static void unfile(Map<String, List<Word>> map, String key, Word word) {
+        List<Word> list = map.get(key);
+        list.remove(word);
+        if (list.isEmpty()) map.remove(key);
+    }
+
+    private void grow(int capacity) {
+        if (capacity > ids.length) {
+            int n = Math.max(capacity, ids.length * 2);
+            ids = Arrays.copyOf(ids, n);
+            names = Arrays.copyOf(names, n);
+            births = Arrays.copyOf(births, n);
+        }
+    }
+
+    /**
+     * Lower-case name words with accents and punctuation dropped, so
+     * "O'Brien" is "obrien" and "Smith-Jones" is "smith" and "jones".
+     */
+    static List<String> split(String text) {
+        String plain = Normalizer.normalize(text, Normalizer.Form.NFD)
+            .replaceAll("\\p{M}", "").toLowerCase(Locale.ROOT);
+        List<String> result = new ArrayList<>(2);
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i <= plain.length(); i++) {
+            char c = i < plain.length() ? plain.charAt(i) : ' ';
+            if (c >= 'a' && c <= 'z') {
+                word.append(c);
+            } else if (Character.isWhitespace(c) || c == '-') {
+                if (word.length() > 0) result.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * A date as yyyymmdd, or null if the text is not a date.
+     */
+    static String date(String text) {
+        if (ISO_DATE.matcher(text).matches()) {
+            return text.replace("-", "");
+        }
+        if (UK_DATE.matcher(text).matches()) {
+            return text.substring(6) + text.substring(3, 5) + text.substring(0, 2);
+        }
+        return null;
+    }
+
+    /** Distinct trigrams of a word padded with two leading and one trailing marks. */
+    static String[] trigrams(String word) {
+        String padded = "$$" + word + "$";
+        Set<String> grams = new LinkedHashSet<>();
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            grams.add(padded.substring(i, i + 3));
+        }
+        return grams.toArray(new String[0]);
+    }
+
+    /**
+     * American Soundex: the first letter, then up to three digits for the
+     * consonant sounds that follow ("johnson" and "jonson" are both J525).
+     */
+    static String soundex(String word) {
+        if (word.isEmpty()) {
+            return "";
+        }
+        String codes = "01230120022455012623010202";
+        StringBuilder sb = new StringBuilder().append(Character.toUpperCase(word.charAt(0)));
+        char last = codes.charAt(word.charAt(0) - 'a');
+        for (int i = 1; i < word.length() && sb.length() < 4; i++) {
+            char c = word.charAt(i);
+            char code = codes.charAt(c - 'a');
+            if (code != '0' && code != last) {
+                sb.append(code);
+            }
+            // h and w do not separate letters with the same code; vowels do
+            if (c != 'h' && c != 'w') {
+                last = code;
+            }
+        }
+        while (sb.length() < 4) sb.append('0');
+        return sb.toString();
+    }
+
+    /**
+     * Jaro-Winkler similarity, from 0 for nothing in common to 1 for equal
+     * words, with a boost for a shared prefix of up to four letters.
+     */
+    static double jaroWinkler(String a, String b) {
+        if (a.equals(b)) {
+            return 1;
+        }
+        int window = Math.max(0, Math.max(a.length(), b.length()) / 2 - 1);
+        boolean[] usedA = new boolean[a.length()];
+        boolean[] usedB = new boolean[b.length()];
+        int matches = 0;
+        for (int i = 0; i < a.length(); i++) {
+            for (int j = Math.max(0, i - window); j < Math.min(b.length(), i + window + 1); j++) {
+                if (!usedB[j] && a.charAt(i) == b.charAt(j)) {
+                    usedA[i] = usedB[j] = true;
+                    matches++;
+                    break;
+                }
+            }
+        }
+        if (matches == 0) {
+            return 0;
+        }
+        int transpositions = 0;
+        for (int i = 0, j = 0; i < a.length(); i++) {
+            if (!usedA[i]) continue;
+            while (!usedB[j]) j++;
+            if (a.charAt(i) != b.charAt(j++)) transpositions++;
+        }
+        double m = matches;
+        double jaro = (m / a.length() + m / b.length() + (m - transpositions / 2.0) / m) / 3;
+        int prefix = 0;
+        while (prefix < Math.min(4, Math.min(a.length(), b.length())) && a.charAt(prefix) == b.charAt(prefix)) {
+            prefix++;
+        }
+        return jaro + prefix * 0.1 * (1 - jaro);
+    }
+
+    /**
+     * A distinct name word or date of birth, with the documents using it.
+     */
+    private static final class Word {
+        final String text;
+        final String[] grams;
+        final String soundex;
+        final IntList docs = new IntList();
+        // Slot in the numbered words while filed
+        int number;
+
+        Word(String text, boolean name) {
+            this.text = text;
+            this.grams = name ? trigrams(text) : null;
+            this.soundex = name ? soundex(text) : null;
+        }
+    }
+
+    /**
+     * Scores of the documents a query touches, in an open-addressing table
+     * sized to the postings it will read. Far smaller than an array over
+     * every document when a million are indexed. A query touching a good
+     * share of all documents uses a plain array by document number
+     * instead, which is then no bigger and reads the postings in order.
+     */
+    private static final class Scores {
+        // Document in each slot, or null when slots are document numbers
+        final int[] docs;
+        // Slots claimed so far, kept only when slots are document numbers
+        final IntList touched;
+        final float[] scores;
+        // Number of query words that have scored each document so far
+        final byte[] scoredFor;
+
+        Scores(int expected, int documents) {
+            int capacity = Integer.highestOneBit(Math.max(8, expected) * 2 - 1) << 1;
+            if (capacity * 4L >= documents) {
+                docs = null;
+                touched = new IntList(expected);
+                capacity = documents;
+            } else {
+                docs = new int[capacity];
+                touched = null;
+                Arrays.fill(docs, -1);
+            }
+            scores = new float[capacity];
+            scoredFor = new byte[capacity];
+        }
+
+        /** Slot of a document, claimed on first use; linear probing. */
+        int slot(int doc) {
+            if (docs == null) {
+                // Every match and a date of birth add a positive score
+                if (scores[doc] == 0) touched.add(doc);
+                return doc;
+            }
+            int mask = docs.length - 1;
+            int i = (doc * 0x9E3779B9) >>> 7 & mask;
+            while (docs[i] != doc) {
+                if (docs[i] < 0) {
+                    docs[i] = doc;
+                    break;
+                }
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
+
+        /** Number of slots to look at for results. */
+        int slots() {
+            return docs == null ? touched.size : docs.length;
+        }
+
+        int slotAt(int i) {
+            return docs == null ? touched.values[i] : i;
+        }
+
+        /** Document in a slot, or -1 if no document has claimed it. */
+        int doc(int slot) {
+            return docs == null ? slot : docs[slot];
+        }
+    }
+
+    /** Growable int array. */
+    private static final class IntList {
+        int[] values;
+        int size;
+
+        IntList() {
+            this(4);
+        }
+
+        IntList(int capacity) {
+            values = new int[Math.max(4, capacity)];
+        }
+
+        void add(int value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        /** Removes one occurrence, moving the last value into its place. */
+        void removeValue(int value) {
+            for (int i = 0; i < size; i++) {
+                if (values[i] == value) {
+                    values[i] = values[--size];
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package util;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+
+/**
+ * Loads a CSV file in parallel by splitting it into record-aligned chunks
+ * that are tokenized on a ForkJoinPool.
+ *
+ * The file is read with positional {@link FileChannel} reads into small heap
+ * buffers rather than memory-mapped: a mapping stays open until it is
+ * garbage collected, and on Windows an open mapping stops the file being
+ * replaced, which the atomic move in {@link CSVHandler} relies on.
+ *
+ * Chunk boundaries must not fall inside a quoted field, and whether an
+ * offset is inside one depends on everything before it. Counting quotes is
+ * not enough, since {@link CSVTokenizer} only opens a quote at the start of
+ * a field and keeps a stray one in mid-field as text. So boundaries are
+ * found in two parallel passes: for each raw slice, work out which state
+ * the tokenizer would end in from each state it could start in; chain those
+ * from the first slice on to get the real state at every slice start; then
+ * let each slice advance to its first newline outside quotes. '"', ',' and
+ * line breaks never occur inside a multi-byte UTF-8 sequence, so scanning
+ * bytes is safe.
+ *
+ * @author Shubhamkumar Prahladbhai Patel
+ */
+public class ParallelCSVLoader {
+    // Files smaller than this are parsed as a single chunk on the caller thread
+    private static final long MIN_CHUNK_BYTES = 1L << 20;
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final int BLOCK_BYTES = 64 * 1024;
+
+    // Tokenizer states between two bytes, numbered 0 to STATES - 1
+    private static final int FIELD_START = 0;       // outside quotes, nothing read in the field yet
+    private static final int UNQUOTED = 1;          // outside quotes, where a '"' is plain text
+    private static final int QUOTED = 2;            // inside quotes
+    private static final int QUOTE_IN_QUOTED = 3;   // just read a '"' inside quotes
+    private static final int STATES = 4;
+
+    private final ForkJoinPool pool;
+
+    public ParallelCSVLoader(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Parses every record after the header row.
+     *
+     * @param file CSV file to load
+     * @param mapper Converts the current row to an object; null results are skipped
+     * @return Mapped rows in file order
+     */
+    public <T> List<T> load(Path file, Function<? super CSVTokenizer, T> mapper) throws IOException {
+        return load(file, mapper, false);
+    }
+
+    /**
+     * Parses every record after the header row.
+     *
+     * @param file CSV file to load
+     * @param mapper Converts the current row to an object; null results are skipped
+     * @param trackOffsets Whether rows report their file offset through
+     *                     {@link CSVTokenizer#recordOffset()}
+     * @return Mapped rows in file order
+     */
+    public <T> List<T> load(Path file, Function<? super CSVTokenizer, T> mapper,
+                            boolean trackOffsets) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long bodyStart = nextRecordStart(channel, 0, size, FIELD_START);
+            long[] bounds = chunkBoundaries(channel, bodyStart, size);
+            int chunks = bounds.length - 1;
+
+            if (chunks == 1) {
+                return parseChunk(channel, bounds[0], bounds[1], mapper, trackOffsets);
+            }
+            List<ForkJoinTask<List<T>>> tasks = new ArrayList<>(chunks);
+            for (int i = 0; i < chunks; i++) {
+                long start = bounds[i], end = bounds[i + 1];
+                tasks.add(pool.submit(() -> parseChunk(channel, start, end, mapper, trackOffsets)));
+            }
+            int total = 0;
+            List<List<T>> parts = new ArrayList<>(chunks);
+            for (ForkJoinTask<List<T>> task : tasks) {
+                List<T> part = task.join();
+                total += part.size();
+                parts.add(part);
+            }
+            List<T> result = new ArrayList<>(total);
+            for (List<T> part : parts) {
+                result.addAll(part);
+            }
+            return result;
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Splits the body into record-aligned chunks.
+     *
+     * @return Ascending boundary offsets; chunk i is [bounds[i], bounds[i+1])
+     */
+    private long[] chunkBoundaries(FileChannel channel, long bodyStart, long size) {
+        long body = size - bodyStart;
+        int maxChunks = pool.getParallelism() * CHUNKS_PER_THREAD;
+        int chunks = (int) Math.max(1, Math.min(maxChunks, body / MIN_CHUNK_BYTES));
+        if (chunks == 1) {
+            return new long[] {bodyStart, size};
+        }
+
+        long step = body / chunks;
+        long[] raw = new long[chunks + 1];
+        for (int i = 0; i < chunks; i++) {
+            raw[i] = bodyStart + i * step;
+        }
+        raw[chunks] = size;
+
+        // Pass 1: each slice's end state for every start state, chained
+        // from the body start, which is a record start
+        List<ForkJoinTask<int[]>> endStates = new ArrayList<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            long from = raw[i], to = raw[i + 1];
+            endStates.add(pool.submit(() -> endStates(channel, from, to)));
+        }
+        int[] startState = new int[chunks];
+        int state = FIELD_START;
+        for (int i = 0; i < chunks; i++) {
+            startState[i] = state;
+            state = endStates.get(i).join()[state];
+        }
+
+        // Pass 2: move each raw offset forward to the next record start
+        List<ForkJoinTask<Long>> aligned = new ArrayList<>(chunks);
+        for (int i = 1; i < chunks; i++) {
+            long from = raw[i];
+            int at = startState[i];
+            aligned.add(pool.submit(() -> nextRecordStart(channel, from, size, at)));
+        }
+        long[] bounds = new long[chunks + 1];
+        int count = 0;
+        bounds[count++] = bodyStart;
+        for (ForkJoinTask<Long> task : aligned) {
+            long b = task.join();
+            // A very long quoted field can swallow a whole raw slice
+            if (b > bounds[count - 1] && b < size) {
+                bounds[count++] = b;
+            }
+        }
+        bounds[count++] = size;
+        return Arrays.copyOf(bounds, count);
+    }
+
+    /**
+     * The state the tokenizer would be in after [from, to), for each state
+     * it could have been in at from. Reads the slice once and runs the four
+     * start states over each block while it is in cache.
+     *
+     * @return End state, indexed by start state
+     */
+    private static int[] endStates(FileChannel channel, long from, long to) throws IOException {
+        int[] states = new int[STATES];
+        for (int s = 0; s < STATES; s++) states[s] = s;
+        ByteBuffer block = ByteBuffer.allocate(BLOCK_BYTES);
+        for (long position = from; position < to; ) {
+            int n = read(channel, block, position, to);
+            if (n == 0) break;
+            byte[] bytes = block.array();
+            for (int s = 0; s < STATES; s++) {
+                int state = states[s];
+                for (int i = 0; i < n; i++) state = step(state, bytes[i]);
+                states[s] = state;
+            }
+            position += n;
+        }
+        return states;
+    }
+
+    /**
+     * Finds the offset just past the first line break that is outside quotes.
+     */
+    private static long nextRecordStart(FileChannel channel, long from, long size, int state)
+            throws IOException {
+        ByteBuffer block = ByteBuffer.allocate(BLOCK_BYTES);
+        for (long position = from; position < size; ) {
+            int n = read(channel, block, position, size);
+            if (n == 0) break;
+            byte[] bytes = block.array();
+            for (int i = 0; i < n; i++) {
+                byte b = bytes[i];
+                if (b == '\n' && state != QUOTED) {
+                    return position + i + 1;
+                }
+                state = step(state, b);
+            }
+            position += n;
+        }
+        return size;
+    }
+
+    /**
+     * One byte of {@link CSVTokenizer#nextRecord()}: a quote opens only at
+     * the start of a field, and inside quotes a doubled quote is text while
+     * a single one closes the field.
+     */
+    private static int step(int state, byte b) {
+        boolean separator = b == ',' || b == '\n' || b == '\r';
+        switch (state) {
+            case FIELD_START:
+                return b == '"' ? QUOTED : separator ? FIELD_START : UNQUOTED;
+            case UNQUOTED:
+                return separator ? FIELD_START : UNQUOTED;
+            case QUOTED:
+                return b == '"' ? QUOTE_IN_QUOTED : QUOTED;
+            default:
+                return b == '"' ? QUOTED : separator ? FIELD_START : UNQUOTED;
+        }
+    }
+
+    /**
+     * Reads up to one block of [position, end) into the buffer.
+     *
+     * @return Bytes read; 0 only if the file ended early
+     */
+    private static int read(FileChannel channel, ByteBuffer block, long position, long end)
+            throws IOException {
+        block.clear();
+        block.limit((int) Math.min(block.capacity(), end - position));
+        while (block.hasRemaining() && channel.read(block, position + block.position()) >= 0) {
+            // keep reading until the block is full or the file ends
+        }
+        return block.position();
+    }
+
+    private static <T> List<T> parseChunk(FileChannel channel, long start, long end,
+                                          Function<? super CSVTokenizer, T> mapper,
+                                          boolean trackOffsets) throws IOException {
+        Reader reader = new InputStreamReader(new ChannelInputStream(channel, start, end),
+            StandardCharsets.UTF_8);
+        return parse(reader, mapper, trackOffsets ? start : -1);
+    }
+
+    private static <T> List<T> parse(Reader reader, Function<? super CSVTokenizer, T> mapper,
+                                     long startOffset) throws IOException {
+        List<T> rows = new ArrayList<>();
+        try (CSVTokenizer row = new CSVTokenizer(reader)) {
+            if (startOffset >= 0) row.trackByteOffsets(startOffset);
+            while (row.nextRecord()) {
+                T value = mapper.apply(row);
+                if (value != null) rows.add(value);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * InputStream over one range of a channel, read with positional reads
+     * so chunks can share the channel and decode lazily.
+     */
+    private static class ChannelInputStream extends InputStream {
+        private final FileChannel channel;
+        private final long end;
+        private long position;
+
+        ChannelInputStream(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end) return -1;
+            int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+            if (n < 0) {
+                position = end;
+                return -1;
+            }
+            position += n;
+            return n;
+        }
+    }
+}
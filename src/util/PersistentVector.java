@@ -0,0 +1,183 @@
+package util;
+
+import java.util.*;
+
+/**
+ * Immutable indexed sequence with structural sharing.
+ *
+ * Elements sit in the leaves of a 32-way trie. {@link #append} and
+ * {@link #set} copy only the nodes on the path to one leaf (at most four
+ * levels for a million elements) and return a new vector; every other node
+ * is shared with the original. Holding on to a vector is therefore an O(1)
+ * snapshot that later changes cannot disturb.
+ *
+ * Null elements are allowed and counted, so a caller using null to mark
+ * a removed element can tell how many live elements a version holds in O(1).
+ *
+ * @author Shubhamkumar Prahladbhai Patel
+ */
+public final class PersistentVector<T> implements Iterable<T> {
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    private static final PersistentVector<?> EMPTY = new PersistentVector<>(0, 0, BITS, new Object[WIDTH]);
+
+    private final int size;
+    private final int nulls;
+    private final int shift;
+    private final Object[] root;
+
+    private PersistentVector(int size, int nulls, int shift, Object[] root) {
+        this.size = size;
+        this.nulls = nulls;
+        this.shift = shift;
+        this.root = root;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> PersistentVector<T> empty() {
+        return (PersistentVector<T>) EMPTY;
+    }
+
+    /**
+     * Builds a vector holding the elements of a list, bottom-up in O(n).
+     */
+    public static <T> PersistentVector<T> of(List<? extends T> elements) {
+        int n = elements.size();
+        if (n == 0) {
+            return empty();
+        }
+        List<Object[]> level = new ArrayList<>((n + MASK) / WIDTH);
+        int nulls = 0;
+        for (int i = 0; i < n; i += WIDTH) {
+            Object[] leaf = new Object[WIDTH];
+            for (int j = i; j < Math.min(n, i + WIDTH); j++) {
+                leaf[j - i] = elements.get(j);
+                if (leaf[j - i] == null) nulls++;
+            }
+            level.add(leaf);
+        }
+        int shift = 0;
+        do {
+            List<Object[]> parents = new ArrayList<>((level.size() + MASK) / WIDTH);
+            for (int i = 0; i < level.size(); i += WIDTH) {
+                Object[] node = new Object[WIDTH];
+                for (int j = i; j < Math.min(level.size(), i + WIDTH); j++) {
+                    node[j - i] = level.get(j);
+                }
+                parents.add(node);
+            }
+            level = parents;
+            shift += BITS;
+        } while (level.size() > 1);
+        return new PersistentVector<>(n, nulls, shift, level.get(0));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Number of null elements. */
+    public int nullCount() {
+        return nulls;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(int i) {
+        return (T) leafFor(i)[i & MASK];
+    }
+
+    private Object[] leafFor(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index " + i + ", size " + size);
+        }
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Object[]) node[(i >>> level) & MASK];
+        }
+        return node;
+    }
+
+    /**
+     * Returns a vector with one element replaced.
+     */
+    public PersistentVector<T> set(int i, T value) {
+        int delta = (value == null ? 1 : 0) - (get(i) == null ? 1 : 0);
+        return new PersistentVector<>(size, nulls + delta, shift, set(shift, root, i, value));
+    }
+
+    private static Object[] set(int level, Object[] node, int i, Object value) {
+        Object[] copy = node.clone();
+        if (level == 0) {
+            copy[i & MASK] = value;
+        } else {
+            int slot = (i >>> level) & MASK;
+            copy[slot] = set(level - BITS, (Object[]) node[slot], i, value);
+        }
+        return copy;
+    }
+
+    /**
+     * Returns a vector with an element added at the end.
+     */
+    public PersistentVector<T> append(T value) {
+        if (size == 1 << (shift + BITS)) {
+            // Root is full: grow the trie by one level
+            Object[] newRoot = new Object[WIDTH];
+            newRoot[0] = root;
+            newRoot[1] = path(shift, value);
+            return new PersistentVector<>(size + 1, nulls + (value == null ? 1 : 0),
+                                          shift + BITS, newRoot);
+        }
+        return new PersistentVector<>(size + 1, nulls + (value == null ? 1 : 0), shift,
+                                      append(shift, root, size, value));
+    }
+
+    private static Object[] append(int level, Object[] node, int i, Object value) {
+        Object[] copy = node.clone();
+        if (level == 0) {
+            copy[i & MASK] = value;
+        } else {
+            int slot = (i >>> level) & MASK;
+            Object[] child = (Object[]) node[slot];
+            copy[slot] = child == null ? path(level - BITS, value) : append(level - BITS, child, i, value);
+        }
+        return copy;
+    }
+
+    /** A fresh branch down to a leaf holding one value in slot 0. */
+    private static Object[] path(int level, Object value) {
+        Object[] node = new Object[WIDTH];
+        node[0] = level == 0 ? value : path(level - BITS, value);
+        return node;
+    }
+
+    /**
+     * Iterates in index order, descending the trie once per leaf.
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            private int i;
+            private Object[] leaf;
+
+            @Override
+            public boolean hasNext() {
+                return i < size;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public T next() {
+                if (i >= size) {
+                    throw new NoSuchElementException();
+                }
+                if ((i & MASK) == 0 || leaf == null) {
+                    leaf = leafFor(i);
+                }
+                return (T) leaf[i++ & MASK];
+            }
+        };
+    }
+}
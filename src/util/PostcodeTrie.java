@@ -0,0 +1,225 @@
+package util;
+
+import java.util.*;
+
+/**
+ * Prefix index over UK postcodes, for area queries such as "everyone in
+ * B91 2" or "everything in district B1".
+ *
+ * Postcodes are stored normalised, upper case with one space before the
+ * three-character inward code ("b912aa" becomes "B91 2AA"), in a trie
+ * with one level per character. Every node counts the documents below
+ * it, so counting a prefix costs O(prefix), and listing k documents
+ * costs O(prefix + k): the walk stops once it has k, and postcodes are
+ * at most eight characters deep. Documents come back in postcode order.
+ *
+ * A query is a prefix of the normalised form. A trailing space marks the
+ * end of the outward code, so "B1 " is district B1 alone, while "B1" also
+ * matches B10 to B19. A whole postcode may be typed without its space.
+ *
+ * @author Shubhamkumar Prahladbhai Patel
+ */
+public final class PostcodeTrie implements SearchIndex {
+    private final Node root = new Node();
+    private final Map<String, String> postcodeOf = new HashMap<>();
+
+    /**
+     * Indexes a document under its postcode, the first non-blank field.
+     */
+    @Override
+    public void put(String id, List<String> fields) {
+        remove(id);
+        for (String field : fields) {
+            String postcode = field == null ? "" : normalise(field);
+            if (!postcode.isEmpty()) {
+                add(id, postcode);
+                return;
+            }
+        }
+    }
+
+    private void add(String id, String postcode) {
+        Node node = root;
+        node.count++;
+        for (int i = 0; i < postcode.length(); i++) {
+            node = node.childOrCreate(postcode.charAt(i));
+            node.count++;
+        }
+        if (node.ids == null) node.ids = new LinkedHashSet<>(4);
+        node.ids.add(id);
+        postcodeOf.put(id, postcode);
+    }
+
+    @Override
+    public boolean remove(String id) {
+        String postcode = postcodeOf.remove(id);
+        if (postcode == null) {
+            return false;
+        }
+        Node node = root;
+        node.count--;
+        for (int i = 0; i < postcode.length(); i++) {
+            Node child = node.child(postcode.charAt(i));
+            if (--child.count == 0) {
+                // Nothing left below: drop the whole branch
+                node.removeChild(postcode.charAt(i));
+                return true;
+            }
+            node = child;
+        }
+        node.ids.remove(id);
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        root.count = 0;
+        root.keys = new char[0];
+        root.children = new Node[0];
+        postcodeOf.clear();
+    }
+
+    /**
+     * Documents whose postcode starts with a prefix, in postcode order.
+     *
+     * @param query Postcode prefix, e.g. "B91 2" or "B1 "
+     * @param limit Maximum number of results
+     */
+    @Override
+    public List<String> search(String query, int limit) {
+        List<String> result = new ArrayList<>();
+        Node node = find(query);
+        if (node != null && limit > 0) {
+            collect(node, result, limit);
+        }
+        return result;
+    }
+
+    /**
+     * Number of documents whose postcode starts with a prefix.
+     */
+    public int count(String prefix) {
+        Node node = find(prefix);
+        return node == null ? 0 : node.count;
+    }
+
+    /** Normalised postcode of a document, or null if it has none. */
+    public String postcodeOf(String id) {
+        return postcodeOf.get(id);
+    }
+
+    private Node find(String query) {
+        String prefix = normalisePrefix(query);
+        Node node = root;
+        for (int i = 0; i < prefix.length() && node != null; i++) {
+            node = node.child(prefix.charAt(i));
+        }
+        return node;
+    }
+
+    /** Depth-first in character order, which is postcode order. */
+    private static boolean collect(Node node, List<String> into, int limit) {
+        if (node.ids != null) {
+            for (String id : node.ids) {
+                if (into.size() >= limit) return false;
+                into.add(id);
+            }
+        }
+        for (Node child : node.children) {
+            if (!collect(child, into, limit)) return false;
+        }
+        return into.size() < limit;
+    }
+
+    /**
+     * Upper case, letters and digits only, with a space before the last
+     * three characters once there are enough for an inward code.
+     */
+    public static String normalise(String postcode) {
+        StringBuilder sb = new StringBuilder(8);
+        for (int i = 0; i < postcode.length(); i++) {
+            char c = Character.toUpperCase(postcode.charAt(i));
+            if ((c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')) sb.append(c);
+        }
+        if (sb.length() >= 5) {
+            sb.insert(sb.length() - 3, ' ');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A query prefix as typed, in upper case, keeping at most one space
+     * between the outward and inward code.
+     */
+    static String normalisePrefix(String prefix) {
+        if (prefix == null) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder(8);
+        boolean space = false;
+        for (int i = 0; i < prefix.length(); i++) {
+            char c = Character.toUpperCase(prefix.charAt(i));
+            if (Character.isWhitespace(c)) {
+                space = sb.length() > 0;
+            } else if ((c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')) {
+                if (space && sb.indexOf(" ") < 0) sb.append(' ');
+                space = false;
+                sb.append(c);
+            }
+        }
+        if (space && sb.indexOf(" ") < 0) sb.append(' ');
+        if (sb.indexOf(" ") < 0 && sb.length() >= 5 && sb.toString().matches(".*[0-9][A-Z]{2}")) {
+            // A whole postcode typed without its space
+            return normalise(sb.toString());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Trie node; children are kept sorted by character.
+     */
+    private static final class Node {
+        char[] keys = new char[0];
+        Node[] children = new Node[0];
+        // Documents whose postcode ends here
+        Set<String> ids;
+        // Documents at or below this node
+        int count;
+
+        Node child(char c) {
+            int i = Arrays.binarySearch(keys, c);
+            return i < 0 ? null : children[i];
+        }
+
+        Node childOrCreate(char c) {
+            int i = Arrays.binarySearch(keys, c);
+            if (i >= 0) {
+                return children[i];
+            }
+            i = -i - 1;
+            char[] k = new char[keys.length + 1];
+            Node[] n = new Node[children.length + 1];
+            System.arraycopy(keys, 0, k, 0, i);
+            System.arraycopy(children, 0, n, 0, i);
+            System.arraycopy(keys, i, k, i + 1, keys.length - i);
+            System.arraycopy(children, i, n, i + 1, children.length - i);
+            k[i] = c;
+            n[i] = new Node();
+            keys = k;
+            children = n;
+            return n[i];
+        }
+
+        void removeChild(char c) {
+            int i = Arrays.binarySearch(keys, c);
+            char[] k = new char[keys.length - 1];
+            Node[] n = new Node[children.length - 1];
+            System.arraycopy(keys, 0, k, 0, i);
+            System.arraycopy(children, 0, n, 0, i);
+            System.arraycopy(keys, i + 1, k, i, keys.length - i - 1);
+            System.arraycopy(children, i + 1, n, i, children.length - i - 1);
+            keys = k;
+            children = n;
+        }
+    }
+}
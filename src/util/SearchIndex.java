@@ -0,0 +1,37 @@
+package util;
+
+import java.util.List;
+
+/**
+ * An index answering free-form queries over documents made of a few text
+ * fields, maintained one document at a time. Implementations are not
+ * thread-safe: callers must lock around them.
+ *
+ * @author Shubhamkumar Prahladbhai Patel
+ */
+public interface SearchIndex {
+    /**
+     * Indexes a document, replacing any earlier version of it.
+     *
+     * @param id Document ID
+     * @param fields Text of each field; null fields are skipped
+     */
+    void put(String id, List<String> fields);
+
+    /**
+     * Removes a document.
+     *
+     * @return false if it was not indexed
+     */
+    boolean remove(String id);
+
+    void clear();
+
+    /**
+     * Finds the documents best matching a query, most relevant first.
+     *
+     * @param limit Maximum number of results
+     * @return IDs of the matching documents
+     */
+    List<String> search(String query, int limit);
+}
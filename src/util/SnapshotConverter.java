@@ -0,0 +1,38 @@
+package util;
+
+import java.io.IOException;
+
+/**
+ * Command-line converter between the CSV data files and their binary snapshots.
+ * 
+ * Usage: java util.SnapshotConverter (to-binary | to-csv) [dataDirectory]
+ * 
+ * @author Shubhamkumar Prahladbhai Patel
+ */
+public class SnapshotConverter {
+    private static final String[] FILES = {"patients", "appointments", "prescriptions", "referrals"};
+    
+    public static void main(String[] args) {
+        if (args.length < 1 || !(args[0].equals("to-binary") || args[0].equals("to-csv"))) {
+            System.err.println("Usage: java util.SnapshotConverter (to-binary | to-csv) [dataDirectory]");
+            System.exit(1);
+        }
+        String dataDirectory = args.length > 1 ? args[1] : "data";
+        CSVHandler csvHandler = new CSVHandler(dataDirectory);
+        boolean toBinary = args[0].equals("to-binary");
+        
+        for (String name : FILES) {
+            if (toBinary) {
+                csvHandler.writeSnapshot(name);
+                System.out.println("Wrote " + name + ".snap");
+            } else {
+                try {
+                    csvHandler.restoreFromSnapshot(name);
+                    System.out.println("Wrote " + name + ".csv");
+                } catch (IOException e) {
+                    System.err.println("Error restoring " + name + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+}
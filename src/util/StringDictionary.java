@@ -0,0 +1,175 @@
+package util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Canonical instances for the values of one low-cardinality column.
+ *
+ * Values can be looked up straight from a tokenizer's char buffer, so a
+ * repeated value costs no allocation at all: the row just gets the shared
+ * String. The table stops growing at about a fixed size so a column that
+ * turns out to be high-cardinality cannot turn into a leak; further new
+ * values are returned as ordinary Strings.
+ *
+ * The parallel loader parses several chunks of a file at once, so the
+ * table is a ConcurrentHashMap: lookups take no lock, and each thread
+ * probes it with its own reusable key.
+ *
+ * @author Shubhamkumar Prahladbhai Patel
+ */
+public class StringDictionary {
+    private static final int DEFAULT_MAX_ENTRIES = 4096;
+
+    private final int maxEntries;
+    private final ConcurrentHashMap<Key, String> values;
+    private final ThreadLocal<Key> probes;
+    private final AtomicInteger size;
+    private final LongAdder hits;
+    private final LongAdder bytesSaved;
+
+    public StringDictionary() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxEntries Most distinct values to keep; concurrent adds may
+     *        overshoot it by a few
+     */
+    public StringDictionary(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.values = new ConcurrentHashMap<>(64);
+        this.probes = ThreadLocal.withInitial(Key::new);
+        this.size = new AtomicInteger();
+        this.hits = new LongAdder();
+        this.bytesSaved = new LongAdder();
+    }
+
+    /**
+     * Returns the canonical String for a slice of a char buffer.
+     */
+    public String intern(char[] buf, int start, int length) {
+        if (length == 0) {
+            return "";
+        }
+        Key probe = probes.get();
+        String entry = values.get(probe.of(buf, start, length));
+        // Do not keep the tokenizer's buffer reachable
+        probe.of(null, 0, 0);
+        if (entry != null) {
+            recordHit(entry);
+            return entry;
+        }
+        return add(new String(buf, start, length));
+    }
+
+    /**
+     * Returns the canonical instance equal to a String.
+     */
+    public String intern(String value) {
+        if (value.isEmpty()) {
+            return "";
+        }
+        String entry = values.get(probes.get().of(value));
+        if (entry != null) {
+            if (entry != value) {
+                recordHit(entry);
+            }
+            return entry;
+        }
+        return add(value);
+    }
+
+    private String add(String value) {
+        if (size.get() >= maxEntries) {
+            return value;
+        }
+        String existing = values.putIfAbsent(new Key().of(value), value);
+        if (existing != null) {
+            // Another thread added it first
+            recordHit(existing);
+            return existing;
+        }
+        size.incrementAndGet();
+        return value;
+    }
+
+    /**
+     * Estimates the heap a duplicate String would have taken: a 24 byte
+     * String object plus its byte array (16 byte header, one byte per
+     * Latin-1 char, padded to 8).
+     */
+    private void recordHit(String entry) {
+        hits.increment();
+        bytesSaved.add(24 + ((16 + entry.length() + 7) & ~7));
+    }
+
+    /** Number of distinct values held. */
+    public int size() { return values.size(); }
+
+    /** Number of lookups that returned an existing instance. */
+    public long hits() { return hits.sum(); }
+
+    /** Estimated heap saved by returning shared instances. */
+    public long bytesSaved() { return bytesSaved.sum(); }
+
+    /**
+     * Map key over either a stored String or, for lookups, a slice of a
+     * char buffer. Both hash like the equal String.
+     */
+    private static final class Key {
+        private String value;
+        private char[] buf;
+        private int start;
+        private int length;
+        private int hash;
+
+        Key of(String value) {
+            this.value = value;
+            this.buf = null;
+            this.length = value.length();
+            this.hash = value.hashCode();
+            return this;
+        }
+
+        Key of(char[] buf, int start, int length) {
+            this.value = null;
+            this.buf = buf;
+            this.start = start;
+            this.length = length;
+            int h = 0;
+            for (int i = start; buf != null && i < start + length; i++) {
+                h = 31 * h + buf[i];
+            }
+            this.hash = h;
+            return this;
+        }
+
+        private char charAt(int i) {
+            return value != null ? value.charAt(i) : buf[start + i];
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            if (other.hash != hash || other.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (charAt(i) != other.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,371 @@
+package util;
+
+import java.util.*;
+
+/**
+ * Full-text index over short documents, for ranked keyword and phrase search.
+ *
+ * Text is split into lower-case words, and each word is cut down to a stem
+ * ("headaches" and "headache" both become "headach") so that a query finds
+ * other forms of the same word. For every stem the index keeps a postings
+ * list: the documents containing it, in the order they were indexed, with
+ * the word positions in each. Ranked search scores documents with BM25 from
+ * those lists alone. A phrase search intersects the lists of its words and
+ * checks that the positions line up.
+ *
+ * Documents are numbered internally as they are indexed. Reindexing or
+ * removing one only marks its old number deleted, so a change costs time
+ * in the length of that document. Once deleted numbers make up half of the
+ * index the postings are rewritten without them.
+ *
+ * Not thread-safe: callers must lock around it.
+ *
+ * @author Shubhamkumar Prahladbhai Patel
+ */
+public final class TextIndex implements SearchIndex {
+    // BM25 parameters: term frequency saturation and document length weight
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    // Position gap between fields, so a phrase cannot run from one into the next
+    private static final int FIELD_GAP = 100;
+    private static final int MIN_COMPACT_DOCS = 1024;
+
+    private final Map<String, Postings> postings = new HashMap<>();
+    private final Map<String, Integer> numbers = new HashMap<>();
+    // Per document number; id and terms are null once the document is deleted
+    private String[] ids = new String[16];
+    private String[][] terms = new String[16][];
+    private int[] lengths = new int[16];
+    private int next;
+    private int deleted;
+    private long totalLength;
+
+    @Override
+    public void put(String id, List<String> fields) {
+        remove(id);
+        Map<String, IntList> found = new LinkedHashMap<>();
+        int position = 0;
+        for (String field : fields) {
+            if (field == null) continue;
+            for (String word : tokenize(field)) {
+                found.computeIfAbsent(stem(word), w -> new IntList()).add(position++);
+            }
+            position += FIELD_GAP;
+        }
+        int doc = next++;
+        grow(doc + 1);
+        String[] distinct = new String[found.size()];
+        int length = 0, i = 0;
+        for (Map.Entry<String, IntList> e : found.entrySet()) {
+            Postings p = postings.computeIfAbsent(e.getKey(), Postings::new);
+            p.add(doc, e.getValue());
+            distinct[i++] = p.term;
+            length += e.getValue().size;
+        }
+        ids[doc] = id;
+        terms[doc] = distinct;
+        lengths[doc] = length;
+        totalLength += length;
+        numbers.put(id, doc);
+    }
+
+    @Override
+    public boolean remove(String id) {
+        Integer doc = numbers.remove(id);
+        if (doc == null) {
+            return false;
+        }
+        for (String term : terms[doc]) {
+            Postings p = postings.get(term);
+            if (--p.live == 0) postings.remove(term);
+        }
+        ids[doc] = null;
+        terms[doc] = null;
+        totalLength -= lengths[doc];
+        deleted++;
+        compactIfSparse();
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        postings.clear();
+        numbers.clear();
+        ids = new String[16];
+        terms = new String[16][];
+        lengths = new int[16];
+        next = 0;
+        deleted = 0;
+        totalLength = 0;
+    }
+
+    /** Number of documents indexed. */
+    public int size() {
+        return numbers.size();
+    }
+
+    /**
+     * Finds the documents best matching a query, most relevant first.
+     *
+     * Words in the query are optional and rank the results; text in double
+     * quotes is a phrase that every result must contain, word for word:
+     * <pre>
+     *   headache MRI "morning headaches"
+     * </pre>
+     *
+     * @param query Words and quoted phrases
+     * @param limit Maximum number of results
+     * @return IDs of the matching documents
+     */
+    @Override
+    public List<String> search(String query, int limit) {
+        List<List<String>> phrases = new ArrayList<>();
+        Set<String> words = new LinkedHashSet<>();
+        String[] parts = query == null ? new String[0] : query.split("\"", -1);
+        for (int i = 0; i < parts.length; i++) {
+            List<String> stems = new ArrayList<>();
+            for (String word : tokenize(parts[i])) stems.add(stem(word));
+            // Odd parts lie between quotes; an unclosed quote runs to the end
+            if (i % 2 == 1 && stems.size() > 1) {
+                phrases.add(stems);
+            }
+            words.addAll(stems);
+        }
+        if (words.isEmpty() || limit <= 0) {
+            return new ArrayList<>();
+        }
+        double[] scores = new double[next];
+        IntList touched = new IntList();
+        double averageLength = numbers.isEmpty() ? 0 : (double) totalLength / numbers.size();
+        for (String word : words) {
+            Postings p = postings.get(word);
+            if (p == null) continue;
+            double idf = Math.log(1 + (numbers.size() - p.live + 0.5) / (p.live + 0.5));
+            for (int i = 0; i < p.size; i++) {
+                int doc = p.docs[i];
+                if (ids[doc] == null) continue;
+                int tf = p.starts[i + 1] - p.starts[i];
+                double norm = K1 * (1 - B + B * lengths[doc] / averageLength);
+                if (scores[doc] == 0) touched.add(doc);
+                scores[doc] += idf * tf * (K1 + 1) / (tf + norm);
+            }
+        }
+        PriorityQueue<Integer> best = new PriorityQueue<>(
+            (a, b) -> scores[a] != scores[b] ? Double.compare(scores[a], scores[b]) : Integer.compare(b, a));
+        for (int i = 0; i < touched.size; i++) {
+            int doc = touched.values[i];
+            if (!containsAll(doc, phrases)) continue;
+            best.add(doc);
+            if (best.size() > limit) best.poll();
+        }
+        LinkedList<String> result = new LinkedList<>();
+        while (!best.isEmpty()) {
+            result.addFirst(ids[best.poll()]);
+        }
+        return new ArrayList<>(result);
+    }
+
+    private boolean containsAll(int doc, List<List<String>> phrases) {
+        for (List<String> phrase : phrases) {
+            if (!contains(doc, phrase)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Whether the words of a phrase sit at consecutive positions in a document.
+     */
+    private boolean contains(int doc, List<String> phrase) {
+        Postings[] words = new Postings[phrase.size()];
+        int[] entries = new int[phrase.size()];
+        for (int w = 0; w < words.length; w++) {
+            words[w] = postings.get(phrase.get(w));
+            entries[w] = words[w] == null ? -1 : Arrays.binarySearch(words[w].docs, 0, words[w].size, doc);
+            if (entries[w] < 0) {
+                return false;
+            }
+        }
+        Postings first = words[0];
+        for (int k = first.starts[entries[0]]; k < first.starts[entries[0] + 1]; k++) {
+            int w = 1;
+            while (w < words.length && words[w].hasPosition(entries[w], first.positions[k] + w)) w++;
+            if (w == words.length) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Rewrites the postings without deleted documents and renumbers the
+     * rest, keeping their order.
+     */
+    private void compactIfSparse() {
+        if (next < MIN_COMPACT_DOCS || deleted * 2 < next) {
+            return;
+        }
+        int[] renumbered = new int[next];
+        int live = 0;
+        for (int doc = 0; doc < next; doc++) {
+            renumbered[doc] = ids[doc] == null ? -1 : live++;
+        }
+        for (Postings p : postings.values()) {
+            p.compact(renumbered);
+        }
+        String[] newIds = new String[Math.max(16, live)];
+        String[][] newTerms = new String[newIds.length][];
+        int[] newLengths = new int[newIds.length];
+        for (int doc = 0; doc < next; doc++) {
+            int n = renumbered[doc];
+            if (n < 0) continue;
+            newIds[n] = ids[doc];
+            newTerms[n] = terms[doc];
+            newLengths[n] = lengths[doc];
+            numbers.put(ids[doc], n);
+        }
+        ids = newIds;
+        terms = newTerms;
+        lengths = newLengths;
+        next = live;
+        deleted = 0;
+    }
+
+    private void grow(int capacity) {
+        if (capacity > ids.length) {
+            int n = Math.max(capacity, ids.length * 2);
+            ids = Arrays.copyOf(ids, n);
+            terms = Arrays.copyOf(terms, n);
+            lengths = Arrays.copyOf(lengths, n);
+        }
+    }
+
+    /**
+     * Splits text into lower-case runs of letters and digits.
+     */
+    static List<String> tokenize(String text) {
+        List<String> words = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean inWord = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (inWord && start < 0) {
+                start = i;
+            } else if (!inWord && start >= 0) {
+                words.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Strips common English endings: plurals, -ing, -ed, -ly and a final e.
+     * Cruder than a full Porter stemmer, but it only has to map the forms of
+     * a word to the same stem, and queries go through it too.
+     */
+    static String stem(String word) {
+        if (word.length() <= 3 || !Character.isLetter(word.charAt(0))) {
+            return word;
+        }
+        String w = word;
+        if (w.endsWith("ies") && w.length() > 4) {
+            w = w.substring(0, w.length() - 3) + "y";
+        } else if (w.endsWith("sses")) {
+            w = w.substring(0, w.length() - 2);
+        } else if (w.endsWith("s") && !w.endsWith("ss") && !w.endsWith("us") && !w.endsWith("is")) {
+            w = w.substring(0, w.length() - 1);
+        }
+        for (String suffix : new String[] {"ing", "ed", "ly"}) {
+            // The plural strip can leave two letters ("sses" becomes "ss")
+            if (w.length() <= suffix.length() || !w.endsWith(suffix)) continue;
+            String rest = w.substring(0, w.length() - suffix.length());
+            if (rest.length() >= 3 && hasVowel(rest)) {
+                w = undouble(rest);
+                break;
+            }
+        }
+        if (w.endsWith("e") && w.length() > 4) {
+            w = w.substring(0, w.length() - 1);
+        }
+        return w;
+    }
+
+    private static boolean hasVowel(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if ("aeiouy".indexOf(s.charAt(i)) >= 0) return true;
+        }
+        return false;
+    }
+
+    /** "stopp" becomes "stop", but "fall" and "press" keep their pair. */
+    private static String undouble(String s) {
+        int n = s.length();
+        char last = s.charAt(n - 1);
+        if (n >= 4 && last == s.charAt(n - 2) && "aeioulsz".indexOf(last) < 0) {
+            return s.substring(0, n - 1);
+        }
+        return s;
+    }
+
+    /**
+     * Documents containing one stem, in document number order, with the
+     * positions of every occurrence packed into a single array.
+     */
+    private static final class Postings {
+        final String term;
+        int[] docs = new int[2];
+        // Positions of entry i are positions[starts[i]] up to positions[starts[i + 1]]
+        int[] starts = new int[3];
+        int[] positions = new int[4];
+        int size;
+        // Entries whose document is not deleted
+        int live;
+
+        Postings(String term) {
+            this.term = term;
+        }
+
+        void add(int doc, IntList at) {
+            if (size + 1 >= docs.length) {
+                docs = Arrays.copyOf(docs, docs.length * 2);
+                starts = Arrays.copyOf(starts, docs.length + 1);
+            }
+            int end = starts[size];
+            if (end + at.size > positions.length) {
+                positions = Arrays.copyOf(positions, Math.max(positions.length * 2, end + at.size));
+            }
+            System.arraycopy(at.values, 0, positions, end, at.size);
+            docs[size] = doc;
+            starts[++size] = end + at.size;
+            live++;
+        }
+
+        boolean hasPosition(int entry, int position) {
+            return Arrays.binarySearch(positions, starts[entry], starts[entry + 1], position) >= 0;
+        }
+
+        void compact(int[] renumbered) {
+            int n = 0, end = 0;
+            for (int i = 0; i < size; i++) {
+                int doc = renumbered[docs[i]];
+                if (doc < 0) continue;
+                int from = starts[i], count = starts[i + 1] - from;
+                System.arraycopy(positions, from, positions, end, count);
+                docs[n] = doc;
+                starts[n] = end;
+                end += count;
+                n++;
+            }
+            starts[n] = end;
+            size = n;
+        }
+    }
+
+    /** Growable int array. */
+    private static final class IntList {
+        int[] values = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+    }
+}
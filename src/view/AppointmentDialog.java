@@ -14,7 +14,8 @@ public class AppointmentDialog extends JDialog {
     public AppointmentDialog(Frame parent, Appointment appointment, DataManager dataManager) {
         super(parent, appointment == null ? "Add Appointment" : "Edit Appointment", true);
         this.dataManager = dataManager;
-        this.appointment = appointment;
+        // Edit a copy: the stored record is only replaced when the update succeeds
+        this.appointment = appointment != null ? appointment.copy() : null;
         
         setSize(500, 500);
         setLocationRelativeTo(parent);
@@ -83,7 +84,12 @@ public class AppointmentDialog extends JDialog {
             appointment.setAppointmentType(fields[7].getText());
             appointment.setStatus(fields[8].getText());
             appointment.setReasonForVisit(fields[9].getText());
-            dataManager.updateAppointment(appointment.getAppointmentId(), appointment);
+            if (!dataManager.updateAppointment(appointment.getAppointmentId(), appointment)) {
+                JOptionPane.showMessageDialog(this,
+                    "Appointment " + appointment.getAppointmentId() + " could not be updated: it has been deleted",
+                    "Update Failed", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
         }
         saved = true;
         dispose();
@@ -1,12 +1,19 @@
 package view;
 
+import controller.ChangeEvent;
+import controller.ChangeEventBus;
 import controller.DataManager;
+import controller.PersistenceScheduler;
 import model.*;
 import javax.swing.*;
 import javax.swing.table.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * MainFrame - Main GUI Window (View in MVC).
@@ -25,14 +32,25 @@ public class MainFrame extends JFrame {
     private DefaultTableModel prescriptionTableModel;
     private DefaultTableModel referralTableModel;
     
+    // Row of each record in the table models, by ID
+    private RowIndex patientRows;
+    private RowIndex appointmentRows;
+    private RowIndex prescriptionRows;
+    private RowIndex referralRows;
+    
     // Tables
     private JTable patientTable;
     private JTable appointmentTable;
     private JTable prescriptionTable;
     private JTable referralTable;
     
+    // Background saving and its status indicator
+    private PersistenceScheduler persistence;
+    private JLabel statusLabel;
+    
     public MainFrame(DataManager dataManager) {
         this.dataManager = dataManager;
+        this.persistence = new PersistenceScheduler(dataManager);
         
         setTitle("Healthcare Management System - Shubhamkumar Patel");
         setSize(1200, 700);
@@ -40,14 +58,44 @@ public class MainFrame extends JFrame {
         setLocationRelativeTo(null);
         
         initializeComponents();
+        patientRows = new RowIndex(patientTableModel);
+        appointmentRows = new RowIndex(appointmentTableModel);
+        prescriptionRows = new RowIndex(prescriptionTableModel);
+        referralRows = new RowIndex(referralTableModel);
         loadData();
+        // Edits from anywhere update their rows in place, on the event thread
+        dataManager.subscribe(events -> SwingUtilities.invokeLater(() -> applyChanges(events)),
+                              ChangeEventBus.Delivery.ASYNC);
+        
+        persistence.addStatusListener(status ->
+            SwingUtilities.invokeLater(() -> showSaveStatus(status)));
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                persistence.flush();
+            }
+        });
     }
 
     private void autoSave() {
-        if (dataManager.saveAllData()) {
-            System.out.println("Data auto-saved successfully");
-        } else {
-            System.err.println("Warning: Auto-save failed");
+        // Coalesced and written in the background after a quiet period
+        persistence.requestSave();
+    }
+    
+    private void showSaveStatus(PersistenceScheduler.Status status) {
+        switch (status) {
+            case PENDING:
+                statusLabel.setText("Unsaved changes");
+                break;
+            case SAVING:
+                statusLabel.setText("Saving...");
+                break;
+            case SAVED:
+                statusLabel.setText("All changes saved");
+                break;
+            case FAILED:
+                statusLabel.setText("Auto-save failed - use File > Save All Data");
+                break;
         }
     }
 
@@ -64,13 +112,20 @@ public class MainFrame extends JFrame {
         
         add(tabbedPane, BorderLayout.CENTER);
         
+        statusLabel = new JLabel("All changes saved");
+        statusLabel.setBorder(BorderFactory.createEmptyBorder(2, 8, 2, 8));
+        add(statusLabel, BorderLayout.SOUTH);
+        
         // Menu bar
         JMenuBar menuBar = new JMenuBar();
         JMenu fileMenu = new JMenu("File");
         JMenuItem saveItem = new JMenuItem("Save All Data");
         saveItem.addActionListener(e -> saveData());
         JMenuItem exitItem = new JMenuItem("Exit");
-        exitItem.addActionListener(e -> System.exit(0));
+        exitItem.addActionListener(e -> {
+            persistence.flush();
+            System.exit(0);
+        });
         fileMenu.add(saveItem);
         fileMenu.addSeparator();
         fileMenu.add(exitItem);
@@ -119,7 +174,7 @@ public class MainFrame extends JFrame {
     private JPanel createAppointmentPanel() {
         JPanel panel = new JPanel(new BorderLayout());
         
-        String[] columns = {"ID", "Patient ID", "Clinician ID", "Date", "Time", "Type", "Status"};
+        String[] columns = {"ID", "Patient ID", "Clinician", "Date", "Time", "Type", "Status"};
         appointmentTableModel = new DefaultTableModel(columns, 0) {
             @Override
             public boolean isCellEditable(int row, int column) {
@@ -154,7 +209,7 @@ public class MainFrame extends JFrame {
     private JPanel createPrescriptionPanel() {
         JPanel panel = new JPanel(new BorderLayout());
         
-        String[] columns = {"ID", "Patient ID", "Clinician ID", "Medication", "Dosage", "Status"};
+        String[] columns = {"ID", "Patient ID", "Clinician", "Medication", "Dosage", "Status"};
         prescriptionTableModel = new DefaultTableModel(columns, 0) {
             @Override
             public boolean isCellEditable(int row, int column) {
@@ -265,64 +320,176 @@ public class MainFrame extends JFrame {
     }
     
     private void loadPatients() {
-        patientTableModel.setRowCount(0);
+        patientRows.clear();
         List<Patient> patients = dataManager.getAllPatients();
         for (Patient p : patients) {
-            patientTableModel.addRow(new Object[]{
-                p.getUserId(),
-                p.getFirstName(),
-                p.getLastName(),
-                p.getDateOfBirth(),
-                p.getNhsNumber(),
-                p.getGender(),
-                p.getEmail()
-            });
+            patientRows.put(p.getUserId(), patientRow(p));
         }
     }
     
+    private Object[] patientRow(Patient p) {
+        return new Object[]{
+            p.getUserId(),
+            p.getFirstName(),
+            p.getLastName(),
+            p.getDateOfBirth(),
+            p.getNhsNumber(),
+            p.getGender(),
+            p.getEmail()
+        };
+    }
+    
     private void loadAppointments() {
-        appointmentTableModel.setRowCount(0);
+        appointmentRows.clear();
         List<Appointment> appointments = dataManager.getAllAppointments();
         for (Appointment a : appointments) {
-            appointmentTableModel.addRow(new Object[]{
-                a.getAppointmentId(),
-                a.getPatientId(),
-                a.getClinicianId(),
-                a.getAppointmentDate(),
-                a.getAppointmentTime(),
-                a.getAppointmentType(),
-                a.getStatus()
-            });
+            appointmentRows.put(a.getAppointmentId(), appointmentRow(a));
         }
     }
     
+    private Object[] appointmentRow(Appointment a) {
+        return new Object[]{
+            a.getAppointmentId(),
+            a.getPatientId(),
+            dataManager.getClinicianName(a.getClinicianId()),
+            a.getAppointmentDate(),
+            a.getAppointmentTime(),
+            a.getAppointmentType(),
+            a.getStatus()
+        };
+    }
+    
     private void loadPrescriptions() {
-        prescriptionTableModel.setRowCount(0);
+        prescriptionRows.clear();
         List<Prescription> prescriptions = dataManager.getAllPrescriptions();
         for (Prescription p : prescriptions) {
-            prescriptionTableModel.addRow(new Object[]{
-                p.getPrescriptionId(),
-                p.getPatientId(),
-                p.getClinicianId(),
-                p.getMedicationName(),
-                p.getDosage(),
-                p.getStatus()
-            });
+            prescriptionRows.put(p.getPrescriptionId(), prescriptionRow(p));
         }
     }
     
+    private Object[] prescriptionRow(Prescription p) {
+        return new Object[]{
+            p.getPrescriptionId(),
+            p.getPatientId(),
+            dataManager.getClinicianName(p.getClinicianId()),
+            p.getMedicationName(),
+            p.getDosage(),
+            p.getStatus()
+        };
+    }
+    
     private void loadReferrals() {
-        referralTableModel.setRowCount(0);
+        referralRows.clear();
         List<Referral> referrals = dataManager.getAllReferrals();
         for (Referral r : referrals) {
-            referralTableModel.addRow(new Object[]{
-                r.getReferralId(),
-                r.getPatientId(),
-                r.getReferringClinicianId(),
-                r.getReferredToClinicianId(),
-                r.getUrgencyLevel(),
-                r.getStatus()
-            });
+            referralRows.put(r.getReferralId(), referralRow(r));
+        }
+    }
+    
+    private Object[] referralRow(Referral r) {
+        return new Object[]{
+            r.getReferralId(),
+            r.getPatientId(),
+            dataManager.getClinicianName(r.getReferringClinicianId()),
+            dataManager.getClinicianName(r.getReferredToClinicianId()),
+            r.getUrgencyLevel(),
+            r.getStatus()
+        };
+    }
+    
+    /**
+     * Updates the affected rows for a batch of changes, instead of
+     * reloading whole tables.
+     */
+    private void applyChanges(List<ChangeEvent<?>> events) {
+        for (ChangeEvent<?> event : events) {
+            Object after = event.getAfter();
+            Class<?> type = event.getEntityType();
+            if (type == Patient.class) {
+                showRow(patientRows, event.getId(), after == null ? null : patientRow((Patient) after));
+            } else if (type == Appointment.class) {
+                showRow(appointmentRows, event.getId(),
+                        after == null ? null : appointmentRow((Appointment) after));
+            } else if (type == Prescription.class) {
+                showRow(prescriptionRows, event.getId(),
+                        after == null ? null : prescriptionRow((Prescription) after));
+            } else if (type == Referral.class) {
+                showRow(referralRows, event.getId(), after == null ? null : referralRow((Referral) after));
+            }
+        }
+        patientRows.removeMarked();
+        appointmentRows.removeMarked();
+        prescriptionRows.removeMarked();
+        referralRows.removeMarked();
+    }
+    
+    /**
+     * Replaces or adds the row with an ID, or for a null row marks it for
+     * removal at the end of the batch.
+     */
+    private static void showRow(RowIndex rows, String id, Object[] row) {
+        if (row == null) {
+            rows.mark(id);
+        } else {
+            rows.put(id, row);
+        }
+    }
+    
+    /**
+     * Finds the rows of a table model by the record ID in their first
+     * column, so a change updates its row without scanning the table.
+     * Removals are batched: the rows go last first, and the rows below the
+     * first one removed are renumbered once.
+     */
+    private static final class RowIndex {
+        private final DefaultTableModel model;
+        private final Map<String, Integer> rows = new HashMap<>();
+        private final Map<String, Integer> marked = new HashMap<>();
+        
+        RowIndex(DefaultTableModel model) {
+            this.model = model;
+        }
+        
+        void clear() {
+            model.setRowCount(0);
+            rows.clear();
+            marked.clear();
+        }
+        
+        /** Replaces the record's row, or appends one. */
+        void put(String id, Object[] row) {
+            marked.remove(id);
+            Integer index = rows.get(id);
+            if (index == null) {
+                rows.put(id, model.getRowCount());
+                model.addRow(row);
+            } else {
+                for (int c = 0; c < row.length; c++) {
+                    model.setValueAt(row[c], index, c);
+                }
+            }
+        }
+        
+        /** Marks the record's row for {@link #removeMarked()}. */
+        void mark(String id) {
+            Integer index = rows.get(id);
+            if (index != null) marked.put(id, index);
+        }
+        
+        void removeMarked() {
+            if (marked.isEmpty()) {
+                return;
+            }
+            List<Integer> indexes = new ArrayList<>(marked.values());
+            indexes.sort(Collections.reverseOrder());
+            rows.keySet().removeAll(marked.keySet());
+            marked.clear();
+            for (int index : indexes) {
+                model.removeRow(index);
+            }
+            for (int i = indexes.get(indexes.size() - 1); i < model.getRowCount(); i++) {
+                rows.put((String) model.getValueAt(i, 0), i);
+            }
         }
     }
 
@@ -332,7 +499,6 @@ public class MainFrame extends JFrame {
         PatientDialog dialog = new PatientDialog(this, null, dataManager);
         dialog.setVisible(true);
         if (dialog.isSaved()) {
-            loadPatients();
             autoSave();
         }
     }
@@ -345,7 +511,6 @@ public class MainFrame extends JFrame {
             PatientDialog dialog = new PatientDialog(this, patient, dataManager);
             dialog.setVisible(true);
             if (dialog.isSaved()) {
-                loadPatients();
                 autoSave();
             }
         } else {
@@ -362,7 +527,6 @@ public class MainFrame extends JFrame {
                     "Confirm Delete", JOptionPane.YES_NO_OPTION);
             if (confirm == JOptionPane.YES_OPTION) {
                 dataManager.deletePatient(id);
-                loadPatients();
                 autoSave();
             }
         } else {
@@ -375,7 +539,6 @@ public class MainFrame extends JFrame {
         AppointmentDialog dialog = new AppointmentDialog(this, null, dataManager);
         dialog.setVisible(true);
         if (dialog.isSaved()) {
-            loadAppointments();
             autoSave();
         }
     }
@@ -388,7 +551,6 @@ public class MainFrame extends JFrame {
             AppointmentDialog dialog = new AppointmentDialog(this, appointment, dataManager);
             dialog.setVisible(true);
             if (dialog.isSaved()) {
-                loadAppointments();
                 autoSave();
             }
         } else {
@@ -405,7 +567,6 @@ public class MainFrame extends JFrame {
                     "Confirm Delete", JOptionPane.YES_NO_OPTION);
             if (confirm == JOptionPane.YES_OPTION) {
                 dataManager.deleteAppointment(id);
-                loadAppointments();
                 autoSave();
             }
         } else {
@@ -418,7 +579,6 @@ public class MainFrame extends JFrame {
         PrescriptionDialog dialog = new PrescriptionDialog(this, null, dataManager);
         dialog.setVisible(true);
         if (dialog.isSaved()) {
-            loadPrescriptions();
             autoSave();
         }
     }
@@ -431,7 +591,6 @@ public class MainFrame extends JFrame {
             PrescriptionDialog dialog = new PrescriptionDialog(this, prescription, dataManager);
             dialog.setVisible(true);
             if (dialog.isSaved()) {
-                loadPrescriptions();
                 autoSave();
             }
         } else {
@@ -448,7 +607,6 @@ public class MainFrame extends JFrame {
                     "Confirm Delete", JOptionPane.YES_NO_OPTION);
             if (confirm == JOptionPane.YES_OPTION) {
                 dataManager.deletePrescription(id);
-                loadPrescriptions();
                 autoSave();
             }
         } else {
@@ -461,7 +619,6 @@ public class MainFrame extends JFrame {
         ReferralDialog dialog = new ReferralDialog(this, null, dataManager);
         dialog.setVisible(true);
         if (dialog.isSaved()) {
-            loadReferrals();
             autoSave();
         }
     }
@@ -470,26 +627,29 @@ public class MainFrame extends JFrame {
         int selectedRow = referralTable.getSelectedRow();
         if (selectedRow >= 0) {
             String id = (String) referralTableModel.getValueAt(selectedRow, 0);
-            Referral referral = dataManager.getAllReferrals().stream()
-                .filter(r -> r.getReferralId().equals(id))
-                .findFirst().orElse(null);
+            Referral referral = dataManager.findReferralById(id);
             
-            if (referral != null) {
-                dataManager.sendReferral(referral);
-                JOptionPane.showMessageDialog(this, 
-                    "Referral sent successfully! Check output folder for details.");
-                loadReferrals();
+            if (referral == null || !dataManager.sendReferral(referral)) {
+                JOptionPane.showMessageDialog(this,
+                    "Referral " + id + " could not be sent: it has been archived or deleted",
+                    "Send Failed", JOptionPane.ERROR_MESSAGE);
+                return;
             }
+            JOptionPane.showMessageDialog(this, 
+                "Referral sent successfully! Check output folder for details.");
+            autoSave();
         } else {
             JOptionPane.showMessageDialog(this, "Please select a referral to send");
         }
     }
     
     private void saveData() {
-        if (dataManager.saveAllData()) {
-            JOptionPane.showMessageDialog(this, "Data saved successfully!");
-        } else {
-            JOptionPane.showMessageDialog(this, "Error saving data!");
-        }
+        persistence.saveNow().thenAccept(ok -> SwingUtilities.invokeLater(() -> {
+            if (ok) {
+                JOptionPane.showMessageDialog(this, "Data saved successfully!");
+            } else {
+                JOptionPane.showMessageDialog(this, "Error saving data!");
+            }
+        }));
     }
 }
@@ -17,7 +17,8 @@ public class PatientDialog extends JDialog {
     public PatientDialog(Frame parent, Patient patient, DataManager dataManager) {
         super(parent, patient == null ? "Add Patient" : "Edit Patient", true);
         this.dataManager = dataManager;
-        this.patient = patient;
+        // Edit a copy: the stored record is only replaced when the update succeeds
+        this.patient = patient != null ? patient.copy() : null;
         
         setSize(500, 600);
         setLocationRelativeTo(parent);
@@ -95,6 +96,14 @@ public class PatientDialog extends JDialog {
     }
     
     private void save() {
+        String existingId = patient != null ? patient.getUserId() : null;
+        if (dataManager.isNhsNumberTaken(nhsField.getText(), existingId)) {
+            JOptionPane.showMessageDialog(this,
+                "NHS number " + nhsField.getText().trim() + " is already registered to patient "
+                + dataManager.findPatientByNhsNumber(nhsField.getText()).getUserId(),
+                "Duplicate NHS Number", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
         if (patient == null) {
             String id = idField.getText().trim();
             if (id.isEmpty()) {
@@ -105,7 +114,12 @@ public class PatientDialog extends JDialog {
                 phoneField.getText(), emailField.getText(), addressField.getText(),
                 postcodeField.getText(), emergencyNameField.getText(),
                 emergencyPhoneField.getText(), java.time.LocalDate.now().toString(), "S001");
-            dataManager.addPatient(patient);
+            if (!dataManager.addPatient(patient)) {
+                JOptionPane.showMessageDialog(this, "Patient ID " + id + " is already in use",
+                    "Duplicate Patient", JOptionPane.ERROR_MESSAGE);
+                patient = null;
+                return;
+            }
         } else {
             patient.setFirstName(firstNameField.getText());
             patient.setLastName(lastNameField.getText());
@@ -118,7 +132,15 @@ public class PatientDialog extends JDialog {
             patient.setPostcode(postcodeField.getText());
             patient.setEmergencyContactName(emergencyNameField.getText());
             patient.setEmergencyContactPhone(emergencyPhoneField.getText());
-            dataManager.updatePatient(patient.getUserId(), patient);
+            if (!dataManager.updatePatient(patient.getUserId(), patient)) {
+                String reason = dataManager.findPatientById(patient.getUserId()) == null
+                    ? "it has been deleted"
+                    : "its NHS number is registered to another patient";
+                JOptionPane.showMessageDialog(this,
+                    "Patient " + patient.getUserId() + " could not be updated: " + reason,
+                    "Update Failed", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
         }
         saved = true;
         dispose();
@@ -23,7 +23,8 @@ public class PrescriptionDialog extends JDialog {
     public PrescriptionDialog(Frame parent, Prescription prescription, DataManager dataManager) {
         super(parent, prescription == null ? "Add Prescription" : "Edit Prescription", true);
         this.dataManager = dataManager;
-        this.prescription = prescription;
+        // Edit a copy: the stored record is only replaced when the update succeeds
+        this.prescription = prescription != null ? prescription.copy() : null;
 
         setSize(500, 500);
         setLocationRelativeTo(parent);
@@ -151,7 +152,14 @@ public class PrescriptionDialog extends JDialog {
                 prescription.setInstructions(instructionsField.getText().trim());
                 prescription.setPharmacyName(pharmacyField.getText().trim());
 
-                dataManager.updatePrescription(prescription.getPrescriptionId(), prescription);
+                if (!dataManager.updatePrescription(prescription.getPrescriptionId(), prescription)) {
+                    JOptionPane.showMessageDialog(this,
+                            "Prescription " + prescription.getPrescriptionId()
+                                    + " could not be updated: it has been deleted",
+                            "Update Failed",
+                            JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
                 JOptionPane.showMessageDialog(this,
                         "Prescription updated successfully!",
                         "Success",
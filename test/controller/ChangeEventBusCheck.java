@@ -0,0 +1,217 @@
+package controller;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+/**
+ * Self-check for {@link ChangeEventBus}: coalesced events replayed over
+ * the records as they were reach exactly the records as they are, each
+ * event's before image being what was there, with at most one event per
+ * record and nothing for a record added and deleted in between. An
+ * asynchronous subscriber held up by a slow listener gets fewer, coalesced
+ * batches to the same effect; a synchronous one gets every batch in
+ * order; and cancelling stops delivery. Exits with an AssertionError on
+ * the first mismatch.
+ *
+ * @author Shubhamkumar Prahladbhai Patel
+ */
+public final class ChangeEventBusCheck {
+    // Records are "id:revision" strings
+    private static final Function<String, String> KEY = r -> r.substring(0, r.indexOf(':'));
+
+    public static void main(String[] args) throws Exception {
+        Random random = new Random(args.length > 0 ? Long.parseLong(args[0]) : 1);
+        coalescing(random);
+        renames();
+        asynchronous(random);
+        System.out.println("ChangeEventBus: all checks passed");
+    }
+
+    /** Random writes over a few records, coalesced in one go. */
+    private static void coalescing(Random random) {
+        for (int round = 0; round < 500; round++) {
+            Map<String, String> start = records(random);
+            Map<String, String> state = new HashMap<>(start);
+            List<ChangeEvent<?>> events = new ArrayList<>();
+            for (int w = random.nextInt(40); w > 0; w--) events.addAll(write(random, state, w));
+            List<ChangeEvent<?>> coalesced = ChangeEventBus.coalesce(events);
+            Set<String> seen = new HashSet<>();
+            for (ChangeEvent<?> e : coalesced) {
+                check(seen.add(e.getEntityType().getName() + e.getId()), "two events for " + e.getId());
+                check(e.getBefore() != null || e.getAfter() != null, "empty event " + e);
+            }
+            check(replay(start, coalesced).equals(state), "round " + round + ": coalesced events miss writes");
+        }
+
+        // Added then deleted: nothing. Deleted then added again: an update
+        List<ChangeEvent<?>> events = Arrays.asList(
+            event("n", null, "n:1", 1), event("n", "n:1", "n:2", 2), event("n", "n:2", null, 3),
+            event("o", "o:0", null, 4), event("o", null, "o:1", 5));
+        List<ChangeEvent<?>> coalesced = ChangeEventBus.coalesce(events);
+        check(coalesced.size() == 1 && coalesced.get(0).getType() == ChangeEvent.Type.UPDATED
+            && coalesced.get(0).getBefore().equals("o:0") && coalesced.get(0).getAfter().equals("o:1"),
+            "add-delete and delete-add " + coalesced);
+        check(coalesced.get(0).getVersion() == 5, "coalesced event keeps the last version");
+        // The same ID in two entity types stays two records
+        check(ChangeEventBus.coalesce(Arrays.asList(event("x", null, "x:1", 1),
+            new ChangeEvent<>(Object.class, "x", null, (Object) "x:1", 2))).size() == 2, "entity types merged");
+    }
+
+    /** An update that changes a record's ID is a delete and an add. */
+    private static void renames() {
+        ChangeEventBus bus = new ChangeEventBus();
+        List<ChangeEvent<?>> received = new ArrayList<>();
+        check(!bus.hasSubscribers(), "subscribers before any");
+        ChangeEventBus.Subscription subscription = bus.subscribe(received::addAll, ChangeEventBus.Delivery.SYNC);
+        check(bus.hasSubscribers(), "no subscribers after subscribing");
+        bus.publish(String.class, "a", "a:1", "b:1", KEY, 7);
+        check(received.size() == 2 && received.get(0).getType() == ChangeEvent.Type.DELETED
+            && received.get(0).getId().equals("a") && received.get(1).getType() == ChangeEvent.Type.ADDED
+            && received.get(1).getId().equals("b") && received.get(1).getVersion() == 7, "rename " + received);
+        subscription.close();
+        bus.publish(String.class, "b", "b:1", null, KEY, 8);
+        check(received.size() == 2 && !bus.hasSubscribers(), "delivered after cancel");
+        try {
+            bus.subscribe(null, ChangeEventBus.Delivery.SYNC);
+            throw new AssertionError("null listener accepted");
+        } catch (IllegalArgumentException expected) {
+            // as it should
+        }
+    }
+
+    /**
+     * A slow asynchronous listener next to a synchronous one, with writes
+     * from several threads, each to its own records.
+     */
+    private static void asynchronous(Random random) throws Exception {
+        ChangeEventBus bus = new ChangeEventBus();
+        Map<String, String> start = new HashMap<>();
+        for (int i = 0; i < 40; i++) start.put("r" + i, "r" + i + ":0");
+        List<List<ChangeEvent<?>>> async = Collections.synchronizedList(new ArrayList<>());
+        List<ChangeEvent<?>> sync = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch release = new CountDownLatch(1);
+        bus.subscribe(batch -> {
+            async.add(new ArrayList<>(batch));
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, ChangeEventBus.Delivery.ASYNC);
+        bus.subscribe(sync::addAll, ChangeEventBus.Delivery.SYNC);
+        bus.subscribe(batch -> {
+            throw new IllegalStateException("a failing listener must not stop the others");
+        }, ChangeEventBus.Delivery.ASYNC);
+
+        int writers = 4;
+        int writes = 0;
+        Map<String, String> state = new ConcurrentHashMap<>(start);
+        ExecutorService pool = Executors.newFixedThreadPool(writers);
+        try {
+            List<Future<Integer>> done = new ArrayList<>();
+            for (int t = 0; t < writers; t++) {
+                int thread = t;
+                long seed = random.nextLong();
+                done.add(pool.submit(() -> {
+                    Random own = new Random(seed);
+                    int count = 0;
+                    for (int w = 1; w <= 3000; w++) {
+                        // Record i belongs to thread i % writers
+                        String id = "r" + (thread + writers * own.nextInt(10));
+                        String before = state.get(id);
+                        String after = before != null && own.nextInt(5) == 0 ? null : id + ":" + w;
+                        if (after == null) state.remove(id); else state.put(id, after);
+                        bus.publish(String.class, id, before, after, KEY, w);
+                        count++;
+                    }
+                    return count;
+                }));
+            }
+            for (Future<Integer> f : done) writes += f.get();
+        } finally {
+            pool.shutdown();
+        }
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 10_000;
+        List<ChangeEvent<?>> delivered;
+        do {
+            Thread.sleep(20);
+            synchronized (async) {
+                delivered = new ArrayList<>();
+                for (List<ChangeEvent<?>> batch : async) delivered.addAll(batch);
+            }
+        } while (!replay(start, delivered).equals(state) && System.currentTimeMillis() < deadline);
+        check(sync.size() == writes, sync.size() + " synchronous events for " + writes + " writes");
+        check(replay(start, sync).equals(state), "synchronous events miss writes");
+        check(replay(start, delivered).equals(state), "asynchronous batches miss writes");
+        check(async.size() < writes / 10, async.size() + " asynchronous batches were not coalesced");
+        for (List<ChangeEvent<?>> batch : async) {
+            Set<String> ids = new HashSet<>();
+            for (ChangeEvent<?> e : batch) check(ids.add(e.getId()), "batch holds " + e.getId() + " twice");
+        }
+        bus.shutdown();
+    }
+
+    private static Map<String, String> records(Random random) {
+        Map<String, String> records = new HashMap<>();
+        for (int i = 0; i < 5; i++) {
+            if (random.nextBoolean()) records.put("k" + i, "k" + i + ":0");
+        }
+        return records;
+    }
+
+    /** One random write to the state: add, update, delete or rename. */
+    private static List<ChangeEvent<?>> write(Random random, Map<String, String> state, int version) {
+        String id = "k" + random.nextInt(5);
+        String before = state.get(id);
+        if (before == null) {
+            state.put(id, id + ":" + version);
+            return Collections.singletonList(event(id, null, id + ":" + version, version));
+        }
+        int kind = random.nextInt(3);
+        if (kind == 0) {
+            state.remove(id);
+            return Collections.singletonList(event(id, before, null, version));
+        }
+        String newId = kind == 1 ? id : "k" + random.nextInt(5);
+        if (!newId.equals(id) && state.containsKey(newId)) newId = id;
+        String after = newId + ":" + version;
+        state.remove(id);
+        state.put(newId, after);
+        if (newId.equals(id)) return Collections.singletonList(event(id, before, after, version));
+        return Arrays.asList(event(id, before, null, version), event(newId, null, after, version));
+    }
+
+    /**
+     * Applies events in order, checking that each one's before image is
+     * the record it replaces.
+     */
+    private static Map<String, String> replay(Map<String, String> start, List<ChangeEvent<?>> events) {
+        Map<String, String> records = new HashMap<>(start);
+        for (ChangeEvent<?> e : events) {
+            if (!Objects.equals(records.get(e.getId()), e.getBefore())) {
+                throw new AssertionError(e + ": before image " + e.getBefore() + ", record " + records.get(e.getId()));
+            }
+            if (e.getAfter() == null) {
+                records.remove(e.getId());
+            } else {
+                records.put(e.getId(), (String) e.getAfter());
+            }
+        }
+        return records;
+    }
+
+    private static ChangeEvent<?> event(String id, String before, String after, long version) {
+        return new ChangeEvent<>(String.class, id, before, after, version);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    private ChangeEventBusCheck() {
+    }
+}
@@ -0,0 +1,234 @@
+package controller;
+
+import model.*;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Self-check for page cursors: walking a listing page by page returns
+ * every record once, in ID order, whatever the page size; the last page
+ * says so; writes behind, at and ahead of the cursor are seen exactly as
+ * keyset paging promises, also while another thread writes; and cursors
+ * that are malformed or from another listing are refused. Exits with an
+ * AssertionError on the first mismatch.
+ *
+ * @author Shubhamkumar Prahladbhai Patel
+ */
+public final class PageCheck {
+
+    public static void main(String[] args) throws Exception {
+        Random random = new Random(args.length > 0 ? Long.parseLong(args[0]) : 1);
+        walks(random);
+        writesBetweenPages();
+        cursors();
+        concurrentWalks(random);
+        listings();
+        System.out.println("Page: all checks passed");
+    }
+
+    /** Shuffled IDs of mixed lengths, walked at random page sizes. */
+    private static void walks(Random random) {
+        List<String> ids = new ArrayList<>();
+        for (int i = 1; i <= 20_000; i++) ids.add("P" + i);
+        Collections.shuffle(ids, random);
+        EntityStore<String> store = new EntityStore<>(id -> id);
+        store.loadAll(ids);
+        ids.sort(EntityStore.ID_ORDER);
+        for (int round = 0; round < 20; round++) {
+            int size = round == 0 ? 0 : round == 1 ? 5000 : 1 + random.nextInt(1500);
+            List<String> walked = new ArrayList<>();
+            String cursor = null;
+            int pages = 0;
+            do {
+                Page<String> page = page(store, cursor, size);
+                check(page.getItems().size() <= Page.clamp(size), "page of " + page.getItems().size());
+                check(page.hasMore() == (page.getNextCursor() != null), "hasMore");
+                check(!page.getItems().isEmpty(), "empty page before the end");
+                walked.addAll(page.getItems());
+                cursor = page.getNextCursor();
+                pages++;
+            } while (cursor != null);
+            check(walked.equals(ids), "size " + size + ": walk differs from ID order");
+            int clamped = Page.clamp(size);
+            check(pages == (ids.size() + clamped - 1) / clamped, "size " + size + ": " + pages + " pages");
+        }
+        check(page(new EntityStore<String>(id -> id), null, 10).getItems().isEmpty(), "empty listing");
+        check(!page(new EntityStore<String>(id -> id), null, 10).hasMore(), "empty listing has more");
+    }
+
+    private static void writesBetweenPages() {
+        EntityStore<String[]> store = new EntityStore<>(r -> r[0]);
+        List<String[]> records = new ArrayList<>();
+        for (int i = 1; i <= 30; i++) records.add(new String[] {"A" + i});
+        store.loadAll(records);
+        Page<String[]> first = page(store, null, 10);
+        check(ids(first).equals(range(1, 10)), "first page " + ids(first));
+
+        store.remove("A10");           // the cursor record itself
+        store.remove("A12");           // ahead: never shown
+        store.add(new String[] {"A5x"}); // ahead: as long as A10 and sorts after it
+        store.add(new String[] {"A0"});  // behind: not shown
+        store.update("A20", new String[] {"A99"}); // renamed ahead of the cursor
+        Page<String[]> second = page(store, first.getNextCursor(), 10);
+        List<String> expected = new ArrayList<>(Arrays.asList("A11", "A13", "A14", "A15", "A16", "A17", "A18",
+            "A19", "A21", "A22"));
+        check(ids(second).equals(expected), "second page " + ids(second));
+        Page<String[]> rest = page(store, second.getNextCursor(), 100);
+        check(ids(rest).equals(Arrays.asList("A23", "A24", "A25", "A26", "A27", "A28", "A29", "A30", "A5x", "A99"))
+            && !rest.hasMore(), "rest " + ids(rest));
+
+        // Exactly one page's worth left: no empty page after it
+        Page<String[]> exact = page(store, second.getNextCursor(), 10);
+        check(exact.getItems().size() == 10 && !exact.hasMore(), "exact final page");
+        // A reload rebuilds the order
+        store.loadAll(Arrays.asList(new String[] {"B2"}, new String[] {"B1"}));
+        check(ids(page(store, null, 10)).equals(Arrays.asList("B1", "B2")), "after reload");
+    }
+
+    private static void cursors() {
+        EntityStore<String> store = new EntityStore<>(id -> id);
+        store.loadAll(Arrays.asList("x\ny", "x", "\u00e9t\u00e9", "z"));
+        String cursor = page(store, null, 1).getNextCursor();
+        check(cursor.matches("[A-Za-z0-9_-]+"), "cursor not URL-safe: " + cursor);
+        List<String> walked = new ArrayList<>();
+        for (String c = null; ; ) {
+            Page<String> page = page(store, c, 1);
+            walked.addAll(page.getItems());
+            if ((c = page.getNextCursor()) == null) break;
+        }
+        check(walked.size() == 4 && walked.contains("x\ny") && walked.contains("\u00e9t\u00e9"), "odd IDs " + walked);
+        check(Page.decode("test", "") == null && Page.decode("test", null) == null, "blank cursor");
+        for (String bad : new String[] {"!!!", "%%", Page.encode("other", "x"),
+                Base64.getUrlEncoder().encodeToString("no newline".getBytes(StandardCharsets.UTF_8))}) {
+            try {
+                Page.decode("test", bad);
+                throw new AssertionError("cursor accepted: " + bad);
+            } catch (IllegalArgumentException expected) {
+                // as it should
+            }
+        }
+    }
+
+    /**
+     * A walk racing a writer: IDs come out in strictly increasing order,
+     * and every record the writer never touches is seen.
+     */
+    private static void concurrentWalks(Random random) throws InterruptedException {
+        EntityStore<String> store = new EntityStore<>(id -> id);
+        List<String> stable = new ArrayList<>();
+        List<String> all = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            all.add("S" + i);
+            if (i % 2 == 0) stable.add("S" + i);
+        }
+        store.loadAll(all);
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        long seed = random.nextLong();
+        Thread writer = new Thread(() -> {
+            try {
+                Random own = new Random(seed);
+                while (!stop.get()) {
+                    String id = "S" + (2 * own.nextInt(10_000) + 1); // odd IDs only
+                    if (!store.add(id)) store.remove(id);
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        writer.start();
+        try {
+            for (int walk = 0; walk < 20; walk++) {
+                Set<String> seen = new HashSet<>();
+                String last = null;
+                for (String c = null; ; ) {
+                    Page<String> page = page(store, c, 1 + random.nextInt(300));
+                    for (String id : page.getItems()) {
+                        check(last == null || EntityStore.ID_ORDER.compare(last, id) < 0, last + " then " + id);
+                        seen.add(last = id);
+                    }
+                    if ((c = page.getNextCursor()) == null) break;
+                }
+                check(seen.containsAll(stable), "walk " + walk + " missed untouched records");
+            }
+        } finally {
+            stop.set(true);
+            writer.join();
+        }
+        if (failure.get() != null) throw new AssertionError("writer failed", failure.get());
+    }
+
+    /** The DataManager listings, over a copy of the shipped data. */
+    private static void listings() throws IOException {
+        Path dir = Files.createTempDirectory("hms-pages");
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get("data"), "*.csv")) {
+            for (Path file : files) Files.copy(file, dir.resolve(file.getFileName()));
+        }
+        DataManager data = new DataManager(dir.toString());
+        try {
+            List<String> expected = new ArrayList<>();
+            for (Patient p : data.getAllPatients()) expected.add(p.getUserId());
+            expected.sort(EntityStore.ID_ORDER);
+            List<String> walked = new ArrayList<>();
+            String cursor = null;
+            do {
+                Page<Patient> page = data.listPatients(cursor, 7);
+                for (Patient p : page.getItems()) walked.add(p.getUserId());
+                cursor = page.getNextCursor();
+            } while (cursor != null);
+            check(walked.equals(expected), "patient listing");
+            String patientCursor = data.listPatients(null, 1).getNextCursor();
+            try {
+                data.listReferrals(patientCursor, 10);
+                throw new AssertionError("patient cursor accepted by the referral listing");
+            } catch (IllegalArgumentException e) {
+                // as it should
+            }
+            check(data.listAppointments(null, 100_000).getItems().size()
+                == Math.min(Page.MAX_SIZE, data.getAllAppointments().size()), "page size not clamped");
+        } finally {
+            data.close();
+            List<Path> paths = new ArrayList<>();
+            try (java.util.stream.Stream<Path> walk = Files.walk(dir)) {
+                walk.forEach(paths::add);
+            }
+            Collections.reverse(paths);
+            for (Path path : paths) Files.delete(path);
+        }
+    }
+
+    /** What DataManager's listings do, over any store. */
+    private static <T> Page<T> page(EntityStore<T> store, String cursor, int pageSize) {
+        int size = Page.clamp(pageSize);
+        return Page.of("test", store.page(Page.decode("test", cursor), size + 1), size, PageCheck::idOf);
+    }
+
+    private static String idOf(Object record) {
+        return record instanceof String[] ? ((String[]) record)[0] : (String) record;
+    }
+
+    private static List<String> ids(Page<String[]> page) {
+        List<String> ids = new ArrayList<>();
+        for (String[] r : page.getItems()) ids.add(r[0]);
+        return ids;
+    }
+
+    private static List<String> range(int from, int to) {
+        List<String> ids = new ArrayList<>();
+        for (int i = from; i <= to; i++) ids.add("A" + i);
+        return ids;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    private PageCheck() {
+    }
+}
@@ -0,0 +1,217 @@
+package controller;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Self-check for {@link Query}: random queries give the same records
+ * whichever index the planner picks, or none, as a plain filter of the
+ * store; explain() names the most selective usable index and skips unique
+ * ones, blank values and predicates; a parallel scan keeps store order and
+ * stays consistent while the store is written to. Exits with an
+ * AssertionError on the first mismatch.
+ *
+ * @author Shubhamkumar Prahladbhai Patel
+ */
+public final class QueryCheck {
+    private static final String[] STATUSES = {"Pending", "Sent", "Accepted", "Completed", "Rare", ""};
+    private static final String[] URGENCIES = {"Routine", "Urgent", "Emergency"};
+    private static final Map<String, Function<String[], String>> FIELDS = new LinkedHashMap<>();
+    static {
+        FIELDS.put("id", r -> r[0]);
+        FIELDS.put("status", r -> r[1]);
+        FIELDS.put("facility", r -> r[2]);
+        FIELDS.put("date", r -> r[3]);
+        FIELDS.put("urgency", r -> r[4]);
+        FIELDS.put("code", r -> r[5]);
+    }
+    // Total order, so index-driven and scanned results sort identically
+    private static final Comparator<String[]> BY_DATE = Comparator.<String[], String>comparing(r -> r[3])
+        .thenComparing(r -> r[0], EntityStore.ID_ORDER);
+
+    public static void main(String[] args) throws Exception {
+        Random random = new Random(args.length > 0 ? Long.parseLong(args[0]) : 1);
+        EntityStore<String[]> store = store(random, 30_000);
+        explain(store, store(random, 500));
+        sameResults(store, random);
+        parallelScan(store, random);
+        System.out.println("Query: all checks passed");
+    }
+
+    private static EntityStore<String[]> store(Random random, int size) {
+        EntityStore<String[]> store = new EntityStore<>(r -> r[0]);
+        store.addIndex("status", r -> r[1]);
+        store.addIndex("facility", r -> r[2]);
+        store.addSortedIndex("date", r -> r[3]);
+        store.addUniqueIndex("code", r -> r[5]);
+        List<String[]> records = new ArrayList<>();
+        for (int i = 0; i < size; i++) records.add(record(random, i, 0));
+        store.loadAll(records);
+        return store;
+    }
+
+    private static String[] record(Random random, int i, int version) {
+        // "Rare" and "" are uncommon; facilities are skewed towards F0
+        int s = random.nextInt(100);
+        String status = s == 0 ? "Rare" : s == 1 ? "" : STATUSES[s % 4];
+        String facility = "F" + (random.nextInt(3) == 0 ? 0 : random.nextInt(40));
+        String date = String.format("2024-%02d-%02d", 1 + random.nextInt(12), 1 + random.nextInt(28));
+        return new String[] {"R" + i, status, facility, date, URGENCIES[random.nextInt(3)],
+            "C" + i, String.valueOf(version)};
+    }
+
+    private static Query<String[]> query(EntityStore<String[]> store) {
+        return new Query<>("records", store, FIELDS);
+    }
+
+    private static void explain(EntityStore<String[]> store, EntityStore<String[]> small) {
+        String plan = query(store).where("facility", "F0").where("status", "Rare").where("urgency", "Urgent").explain();
+        check(plan.contains("access: index status = Rare (") && plan.contains(" of 30000)")
+            && plan.contains("filter: facility = F0 AND urgency = Urgent"), plan);
+        plan = query(store).where("status", "Pending").whereBetween("date", "2024-03-01", "2024-03-02").explain();
+        check(plan.contains("access: index date between 2024-03-01 and 2024-03-02"), plan);
+        int estimate = query(store).whereBetween("date", "2024-03-01", "2024-03-02").count();
+        check(plan.contains("(" + estimate + " candidates"), plan + "\nexpected " + estimate);
+
+        check(query(store).where("urgency", "Urgent").explain().contains("access: parallel scan of 30000 records"),
+            "unindexed field on a large store");
+        check(query(small).where("urgency", "Urgent").explain().contains("access: scan of 500 records"),
+            "unindexed field on a small store");
+        check(query(store).where("code", "C7").explain().contains("scan"), "unique index used by the planner");
+        check(query(store).where("status", " ").explain().contains("scan"), "blank value looked up in an index");
+        plan = query(store).filter(r -> true).orderByDescending("date").offset(5).limit(10).explain();
+        check(plan.contains("filter: predicate") && plan.contains("sort: date desc")
+            && plan.contains("offset: 5, limit: 10"), plan);
+        try {
+            query(store).where("nope", "x");
+            throw new AssertionError("unknown field accepted");
+        } catch (IllegalArgumentException expected) {
+            // as it should
+        }
+    }
+
+    /** Random conditions, orders and pages against a brute-force filter. */
+    private static void sameResults(EntityStore<String[]> store, Random random) {
+        List<String[]> all = store.snapshot();
+        for (int n = 0; n < 400; n++) {
+            Query<String[]> query = query(store);
+            List<Predicate<String[]>> expected = new ArrayList<>();
+            int conditions = 1 + random.nextInt(3);
+            for (int c = 0; c < conditions; c++) {
+                switch (random.nextInt(5)) {
+                    case 0: {
+                        String status = STATUSES[random.nextInt(STATUSES.length)];
+                        query.where("status", random.nextBoolean() ? status : " " + status + " ");
+                        expected.add(r -> r[1].equals(status));
+                        break;
+                    }
+                    case 1: {
+                        String facility = "F" + random.nextInt(45);
+                        query.where("facility", facility);
+                        expected.add(r -> r[2].equals(facility));
+                        break;
+                    }
+                    case 2: {
+                        String from = random.nextInt(4) == 0 ? null : String.format("2024-%02d-01", 1 + random.nextInt(12));
+                        String to = random.nextInt(4) == 0 ? null : String.format("2024-%02d-15", 1 + random.nextInt(12));
+                        query.whereBetween("date", from, to);
+                        expected.add(r -> (from == null || r[3].compareTo(from) >= 0) && (to == null || r[3].compareTo(to) <= 0));
+                        break;
+                    }
+                    case 3: {
+                        String urgency = URGENCIES[random.nextInt(3)];
+                        query.where("urgency", urgency);
+                        expected.add(r -> r[4].equals(urgency));
+                        break;
+                    }
+                    default: {
+                        int mod = 2 + random.nextInt(5);
+                        Predicate<String[]> p = r -> Integer.parseInt(r[0].substring(1)) % mod == 0;
+                        query.filter(p);
+                        expected.add(p);
+                    }
+                }
+            }
+            List<String[]> matching = new ArrayList<>();
+            for (String[] r : all) {
+                if (expected.stream().allMatch(p -> p.test(r))) matching.add(r);
+            }
+            String description = query.explain();
+            check(query.count() == matching.size(), description + "\ncount " + query.count() + " for " + matching.size());
+            if (random.nextBoolean()) {
+                Set<String> found = ids(query.list());
+                check(found.equals(ids(matching)) && found.size() == matching.size(), description);
+            } else {
+                int offset = random.nextInt(50);
+                int limit = random.nextInt(100);
+                matching.sort(BY_DATE);
+                List<String[]> page = matching.subList(Math.min(offset, matching.size()),
+                    Math.min(offset + limit, matching.size()));
+                List<String[]> found = query.orderBy(BY_DATE).offset(offset).limit(limit).list();
+                check(new ArrayList<>(ids(found)).equals(new ArrayList<>(ids(page))), description);
+            }
+        }
+    }
+
+    /** Store order, and a consistent result while records are replaced and removed. */
+    private static void parallelScan(EntityStore<String[]> store, Random random) throws Exception {
+        List<String[]> sequential = store.snapshot().stream().filter(r -> r[4].equals("Urgent")).collect(Collectors.toList());
+        List<String[]> parallel = query(store).where("urgency", "Urgent").list();
+        check(new ArrayList<>(ids(parallel)).equals(new ArrayList<>(ids(sequential))), "parallel scan lost store order");
+        List<String[]> firstTen = query(store).where("urgency", "Routine").limit(10).list();
+        check(firstTen.size() == 10, "limit on a scan");
+
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            try {
+                Random own = new Random(random.nextLong());
+                for (int v = 1; !stop.get(); v++) {
+                    int i = own.nextInt(30_000);
+                    if (own.nextInt(10) == 0) {
+                        store.remove("R" + i);
+                    } else if (!store.update("R" + i, record(own, i, v))) {
+                        store.add(record(own, i, v));
+                    }
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        writer.start();
+        try {
+            for (int round = 0; round < 100; round++) {
+                List<String[]> found = query(store).where("urgency", "Emergency").filter(r -> !r[1].isEmpty()).list();
+                check(found.size() > 0, "nothing found");
+                Set<String> seen = new HashSet<>();
+                for (String[] r : found) {
+                    check(r[4].equals("Emergency") && !r[1].isEmpty(), "scan returned a non-match");
+                    check(seen.add(r[0]), "scan returned " + r[0] + " twice");
+                }
+            }
+        } finally {
+            stop.set(true);
+            writer.join();
+        }
+        if (failure.get() != null) throw new AssertionError("writer failed", failure.get());
+    }
+
+    private static Set<String> ids(List<String[]> records) {
+        Set<String> ids = new LinkedHashSet<>();
+        for (String[] r : records) ids.add(r[0]);
+        return ids;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    private QueryCheck() {
+    }
+}
@@ -0,0 +1,186 @@
+package controller;
+
+import model.*;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Self-check for pinned snapshots: a snapshot keeps showing exactly what
+ * was there when it was opened while adds, updates and deletes go on,
+ * version numbers order it against change events, and the registry tracks
+ * what is still open. Exits with an AssertionError on the first mismatch.
+ *
+ * @author Shubhamkumar Prahladbhai Patel
+ */
+public final class SnapshotCheck {
+
+    public static void main(String[] args) throws Exception {
+        storeVersions();
+        Path dir = copyOfData();
+        DataManager data = new DataManager(dir.toString());
+        try {
+            pinnedAcrossWrites(data);
+            readsDuringWrites(data);
+        } finally {
+            data.close();
+            delete(dir);
+        }
+        System.out.println("Snapshot: all checks passed");
+    }
+
+    /** Old store versions survive replacement, removal and compaction. */
+    private static void storeVersions() {
+        EntityStore<String[]> store = new EntityStore<>(r -> r[0]);
+        List<String[]> records = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) records.add(new String[] {"K" + i, "v0"});
+        store.loadAll(records);
+        List<String[]> before = store.snapshot();
+        long version = store.version();
+        for (int i = 0; i < 5000; i += 3) store.update("K" + i, new String[] {"K" + i, "v1"});
+        store.removeIf(r -> r[0].endsWith("7"));
+        store.add(new String[] {"new", "v1"});
+        check(store.version() > version, "writes did not advance the version");
+        check(before.size() == 5000, "old version changed size to " + before.size());
+        for (int i = 0; i < 5000; i++) {
+            check(before.get(i)[0].equals("K" + i) && before.get(i)[1].equals("v0"), "old version changed at " + i);
+        }
+        int seen = 0;
+        for (String[] r : before) {
+            check(r[1].equals("v0"), "old version iterates new records");
+            seen++;
+        }
+        check(seen == 5000, "old version iterated " + seen);
+    }
+
+    private static void pinnedAcrossWrites(DataManager data) {
+        List<ChangeEvent<?>> events = new ArrayList<>();
+        data.subscribe(events::addAll, ChangeEventBus.Delivery.SYNC);
+
+        DataSnapshot first = data.openSnapshot();
+        List<String> patients = rows(first.getPatients(), Patient::toCSV);
+        List<String> appointments = rows(first.getAppointments(), Appointment::toCSV);
+        List<String> prescriptions = rows(first.getPrescriptions(), Prescription::toCSV);
+        List<String> referrals = rows(first.getReferrals(), Referral::toCSV);
+
+        Patient added = data.getAllPatients().get(0).copy();
+        added.setUserId("P-snapshot");
+        added.setNhsNumber("999 000 0001");
+        check(data.addPatient(added), "add patient");
+        Appointment edited = data.getAllAppointments().get(0).copy();
+        edited.setStatus("Edited after snapshot");
+        check(data.updateAppointment(edited.getAppointmentId(), edited), "update appointment");
+        check(data.deletePrescription(data.getAllPrescriptions().get(0).getPrescriptionId()), "delete prescription");
+        Referral referral = data.getAllReferrals().get(0).copy();
+        referral.setNotes("Edited after snapshot");
+        check(ReferralManager.getInstance().updateReferral(referral.getReferralId(), referral), "update referral");
+
+        check(rows(first.getPatients(), Patient::toCSV).equals(patients), "snapshot saw the added patient");
+        check(rows(first.getAppointments(), Appointment::toCSV).equals(appointments), "snapshot saw the update");
+        check(rows(first.getPrescriptions(), Prescription::toCSV).equals(prescriptions), "snapshot saw the delete");
+        check(rows(first.getReferrals(), Referral::toCSV).equals(referrals), "snapshot saw the referral edit");
+
+        DataSnapshot second = data.openSnapshot();
+        check(second.getId() > first.getId(), "second snapshot is not newer");
+        check(second.getPatients().size() == patients.size() + 1, "second snapshot misses the add");
+        check(second.getPrescriptions().size() == prescriptions.size() - 1, "second snapshot misses the delete");
+        check(events.size() == 4, events.size() + " events for 4 writes");
+        for (ChangeEvent<?> event : events) {
+            check(event.getVersion() > first.getId() && event.getVersion() <= second.getId(),
+                event + " not between snapshots " + first.getId() + " and " + second.getId());
+        }
+
+        check(data.getOpenSnapshotCount() == 2, "open count " + data.getOpenSnapshotCount());
+        check(data.getOldestSnapshotId() == first.getId(), "oldest is not the first");
+        List<Patient> kept = first.getPatients();
+        first.close();
+        first.close();
+        check(first.isClosed() && data.getOpenSnapshotCount() == 1, "close did not unpin");
+        check(data.getOldestSnapshotId() == second.getId(), "oldest did not move on");
+        check(rows(kept, Patient::toCSV).equals(patients), "list taken before close changed");
+        try {
+            first.getPatients();
+            throw new AssertionError("closed snapshot still readable");
+        } catch (IllegalStateException expected) {
+            // as it should
+        }
+        second.close();
+        check(data.getOpenSnapshotCount() == 0 && data.getOldestSnapshotId() == -1, "registry not empty");
+    }
+
+    /** A reader walking one snapshot over and over sees the same thing every time. */
+    private static void readsDuringWrites(DataManager data) throws InterruptedException {
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Appointment> current = data.getAllAppointments();
+        Thread writer = new Thread(() -> {
+            try {
+                for (int i = 0; !stop.get(); i++) {
+                    Appointment a = current.get(i % current.size()).copy();
+                    a.setStatus("Pass " + i);
+                    data.updateAppointment(a.getAppointmentId(), a);
+                    Patient p = data.getAllPatients().get(0).copy();
+                    p.setUserId("P-churn");
+                    p.setNhsNumber("");
+                    if (!data.addPatient(p)) data.deletePatient("P-churn");
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        writer.start();
+        try {
+            for (int round = 0; round < 200; round++) {
+                try (DataSnapshot snapshot = data.openSnapshot()) {
+                    List<String> expected = rows(snapshot.getAppointments(), Appointment::toCSV);
+                    int patients = snapshot.getPatients().size();
+                    for (int pass = 0; pass < 5; pass++) {
+                        check(rows(snapshot.getAppointments(), Appointment::toCSV).equals(expected),
+                            "snapshot " + snapshot.getId() + " changed while open");
+                        check(snapshot.getPatients().size() == patients, "patient count changed while open");
+                    }
+                }
+            }
+        } finally {
+            stop.set(true);
+            writer.join();
+        }
+        if (failure.get() != null) throw new AssertionError("writer failed", failure.get());
+        check(data.getOpenSnapshotCount() == 0, "snapshots left open");
+    }
+
+    private static <T> List<String> rows(List<T> records, Function<T, String> toCSV) {
+        List<String> rows = new ArrayList<>();
+        for (T record : records) rows.add(toCSV.apply(record));
+        return rows;
+    }
+
+    private static Path copyOfData() throws IOException {
+        Path dir = Files.createTempDirectory("hms-snapshot");
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get("data"), "*.csv")) {
+            for (Path file : files) Files.copy(file, dir.resolve(file.getFileName()));
+        }
+        return dir;
+    }
+
+    private static void delete(Path dir) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (java.util.stream.Stream<Path> walk = Files.walk(dir)) {
+            walk.forEach(paths::add);
+        }
+        Collections.reverse(paths);
+        for (Path path : paths) Files.delete(path);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    private SnapshotCheck() {
+    }
+}
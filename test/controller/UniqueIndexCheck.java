@@ -0,0 +1,109 @@
+package controller;
+
+import model.Patient;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Self-check for unique indexes: adds and updates that would take another
+ * record's key are rejected, while a record loaded with a duplicate key can
+ * still be edited as long as it keeps that key, both in
+ * {@link EntityStore} and through {@link DataManager}'s NHS-number checks.
+ * Exits with an AssertionError on the first mismatch.
+ *
+ * @author Shubhamkumar Prahladbhai Patel
+ */
+public final class UniqueIndexCheck {
+
+    public static void main(String[] args) throws IOException {
+        store();
+        dataManager();
+        System.out.println("Unique index: all checks passed");
+    }
+
+    private static void store() {
+        EntityStore<Patient> store = new EntityStore<>(Patient::getUserId);
+        store.addUniqueIndex("nhs", Patient::getNhsNumber);
+        store.loadAll(Arrays.asList(patient("P1", "111"), patient("P2", "222"), patient("P3", "111"),
+                                    patient("P4", ""), patient("P5", " ")));
+
+        check(store.findUnique("nhs", "111").getUserId().equals("P1"), "first holder owns the key");
+        check(!store.add(patient("P6", "222")), "add with a taken key");
+        check(!store.add(patient("P6", " 222 ")), "add with a taken key, padded");
+        check(store.add(patient("P6", "")), "blank keys are not unique");
+
+        check(!store.update("P2", patient("P2", "111")), "update onto another record's key");
+        check(store.update("P2", patient("P2", "222", "renamed")), "update keeping its own key");
+        check(store.update("P3", patient("P3", "111", "renamed")), "loaded duplicate keeping its key");
+        check(store.findUnique("nhs", "111").getUserId().equals("P1"), "duplicate did not take over the key");
+        check(!store.update("P3", patient("P3", "222")), "loaded duplicate moving to a taken key");
+        check(store.update("P3", patient("P3", "333")), "loaded duplicate moving to a free key");
+        check(store.findUnique("nhs", "333").getUserId().equals("P3"), "moved duplicate is indexed");
+
+        check(store.update("P1", patient("P7", "111")), "ID change keeping the key");
+        check(store.findUnique("nhs", "111").getUserId().equals("P7"), "key follows the new ID");
+        check(store.remove("P7") != null && store.add(patient("P8", "111")), "delete frees the key");
+    }
+
+    /** A data set with a duplicate NHS number, edited through the data layer. */
+    private static void dataManager() throws IOException {
+        Path dir = Files.createTempDirectory("hms-unique");
+        try {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get("data"), "*.csv")) {
+                for (Path file : files) Files.copy(file, dir.resolve(file.getFileName()));
+            }
+            Path patients = dir.resolve("patients.csv");
+            String text = new String(Files.readAllBytes(patients), StandardCharsets.UTF_8);
+            if (!text.endsWith("\n")) text += "\n";
+            DataManager original = new DataManager(dir.toString());
+            Patient first = original.getAllPatients().get(0);
+            original.close();
+            Patient duplicate = patient("P900", first.getNhsNumber());
+            Files.write(patients, (text + duplicate.toCSV() + "\n").getBytes(StandardCharsets.UTF_8));
+
+            DataManager data = new DataManager(dir.toString());
+            try {
+                check(!data.isNhsNumberTaken(first.getNhsNumber(), "P900"), "duplicate warned about its own number");
+                check(data.isNhsNumberTaken(first.getNhsNumber(), null), "new patient not warned");
+                Patient edit = data.findPatientById("P900").copy();
+                edit.setFirstName("Edited");
+                check(data.updatePatient("P900", edit), "duplicate could not be edited");
+                check(data.findPatientById("P900").getFirstName().equals("Edited"), "edit not stored");
+                check(data.findPatientByNhsNumber(first.getNhsNumber()).getUserId().equals(first.getUserId()),
+                    "duplicate took over the NHS number");
+                Patient second = data.getAllPatients().get(1);
+                edit = data.findPatientById("P900").copy();
+                edit.setNhsNumber(second.getNhsNumber());
+                check(data.isNhsNumberTaken(edit.getNhsNumber(), "P900"), "moving onto a taken number not warned");
+                check(!data.updatePatient("P900", edit), "moving onto a taken number allowed");
+            } finally {
+                data.close();
+            }
+        } finally {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for (Path file : files) Files.delete(file);
+            }
+            Files.delete(dir);
+        }
+    }
+
+    private static Patient patient(String id, String nhsNumber) {
+        return patient(id, nhsNumber, "First");
+    }
+
+    private static Patient patient(String id, String nhsNumber, String firstName) {
+        return new Patient(id, firstName, "Last", "1990-01-01", nhsNumber, "F", "0700", "a@b.c",
+            "1 Road", "B1 1AA", "Contact", "0701", "2020-01-01", "S001");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    private UniqueIndexCheck() {
+    }
+}
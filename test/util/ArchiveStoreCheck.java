@@ -0,0 +1,137 @@
+package util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Self-check for {@link ArchiveStore}: rows written over several segments
+ * come back from date-range scans exactly as a brute-force filter over
+ * them would, free text included, and a segment with a truncated or
+ * damaged block fails with an IOException instead of hanging or returning
+ * bad rows. Exits with an AssertionError on the first mismatch.
+ *
+ * @author Shubhamkumar Prahladbhai Patel
+ */
+public final class ArchiveStoreCheck {
+    private static final LocalDate START = LocalDate.of(2020, 1, 1);
+
+    public static void main(String[] args) throws Exception {
+        Random random = new Random(args.length > 0 ? Long.parseLong(args[0]) : 1);
+        Path dir = Files.createTempDirectory("hms-archive");
+        try {
+            ArchiveStore store = new ArchiveStore(dir, "appointments");
+            check(store.scan(null, null, row -> row.getString(0), null).isEmpty(), "empty archive");
+
+            Map<String, LocalDate> written = new LinkedHashMap<>();
+            Map<String, String> text = new HashMap<>();
+            for (int segment = 0; segment < 3; segment++) {
+                List<String> rows = new ArrayList<>();
+                List<LocalDate> dates = new ArrayList<>();
+                int count = segment == 1 ? 1 : 2500;
+                for (int i = 0; i < count; i++) {
+                    String id = "A" + written.size();
+                    LocalDate date = START.plusDays(random.nextInt(1500));
+                    String notes = "note, \"" + id + "\"\non " + date;
+                    rows.add(CSVFields.join(id, date, notes));
+                    dates.add(date);
+                    written.put(id, date);
+                    text.put(id, notes);
+                }
+                store.write(rows, dates);
+            }
+
+            for (int i = 0; i < 30; i++) {
+                LocalDate from = random.nextInt(5) == 0 ? null : START.plusDays(random.nextInt(1500));
+                LocalDate to = random.nextInt(5) == 0 ? null : (from == null ? START : from).plusDays(random.nextInt(200));
+                Set<String> expected = new HashSet<>();
+                for (Map.Entry<String, LocalDate> e : written.entrySet()) {
+                    if ((from == null || !e.getValue().isBefore(from)) && (to == null || !e.getValue().isAfter(to))) {
+                        expected.add(e.getKey());
+                    }
+                }
+                List<String[]> found = store.scan(from, to,
+                    row -> new String[] {row.getString(0), row.getString(1), row.getString(2)}, null);
+                Set<String> ids = new HashSet<>();
+                for (String[] row : found) {
+                    LocalDate date = LocalDate.parse(row[1]);
+                    if ((from == null || !date.isBefore(from)) && (to == null || !date.isAfter(to))) {
+                        ids.add(row[0]);
+                    }
+                    check(text.get(row[0]).equals(row[2]), row[0] + ": text came back as " + row[2]);
+                }
+                check(ids.equals(expected), from + ".." + to + ": found " + ids.size() + ", expected " + expected.size());
+            }
+
+            List<String> odd = store.scan(null, null, row -> row.getString(0), id -> id.endsWith("7"));
+            for (String id : odd) check(id.endsWith("7"), "filter let through " + id);
+
+            Path first = dir.resolve("appointments-000001.seg");
+            shortenFirstBlock(first);
+            expectCorrupt(store, "truncated block");
+            Path third = dir.resolve("appointments-000003.seg");
+            Files.delete(first);
+            flipByte(third, 100);
+            expectCorrupt(store, "damaged block");
+        } finally {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for (Path file : files) Files.delete(file);
+            }
+            Files.delete(dir);
+        }
+        System.out.println("ArchiveStore: all checks passed");
+    }
+
+    /** Makes the first index entry claim half the compressed bytes it has. */
+    private static void shortenFirstBlock(Path segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer tail = ByteBuffer.allocate(8);
+            channel.read(tail, channel.size() - 12);
+            long lengthAt = tail.getLong(0) + 4 + 8;
+            ByteBuffer length = ByteBuffer.allocate(4);
+            channel.read(length, lengthAt);
+            int half = length.getInt(0) / 2;
+            channel.write(ByteBuffer.allocate(4).putInt(0, half), lengthAt);
+        }
+    }
+
+    private static void flipByte(Path segment, long at) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            channel.read(b, at);
+            channel.write(ByteBuffer.allocate(1).put(0, (byte) (b.get(0) ^ 0x5A)), at);
+        }
+    }
+
+    /** The scan must fail, and promptly: a hang here is the bug. */
+    private static void expectCorrupt(ArchiveStore store, String what) throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "archive-check");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            executor.submit(() -> store.scan(null, null, row -> row.getString(0), null)).get(10, TimeUnit.SECONDS);
+            throw new AssertionError(what + ": scan succeeded");
+        } catch (ExecutionException e) {
+            check(e.getCause() instanceof IOException, what + ": failed with " + e.getCause());
+        } catch (TimeoutException e) {
+            throw new AssertionError(what + ": scan did not finish");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    private ArchiveStoreCheck() {
+    }
+}
@@ -0,0 +1,124 @@
+package util;
+
+import model.*;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Self-check for snapshot freshness: after a rewrite each data file's
+ * snapshot is fresh, byte for byte the one a conversion of the new CSV
+ * gives, and loads to the same records as the CSV, including quoted text,
+ * nulls and typed columns that fall back to text. An append or a change
+ * to the CSV makes it stale. Exits with an AssertionError on the first
+ * mismatch.
+ *
+ * @author Shubhamkumar Prahladbhai Patel
+ */
+public final class BinarySnapshotCheck {
+    private static final String[] FILES = {"patients", "appointments", "prescriptions", "referrals"};
+
+    public static void main(String[] args) throws IOException {
+        Path dir = Files.createTempDirectory("hms-snap");
+        try {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get("data"), "*.csv")) {
+                for (Path file : files) Files.copy(file, dir.resolve(file.getFileName()));
+            }
+            CSVHandler handler = new CSVHandler(dir.toString());
+            List<Patient> patients = handler.loadPatients();
+            Patient odd = patients.get(0).copy();
+            odd.setAddress("1 \"Main\" Street,\nFlat 2");
+            odd.setDateOfBirth("22/07/1990"); // not ISO: the DATE column falls back to text
+            odd.setGpSurgeryId(null);
+            patients.add(odd);
+            List<Prescription> prescriptions = handler.loadPrescriptions();
+            prescriptions.get(0).setQuantity(-7);
+            prescriptions.get(0).setInstructions("Zo\u00eb's, \"twice\"\r\ndaily");
+
+            check(handler.savePatients(patients), "save patients");
+            check(handler.saveAppointments(handler.loadAppointments()), "save appointments");
+            check(handler.savePrescriptions(prescriptions), "save prescriptions");
+            check(handler.saveReferrals(handler.loadReferrals()), "save referrals");
+            for (String name : FILES) fresh(dir, name);
+
+            check(rows(handler.loadPatients(), Patient::toCSV).equals(rows(patients, Patient::toCSV)),
+                "patients loaded from the snapshot differ");
+            check(rows(handler.loadPrescriptions(), Prescription::toCSV)
+                    .equals(rows(prescriptions, Prescription::toCSV)), "prescriptions loaded from the snapshot differ");
+
+            check(handler.appendPatients(Collections.singletonList(odd)), "append");
+            check(!Files.exists(dir.resolve("patients.snap")), "append left the snapshot");
+            check(handler.loadPatients().size() == patients.size() + 1, "append not loaded");
+            check(handler.savePatients(patients), "rewrite after append");
+            fresh(dir, "patients");
+
+            Files.write(dir.resolve("appointments.csv"), "\n".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+            check(!BinarySnapshot.isFresh(dir.resolve("appointments.snap"), dir.resolve("appointments.csv")),
+                "snapshot still fresh after the CSV changed");
+        } finally {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for (Path file : files) Files.delete(file);
+            }
+            Files.delete(dir);
+        }
+        System.out.println("BinarySnapshot: all checks passed");
+    }
+
+    /**
+     * The snapshot written with the CSV is fresh, reads back as the CSV
+     * parses, and matches a conversion of the CSV exactly.
+     */
+    private static void fresh(Path dir, String name) throws IOException {
+        Path csv = dir.resolve(name + ".csv");
+        Path snap = dir.resolve(name + ".snap");
+        check(BinarySnapshot.isFresh(snap, csv), name + " snapshot is stale");
+        List<String> parsed = new ArrayList<>();
+        try (CSVTokenizer row = new CSVTokenizer(Files.newBufferedReader(csv, StandardCharsets.UTF_8))) {
+            row.nextRecord();
+            while (row.nextRecord()) parsed.add(describe(row));
+        }
+        List<String> read = BinarySnapshot.read(snap, BinarySnapshotCheck::describe);
+        check(read.equals(parsed), name + ": snapshot holds " + read.size() + " rows, CSV " + parsed.size());
+
+        // A conversion stamps the same file, so the bytes must match too
+        Path converted = dir.resolve(name + ".converted");
+        convert(dir, name, converted);
+        check(Arrays.equals(Files.readAllBytes(converted), Files.readAllBytes(snap)),
+            name + ": snapshot differs from a conversion of the CSV");
+        Files.delete(converted);
+    }
+
+    /** Converts the CSV with the handler's own column hints, then sets the result aside. */
+    private static void convert(Path dir, String name, Path converted) throws IOException {
+        Path snap = dir.resolve(name + ".snap");
+        Path kept = dir.resolve(name + ".kept");
+        Files.move(snap, kept);
+        new CSVHandler(dir.toString()).writeSnapshot(name);
+        Files.move(snap, converted);
+        Files.move(kept, snap);
+    }
+
+    private static String describe(CSVRow row) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < row.fieldCount(); i++) sb.append('|').append(row.getString(i));
+        return sb.toString();
+    }
+
+    private static <T> List<String> rows(List<T> records, Function<T, String> toCSV) {
+        List<String> rows = new ArrayList<>();
+        for (T record : records) rows.add(toCSV.apply(record));
+        return rows;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    private BinarySnapshotCheck() {
+    }
+}
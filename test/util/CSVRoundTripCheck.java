@@ -0,0 +1,144 @@
+package util;
+
+import model.*;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Self-check that every record survives toCSV() and back: through
+ * {@link CSVHandler}'s row parser (as the journal replays it), and through
+ * a saved file, with and without lazy text and the binary snapshot. Every
+ * string column carries commas, quotes and line breaks.
+ *
+ * @author Shubhamkumar Prahladbhai Patel
+ */
+public final class CSVRoundTripCheck {
+    private static final String[] AWKWARD = {
+        "plain", "a,b", "say \"hi\"", "\"", ",", "line1\nline2", "crlf\r\nend", "\"quoted\", then more", ""
+    };
+
+    public static void main(String[] args) throws IOException {
+        List<Patient> patients = new ArrayList<>();
+        List<Appointment> appointments = new ArrayList<>();
+        List<Prescription> prescriptions = new ArrayList<>();
+        List<Referral> referrals = new ArrayList<>();
+        for (int i = 0; i < AWKWARD.length; i++) {
+            patients.add(patient(i));
+            appointments.add(appointment(i));
+            prescriptions.add(prescription(i));
+            referrals.add(referral(i));
+        }
+
+        CSVHandler parser = new CSVHandler(".");
+        rows("patient", patients, Patient::toCSV, parser::parsePatient);
+        rows("appointment", appointments, Appointment::toCSV, parser::parseAppointment);
+        rows("prescription", prescriptions, Prescription::toCSV, parser::parsePrescription);
+        rows("referral", referrals, Referral::toCSV, parser::parseReferral);
+
+        for (boolean lazy : new boolean[]{false, true}) {
+            System.setProperty("hms.lazyText", String.valueOf(lazy));
+            Path dir = Files.createTempDirectory("hms-roundtrip");
+            try {
+                CSVHandler writer = new CSVHandler(dir.toString());
+                check(writer.savePatients(patients) && writer.saveAppointments(appointments)
+                    && writer.savePrescriptions(prescriptions) && writer.saveReferrals(referrals), "save failed");
+                for (boolean snapshot : new boolean[]{true, false}) {
+                    if (!snapshot) {
+                        try (DirectoryStream<Path> snaps = Files.newDirectoryStream(dir, "*.snap")) {
+                            for (Path snap : snaps) Files.delete(snap);
+                        }
+                    }
+                    String how = "file (lazy " + lazy + ", snapshot " + snapshot + ")";
+                    CSVHandler reader = new CSVHandler(dir.toString());
+                    same(how + " patients", patients, reader.loadPatients(), Patient::toCSV);
+                    same(how + " appointments", appointments, reader.loadAppointments(), Appointment::toCSV);
+                    same(how + " prescriptions", prescriptions, reader.loadPrescriptions(), Prescription::toCSV);
+                    same(how + " referrals", referrals, reader.loadReferrals(), Referral::toCSV);
+                }
+            } finally {
+                delete(dir);
+            }
+        }
+        System.clearProperty("hms.lazyText");
+        System.out.println("CSV round trip: all checks passed");
+    }
+
+    private static <T> void rows(String what, List<T> records, Function<T, String> toCSV,
+                                 Function<String, T> parse) {
+        for (T record : records) {
+            String row = toCSV.apply(record);
+            T parsed = parse.apply(row);
+            check(parsed != null, what + ": row did not parse: " + row);
+            check(row.equals(toCSV.apply(parsed)), what + ": changed on the way back\n  " + row
+                + "\n  " + toCSV.apply(parsed));
+        }
+    }
+
+    private static <T> void same(String what, List<T> expected, List<T> actual, Function<T, String> toCSV) {
+        check(actual.size() == expected.size(), what + ": loaded " + actual.size() + " of " + expected.size());
+        for (int i = 0; i < expected.size(); i++) {
+            check(toCSV.apply(expected.get(i)).equals(toCSV.apply(actual.get(i))), what + ": record " + i + " differs");
+        }
+    }
+
+    /** A different awkward value per column, so a shifted column shows. */
+    private static String text(int record, int column) {
+        return AWKWARD[(record + column) % AWKWARD.length] + (column == 0 ? "" : " " + column);
+    }
+
+    private static Patient patient(int i) {
+        return new Patient("P" + i, text(i, 1), text(i, 2), "2000-01-0" + (i % 9 + 1), "NHS" + i,
+            text(i, 5), text(i, 6), text(i, 7), text(i, 8), text(i, 9), text(i, 10), text(i, 11),
+            "2020-02-02", text(i, 13));
+    }
+
+    private static Appointment appointment(int i) {
+        return new Appointment("A" + i, "P" + i, text(i, 2), text(i, 3), "2024-03-0" + (i % 9 + 1), "09:30",
+            15 + i, text(i, 7), text(i, 8), text(i, 9), text(i, 10), "2024-01-01", "2024-01-02");
+    }
+
+    private static Prescription prescription(int i) {
+        return new Prescription("RX" + i, "P" + i, text(i, 2), text(i, 3), "2024-04-0" + (i % 9 + 1),
+            text(i, 5), text(i, 6), text(i, 7), 7 + i, 28, text(i, 10), text(i, 11), text(i, 12),
+            "2024-04-10", "2024-04-11");
+    }
+
+    private static Referral referral(int i) {
+        Referral r = new Referral();
+        r.setReferralId("R" + i);
+        r.setPatientId("P" + i);
+        r.setReferringClinicianId(text(i, 2));
+        r.setReferredToClinicianId(text(i, 3));
+        r.setReferringFacilityId(text(i, 4));
+        r.setReferredToFacilityId(text(i, 5));
+        r.setReferralDate("2024-05-0" + (i % 9 + 1));
+        r.setUrgencyLevel(text(i, 7));
+        r.setReferralReason(text(i, 8));
+        r.setClinicalSummary(text(i, 9));
+        r.setRequestedInvestigations(text(i, 10));
+        r.setStatus(text(i, 11));
+        r.setAppointmentId(text(i, 12));
+        r.setNotes(text(i, 13));
+        r.setCreatedDate("2024-05-10");
+        r.setLastUpdated("2024-05-11");
+        return r;
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) Files.delete(file);
+        }
+        Files.delete(dir);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    private CSVRoundTripCheck() {
+    }
+}
@@ -0,0 +1,145 @@
+package util;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Self-check for {@link CSVTokenizer}: fixed RFC-4180 cases, then random
+ * records written out and read back at buffer sizes small enough that
+ * quotes, escapes and line breaks land on refill boundaries. Exits with an
+ * AssertionError on the first mismatch.
+ *
+ * @author Shubhamkumar Prahladbhai Patel
+ */
+public final class CSVTokenizerCheck {
+    private static final int[] BUFFER_SIZES = {16, 17, 31, 64, 1024, 64 * 1024};
+
+    public static void main(String[] args) throws IOException {
+        fixedCases();
+        byteOffsets();
+        randomRoundTrips(new Random(args.length > 0 ? Long.parseLong(args[0]) : 1));
+        System.out.println("CSVTokenizer: all checks passed");
+    }
+
+    private static void fixedCases() throws IOException {
+        expect("a,b,c\n", rows(row("a", "b", "c")));
+        expect("a,b,c", rows(row("a", "b", "c")));
+        expect("a,b\r\nc,d\r\n", rows(row("a", "b"), row("c", "d")));
+        expect("a,b\rc,d", rows(row("a", "b"), row("c", "d")));
+        expect("a,,c\n,\n", rows(row("a", "", "c"), row("", "")));
+        expect("a,\n", rows(row("a", "")));
+        expect("\"x,y\",z\n", rows(row("x,y", "z")));
+        expect("\"say \"\"hi\"\"\",b\n", rows(row("say \"hi\"", "b")));
+        expect("\"\"\"\"\n", rows(row("\"")));
+        expect("\"\",b\n", rows(row("", "b")));
+        expect("\"line1\nline2\",b\n", rows(row("line1\nline2", "b")));
+        expect("\"line1\r\nline2\",b\r\n", rows(row("line1\r\nline2", "b")));
+        expect("\"no newline at end\"", rows(row("no newline at end")));
+        expect("\"ends in quote\"\"\"", rows(row("ends in quote\"")));
+        expect("", rows());
+    }
+
+    /** Record offsets must be the UTF-8 byte position of each record. */
+    private static void byteOffsets() throws IOException {
+        String[] records = {"id,name\r\n", "1,\"Zo\u00eb, \"\"Z\"\"\"\n", "2,\u20ac\uD83D\uDE00\n", "3,plain"};
+        String text = String.join("", records);
+        for (int size : BUFFER_SIZES) {
+            try (CSVTokenizer tokenizer = new CSVTokenizer(new StringReader(text), size)) {
+                tokenizer.trackByteOffsets(100);
+                long expected = 100;
+                for (String record : records) {
+                    check(tokenizer.nextRecord(), "offsets: record missing at buffer " + size);
+                    check(tokenizer.recordOffset() == expected, "offsets: got " + tokenizer.recordOffset()
+                        + ", expected " + expected + " at buffer " + size);
+                    expected += record.getBytes(StandardCharsets.UTF_8).length;
+                }
+                check(!tokenizer.nextRecord(), "offsets: extra record at buffer " + size);
+            }
+        }
+    }
+
+    private static void randomRoundTrips(Random random) throws IOException {
+        String alphabet = "ab ,\"\r\n\u00e9\u20ac";
+        for (int round = 0; round < 500; round++) {
+            List<List<String>> expected = new ArrayList<>();
+            StringBuilder text = new StringBuilder();
+            int records = 1 + random.nextInt(20);
+            for (int r = 0; r < records; r++) {
+                List<String> fields = new ArrayList<>();
+                int count = 1 + random.nextInt(6);
+                for (int f = 0; f < count; f++) {
+                    StringBuilder field = new StringBuilder();
+                    int length = random.nextInt(random.nextInt(8) == 0 ? 60 : 8);
+                    for (int i = 0; i < length; i++) {
+                        field.append(alphabet.charAt(random.nextInt(alphabet.length())));
+                    }
+                    fields.add(field.toString());
+                    if (f > 0) text.append(',');
+                    // A lone empty unquoted field would be a blank line; quote it
+                    boolean quote = random.nextInt(4) == 0 || count == 1 && field.length() == 0;
+                    text.append(encode(field.toString(), quote));
+                }
+                expected.add(fields);
+                boolean last = r == records - 1;
+                if (!last || random.nextBoolean()) {
+                    text.append(random.nextBoolean() ? "\r\n" : "\n");
+                }
+            }
+            expect(text.toString(), expected);
+        }
+    }
+
+    /** Quotes a field when it has to be, or anyway when asked. */
+    private static String encode(String field, boolean alwaysQuote) {
+        boolean needsQuotes = field.indexOf(',') >= 0 || field.indexOf('"') >= 0
+            || field.indexOf('\r') >= 0 || field.indexOf('\n') >= 0;
+        if (!needsQuotes && !alwaysQuote) {
+            return field;
+        }
+        return "\"" + field.replace("\"", "\"\"") + "\"";
+    }
+
+    private static void expect(String text, List<List<String>> expected) throws IOException {
+        for (int size : BUFFER_SIZES) {
+            List<List<String>> actual = new ArrayList<>();
+            try (CSVTokenizer tokenizer = new CSVTokenizer(new StringReader(text), size)) {
+                while (tokenizer.nextRecord()) {
+                    List<String> fields = new ArrayList<>();
+                    for (int i = 0; i < tokenizer.fieldCount(); i++) {
+                        fields.add(tokenizer.getString(i));
+                        check(tokenizer.fieldEquals(i, fields.get(i)), "fieldEquals disagrees with getString");
+                    }
+                    actual.add(fields);
+                }
+            }
+            check(actual.equals(expected), "buffer " + size + " read " + quote(text)
+                + "\n  as " + actual + "\n  expected " + expected);
+        }
+    }
+
+    private static List<List<String>> rows(String[]... rows) {
+        List<List<String>> list = new ArrayList<>();
+        for (String[] row : rows) {
+            list.add(Arrays.asList(row));
+        }
+        return list;
+    }
+
+    private static String[] row(String... fields) {
+        return fields;
+    }
+
+    private static String quote(String text) {
+        return "[" + text.replace("\r", "\\r").replace("\n", "\\n") + "]";
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    private CSVTokenizerCheck() {
+    }
+}
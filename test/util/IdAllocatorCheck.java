@@ -0,0 +1,150 @@
+package util;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Self-check for {@link IdAllocator} leases: IDs from many threads, from
+ * two allocators in one JVM and from other processes sharing the lease
+ * file are never handed out twice; seeding skips numbers in use, even
+ * inside a block already leased; a new allocator carries on past
+ * everything leased before; and an unusable lease file still gives unique
+ * IDs within the process. Exits with an AssertionError on the first
+ * mismatch.
+ *
+ * @author Shubhamkumar Prahladbhai Patel
+ */
+public final class IdAllocatorCheck {
+    private static final int PER_PROCESS = 3000;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && args[0].equals("mint")) {
+            // Run as another process by sharing()
+            IdAllocator ids = new IdAllocator(Paths.get(args[1]), 7);
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < PER_PROCESS; i++) sb.append(ids.next("X")).append('\n');
+            System.out.print(sb);
+            return;
+        }
+        Path dir = Files.createTempDirectory("hms-ids");
+        try {
+            format(dir.resolve("format.lease"));
+            threads(dir.resolve("threads.lease"));
+            seeding(dir.resolve("seed.lease"));
+            sharing(dir.resolve("shared.lease"));
+            unusable(dir);
+        } finally {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for (Path file : files) Files.delete(file);
+            }
+            Files.delete(dir);
+        }
+        System.out.println("IdAllocator: all checks passed");
+    }
+
+    private static void format(Path lease) {
+        IdAllocator ids = new IdAllocator(lease, 500);
+        check(ids.next("P").equals("P001") && ids.next("RX").equals("RX001"), "first IDs");
+        String last = null;
+        for (int i = 0; i < 1200; i++) last = ids.next("P");
+        check(last.equals("P1201"), "past 999: " + last);
+        check(IdAllocator.numberOf("RX", "RX1043") == 1043, "numberOf");
+        check(IdAllocator.numberOf("RX", "RX12a") == 0 && IdAllocator.numberOf("RX", "P5") == 0
+            && IdAllocator.numberOf("RX", "RX") == 0 && IdAllocator.numberOf("RX", null) == 0, "numberOf non-IDs");
+    }
+
+    /** Threads racing over small blocks, on two allocators sharing one file. */
+    private static void threads(Path lease) throws Exception {
+        IdAllocator first = new IdAllocator(lease, 5);
+        IdAllocator second = new IdAllocator(lease, 3);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<List<String>>> minted = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                IdAllocator ids = t % 2 == 0 ? first : second;
+                minted.add(pool.submit(() -> {
+                    List<String> own = new ArrayList<>();
+                    for (int i = 0; i < 5000; i++) own.add(ids.next("A"));
+                    return own;
+                }));
+            }
+            Set<String> all = new HashSet<>();
+            for (Future<List<String>> f : minted) {
+                for (String id : f.get()) check(all.add(id), "handed out twice: " + id);
+            }
+            check(all.size() == 40_000, all.size() + " IDs");
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void seeding(Path lease) {
+        IdAllocator ids = new IdAllocator(lease, 100);
+        ids.seed("RX", Arrays.asList("RX1043", "RX12a", "P5000", "RX0999"));
+        check(ids.next("RX").equals("RX1044"), "seeded from IDs");
+        // Numbers inside the leased block turn out to be taken
+        ids.seed("RX", 1100);
+        String after = ids.next("RX");
+        check(IdAllocator.numberOf("RX", after) > 1100, "seed inside a leased block gave " + after);
+        ids.seed("RX", 10);
+        check(IdAllocator.numberOf("RX", ids.next("RX")) == IdAllocator.numberOf("RX", after) + 1,
+            "a lower seed moved IDs");
+
+        long highest = 0;
+        for (int i = 0; i < 250; i++) highest = IdAllocator.numberOf("RX", ids.next("RX"));
+        IdAllocator later = new IdAllocator(lease, 100);
+        check(IdAllocator.numberOf("RX", later.next("RX")) > highest, "a new allocator reused leased numbers");
+        // The seed alone is recorded, so archived IDs stay reserved
+        new IdAllocator(lease, 100).seed("AR", 77);
+        check(new IdAllocator(lease, 100).next("AR").equals("AR078"), "seed not recorded in the lease file");
+    }
+
+    /** Other processes minting from the same lease file at the same time. */
+    private static void sharing(Path lease) throws Exception {
+        List<Process> processes = new ArrayList<>();
+        for (int p = 0; p < 2; p++) {
+            processes.add(new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), IdAllocatorCheck.class.getName(), "mint",
+                lease.toString()).redirectError(ProcessBuilder.Redirect.INHERIT).start());
+        }
+        IdAllocator ids = new IdAllocator(lease, 7);
+        Set<String> all = new HashSet<>();
+        for (int i = 0; i < PER_PROCESS; i++) all.add(ids.next("X"));
+        for (Process process : processes) {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                    process.getInputStream(), StandardCharsets.UTF_8))) {
+                String id;
+                int count = 0;
+                while ((id = in.readLine()) != null) {
+                    check(all.add(id), "handed out by two processes: " + id);
+                    count++;
+                }
+                check(count == PER_PROCESS, "process minted " + count);
+            }
+            check(process.waitFor() == 0, "process failed");
+        }
+    }
+
+    /** A lease file that cannot be opened falls back to the seeds. */
+    private static void unusable(Path dir) {
+        IdAllocator ids = new IdAllocator(dir, 4); // a directory, not a file
+        ids.seed("U", 40);
+        Set<String> all = new HashSet<>();
+        for (int i = 0; i < 50; i++) {
+            String id = ids.next("U");
+            check(IdAllocator.numberOf("U", id) > 40 && all.add(id), "fallback handed out " + id);
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    private IdAllocatorCheck() {
+    }
+}
@@ -0,0 +1,150 @@
+package util;
+
+import model.*;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Self-check for {@link LazyTextSource}: fields read back in file order, in
+ * random order, far apart and from several threads at once all match what
+ * a sequential pass over the file gives, also after the file has been
+ * replaced. A lazy-text {@link CSVHandler} rewrites each data file to the
+ * same bytes as one that loaded all its text. Exits with an AssertionError
+ * on the first mismatch.
+ *
+ * @author Shubhamkumar Prahladbhai Patel
+ */
+public final class LazyTextSourceCheck {
+
+    public static void main(String[] args) throws Exception {
+        Random random = new Random(args.length > 0 ? Long.parseLong(args[0]) : 1);
+        Path dir = Files.createTempDirectory("hms-lazy");
+        try {
+            reads(dir, random);
+            rewrites(dir);
+        } finally {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for (Path file : files) Files.delete(file);
+            }
+            Files.delete(dir);
+        }
+        System.out.println("LazyTextSource: all checks passed");
+    }
+
+    private static void reads(Path dir, Random random) throws Exception {
+        Path file = dir.resolve("text.csv");
+        StringBuilder sb = new StringBuilder("id,text,more\n");
+        for (int r = 0; r < 20_000; r++) {
+            sb.append('R').append(r).append(',');
+            switch (random.nextInt(4)) {
+                case 0: sb.append("\"line one\nline, \"\"two\"\"\""); break;
+                case 1: sb.append("Zo\u00eb ").append(r); break;
+                case 2: sb.append(""); break;
+                default: sb.append("plain ").append(random.nextInt(1000));
+            }
+            sb.append(",m").append(r).append(random.nextBoolean() ? "\r\n" : "\n");
+        }
+        Files.write(file, sb.toString().getBytes(StandardCharsets.UTF_8));
+
+        List<Long> offsets = new ArrayList<>();
+        List<String> texts = new ArrayList<>();
+        try (CSVTokenizer row = new CSVTokenizer(Files.newBufferedReader(file, StandardCharsets.UTF_8))) {
+            row.trackByteOffsets(0);
+            row.nextRecord();
+            while (row.nextRecord()) {
+                offsets.add(row.recordOffset());
+                texts.add(row.getString(1));
+            }
+        }
+        LazyTextSource source = new LazyTextSource(file);
+        try {
+            for (int i = 0; i < offsets.size(); i++) {
+                check(source.read(offsets.get(i), 1).equals(texts.get(i)), "in order, row " + i);
+                check(source.read(offsets.get(i), 2).equals("m" + i), "same row again, row " + i);
+            }
+            for (int n = 0; n < 5000; n++) {
+                int i = random.nextInt(offsets.size());
+                check(source.read(offsets.get(i), 1).equals(texts.get(i)), "random order, row " + i);
+            }
+            // Replaced like a save replaces it; the source keeps the old file
+            Path replacement = dir.resolve("text.tmp");
+            Files.write(replacement, "id,text,more\nX,gone,x\n".getBytes(StandardCharsets.UTF_8));
+            Files.move(replacement, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            ExecutorService pool = Executors.newFixedThreadPool(4);
+            try {
+                List<Future<?>> readers = new ArrayList<>();
+                for (int t = 0; t < 4; t++) {
+                    long seed = random.nextLong();
+                    readers.add(pool.submit(() -> {
+                        Random own = new Random(seed);
+                        for (int n = 0; n < 20_000; n++) {
+                            int i = n % 3 == 0 ? own.nextInt(offsets.size()) : n % offsets.size();
+                            check(source.read(offsets.get(i), 1).equals(texts.get(i)), "concurrent, row " + i);
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> reader : readers) reader.get();
+            } finally {
+                pool.shutdown();
+            }
+            try {
+                source.read(Files.size(dir.resolve("text.csv")) + 1_000_000, 1);
+                throw new AssertionError("read past the end");
+            } catch (java.io.UncheckedIOException expected) {
+                // as it should
+            }
+            check(source.read(offsets.get(7), 1).equals(texts.get(7)), "read after a failed one");
+        } finally {
+            source.close();
+        }
+    }
+
+    /** A lazy handler's rewrite reads every field back and must lose none. */
+    private static void rewrites(Path dir) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get("data"), "*.csv")) {
+            for (Path file : files) Files.copy(file, dir.resolve(file.getFileName()));
+        }
+        CSVHandler eager = new CSVHandler(dir.toString());
+        check(eager.saveAppointments(eager.loadAppointments()), "eager save appointments");
+        check(eager.savePrescriptions(eager.loadPrescriptions()), "eager save prescriptions");
+        check(eager.saveReferrals(eager.loadReferrals()), "eager save referrals");
+        Map<String, byte[]> expected = new HashMap<>();
+        for (String name : new String[] {"appointments", "prescriptions", "referrals"}) {
+            expected.put(name, Files.readAllBytes(dir.resolve(name + ".csv")));
+        }
+
+        System.setProperty("hms.lazyText", "true");
+        try {
+            CSVHandler lazy = new CSVHandler(dir.toString());
+            List<Appointment> appointments = lazy.loadAppointments();
+            List<Prescription> prescriptions = lazy.loadPrescriptions();
+            List<Referral> referrals = lazy.loadReferrals();
+            // Twice: the second rewrite still reads from the file that was loaded
+            for (int pass = 0; pass < 2; pass++) {
+                check(lazy.saveAppointments(appointments), "lazy save appointments");
+                check(lazy.savePrescriptions(prescriptions), "lazy save prescriptions");
+                check(lazy.saveReferrals(referrals), "lazy save referrals");
+                for (Map.Entry<String, byte[]> e : expected.entrySet()) {
+                    check(Arrays.equals(Files.readAllBytes(dir.resolve(e.getKey() + ".csv")), e.getValue()),
+                        e.getKey() + " changed by a lazy rewrite, pass " + pass);
+                }
+            }
+        } finally {
+            System.clearProperty("hms.lazyText");
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    private LazyTextSourceCheck() {
+    }
+}
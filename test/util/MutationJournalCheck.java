@@ -0,0 +1,172 @@
+package util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Self-check for {@link MutationJournal}: entries replay exactly as they
+ * were appended, also after the journal is reopened; replay stops at an
+ * entry whose checksum fails and at a torn final entry, and still goes on
+ * to the live file after a rotated one ends early. A rotation cuts the
+ * journal exactly where it was queued, entries appended before it end up
+ * in the rotated file and the rest in the live one, and a rotation over an
+ * undiscarded rotated file keeps both. Exits with an AssertionError on the
+ * first mismatch.
+ *
+ * @author Shubhamkumar Prahladbhai Patel
+ */
+public final class MutationJournalCheck {
+
+    public static void main(String[] args) throws IOException {
+        Path dir = Files.createTempDirectory("hms-journal");
+        try {
+            replay(dir.resolve("replay.log"));
+            corruption(dir.resolve("corrupt.log"));
+            rotationCut(dir);
+        } finally {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for (Path file : files) Files.delete(file);
+            }
+            Files.delete(dir);
+        }
+        System.out.println("MutationJournal: all checks passed");
+    }
+
+    /** Awkward rows come back field for field, and survive a reopen. */
+    private static void replay(Path file) throws IOException {
+        String[] rows = {"P1,Emma,Johnson", "P2,\"O'Brien, \"\"Jo\"\"\",x", "line one\nline two\r\n", "", "Zo\u00eb"};
+        MutationJournal journal = new MutationJournal(file);
+        try {
+            for (int i = 0; i < rows.length; i++) {
+                journal.append(i % 2 == 0 ? MutationJournal.ADD : MutationJournal.UPDATE, "patient", "id \"" + i, rows[i]);
+            }
+            journal.append(MutationJournal.DELETE, "referral", "R9", "");
+            check(journal.sync(), "sync");
+        } finally {
+            journal.close();
+        }
+        for (int reopen = 0; reopen < 2; reopen++) {
+            journal = new MutationJournal(file);
+            try {
+                List<String[]> entries = new ArrayList<>();
+                int count = journal.replay((op, entity, id, row) -> entries.add(new String[] {op, entity, id, row}));
+                check(count == rows.length + 1 + reopen && entries.size() == count, "replayed " + count);
+                for (int i = 0; i < rows.length; i++) {
+                    String[] e = entries.get(i);
+                    check(e[0].equals(i % 2 == 0 ? MutationJournal.ADD : MutationJournal.UPDATE)
+                        && e[1].equals("patient") && e[2].equals("id \"" + i) && e[3].equals(rows[i]), "entry " + i);
+                }
+                String[] last = entries.get(rows.length);
+                check(last[0].equals(MutationJournal.DELETE) && last[2].equals("R9") && last[3].isEmpty(), "delete entry");
+                // Appends go after what was there
+                journal.append(MutationJournal.ADD, "patient", "after" + reopen, "x");
+                check(journal.sync(), "sync after reopen");
+            } finally {
+                journal.close();
+            }
+        }
+    }
+
+    /** A bad checksum or a torn final entry ends replay of that file. */
+    private static void corruption(Path file) throws IOException {
+        Path rotated = file.resolveSibling(file.getFileName() + ".1");
+        MutationJournal journal = new MutationJournal(file);
+        try {
+            for (int i = 0; i < 10; i++) journal.append(MutationJournal.ADD, "patient", "A" + i, "row " + i);
+            journal.rotate().join();
+            for (int i = 0; i < 10; i++) journal.append(MutationJournal.ADD, "patient", "B" + i, "row " + i);
+            check(journal.sync(), "sync");
+        } finally {
+            journal.close();
+        }
+        check(replayed(file).size() == 20, "clean replay");
+
+        // A flipped character in the middle entry of the rotated file
+        String text = new String(Files.readAllBytes(rotated), StandardCharsets.UTF_8);
+        Files.write(rotated, text.replace("row 5", "row 6").getBytes(StandardCharsets.UTF_8));
+        List<String> ids = replayed(file);
+        check(ids.size() == 15 && ids.get(4).equals("A4") && ids.get(5).equals("B0"),
+            "replay past a bad checksum: " + ids);
+
+        // A torn final entry in the live file, cut inside its quoted row
+        byte[] live = Files.readAllBytes(file);
+        int cut = live.length - 1;
+        while (live[cut - 1] != '\n') cut--;
+        Files.write(file, Arrays.copyOf(live, cut + 20));
+        ids = replayed(file);
+        check(ids.size() == 14 && ids.get(13).equals("B8"), "replay of a torn entry: " + ids);
+        Files.write(file, Arrays.copyOf(live, cut + 3));
+        check(replayed(file).size() == 14, "replay of an entry torn before its row");
+        Files.write(file, Arrays.copyOf(live, live.length - 3));
+        check(replayed(file).size() == 14, "replay of an entry torn inside its checksum");
+    }
+
+    private static List<String> replayed(Path file) throws IOException {
+        List<String> ids = new ArrayList<>();
+        MutationJournal journal = new MutationJournal(file);
+        try {
+            journal.replay((op, entity, id, row) -> ids.add(id));
+        } finally {
+            journal.close();
+        }
+        return ids;
+    }
+
+    private static void rotationCut(Path dir) throws IOException {
+        Path file = dir.resolve("journal.log");
+        Path rotated = dir.resolve("journal.log.1");
+        MutationJournal journal = new MutationJournal(file);
+        try {
+            List<CompletableFuture<Void>> written = new ArrayList<>();
+            for (int i = 0; i < 500; i++) written.add(journal.append(MutationJournal.ADD, "patient", "A" + i, "A" + i));
+            CompletableFuture<Void> rotation = journal.rotate();
+            for (int i = 0; i < 300; i++) written.add(journal.append(MutationJournal.ADD, "patient", "B" + i, "B" + i));
+            rotation.join();
+            check(journal.sync(), "sync after rotation");
+            for (CompletableFuture<Void> f : written) check(f.isDone() && !f.isCompletedExceptionally(), "entry not written");
+            check(ids(rotated, "A").size() == 500 && ids(rotated, "B").isEmpty(), "rotated file holds " + ids(rotated, null));
+            check(ids(file, "B").size() == 300 && ids(file, "A").isEmpty(), "live file holds " + ids(file, null));
+
+            // Not discarded: the next rotation appends to the rotated file
+            journal.append(MutationJournal.DELETE, "patient", "C0", "");
+            journal.rotate().join();
+            check(ids(rotated, null).size() == 801, "second rotation kept " + ids(rotated, null).size());
+            check(ids(file, null).isEmpty(), "live file not emptied");
+
+            List<String> replayed = new ArrayList<>();
+            journal.append(MutationJournal.UPDATE, "patient", "D0", "D0");
+            check(journal.sync(), "sync");
+            journal.replay((op, entity, id, row) -> replayed.add(id));
+            check(replayed.size() == 802 && replayed.get(0).equals("A0") && replayed.get(801).equals("D0"),
+                "replay order " + replayed.size());
+            journal.discardRotated();
+            check(!Files.exists(rotated), "rotated file not discarded");
+        } finally {
+            journal.close();
+        }
+        check(journal.rotate().isCompletedExceptionally(), "rotation after close");
+    }
+
+    /** IDs of the entries in one journal file, optionally only those with a prefix. */
+    private static List<String> ids(Path file, String prefix) throws IOException {
+        List<String> ids = new ArrayList<>();
+        if (!Files.exists(file)) return ids;
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            String id = line.split(",")[2].replace("\"", "");
+            if (prefix == null || id.startsWith(prefix)) ids.add(id);
+        }
+        return ids;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    private MutationJournalCheck() {
+    }
+}
@@ -0,0 +1,141 @@
+package util;
+
+import java.util.*;
+
+/**
+ * Self-check for {@link NameIndex}: misspelt, accented and hyphenated names
+ * find the right people, a date of birth picks one out of several with the
+ * same name, ties go to the person indexed first, a query word with far
+ * more candidates than are scored still finds its closest names, and an
+ * index put through random adds, replacements and removals answers like
+ * one freshly built from what is left. Exits with an AssertionError on the
+ * first mismatch.
+ *
+ * @author Shubhamkumar Prahladbhai Patel
+ */
+public final class NameIndexCheck {
+    private static final String[] FIRST = {"emma", "oliver", "zoe", "mohammed", "li", "jo", "sian"};
+    private static final String[] LAST = {"johnson", "smith", "jones", "o'brien", "smith-jones", "brown", "ng"};
+
+    public static void main(String[] args) {
+        spelling();
+        dateOfBirth();
+        manyCandidates();
+        largeIndex();
+        churn(new Random(args.length > 0 ? Long.parseLong(args[0]) : 1));
+        System.out.println("NameIndex: all checks passed");
+    }
+
+    private static void spelling() {
+        NameIndex index = new NameIndex();
+        index.put("P1", Arrays.asList("Emma", "Johnson", "1990-07-22"));
+        index.put("P2", Arrays.asList("Oliver", "Smith", "1985-01-02"));
+        index.put("P3", Arrays.asList("Zo\u00eb", "O'Brien", "1970-03-04"));
+        index.put("P4", Arrays.asList("Li", "Smith-Jones", "2001-12-31"));
+        check(first(index, "jonson").equals("P1"), "jonson");
+        check(first(index, "smiht oliver").equals("P2"), "smiht oliver");
+        check(first(index, "zoe obrien").equals("P3"), "zoe obrien");
+        check(first(index, "jones li").equals("P4"), "jones li");
+        check(first(index, "31/12/2001").equals("P4"), "date of birth alone");
+        check(index.search("xqzv", 10).isEmpty(), "nothing like xqzv");
+        check(index.search("", 10).isEmpty() && index.search(null, 10).isEmpty(), "empty query");
+        check(index.search("smith", 0).isEmpty(), "limit 0");
+        check(index.remove("P2") && !index.remove("P2") && index.size() == 3, "remove");
+        check(!index.search("smith oliver", 10).contains("P2"), "removed person still found");
+    }
+
+    private static void dateOfBirth() {
+        NameIndex index = new NameIndex();
+        for (int i = 0; i < 5; i++) {
+            index.put("E" + i, Arrays.asList("Emma", "Johnson", "1990-07-2" + i));
+        }
+        check(index.search("emma johnson", 3).equals(Arrays.asList("E0", "E1", "E2")), "ties by indexing order");
+        check(first(index, "jonson emma 22/07/1990").equals("E2"), "date of birth picks the person");
+        check(first(index, "emma 1990-07-24").equals("E4"), "date of birth with one name");
+    }
+
+    /** A short query word sharing trigrams with hundreds of names. */
+    private static void manyCandidates() {
+        NameIndex index = new NameIndex();
+        int n = 0;
+        for (char a = 'a'; a <= 'm'; a++) {
+            for (char b = 'a'; b <= 'z'; b++) {
+                index.put("X" + n++, Arrays.asList("jon" + a + b, "Other"));
+            }
+        }
+        index.put("J", Arrays.asList("Jon", "Other"));
+        index.put("S", Arrays.asList("Johnson", "Other"));
+        check(first(index, "jon").equals("J"), "exact short name among many candidates");
+        check(first(index, "jonson").equals("S"), "misspelling among many candidates");
+        check(index.search("jon", 1000).size() <= 16, "matched words not capped");
+    }
+
+    /**
+     * Enough people that rare names score in the hashed table and common
+     * ones over every document.
+     */
+    private static void largeIndex() {
+        NameIndex index = new NameIndex();
+        for (int i = 0; i < 40_000; i++) {
+            index.put("P" + i, Arrays.asList(FIRST[i % FIRST.length], LAST[i / FIRST.length % LAST.length], born(i)));
+        }
+        index.put("rare", Arrays.asList("Quentin", "Blackwood", "1950-05-05"));
+        check(first(index, "quentin blakwood").equals("rare"), "rare name");
+        check(first(index, "blackwood 05/05/1950").equals("rare"), "rare name with date of birth");
+        List<String> common = index.search("emma johnson", 5);
+        check(common.equals(Arrays.asList("P0", "P49", "P98", "P147", "P196")), "common name order " + common);
+        // The fifth Emma Johnson; none before her shares her date of birth
+        check(first(index, "emma johnson " + born(49 * 5)).equals("P245"), "common name with date of birth");
+    }
+
+    private static String born(int i) {
+        return String.format("19%02d-01-%02d", i % 100, 1 + i % 28);
+    }
+
+    /**
+     * Random puts, replacements and removals; every query must find the
+     * same people as an index built from scratch over the survivors.
+     */
+    private static void churn(Random random) {
+        NameIndex index = new NameIndex();
+        Map<String, List<String>> people = new LinkedHashMap<>();
+        for (int step = 0; step < 20_000; step++) {
+            String id = "P" + random.nextInt(2000);
+            if (random.nextInt(4) == 0) {
+                check(index.remove(id) == (people.remove(id) != null), "remove " + id);
+            } else {
+                List<String> fields = Arrays.asList(FIRST[random.nextInt(FIRST.length)],
+                    LAST[random.nextInt(LAST.length)] + (random.nextInt(3) == 0 ? "x" + random.nextInt(30) : ""),
+                    "2000-01-0" + (1 + random.nextInt(9)));
+                index.put(id, fields);
+                people.remove(id);
+                people.put(id, fields);
+            }
+        }
+        check(index.size() == people.size(), "size " + index.size() + " for " + people.size());
+        NameIndex fresh = new NameIndex();
+        for (Map.Entry<String, List<String>> e : people.entrySet()) fresh.put(e.getKey(), e.getValue());
+        for (String query : new String[] {"emma", "jonson", "smith 2000-01-03", "ngx1", "brwn sian", "jo li"}) {
+            Set<String> found = new HashSet<>(index.search(query, Integer.MAX_VALUE));
+            Set<String> expected = new HashSet<>(fresh.search(query, Integer.MAX_VALUE));
+            check(found.equals(expected), query + ": " + found.size() + " found, " + expected.size() + " expected");
+        }
+        index.clear();
+        check(index.size() == 0 && index.search("emma", 10).isEmpty(), "clear");
+    }
+
+    private static String first(NameIndex index, String query) {
+        List<String> found = index.search(query, 5);
+        check(!found.isEmpty(), "nothing found for " + query);
+        return found.get(0);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    private NameIndexCheck() {
+    }
+}
@@ -0,0 +1,91 @@
+package util;
+
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Timing harness for {@link NameIndex}: indexes synthetic patients with a
+ * skewed spread of first and last names, then times warm searches, from
+ * exact names to misspellings of the most common ones, and prints the
+ * median and worst time per query. Not a pass/fail check, since timings
+ * depend on the machine.
+ * <pre>
+ *   java -Xmx2g -cp bin util.NameIndexTiming [patients] [seed]
+ * </pre>
+ *
+ * @author Shubhamkumar Prahladbhai Patel
+ */
+public final class NameIndexTiming {
+    private static final String[] SYLLABLES = {"an", "ber", "cal", "dor", "el", "fen", "gar", "ha", "is",
+        "jon", "ka", "li", "mor", "na", "o", "per", "qui", "ros", "sen", "tha", "ul", "ver", "wil", "yor"};
+    private static final int RUNS = 25;
+
+    public static void main(String[] args) {
+        int patients = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Random random = new Random(args.length > 1 ? Long.parseLong(args[1]) : 1);
+        List<String> firstNames = names(random, 2000, 3);
+        List<String> lastNames = names(random, 30_000, 4);
+        firstNames.addAll(Arrays.asList("emma", "oliver", "mohammed", "li", "jo"));
+        lastNames.addAll(Arrays.asList("smith", "johnson", "jones", "brown", "o'brien", "smith-jones"));
+
+        NameIndex index = new NameIndex();
+        long start = System.nanoTime();
+        for (int i = 0; i < patients; i++) {
+            String born = LocalDate.of(1930, 1, 1).plusDays(random.nextInt(30_000)).toString();
+            index.put("P" + i, Arrays.asList(pick(random, firstNames), pick(random, lastNames), born));
+        }
+        System.out.printf("Indexed %d patients in %d ms%n", patients, (System.nanoTime() - start) / 1_000_000);
+
+        String[] queries = {
+            "smith", "smiht", "emma smith", "jonson emma", "li", "jo", "a",
+            "mohamed smith jones", "johnson 1960-05-12", "obrien", "smith-jones oliver",
+            firstNames.get(0) + " " + lastNames.get(0), misspell(lastNames.get(0)),
+            lastNames.get(1) + " " + lastNames.get(2) + " " + firstNames.get(1) + " " + firstNames.get(2),
+            "zzzzqqqq", "andersonsmithjohnsonbrown"
+        };
+        for (int warm = 0; warm < 3; warm++) {
+            for (String query : queries) index.search(query, 20);
+        }
+        long worst = 0;
+        for (String query : queries) {
+            long[] times = new long[RUNS];
+            int found = 0;
+            for (int run = 0; run < RUNS; run++) {
+                long t = System.nanoTime();
+                found = index.search(query, 20).size();
+                times[run] = System.nanoTime() - t;
+            }
+            Arrays.sort(times);
+            worst = Math.max(worst, times[RUNS - 1]);
+            System.out.printf("%-40s %3d results  median %7.2f ms  max %7.2f ms%n",
+                '"' + query + '"', found, times[RUNS / 2] / 1e6, times[RUNS - 1] / 1e6);
+        }
+        System.out.printf("Worst single search: %.2f ms%n", worst / 1e6);
+    }
+
+    /** Distinct made-up names, listed so that earlier ones are picked far more often. */
+    private static List<String> names(Random random, int count, int syllables) {
+        Set<String> names = new LinkedHashSet<>();
+        while (names.size() < count) {
+            StringBuilder sb = new StringBuilder();
+            int n = 1 + random.nextInt(syllables);
+            for (int i = 0; i < n; i++) sb.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+            names.add(sb.toString());
+        }
+        return new ArrayList<>(names);
+    }
+
+    /** Skewed towards the front of the list, roughly like real name frequencies. */
+    private static String pick(Random random, List<String> names) {
+        double u = random.nextDouble();
+        return names.get((int) (names.size() * u * u * u));
+    }
+
+    private static String misspell(String name) {
+        return name.length() < 3 ? name + "e" : name.substring(0, 1) + name.substring(2, 3) + name.substring(1, 2)
+            + name.substring(3);
+    }
+
+    private NameIndexTiming() {
+    }
+}
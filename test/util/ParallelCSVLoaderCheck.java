@@ -0,0 +1,102 @@
+package util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Self-check for {@link ParallelCSVLoader}: files large enough to be split
+ * into many chunks load to exactly the rows and offsets a single sequential
+ * {@link CSVTokenizer} pass gives, including quoted line breaks, escaped
+ * quotes, CRLF endings, multi-byte text and stray quotes in mid-field that
+ * the tokenizer keeps as text. The file can be replaced straight after a
+ * load. Exits with an AssertionError on the first mismatch.
+ *
+ * @author Shubhamkumar Prahladbhai Patel
+ */
+public final class ParallelCSVLoaderCheck {
+
+    public static void main(String[] args) throws IOException {
+        Random random = new Random(args.length > 0 ? Long.parseLong(args[0]) : 1);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        ParallelCSVLoader loader = new ParallelCSVLoader(pool);
+        Path dir = Files.createTempDirectory("hms-loader");
+        try {
+            Path file = dir.resolve("rows.csv");
+            for (int round = 0; round < 6; round++) {
+                boolean stray = round % 2 == 1;
+                int rows = round < 2 ? 20 : 150_000 + random.nextInt(50_000);
+                Files.write(file, csv(random, rows, stray, round >= 4).getBytes(StandardCharsets.UTF_8));
+                List<String> expected = sequential(file);
+                List<String> loaded = loader.load(file, ParallelCSVLoaderCheck::describe, true);
+                check(loaded.size() == expected.size(),
+                    "round " + round + ": " + loaded.size() + " rows, expected " + expected.size());
+                for (int i = 0; i < expected.size(); i++) {
+                    check(loaded.get(i).equals(expected.get(i)),
+                        "round " + round + ", row " + i + ": " + loaded.get(i) + " != " + expected.get(i));
+                }
+                Path replacement = dir.resolve("rows.tmp");
+                Files.write(replacement, "h\n".getBytes(StandardCharsets.UTF_8));
+                Files.move(replacement, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            check(loader.load(file, ParallelCSVLoaderCheck::describe).isEmpty(), "header-only file");
+        } finally {
+            pool.shutdown();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for (Path file : files) Files.delete(file);
+            }
+            Files.delete(dir);
+        }
+        System.out.println("ParallelCSVLoader: all checks passed");
+    }
+
+    /** Every field and the byte offset of a record, as one comparable string. */
+    private static String describe(CSVTokenizer row) {
+        StringBuilder sb = new StringBuilder().append(row.recordOffset());
+        for (int i = 0; i < row.fieldCount(); i++) sb.append('|').append(row.getString(i));
+        return sb.toString();
+    }
+
+    private static List<String> sequential(Path file) throws IOException {
+        List<String> rows = new ArrayList<>();
+        try (CSVTokenizer row = new CSVTokenizer(Files.newBufferedReader(file, StandardCharsets.UTF_8))) {
+            row.trackByteOffsets(0);
+            row.nextRecord();
+            while (row.nextRecord()) rows.add(describe(row));
+        }
+        return rows;
+    }
+
+    private static String csv(Random random, int rows, boolean stray, boolean crlf) {
+        String newline = crlf ? "\r\n" : "\n";
+        StringBuilder sb = new StringBuilder("id,name,notes,\"quoted\nheader\"").append(newline);
+        for (int r = 0; r < rows; r++) {
+            sb.append('R').append(r).append(',');
+            sb.append(random.nextBoolean() ? "Zo\u00eb" : "\"Smith, \"\"Jo\"\"\"").append(',');
+            int kind = random.nextInt(10);
+            if (kind < 3) {
+                sb.append("\"line one").append(newline).append("line, two\"");
+            } else if (stray && kind < 5) {
+                // A quote in mid-field is text to the tokenizer and opens nothing
+                sb.append("5' 11\" tall");
+            } else if (stray && kind == 5) {
+                sb.append("\"closed\" then text");
+            } else {
+                sb.append("plain ").append(random.nextInt(1000));
+            }
+            sb.append(",x").append(newline);
+        }
+        return sb.toString();
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    private ParallelCSVLoaderCheck() {
+    }
+}
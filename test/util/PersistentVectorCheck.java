@@ -0,0 +1,118 @@
+package util;
+
+import java.util.*;
+
+/**
+ * Self-check for {@link PersistentVector}: replays random appends and sets
+ * against an ArrayList, across the sizes where the trie grows a level
+ * (32, 1024 and 32768 elements), and checks that older versions never
+ * change. Exits with an AssertionError on the first mismatch.
+ *
+ * @author Shubhamkumar Prahladbhai Patel
+ */
+public final class PersistentVectorCheck {
+    private static final int[] EDGES = {0, 1, 31, 32, 33, 1023, 1024, 1025, 32767, 32768, 32769, 40000};
+
+    public static void main(String[] args) {
+        bulkBuild();
+        appendsAndSets(new Random(args.length > 0 ? Long.parseLong(args[0]) : 1));
+        oldVersionsUnchanged();
+        outOfRange();
+        System.out.println("PersistentVector: all checks passed");
+    }
+
+    /** of() must match appending one by one, and keep growing correctly after. */
+    private static void bulkBuild() {
+        for (int n : EDGES) {
+            List<Integer> expected = new ArrayList<>();
+            for (int i = 0; i < n; i++) expected.add(i % 7 == 0 ? null : i);
+            PersistentVector<Integer> v = PersistentVector.of(expected);
+            same("of(" + n + ")", expected, v);
+            for (int i = 0; i < 40; i++) {
+                v = v.append(-i);
+                expected.add(-i);
+            }
+            same("of(" + n + ") + 40 appends", expected, v);
+        }
+    }
+
+    private static void appendsAndSets(Random random) {
+        List<Integer> expected = new ArrayList<>();
+        PersistentVector<Integer> v = PersistentVector.empty();
+        int next = 0;
+        for (int edge : EDGES) {
+            while (expected.size() < edge) {
+                Integer value = random.nextInt(10) == 0 ? null : next++;
+                v = v.append(value);
+                expected.add(value);
+                if (random.nextInt(4) == 0) {
+                    int i = random.nextInt(expected.size());
+                    Integer replacement = random.nextInt(3) == 0 ? null : -next;
+                    v = v.set(i, replacement);
+                    expected.set(i, replacement);
+                }
+            }
+            same("random ops to " + edge, expected, v);
+        }
+    }
+
+    private static void oldVersionsUnchanged() {
+        List<PersistentVector<Integer>> versions = new ArrayList<>();
+        List<List<Integer>> contents = new ArrayList<>();
+        PersistentVector<Integer> v = PersistentVector.empty();
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 33000; i++) {
+            v = v.append(i);
+            expected.add(i);
+            if (i % 1000 == 0 || i == 1023 || i == 1024 || i == 32767 || i == 32768) {
+                versions.add(v);
+                contents.add(new ArrayList<>(expected));
+            }
+        }
+        // Overwrite everything; none of the earlier versions may notice
+        for (int i = 0; i < expected.size(); i++) {
+            v = v.set(i, null);
+        }
+        check(v.nullCount() == v.size(), "all nulls after overwrite");
+        for (int i = 0; i < versions.size(); i++) {
+            same("version " + i, contents.get(i), versions.get(i));
+        }
+    }
+
+    private static void outOfRange() {
+        PersistentVector<String> v = PersistentVector.<String>empty().append("a");
+        for (int i : new int[]{-1, 1}) {
+            try {
+                v.get(i);
+                throw new AssertionError("get(" + i + ") should fail");
+            } catch (IndexOutOfBoundsException expected) {
+                // as it should
+            }
+        }
+    }
+
+    private static void same(String what, List<Integer> expected, PersistentVector<Integer> v) {
+        check(v.size() == expected.size(), what + ": size " + v.size() + ", expected " + expected.size());
+        int nulls = 0;
+        for (int i = 0; i < expected.size(); i++) {
+            check(Objects.equals(v.get(i), expected.get(i)), what + ": element " + i);
+            if (expected.get(i) == null) nulls++;
+        }
+        check(v.nullCount() == nulls, what + ": null count " + v.nullCount() + ", expected " + nulls);
+        int i = 0;
+        for (Integer value : v) {
+            check(Objects.equals(value, expected.get(i)), what + ": iterated element " + i);
+            i++;
+        }
+        check(i == expected.size(), what + ": iterated " + i + " elements");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    private PersistentVectorCheck() {
+    }
+}
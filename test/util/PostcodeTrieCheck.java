@@ -0,0 +1,140 @@
+package util;
+
+import java.lang.reflect.Field;
+import java.util.*;
+
+/**
+ * Self-check for {@link PostcodeTrie}: postcodes and query prefixes
+ * normalise as documented, district and sector queries find exactly the
+ * right documents in postcode order, and a trie put through random adds,
+ * moves and removals answers like a plain list and keeps no node that no
+ * document needs. Exits with an AssertionError on the first mismatch.
+ *
+ * @author Shubhamkumar Prahladbhai Patel
+ */
+public final class PostcodeTrieCheck {
+    private static final String[] AREAS = {"B", "B1", "B9", "B91", "SW1A", "M", "NE10", "W1"};
+
+    public static void main(String[] args) throws Exception {
+        normalising();
+        queries();
+        churn(new Random(args.length > 0 ? Long.parseLong(args[0]) : 1));
+        System.out.println("PostcodeTrie: all checks passed");
+    }
+
+    private static void normalising() {
+        check(PostcodeTrie.normalise("b912aa").equals("B91 2AA"), "normalise b912aa");
+        check(PostcodeTrie.normalise(" sw1a  1aa ").equals("SW1A 1AA"), "normalise sw1a 1aa");
+        check(PostcodeTrie.normalise("B1").equals("B1") && PostcodeTrie.normalise("-").isEmpty(), "normalise short");
+        check(PostcodeTrie.normalisePrefix("b1 ").equals("B1 "), "district prefix");
+        check(PostcodeTrie.normalisePrefix("  B91   2").equals("B91 2"), "sector prefix");
+        check(PostcodeTrie.normalisePrefix("B912AA").equals("B91 2AA"), "whole postcode without its space");
+        check(PostcodeTrie.normalisePrefix("B91 2 A A").equals("B91 2AA"), "spaces inside the inward code");
+        check(PostcodeTrie.normalisePrefix(null).isEmpty() && PostcodeTrie.normalisePrefix("   ").isEmpty(), "blank prefix");
+    }
+
+    private static void queries() throws Exception {
+        PostcodeTrie trie = new PostcodeTrie();
+        trie.put("a", Arrays.asList("B1 1AA"));
+        trie.put("b", Arrays.asList("b10 1ab"));
+        trie.put("c", Arrays.asList("", null, "B1 2AA")); // first non-blank field
+        trie.put("d", Arrays.asList("B91 2AA"));
+        trie.put("e", Arrays.asList("B1 1AA"));
+        trie.put("f", Arrays.asList(" ", ""));
+        check(trie.postcodeOf("f") == null && trie.count("") == 5, "blank postcode indexed");
+        check(trie.search("B1 ", 10).equals(Arrays.asList("a", "e", "c")), "district B1: " + trie.search("B1 ", 10));
+        check(trie.search("B1", 10).equals(Arrays.asList("a", "e", "c", "b")), "B1 and B10: " + trie.search("B1", 10));
+        check(trie.search("b11aa", 10).equals(Arrays.asList("a", "e")), "whole postcode");
+        check(trie.search("B1", 2).equals(Arrays.asList("a", "e")) && trie.search("B1", 0).isEmpty(), "limit");
+        check(trie.count("B9") == 1 && trie.count("B1 1") == 2 && trie.count("X") == 0, "counts");
+
+        // Moving to another postcode takes the document out of its old branch
+        trie.put("d", Arrays.asList("M1 1AA"));
+        check(trie.search("B9", 10).isEmpty() && trie.search("M", 10).equals(Arrays.asList("d")), "move");
+        check(trie.remove("a") && !trie.remove("a") && !trie.remove("f"), "remove");
+        check(trie.search("B1 1AA", 10).equals(Arrays.asList("e")), "shared postcode after remove");
+        for (String id : new String[] {"b", "c", "d", "e"}) trie.remove(id);
+        check(trie.count("") == 0 && trie.search("", 10).isEmpty() && nodes(trie) == 1, "empty trie keeps " + nodes(trie) + " nodes");
+        trie.put("g", Arrays.asList("W1 1AA"));
+        trie.clear();
+        check(trie.count("") == 0 && trie.postcodeOf("g") == null && nodes(trie) == 1, "clear");
+    }
+
+    /**
+     * Random puts, moves and removals, compared with a plain map of
+     * postcodes every thousand steps.
+     */
+    private static void churn(Random random) throws Exception {
+        PostcodeTrie trie = new PostcodeTrie();
+        Map<String, String> postcodes = new HashMap<>();
+        for (int step = 0; step < 30_000; step++) {
+            String id = "D" + random.nextInt(3000);
+            if (random.nextInt(3) == 0) {
+                check(trie.remove(id) == (postcodes.remove(id) != null), "remove " + id);
+            } else {
+                String postcode = AREAS[random.nextInt(AREAS.length)] + random.nextInt(3) + " "
+                    + random.nextInt(10) + (char) ('A' + random.nextInt(3)) + (char) ('A' + random.nextInt(3));
+                trie.put(id, Collections.singletonList(postcode.toLowerCase()));
+                postcodes.put(id, PostcodeTrie.normalise(postcode));
+            }
+            if (step % 1000 == 0) compare(trie, postcodes, random);
+        }
+        compare(trie, postcodes, random);
+        int expected = 1 + distinctPrefixes(postcodes.values());
+        check(nodes(trie) == expected, nodes(trie) + " nodes for " + expected + " prefixes in use");
+        for (String id : new ArrayList<>(postcodes.keySet())) trie.remove(id);
+        check(nodes(trie) == 1, "every branch removed, " + nodes(trie) + " nodes left");
+    }
+
+    private static void compare(PostcodeTrie trie, Map<String, String> postcodes, Random random) {
+        check(trie.count("") == postcodes.size(), "total count");
+        for (int q = 0; q < 20; q++) {
+            String any = new ArrayList<>(postcodes.values()).get(random.nextInt(postcodes.size()));
+            String prefix = any.substring(0, 1 + random.nextInt(any.length()));
+            List<String> found = trie.search(prefix, Integer.MAX_VALUE);
+            List<String> expected = new ArrayList<>();
+            for (Map.Entry<String, String> e : postcodes.entrySet()) {
+                if (e.getValue().startsWith(prefix)) expected.add(e.getKey());
+            }
+            check(found.size() == expected.size() && new HashSet<>(found).equals(new HashSet<>(expected)),
+                prefix + ": " + found.size() + " found, " + expected.size() + " expected");
+            check(trie.count(prefix) == expected.size(), "count " + prefix);
+            for (int i = 1; i < found.size(); i++) {
+                check(postcodes.get(found.get(i - 1)).compareTo(postcodes.get(found.get(i))) <= 0,
+                    prefix + ": not in postcode order");
+            }
+        }
+    }
+
+    private static int distinctPrefixes(Collection<String> postcodes) {
+        Set<String> prefixes = new HashSet<>();
+        for (String p : postcodes) {
+            for (int i = 1; i <= p.length(); i++) prefixes.add(p.substring(0, i));
+        }
+        return prefixes.size();
+    }
+
+    /** Nodes in the trie, root included, read from its private structure. */
+    private static int nodes(PostcodeTrie trie) throws Exception {
+        Field root = PostcodeTrie.class.getDeclaredField("root");
+        root.setAccessible(true);
+        return nodes(root.get(trie));
+    }
+
+    private static int nodes(Object node) throws Exception {
+        Field children = node.getClass().getDeclaredField("children");
+        children.setAccessible(true);
+        int count = 1;
+        for (Object child : (Object[]) children.get(node)) count += nodes(child);
+        return count;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    private PostcodeTrieCheck() {
+    }
+}
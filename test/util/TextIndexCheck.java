@@ -0,0 +1,164 @@
+package util;
+
+import java.util.*;
+
+/**
+ * Self-check for {@link TextIndex}: the stemmer, including words the
+ * plural strip leaves very short, then random documents put, replaced and
+ * removed well past the compaction threshold, with every search compared
+ * against a brute-force scan. Exits with an AssertionError on the first
+ * mismatch.
+ *
+ * @author Shubhamkumar Prahladbhai Patel
+ */
+public final class TextIndexCheck {
+    private static final String[] VOCABULARY = {
+        "headache", "headaches", "patient", "patients", "review", "reviewed", "reviewing", "mri", "scan",
+        "scans", "chest", "pain", "sses", "ies", "ing", "bed", "is", "as", "s", "2024", "morning", "x"
+    };
+
+    public static void main(String[] args) {
+        stems();
+        shortWords();
+        ranking();
+        randomDocuments(new Random(args.length > 0 ? Long.parseLong(args[0]) : 1));
+        System.out.println("TextIndex: all checks passed");
+    }
+
+    private static void stems() {
+        sameStem("headache", "headaches");
+        sameStem("review", "reviewed", "reviewing", "reviews");
+        sameStem("stop", "stopped", "stopping");
+        sameStem("allergy", "allergies");
+        sameStem("class", "classes");
+        sameStem("fall", "falling");
+        check(TextIndex.stem("press").equals("press"), "press keeps its double s");
+    }
+
+    /**
+     * Short words, and words the plural strip leaves short, must stem to a
+     * prefix of themselves and be searchable.
+     */
+    private static void shortWords() {
+        for (String word : new String[] {"", "s", "ss", "sss", "sses", "ies", "ing", "ed", "ly", "led",
+                                         "bed", "sing", "ssing", "ssesed", "2024", "a1"}) {
+            String stem = TextIndex.stem(word);
+            check(word.startsWith(stem), "stem of \"" + word + "\" is \"" + stem + "\"");
+        }
+        TextIndex index = new TextIndex();
+        index.put("R1", Arrays.asList("patient sses review"));
+        index.put("R2", Arrays.asList("ssing ssed ssly"));
+        check(index.search("sses", 10).equals(Arrays.asList("R1")), "search for sses");
+        check(index.search("ssing", 10).equals(Arrays.asList("R2")), "search for ssing");
+        index.put("R1", Arrays.asList("sses again"));
+        check(index.search("patient", 10).isEmpty(), "reindexed R1 still found by its old text");
+    }
+
+    private static void ranking() {
+        TextIndex index = new TextIndex();
+        index.put("once", Arrays.asList("headache after a long day at work with colleagues"));
+        index.put("twice", Arrays.asList("headache and another headache"));
+        index.put("none", Arrays.asList("knee pain"));
+        check(index.search("headaches", 10).equals(Arrays.asList("twice", "once")), "ranked by term frequency");
+        check(index.search("headache", 1).equals(Arrays.asList("twice")), "limit keeps the best");
+        check(index.search("\"another headache\"", 10).equals(Arrays.asList("twice")), "phrase");
+        check(index.search("\"headache another\"", 10).isEmpty(), "phrase words out of order");
+        index.put("fields", Arrays.asList("long headache", "another day"));
+        check(!index.search("\"headache another\"", 10).contains("fields"), "phrase across fields");
+        check(index.search("", 10).isEmpty() && index.search(null, 10).isEmpty(), "empty query");
+    }
+
+    private static void randomDocuments(Random random) {
+        TextIndex index = new TextIndex();
+        Map<String, List<String>> documents = new HashMap<>();
+        List<String> ids = new ArrayList<>();
+        for (int step = 0; step < 12000; step++) {
+            int action = random.nextInt(10);
+            if (action < 6 || documents.isEmpty()) {
+                String id = "D" + random.nextInt(3000);
+                List<String> fields = Arrays.asList(sentence(random), random.nextBoolean() ? sentence(random) : null);
+                index.put(id, fields);
+                if (documents.put(id, fields) == null) ids.add(id);
+            } else {
+                String id = ids.remove(random.nextInt(ids.size()));
+                check(index.remove(id), "remove " + id);
+                documents.remove(id);
+            }
+            if (step % 400 == 0 || step > 11900) {
+                check(index.size() == documents.size(), "size " + index.size() + ", expected " + documents.size());
+                String word = VOCABULARY[random.nextInt(VOCABULARY.length)];
+                String other = VOCABULARY[random.nextInt(VOCABULARY.length)];
+                query(index, documents, word);
+                query(index, documents, word + " " + other);
+                query(index, documents, "\"" + word + " " + other + "\"");
+            }
+        }
+        // Drop most of them so compaction runs, then check again
+        while (documents.size() > 100) {
+            String id = ids.remove(ids.size() - 1);
+            index.remove(id);
+            documents.remove(id);
+        }
+        for (String word : VOCABULARY) {
+            query(index, documents, word);
+            query(index, documents, "\"" + word + " " + VOCABULARY[random.nextInt(VOCABULARY.length)] + "\"");
+        }
+    }
+
+    private static void query(TextIndex index, Map<String, List<String>> documents, String query) {
+        Set<String> expected = new HashSet<>();
+        for (Map.Entry<String, List<String>> e : documents.entrySet()) {
+            if (matches(e.getValue(), query)) expected.add(e.getKey());
+        }
+        List<String> found = index.search(query, Integer.MAX_VALUE);
+        check(found.size() == new HashSet<>(found).size(), query + ": duplicate results");
+        check(new HashSet<>(found).equals(expected), query + ": found " + found.size() + ", expected " + expected.size());
+    }
+
+    /** Brute force: any query word, or the whole phrase within one field. */
+    private static boolean matches(List<String> fields, String query) {
+        boolean phrase = query.startsWith("\"");
+        List<String> words = stems(query);
+        for (String field : fields) {
+            if (field == null) continue;
+            List<String> text = stems(field);
+            if (phrase ? Collections.indexOfSubList(text, words) >= 0 : !Collections.disjoint(text, words)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<String> stems(String text) {
+        List<String> stems = new ArrayList<>();
+        for (String word : TextIndex.tokenize(text)) stems.add(TextIndex.stem(word));
+        return stems;
+    }
+
+    private static String sentence(Random random) {
+        StringBuilder sb = new StringBuilder();
+        int words = 1 + random.nextInt(8);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) sb.append(random.nextInt(5) == 0 ? ", " : " ");
+            String word = VOCABULARY[random.nextInt(VOCABULARY.length)];
+            sb.append(random.nextInt(6) == 0 ? word.toUpperCase(Locale.ROOT) : word);
+        }
+        return sb.toString();
+    }
+
+    private static void sameStem(String... words) {
+        for (String word : words) {
+            check(TextIndex.stem(word).equals(TextIndex.stem(words[0])),
+                word + " stems to " + TextIndex.stem(word) + ", " + words[0] + " to " + TextIndex.stem(words[0]));
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    private TextIndexCheck() {
+    }
+}
@@ -0,0 +1,92 @@
+package util;
+
+import java.util.*;
+
+/**
+ * Timing harness for {@link TextIndex}: indexes synthetic referrals with a
+ * reason, clinical summary, requested investigations and notes drawn from
+ * a skewed clinical vocabulary, then times warm searches, from one rare
+ * word to common words and quoted phrases, and prints the median and worst
+ * time per query. Not a pass/fail check, since timings depend on the
+ * machine.
+ * <pre>
+ *   java -Xmx2g -cp bin util.TextIndexTiming [referrals] [seed]
+ * </pre>
+ *
+ * @author Shubhamkumar Prahladbhai Patel
+ */
+public final class TextIndexTiming {
+    private static final String[] COMMON = {"patient", "pain", "review", "history", "referred", "symptoms",
+        "weeks", "chest", "headache", "blood", "pressure", "follow", "up", "assessment", "urgent",
+        "reports", "worsening", "left", "right", "scan", "mri", "ct", "ecg", "results", "normal"};
+    private static final String[] SYLLABLES = {"ab", "cor", "dia", "en", "fib", "gas", "hep", "ile", "lym",
+        "mel", "neu", "oste", "pan", "ren", "sar", "thy", "ur", "vas"};
+    private static final int RUNS = 25;
+
+    public static void main(String[] args) {
+        int referrals = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        Random random = new Random(args.length > 1 ? Long.parseLong(args[1]) : 1);
+        List<String> vocabulary = new ArrayList<>(Arrays.asList(COMMON));
+        vocabulary.addAll(terms(random, 20_000));
+
+        TextIndex index = new TextIndex();
+        long start = System.nanoTime();
+        for (int i = 0; i < referrals; i++) {
+            index.put("R" + i, Arrays.asList(text(random, vocabulary, 6), text(random, vocabulary, 40),
+                text(random, vocabulary, 4), text(random, vocabulary, 25)));
+        }
+        System.out.printf("Indexed %d referrals in %d ms%n", referrals, (System.nanoTime() - start) / 1_000_000);
+
+        String rare = vocabulary.get(vocabulary.size() - 1);
+        String middling = vocabulary.get(COMMON.length + 50);
+        String[] queries = {
+            rare, middling, "headache", "chest pain", "patient review", "\"chest pain\"",
+            "\"follow up\" mri", "blood pressure worsening headache", middling + " " + rare,
+            "patients reviewed", "zzzzqqqq"
+        };
+        for (int warm = 0; warm < 3; warm++) {
+            for (String query : queries) index.search(query, 20);
+        }
+        long worst = 0;
+        for (String query : queries) {
+            long[] times = new long[RUNS];
+            int found = 0;
+            for (int run = 0; run < RUNS; run++) {
+                long t = System.nanoTime();
+                found = index.search(query, 20).size();
+                times[run] = System.nanoTime() - t;
+            }
+            Arrays.sort(times);
+            worst = Math.max(worst, times[RUNS - 1]);
+            System.out.printf("%-40s %3d results  median %7.2f ms  max %7.2f ms%n",
+                '"' + query + '"', found, times[RUNS / 2] / 1e6, times[RUNS - 1] / 1e6);
+        }
+        System.out.printf("Worst single search: %.2f ms%n", worst / 1e6);
+    }
+
+    /** Distinct made-up clinical terms. */
+    private static List<String> terms(Random random, int count) {
+        Set<String> terms = new LinkedHashSet<>();
+        while (terms.size() < count) {
+            StringBuilder sb = new StringBuilder();
+            int n = 2 + random.nextInt(4);
+            for (int i = 0; i < n; i++) sb.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+            terms.add(sb.toString());
+        }
+        return new ArrayList<>(terms);
+    }
+
+    /** Words skewed towards the front of the vocabulary, roughly like real text. */
+    private static String text(Random random, List<String> vocabulary, int words) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            double u = random.nextDouble();
+            if (i > 0) sb.append(' ');
+            sb.append(vocabulary.get((int) (vocabulary.size() * u * u * u)));
+        }
+        return sb.toString();
+    }
+
+    private TextIndexTiming() {
+    }
+}